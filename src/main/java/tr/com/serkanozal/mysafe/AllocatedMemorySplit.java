@@ -0,0 +1,43 @@
+/*
+ * Copyright (c) 2017, Serkan OZAL, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tr.com.serkanozal.mysafe;
+
+/**
+ * Contract point for a part of allocated memories 
+ * which can be iterated independently from the other parts.
+ * So different splits can be iterated by different threads in parallel.
+ * 
+ * @author Serkan OZAL
+ */
+public interface AllocatedMemorySplit {
+
+    /**
+     * Splits some of the allocated memories covered by this split into a new split.
+     * Allocated memories covered by the returned split are not covered by this split anymore.
+     * 
+     * @return the new split if this split can be split, otherwise <code>null</code>
+     */
+    AllocatedMemorySplit trySplit();
+    
+    /**
+     * Iterates on the allocated memories covered by this split.
+     * 
+     * @param iterator the {@link AllocatedMemoryIterator} instance to be notified 
+     *                 for each allocated memory while iterating
+     */
+    void iterate(AllocatedMemoryIterator iterator);
+    
+}
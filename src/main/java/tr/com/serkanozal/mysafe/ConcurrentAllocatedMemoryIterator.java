@@ -0,0 +1,29 @@
+/*
+ * Copyright (c) 2017, Serkan OZAL, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tr.com.serkanozal.mysafe;
+
+/**
+ * Marker for {@link AllocatedMemoryIterator} implementations 
+ * which can be notified by multiple threads concurrently.
+ * Allocated memories are iterated in parallel 
+ * when this type of iterator is given to 
+ * {@link MySafe#iterateOnAllocatedMemories(AllocatedMemoryIterator)}.
+ * 
+ * @author Serkan OZAL
+ */
+public interface ConcurrentAllocatedMemoryIterator extends AllocatedMemoryIterator {
+
+}
@@ -56,7 +56,13 @@ public interface IllegalMemoryAccessListener {
         /**
          * Represents the memory access to reallocate it
          */
-        REALLOCATE
+        REALLOCATE,
+        
+        /**
+         * Represents the memory access out of the bounds of an allocated memory to write data 
+         * which is detected afterwards by its corrupted red zones
+         */
+        OUT_OF_BOUNDS_WRITE
         
     }
     
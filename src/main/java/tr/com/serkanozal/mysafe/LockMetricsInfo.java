@@ -0,0 +1,87 @@
+/*
+ * Copyright (c) 2017, Serkan OZAL, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tr.com.serkanozal.mysafe;
+
+import java.io.Serializable;
+
+/**
+ * Holds contention metrics of a lock (or a side of a lock). 
+ * Histograms have power of two buckets where bucket <code>0</code> counts the <code>0</code> values 
+ * and bucket <code>i</code> counts the values in <code>[2^(i-1), 2^i)</code>.
+ * 
+ * @author Serkan OZAL
+ */
+@SuppressWarnings("serial")
+public class LockMetricsInfo implements Serializable {
+
+    private final String name;
+    private final long[] spinCountHistogram;
+    private final long[] waitTimeHistogram;
+    private final long[] holdTimeHistogram;
+
+    public LockMetricsInfo(String name, long[] spinCountHistogram, 
+                           long[] waitTimeHistogram, long[] holdTimeHistogram) {
+        this.name = name;
+        this.spinCountHistogram = spinCountHistogram;
+        this.waitTimeHistogram = waitTimeHistogram;
+        this.holdTimeHistogram = holdTimeHistogram;
+    }
+    
+    public String getName() {
+        return name;
+    }
+    
+    /**
+     * Gets the histogram of the failed attempts (spins) per acquisition.
+     * 
+     * @return the histogram of the failed attempts per acquisition
+     */
+    public long[] getSpinCountHistogram() {
+        return spinCountHistogram;
+    }
+    
+    /**
+     * Gets the histogram of the waiting times (in nanoseconds) per acquisition.
+     * 
+     * @return the histogram of the waiting times (in nanoseconds) per acquisition
+     */
+    public long[] getWaitTimeHistogram() {
+        return waitTimeHistogram;
+    }
+    
+    /**
+     * Gets the histogram of the holding times (in nanoseconds) per acquisition.
+     * 
+     * @return the histogram of the holding times (in nanoseconds) per acquisition
+     */
+    public long[] getHoldTimeHistogram() {
+        return holdTimeHistogram;
+    }
+    
+    public long getAcquireCount() {
+        long acquireCount = 0;
+        for (long count : spinCountHistogram) {
+            acquireCount += count;
+        }
+        return acquireCount;
+    }
+
+    @Override
+    public String toString() {
+        return "LockMetricsInfo [name=" + name + ", acquireCount=" + getAcquireCount() + "]";
+    }
+
+}
@@ -18,6 +18,7 @@ package tr.com.serkanozal.mysafe;
 import java.io.PrintStream;
 import java.lang.management.ManagementFactory;
 import java.lang.reflect.Field;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.management.MBeanServer;
@@ -138,6 +139,42 @@ public final class MySafe {
         return MySafeDelegator.getAllocatedMemorySize();
     }
     
+    /**
+     * Gets the allocated memory sizes in bytes currently owned by each (alive) thread. 
+     * Owned memory size of a thread is the size of the memories allocated by it 
+     * minus the size of the memories freed by it, so the memories freed by another thread 
+     * are considered to be owned by the freeing thread.
+     * 
+     * @return the allocated memory sizes in bytes currently owned by each thread 
+     *         as array of {@link ThreadAllocatedMemoryInfo}
+     */
+    public static ThreadAllocatedMemoryInfo[] getThreadAllocatedMemories() {
+        return MySafeDelegator.getThreadAllocatedMemories();
+    }
+    
+    /**
+     * Gets the native memory size in bytes allocated by MySafe itself 
+     * (such as native memory backed storages) but not by the application.
+     * 
+     * @return the native memory size in bytes allocated by MySafe itself
+     */
+    public static long getInternalAllocatedMemorySize() {
+        return MySafeDelegator.getInternalAllocatedMemorySize();
+    }
+    
+    /**
+     * Gets the contention metrics of the access and free sides of the memory access lock 
+     * enabled by <code>mysafe.enableConcurrentMemoryAccessCheck</code> system property. 
+     * Metrics are recorded only if they are enabled by <code>mysafe.enableMemoryAccessLockMetrics</code> 
+     * system property.
+     * 
+     * @return the contention metrics of the memory access lock as array of {@link LockMetricsInfo} 
+     *         (empty if there is no memory access lock or its metrics are not enabled)
+     */
+    public static LockMetricsInfo[] getMemoryAccessLockMetrics() {
+        return MySafeDelegator.getMemoryAccessLockMetrics();
+    }
+    
     /**
      * Gets the {@link MySafeMXBean} instance exported to JMX.
      * 
@@ -191,6 +228,8 @@ public final class MySafe {
 
     /**
      * Iterates on all allocated memories.
+     * If the given iterator is a {@link ConcurrentAllocatedMemoryIterator}, 
+     * allocated memories are iterated in parallel and the iterator is notified concurrently.
      * 
      * @param iterator the {@link AllocatedMemoryIterator} instance to be notified 
      *                 for each allocated memory while iterating
@@ -233,6 +272,56 @@ public final class MySafe {
         MySafeDelegator.dumpAllocationPaths(ps);
     }
     
+    /**
+     * Iterates on the allocated memories which have been alive at least for the given time.
+     * Requires allocation age tracking to be enabled by <code>mysafe.enableAllocationAgeTracking</code> 
+     * system property. Ages are tracked in coarse epochs, so allocated memories which have just 
+     * become old enough might not be reported yet.
+     * 
+     * @param age       the minimum age of the allocated memories to be iterated
+     * @param unit      the {@link TimeUnit} of the age
+     * @param iterator  the {@link AllocatedMemoryIterator} instance to be notified 
+     *                  for each allocated memory while iterating
+     */
+    public static void iterateOnAllocatedMemoriesOlderThan(long age, TimeUnit unit, AllocatedMemoryIterator iterator) {
+        MySafeDelegator.iterateOnAllocatedMemoriesOlderThan(unit.toMillis(age), iterator);
+    }
+    
+    /**
+     * Dumps the allocation paths, with informations of the allocated memories 
+     * which have been alive at least for the given time through them, to console (standard output).
+     * 
+     * @param age   the minimum age of the allocated memories to be dumped
+     * @param unit  the {@link TimeUnit} of the age
+     */
+    public static void dumpAllocationPathsOlderThan(long age, TimeUnit unit) {
+        dumpAllocationPathsOlderThan(age, unit, System.out);
+    }
+    
+    /**
+     * Dumps the allocation paths, with informations of the allocated memories 
+     * which have been alive at least for the given time through them, to given {@link PrintStream}.
+     * Requires allocation age tracking to be enabled by <code>mysafe.enableAllocationAgeTracking</code> 
+     * system property.
+     * 
+     * @param age   the minimum age of the allocated memories to be dumped
+     * @param unit  the {@link TimeUnit} of the age
+     * @param ps    the {@link PrintStream} instance to dump allocation paths
+     */
+    public static void dumpAllocationPathsOlderThan(long age, TimeUnit unit, PrintStream ps) {
+        MySafeDelegator.dumpAllocationPathsOlderThan(unit.toMillis(age), ps);
+    }
+    
+    /**
+     * Checks the red zones of all the allocated memories and reports the detected 
+     * out of bounds writes to the {@link IllegalMemoryAccessListener} (if there is).
+     * Requires red zone mode to be enabled by <code>mysafe.enableRedZoneMode</code> 
+     * system property.
+     */
+    public static void checkRedZones() {
+        MySafeDelegator.checkRedZones();
+    }
+    
     /**
      * Generates allocation path diagram into default (<code>mysafe-allocation-path.png</code>) file.
      */
@@ -32,6 +32,32 @@ public interface MySafeMXBean {
      */
     long getAllocatedMemorySize();
     
+    /**
+     * Gets the allocated memory sizes in bytes currently owned by each thread 
+     * as array of {@link ThreadAllocatedMemoryInfo}.
+     * 
+     * @return the allocated memory sizes in bytes currently owned by each thread 
+     *         as array of {@link ThreadAllocatedMemoryInfo}
+     */
+    ThreadAllocatedMemoryInfo[] getThreadAllocatedMemories();
+    
+    /**
+     * Gets the native memory size in bytes allocated by MySafe itself 
+     * (such as native memory backed storages) but not by the application.
+     * 
+     * @return the native memory size in bytes allocated by MySafe itself
+     */
+    long getInternalAllocatedMemorySize();
+    
+    /**
+     * Gets the contention metrics (spin count, wait time and hold time histograms) 
+     * of the access and free sides of the memory access lock 
+     * as array of {@link LockMetricsInfo}.
+     * 
+     * @return the contention metrics of the memory access lock as array of {@link LockMetricsInfo}
+     */
+    LockMetricsInfo[] getMemoryAccessLockMetrics();
+    
     /**
      * Returns the allocated memory addresses and size as array of {@link AllocatedMemoryInfo}.
      * 
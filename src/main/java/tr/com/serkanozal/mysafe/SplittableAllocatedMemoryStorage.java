@@ -0,0 +1,33 @@
+/*
+ * Copyright (c) 2017, Serkan OZAL, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tr.com.serkanozal.mysafe;
+
+/**
+ * Contract point for {@link AllocatedMemoryStorage} implementations
+ * whose allocated memories can be iterated in parallel.
+ * 
+ * @author Serkan OZAL
+ */
+public interface SplittableAllocatedMemoryStorage extends AllocatedMemoryStorage {
+
+    /**
+     * Creates a split which covers all the allocated memories in this storage.
+     * 
+     * @return the {@link AllocatedMemorySplit} covering all the allocated memories
+     */
+    AllocatedMemorySplit split();
+    
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright (c) 2017, Serkan OZAL, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tr.com.serkanozal.mysafe;
+
+import java.io.Serializable;
+
+/**
+ * Holds the native memory size in bytes currently owned by a thread.
+ * 
+ * @author Serkan OZAL
+ */
+@SuppressWarnings("serial")
+public class ThreadAllocatedMemoryInfo implements Serializable {
+
+    private final long threadId;
+    private final String threadName;
+    private final long allocatedMemorySize;
+
+    public ThreadAllocatedMemoryInfo(long threadId, String threadName, long allocatedMemorySize) {
+        this.threadId = threadId;
+        this.threadName = threadName;
+        this.allocatedMemorySize = allocatedMemorySize;
+    }
+    
+    public long getThreadId() {
+        return threadId;
+    }
+    
+    public String getThreadName() {
+        return threadName;
+    }
+    
+    /**
+     * Gets the size of the memories allocated (or reallocated) by the thread 
+     * minus the size of the memories freed (or reallocated) by the thread. 
+     * Memories freed by another thread are considered to be owned by the freeing thread, 
+     * so it might be negative for the threads freeing the memories allocated by other threads.
+     * 
+     * @return the native memory size in bytes currently owned by the thread
+     */
+    public long getAllocatedMemorySize() {
+        return allocatedMemorySize;
+    }
+
+    @Override
+    public String toString() {
+        return "ThreadAllocatedMemoryInfo [threadId=" + threadId + ", threadName=" + threadName + 
+               ", allocatedMemorySize=" + allocatedMemorySize + "]";
+    }
+
+}
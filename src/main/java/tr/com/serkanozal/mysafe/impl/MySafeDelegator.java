@@ -25,24 +25,43 @@ import tr.com.serkanozal.mysafe.impl.allocpath.AllocationPathAllocatedMemory;
 import tr.com.serkanozal.mysafe.impl.allocpath.manager.AllocationPathManager;
 import tr.com.serkanozal.mysafe.impl.allocpath.manager.instrument.InstrumentationBasedAllocationPathManager;
 import tr.com.serkanozal.mysafe.impl.allocpath.storage.AllocationPathStorage;
-import tr.com.serkanozal.mysafe.impl.allocpath.storage.DefaultAllocationPathStorage;
+import tr.com.serkanozal.mysafe.impl.allocpath.storage.OffHeapAllocationPathStorage;
 import tr.com.serkanozal.mysafe.impl.allocpath.storage.ThreadLocalAwareAllocationPathStorage;
+import tr.com.serkanozal.mysafe.impl.allocpath.storage.StripedAllocationPathStorage;
 import tr.com.serkanozal.mysafe.impl.allocpath.storage.ThreadLocalDefaultAllocationPathStorage;
 import tr.com.serkanozal.mysafe.impl.storage.*;
+import tr.com.serkanozal.mysafe.impl.util.Compactable;
+import tr.com.serkanozal.mysafe.impl.util.ConcurrentCountingBloomFilter;
+import tr.com.serkanozal.mysafe.impl.util.EpochBasedMemoryReclaimer;
 import tr.com.serkanozal.mysafe.impl.util.HeapMemoryBackedLong2LongHashMap;
+import tr.com.serkanozal.mysafe.impl.util.InternalNativeMemoryAllocator;
+import tr.com.serkanozal.mysafe.impl.util.LockMetrics;
 import tr.com.serkanozal.mysafe.impl.util.Long2LongMap;
 import tr.com.serkanozal.mysafe.impl.util.Long2LongMap.LongLongCursor;
+import tr.com.serkanozal.mysafe.impl.util.MemoryQuarantine;
+import tr.com.serkanozal.mysafe.impl.util.MemoryQuarantine.QuarantinedMemory;
+import tr.com.serkanozal.mysafe.impl.util.MemoryRegionCache;
+import tr.com.serkanozal.mysafe.impl.util.RecentlyFreedAddressFilter;
+import tr.com.serkanozal.mysafe.impl.util.RedZones;
+import tr.com.serkanozal.mysafe.impl.util.StripedFreeEpoch;
+import tr.com.serkanozal.mysafe.impl.util.ThreadLocalAllocatedMemoryCounter;
+import tr.com.serkanozal.mysafe.impl.util.ThreadLocalSampler;
+import tr.com.serkanozal.mysafe.impl.util.WaitStrategy;
 
 import java.io.PrintStream;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ThreadFactory;
-import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
 
 import static tr.com.serkanozal.mysafe.AllocatedMemoryStorage.INVALID;
 import static tr.com.serkanozal.mysafe.IllegalMemoryAccessListener.MemoryAccessType.*;
@@ -52,15 +71,21 @@ public final class MySafeDelegator {
     private static final Logger LOGGER = Logger.getLogger(MySafeDelegator.class);
 
     private static final AllocatedMemoryStorage ALLOCATED_MEMORY_STORAGE;
+    private static final GenerationalAllocatedMemoryStorage GENERATIONAL_ALLOCATED_MEMORY_STORAGE;
     private static volatile IllegalMemoryAccessListener ILLEGAL_MEMORY_ACCESS_LISTENER;
     private static final Unsafe DEFAULT_UNSAFE;
     private static final UnsafeMemoryAccessor UNSAFE_MEMORY_ACCESSOR;
     private static final MemoryAccessLock MEMORY_ACCESS_LOCK;
+    private static final EpochBasedMemoryReclaimer EPOCH_BASED_MEMORY_RECLAIMER;
+    private static final long EPOCH_BASED_RECLAMATION_PERIOD_IN_MILLIS = 
+            Long.getLong("mysafe.epochBasedReclamationPeriodInMillis", 1000);
     private static Set<MemoryListener> LISTENERS = 
             Collections.newSetFromMap(new ConcurrentHashMap<MemoryListener, Boolean>());
     private static final AllocationPathStorage ALLOCATION_PATH_STORAGE;
+    private static final AllocationRecordStorage ALLOCATION_RECORD_STORAGE;
     private static final AllocationPathManager ALLOCATION_PATH_MANAGER;
-    private static final AtomicLong ALLOCATED_MEMORY = new AtomicLong(0L);
+    // Split into per-thread cells, so allocations/frees on different threads don't contend
+    private static final ThreadLocalAllocatedMemoryCounter ALLOCATED_MEMORY = new ThreadLocalAllocatedMemoryCounter();
     private static final int OBJECT_REFERENCE_SIZE;
     private static final ScheduledExecutorService SCHEDULER = 
             Executors.newScheduledThreadPool(1, new ThreadFactory() {
@@ -80,6 +105,70 @@ public final class MySafeDelegator {
             Boolean.getBoolean("mysafe.enableAllocationPathMonitoringMode");
     private static final boolean THREAD_LOCAL_MEMORY_USAGE_PATTERN_EXIST = 
             Boolean.getBoolean("mysafe.threadLocalMemoryUsagePatternExist");
+    private static final ParallelAllocationRecordAggregator PARALLEL_ALLOCATION_RECORD_AGGREGATOR =
+            new ParallelAllocationRecordAggregator(
+                    Integer.getInteger("mysafe.iterationParallelism", 
+                                       Runtime.getRuntime().availableProcessors()));
+    private static final long STORAGE_COMPACTION_PERIOD_IN_SECONDS = 
+            Long.getLong("mysafe.storageCompactionPeriodInSeconds", 60);
+    private static final boolean ALLOCATION_AGE_TRACKING_ENABLED = 
+            Boolean.getBoolean("mysafe.enableAllocationAgeTracking");
+    // Red zones can only be put around the memories allocated through Unsafe
+    private static final boolean RED_ZONE_MODE_ENABLED = 
+            Boolean.getBoolean("mysafe.enableRedZoneMode") && !Boolean.getBoolean("mysafe.useCustomMemoryManagement");
+    // Keeps the memories aligned as allocated
+    private static final int RED_ZONE_SIZE = 
+            (Math.max(Integer.getInteger("mysafe.redZoneSize", 16), 8) + 7) & ~7;
+    private static final long RED_ZONE_CHECK_PERIOD_IN_SECONDS = 
+            Long.getLong("mysafe.redZoneCheckPeriodInSeconds", 10);
+    /*
+     * Memories freed while the red zones are being checked are not freed immediately 
+     * (since they might be being checked) but deferred until the check is finished. 
+     * Memory is removed from the storage before the check flag is read, 
+     * so either the freeing thread sees the check in progress or the check doesn't see the memory.
+     * Frees don't take any lock for this, they only put a fence before reading the flag.
+     */
+    private static final Object RED_ZONE_CHECK_LOCK = new Object();
+    private static volatile boolean redZoneCheckInProgress;
+    private static final ConcurrentLinkedQueue<long[]> RED_ZONE_DEFERRED_FREES = new ConcurrentLinkedQueue<long[]>();
+    // Freed memories can only be quarantined when they are freed through Unsafe
+    private static final MemoryQuarantine QUARANTINE = 
+            Boolean.getBoolean("mysafe.enableQuarantineMode") && !Boolean.getBoolean("mysafe.useCustomMemoryManagement")
+                ? new MemoryQuarantine(
+                        Long.getLong("mysafe.quarantineMaxSizeInBytes", 64 * 1024 * 1024), 
+                        Integer.getInteger("mysafe.quarantineMaxCount", 65536), 
+                        Integer.getInteger("mysafe.quarantineReleaseBatchSize", 64))
+                : null;
+    private static final byte QUARANTINE_POISON = (byte) 0xDD;
+    private static final int QUARANTINE_FREE_SITE_DEPTH = 
+            Integer.getInteger("mysafe.quarantineFreeSiteDepth", 4);
+    private static final StackTraceElement[] NO_FREE_SITE = new StackTraceElement[0];
+    // Filters frees and reallocations of the unknown addresses out before looking up the storage
+    private static final ConcurrentCountingBloomFilter ALLOCATION_FILTER = 
+            Boolean.getBoolean("mysafe.enableAllocationFilter")
+                ? new ConcurrentCountingBloomFilter(Integer.getInteger("mysafe.allocationFilterCounterCount", 1 << 22))
+                : null;
+    private static final RecentlyFreedAddressFilter RECENTLY_FREED_ADDRESS_FILTER = 
+            ALLOCATION_FILTER != null
+                ? new RecentlyFreedAddressFilter(Integer.getInteger("mysafe.recentlyFreedFilterCapacity", 65536))
+                : null;
+    private static final boolean SHADOW_MEMORY_ENABLED;
+    private static final ThreadLocalSampler MEMORY_ACCESS_CHECK_SAMPLER;
+    private static final int MEMORY_REGION_CACHE_SIZE = Integer.getInteger("mysafe.memoryRegionCacheSize", 4);
+    private static final boolean MEMORY_REGION_CACHE_ENABLED;
+    // Increased for the address ranges of the freed and reallocated memories 
+    // to invalidate the cached memory regions in those ranges
+    private static final StripedFreeEpoch FREE_EPOCH = 
+            new StripedFreeEpoch(Integer.getInteger("mysafe.freeEpochStripeCount", 256), 
+                                 Integer.getInteger("mysafe.freeEpochStripeShift", 16));
+    private static final ThreadLocal<MemoryRegionCache> MEMORY_REGION_CACHES = 
+            new ThreadLocal<MemoryRegionCache>() {
+                @Override
+                protected MemoryRegionCache initialValue() {
+                    return new MemoryRegionCache(MEMORY_REGION_CACHE_SIZE, FREE_EPOCH);
+                }
+            };
+    private static final AllocatedMemoryRegionResolver MEMORY_REGION_RESOLVER;
     private static volatile boolean REGISTERED_LISTENER_EXIST = false;
    
     static {
@@ -96,6 +185,17 @@ public final class MySafeDelegator {
         } else {
             SAFE_MEMORY_ACCESS_MODE_ENABLED = safeMemoryAccessModeEnabled;
         }
+        int memoryAccessCheckSamplingRate = Integer.getInteger("mysafe.memoryAccessCheckSamplingRate", 1);
+        if (SAFE_MEMORY_ACCESS_MODE_ENABLED && memoryAccessCheckSamplingRate > 1) {
+            MEMORY_ACCESS_CHECK_SAMPLER = new ThreadLocalSampler(memoryAccessCheckSamplingRate);
+        } else {
+            MEMORY_ACCESS_CHECK_SAMPLER = null;
+        }
+        SHADOW_MEMORY_ENABLED = 
+                SAFE_MEMORY_ACCESS_MODE_ENABLED && Boolean.getBoolean("mysafe.useShadowMemoryForAccessCheck");
+        // Shadow memory checks are already as cheap as the cache checks
+        MEMORY_REGION_CACHE_ENABLED = 
+                SAFE_MEMORY_ACCESS_MODE_ENABLED && !SHADOW_MEMORY_ENABLED && MEMORY_REGION_CACHE_SIZE > 0;
 
         DEFAULT_UNSAFE = MySafe.getUnsafe(); 
         
@@ -108,10 +208,27 @@ public final class MySafeDelegator {
         } else {
             concurrentMemoryAccessCheckEnabled = false;
         }
-        if (concurrentMemoryAccessCheckEnabled) {
-            MEMORY_ACCESS_LOCK = new MemoryAccessLock(DEFAULT_UNSAFE);
+        if (concurrentMemoryAccessCheckEnabled && Boolean.getBoolean("mysafe.useEpochBasedReclamation")) {
+            MEMORY_ACCESS_LOCK = null;
+            EPOCH_BASED_MEMORY_RECLAIMER = 
+                    new EpochBasedMemoryReclaimer(
+                            DEFAULT_UNSAFE, 
+                            Integer.getInteger("mysafe.epochBasedReclamationBatchSize", 64));
+        } else if (concurrentMemoryAccessCheckEnabled) {
+            EPOCH_BASED_MEMORY_RECLAIMER = null;
+            MEMORY_ACCESS_LOCK = 
+                    new MemoryAccessLock(
+                            Integer.getInteger("mysafe.memoryAccessLockStripeCount", 
+                                               4 * Runtime.getRuntime().availableProcessors()), 
+                            Integer.getInteger("mysafe.memoryAccessLockStripeShift", 12), 
+                            WaitStrategy.create(
+                                    System.getProperty("mysafe.memoryAccessLockWaitStrategy", WaitStrategy.SPIN), 
+                                    Integer.getInteger("mysafe.memoryAccessLockSpinLimit", 1000), 
+                                    Long.getLong("mysafe.memoryAccessLockMaxParkNanos", 1000000)), 
+                            Boolean.getBoolean("mysafe.enableMemoryAccessLockMetrics"));
         } else {
             MEMORY_ACCESS_LOCK = null;
+            EPOCH_BASED_MEMORY_RECLAIMER = null;
         }
         
         ThreadLocalMemoryUsageDecider threadLocalMemoryUsageDecider = null;
@@ -139,6 +256,7 @@ public final class MySafeDelegator {
             }
         }
         
+        AllocatedMemoryStorage allocatedMemoryStorage;
         String allocatedMemoryStorageImplClassName = System.getProperty("mysafe.allocatedMemoryStorageImpl");
         if (allocatedMemoryStorageImplClassName != null) {
             try {
@@ -146,7 +264,7 @@ public final class MySafeDelegator {
                 Class<? extends AllocatedMemoryStorage> ALLOCATED_MEMORYStorageImplClass = 
                         (Class<? extends AllocatedMemoryStorage>) ClassLoader.getSystemClassLoader().
                             loadClass(allocatedMemoryStorageImplClassName);
-                ALLOCATED_MEMORY_STORAGE = ALLOCATED_MEMORYStorageImplClass.newInstance();
+                allocatedMemoryStorage = ALLOCATED_MEMORYStorageImplClass.newInstance();
             } catch (Exception e) {
                 throw new IllegalStateException(
                         "Couldn't create instance of custom 'AllocatedMemoryStorage' implementation: " + 
@@ -155,37 +273,77 @@ public final class MySafeDelegator {
         } else {
             if (THREAD_LOCAL_MEMORY_USAGE_PATTERN_EXIST) {
                 AllocatedMemoryStorage threadLocalAllocatedMemoryStorage = null;
+                // Memories freed by other threads are still accounted to their allocators
+                RemoteFreeListener remoteFreeListener = new RemoteFreeListener() {
+                    @Override
+                    public void onRemoteFree(Thread owner, long size) {
+                        ALLOCATED_MEMORY.moveToCurrentThread(owner, size);
+                    }
+                };
                 if (safeMemoryAccessModeEnabled) {
-                    threadLocalAllocatedMemoryStorage = 
-                            new ThreadLocalNavigatableAllocatedMemoryStorage(DEFAULT_UNSAFE, SCHEDULER);
+                    ThreadLocalNavigatableAllocatedMemoryStorage threadLocalNavigatableAllocatedMemoryStorage = 
+                            new ThreadLocalNavigatableAllocatedMemoryStorage(DEFAULT_UNSAFE);
+                    threadLocalNavigatableAllocatedMemoryStorage.setRemoteFreeListener(remoteFreeListener);
+                    threadLocalAllocatedMemoryStorage = threadLocalNavigatableAllocatedMemoryStorage;
                 } else {
-                    threadLocalAllocatedMemoryStorage = 
-                            new ThreadLocalDefaultAllocatedMemoryStorage(DEFAULT_UNSAFE, SCHEDULER);
+                    ThreadLocalDefaultAllocatedMemoryStorage threadLocalDefaultAllocatedMemoryStorage = 
+                            new ThreadLocalDefaultAllocatedMemoryStorage(DEFAULT_UNSAFE);
+                    threadLocalDefaultAllocatedMemoryStorage.setRemoteFreeListener(remoteFreeListener);
+                    threadLocalAllocatedMemoryStorage = threadLocalDefaultAllocatedMemoryStorage;
                 }
                 if (threadLocalMemoryUsageDecider != null) {
-                    AllocatedMemoryStorage globalAllocatedMemoryStorage;
-                    if (safeMemoryAccessModeEnabled) {
-                        globalAllocatedMemoryStorage = new NavigatableAllocatedMemoryStorage();
-                    } else {
-                        globalAllocatedMemoryStorage = new DefaultAllocatedMemoryStorage();
-                    }
-                    ALLOCATED_MEMORY_STORAGE = 
+                    AllocatedMemoryStorage globalAllocatedMemoryStorage = 
+                            createGlobalAllocatedMemoryStorage(safeMemoryAccessModeEnabled, false);
+                    allocatedMemoryStorage = 
                             new ThreadLocalAwareAllocatedMemoryStorage(
                                     globalAllocatedMemoryStorage, 
                                     threadLocalAllocatedMemoryStorage, 
                                     threadLocalMemoryUsageDecider);
                 } else {
-                    ALLOCATED_MEMORY_STORAGE = threadLocalAllocatedMemoryStorage;
+                    allocatedMemoryStorage = threadLocalAllocatedMemoryStorage;
                 }    
             } else {
-                if (safeMemoryAccessModeEnabled) {
-                    ALLOCATED_MEMORY_STORAGE = new NavigatableAllocatedMemoryStorage();
-                } else {
-                    ALLOCATED_MEMORY_STORAGE = new DefaultAllocatedMemoryStorage();
-                }
+                allocatedMemoryStorage = 
+                        createGlobalAllocatedMemoryStorage(
+                                safeMemoryAccessModeEnabled, 
+                                // Records are put by the delegator itself bypassing the decorating storages,
+                                // so allocation paths are kept separately when the storage is decorated
+                                ALLOCATION_PATH_MONITORING_MODE_ENABLED 
+                                        && !ALLOCATION_AGE_TRACKING_ENABLED 
+                                        && !SHADOW_MEMORY_ENABLED);
             }    
         }
         
+        if (allocatedMemoryStorage instanceof AllocatedMemoryRegionResolver) {
+            MEMORY_REGION_RESOLVER = (AllocatedMemoryRegionResolver) allocatedMemoryStorage;
+        } else {
+            MEMORY_REGION_RESOLVER = null;
+        }
+        
+        AllocatedMemoryStorage decoratedAllocatedMemoryStorage = allocatedMemoryStorage;
+        if (SHADOW_MEMORY_ENABLED) {
+            decoratedAllocatedMemoryStorage = 
+                    new ShadowMemoryAllocatedMemoryStorage(decoratedAllocatedMemoryStorage, DEFAULT_UNSAFE);
+        }
+        if (ALLOCATION_AGE_TRACKING_ENABLED) {
+            GENERATIONAL_ALLOCATED_MEMORY_STORAGE = 
+                    new GenerationalAllocatedMemoryStorage(
+                            decoratedAllocatedMemoryStorage, 
+                            Long.getLong("mysafe.allocationAgeEpochLengthInMillis", 
+                                         GenerationalAllocatedMemoryStorage.DEFAULT_EPOCH_LENGTH_IN_MILLIS), 
+                            Integer.getInteger("mysafe.allocationAgeMaxBucketCount", 
+                                               GenerationalAllocatedMemoryStorage.DEFAULT_MAX_BUCKET_COUNT));
+            ALLOCATED_MEMORY_STORAGE = GENERATIONAL_ALLOCATED_MEMORY_STORAGE;
+        } else {
+            GENERATIONAL_ALLOCATED_MEMORY_STORAGE = null;
+            ALLOCATED_MEMORY_STORAGE = decoratedAllocatedMemoryStorage;
+        }
+        if (ALLOCATED_MEMORY_STORAGE instanceof AllocationRecordStorage) {
+            ALLOCATION_RECORD_STORAGE = (AllocationRecordStorage) ALLOCATED_MEMORY_STORAGE;
+        } else {
+            ALLOCATION_RECORD_STORAGE = null;
+        }
+        
         String illegalMemoryAccessListenerImplClassName = System.getProperty("mysafe.illegalMemoryAccessListenerImpl");
         if (illegalMemoryAccessListenerImplClassName != null) {
             try {
@@ -207,12 +365,18 @@ public final class MySafeDelegator {
             if (THREAD_LOCAL_MEMORY_USAGE_PATTERN_EXIST) {
                 if (threadLocalMemoryUsageDecider != null) {
                     ALLOCATION_PATH_STORAGE =
-                            new ThreadLocalAwareAllocationPathStorage(DEFAULT_UNSAFE, threadLocalMemoryUsageDecider, SCHEDULER);
+                            new ThreadLocalAwareAllocationPathStorage(DEFAULT_UNSAFE, threadLocalMemoryUsageDecider);
                 } else {
-                    ALLOCATION_PATH_STORAGE = new ThreadLocalDefaultAllocationPathStorage(DEFAULT_UNSAFE, SCHEDULER);
+                    ALLOCATION_PATH_STORAGE = new ThreadLocalDefaultAllocationPathStorage(DEFAULT_UNSAFE);
                 }    
+            } else if (ALLOCATION_RECORD_STORAGE != null) {
+                // Allocation paths are stored with the allocated memories in the same records
+                ALLOCATION_PATH_STORAGE = ALLOCATION_RECORD_STORAGE;
+            } else if (allocatedMemoryStorage instanceof OffHeapAllocatedMemoryStorage) {
+                // Keep allocation paths off-heap too
+                ALLOCATION_PATH_STORAGE = new OffHeapAllocationPathStorage(DEFAULT_UNSAFE);
             } else {
-                ALLOCATION_PATH_STORAGE = new DefaultAllocationPathStorage();
+                ALLOCATION_PATH_STORAGE = new StripedAllocationPathStorage();
             }
         } else {
             ALLOCATION_PATH_STORAGE = null;
@@ -234,112 +398,377 @@ public final class MySafeDelegator {
         } else {
             ALLOCATION_PATH_MANAGER = new InstrumentationBasedAllocationPathManager();
         }
+        
+        if (STORAGE_COMPACTION_PERIOD_IN_SECONDS > 0 
+                && (ALLOCATED_MEMORY_STORAGE instanceof Compactable 
+                        || ALLOCATION_PATH_STORAGE instanceof Compactable)) {
+            SCHEDULER.scheduleWithFixedDelay(
+                    new StorageCompactionTask(), 
+                    STORAGE_COMPACTION_PERIOD_IN_SECONDS, 
+                    STORAGE_COMPACTION_PERIOD_IN_SECONDS, 
+                    TimeUnit.SECONDS);
+        }
+        if (RED_ZONE_MODE_ENABLED && RED_ZONE_CHECK_PERIOD_IN_SECONDS > 0) {
+            SCHEDULER.scheduleWithFixedDelay(
+                    new RedZoneCheckTask(), 
+                    RED_ZONE_CHECK_PERIOD_IN_SECONDS, 
+                    RED_ZONE_CHECK_PERIOD_IN_SECONDS, 
+                    TimeUnit.SECONDS);
+        }
+        if (EPOCH_BASED_MEMORY_RECLAIMER != null && EPOCH_BASED_RECLAMATION_PERIOD_IN_MILLIS > 0) {
+            SCHEDULER.scheduleWithFixedDelay(
+                    new MemoryReclamationTask(), 
+                    EPOCH_BASED_RECLAMATION_PERIOD_IN_MILLIS, 
+                    EPOCH_BASED_RECLAMATION_PERIOD_IN_MILLIS, 
+                    TimeUnit.MILLISECONDS);
+        }
     }
 
     private MySafeDelegator() {
         throw new UnsupportedOperationException("Not avaiable for instantiation!");
     }
 
-    private static class MemoryAccessLock {
+    private static AllocatedMemoryStorage createGlobalAllocatedMemoryStorage(boolean safeMemoryAccessModeEnabled,
+                                                                             boolean storeAllocationPaths) {
+        String globalAllocatedMemoryStorageType = System.getProperty("mysafe.globalAllocatedMemoryStorageType");
+        if (globalAllocatedMemoryStorageType == null) {
+            if (safeMemoryAccessModeEnabled) {
+                return new NavigatableAllocatedMemoryStorage();
+            } else {
+                return createStripedAllocatedMemoryStorage(storeAllocationPaths);
+            }
+        } else if ("DEFAULT".equalsIgnoreCase(globalAllocatedMemoryStorageType)) {
+            return new DefaultAllocatedMemoryStorage();
+        } else if ("NAVIGATABLE".equalsIgnoreCase(globalAllocatedMemoryStorageType)) {
+            return new NavigatableAllocatedMemoryStorage();
+        } else if ("RADIX_TREE".equalsIgnoreCase(globalAllocatedMemoryStorageType)) {
+            return new RadixTreeAllocatedMemoryStorage();
+        } else if ("PAGE_TABLE".equalsIgnoreCase(globalAllocatedMemoryStorageType)) {
+            return new PageTableAllocatedMemoryStorage();
+        } else if ("STRIPED".equalsIgnoreCase(globalAllocatedMemoryStorageType)) {
+            return createStripedAllocatedMemoryStorage(storeAllocationPaths);
+        } else if ("OFF_HEAP".equalsIgnoreCase(globalAllocatedMemoryStorageType)) {
+            return new OffHeapAllocatedMemoryStorage(DEFAULT_UNSAFE);
+        } else {
+            throw new IllegalArgumentException(
+                    "Unknown global 'AllocatedMemoryStorage' type: " + globalAllocatedMemoryStorageType);
+        }
+    }
+
+    private static AllocatedMemoryStorage createStripedAllocatedMemoryStorage(boolean storeAllocationPaths) {
+        if (storeAllocationPaths) {
+            return new StripedAllocationRecordStorage();
+        } else {
+            return new StripedAllocatedMemoryStorage();
+        }
+    }
+
+    /**
+     * Returns the memory of the storages, left by allocation bursts, back periodically, 
+     * so the footprint of the storages follows the live allocations instead of the peak.
+     */
+    private static class StorageCompactionTask implements Runnable {
         
-        private final Unsafe UNSAFE;
-        private final long MEMORY_STATE_FIELD_OFFSET;
-        private final long WAITERS_FOR_ACCESS_FIELD_OFFSET;
-        private final long WAITERS_FOR_FREE_FIELD_OFFSET;
+        @Override
+        public void run() {
+            // Any exception must be handled here, otherwise the periodic task is cancelled
+            try {
+                if (ALLOCATED_MEMORY_STORAGE instanceof Compactable) {
+                    ((Compactable) ALLOCATED_MEMORY_STORAGE).compact();
+                }
+                if (ALLOCATION_PATH_STORAGE instanceof Compactable) {
+                    ((Compactable) ALLOCATION_PATH_STORAGE).compact();
+                }
+            } catch (Throwable t) {
+                LOGGER.error("Error occurred while compacting storages", t);
+            }
+        }
         
-        private volatile int memoryState = 0;
-        private volatile int waitersForAccess = 0;
-        private volatile int waitersForFree = 0;
+    }
 
-        private MemoryAccessLock(Unsafe unsafe) {
+    /**
+     * Checks the red zones of all the allocated memories periodically, 
+     * so the out of bounds writes into the long living memories are detected before they are freed.
+     */
+    private static class RedZoneCheckTask implements Runnable {
+        
+        @Override
+        public void run() {
+            // Any exception must be handled here, otherwise the periodic task is cancelled
             try {
-                UNSAFE = unsafe;
-                MEMORY_STATE_FIELD_OFFSET = 
-                        UNSAFE.objectFieldOffset(MemoryAccessLock.class.getDeclaredField("memoryState"));
-                WAITERS_FOR_ACCESS_FIELD_OFFSET = 
-                        UNSAFE.objectFieldOffset(MemoryAccessLock.class.getDeclaredField("waitersForAccess"));
-                WAITERS_FOR_FREE_FIELD_OFFSET = 
-                        UNSAFE.objectFieldOffset(MemoryAccessLock.class.getDeclaredField("waitersForFree"));
+                checkRedZones();
             } catch (Throwable t) {
-                throw new IllegalStateException(t);
+                LOGGER.error("Error occurred while checking red zones", t);
             }
         }
         
-        private void operateOnWaitersForAccess(int operation) {
-            for (;;) {
-                int currentWaitersForAccess = waitersForAccess;
-                if (UNSAFE.compareAndSwapInt(this, WAITERS_FOR_ACCESS_FIELD_OFFSET, 
-                                             currentWaitersForAccess, currentWaitersForAccess + operation)) {
-                    break;
-                }
-            }   
+    }
+
+    /**
+     * Frees the retired memories periodically, 
+     * so they are not kept until the next reclamation batch is filled up by frees.
+     */
+    private static class MemoryReclamationTask implements Runnable {
+        
+        @Override
+        public void run() {
+            // Any exception must be handled here, otherwise the periodic task is cancelled
+            try {
+                EPOCH_BASED_MEMORY_RECLAIMER.tryReclaim();
+            } catch (Throwable t) {
+                LOGGER.error("Error occurred while reclaiming freed memories", t);
+            }
         }
+        
+    }
+    
+    /**
+     * Spin lock between memory accesses and frees which is striped by address ranges. 
+     * Any number of accesses or any number of frees can hold a stripe at the same time, 
+     * but accesses and frees exclude each other. 
+     * 
+     * Memory regions are mapped to the stripes of the address ranges they intersect with, 
+     * so a free only excludes the accesses to the address ranges of the freed memory. 
+     * Stripes of a region are acquired in ascending order, so acquirers of multiple stripes don't deadlock. 
+     * Waiters wait by the configured {@link WaitStrategy}.
+     */
+    private static class MemoryAccessLock {
+        
+        /*
+         * Structure of a stripe (padded to a cache line against false sharing):
+         * +---------------------------------------------------------------+
+         * | <memory_state> | <waiters_for_access> | <waiters_for_free> | - |
+         * +---------------------------------------------------------------+
+         * Memory state is positive while accesses hold the stripe and negative while frees hold it.
+         */
+        private static final int STRIPE_LENGTH = 16;
+        private static final int MEMORY_STATE = 0;
+        private static final int WAITERS_FOR_ACCESS = 1;
+        private static final int WAITERS_FOR_FREE = 2;
+        
+        private final AtomicIntegerArray stripes;
+        private final int stripeCount;
+        private final int stripeMask;
+        private final int stripeShift;
+        private final WaitStrategy waitStrategy;
+        // Metrics are recorded only if they are enabled
+        private final LockMetrics accessLockMetrics;
+        private final LockMetrics freeLockMetrics;
 
-        private void acquireAccessLock() {
-            operateOnWaitersForAccess(+1);
+        private MemoryAccessLock(int stripeCount, int stripeShift, 
+                                 WaitStrategy waitStrategy, boolean metricsEnabled) {
+            if (stripeCount <= 0) {
+                throw new IllegalArgumentException("Stripe count must be positive but it is " + stripeCount);
+            }
+            int actualStripeCount = Integer.highestOneBit(stripeCount);
+            if (actualStripeCount < stripeCount) {
+                actualStripeCount <<= 1;
+            }
+            this.stripes = new AtomicIntegerArray((actualStripeCount + 1) * STRIPE_LENGTH);
+            this.stripeCount = actualStripeCount;
+            this.stripeMask = actualStripeCount - 1;
+            this.stripeShift = stripeShift;
+            this.waitStrategy = waitStrategy;
+            this.accessLockMetrics = metricsEnabled ? new LockMetrics("access") : null;
+            this.freeLockMetrics = metricsEnabled ? new LockMetrics("free") : null;
+        }
+        
+        private static int index(int stripe, int field) {
+            // First stripe is left as padding against the array header
+            return (stripe + 1) * STRIPE_LENGTH + field;
+        }
+        
+        private int get(int stripe, int field) {
+            return stripes.get(index(stripe, field));
+        }
+        
+        private boolean compareAndSet(int stripe, int field, int expected, int value) {
+            return stripes.compareAndSet(index(stripe, field), expected, value);
+        }
+        
+        private void add(int stripe, int field, int delta) {
+            // Fetch-and-add instead of compare-and-set retry loop
+            stripes.getAndAdd(index(stripe, field), delta);
+        }
+        
+        private int firstStripe(long address) {
+            return (int) (address >>> stripeShift) & stripeMask;
+        }
+        
+        private int stripeCount(long address, long size) {
+            long firstRange = address >>> stripeShift;
+            long lastRange = (address + Math.max(size, 1) - 1) >>> stripeShift;
+            long rangeCount = lastRange - firstRange + 1;
+            if (rangeCount <= 0 || rangeCount > stripeCount) {
+                return stripeCount;
+            }
+            return (int) rangeCount;
+        }
+        
+        private boolean isInStripes(int stripe, int firstStripe, int stripeCount) {
+            return ((stripe - firstStripe) & stripeMask) < stripeCount;
+        }
+        
+        private LockMetricsInfo[] getMetrics() {
+            if (accessLockMetrics == null) {
+                return new LockMetricsInfo[0];
+            }
+            return new LockMetricsInfo[] { accessLockMetrics.getInfo(), freeLockMetrics.getInfo() };
+        }
+
+        private int acquireStripeAccessLock(int stripe) {
+            int idleCount = 0;
+            add(stripe, WAITERS_FOR_ACCESS, +1);
             for (;;) {
-                if (waitersForFree > 0) {
-                    while (memoryState > 0);
+                if (get(stripe, WAITERS_FOR_FREE) > 0) {
+                    while (get(stripe, MEMORY_STATE) > 0) {
+                        waitStrategy.idle(++idleCount);
+                    }
                 }
-                int currentState = memoryState;
+                int currentState = get(stripe, MEMORY_STATE);
                 if (currentState >= 0) {
-                    if (UNSAFE.compareAndSwapInt(this, MEMORY_STATE_FIELD_OFFSET, 
-                                                 currentState, currentState + 1)) {
+                    if (compareAndSet(stripe, MEMORY_STATE, currentState, currentState + 1)) {
                         break;
                     }
+                } else {
+                    waitStrategy.idle(++idleCount);
                 }
             }
-            operateOnWaitersForAccess(-1);
-        }
-        
-        private void operateOnWaitersForFree(int operation) {
-            for (;;) {
-                int currentWaitersForFree = waitersForFree;
-                if (UNSAFE.compareAndSwapInt(this, WAITERS_FOR_FREE_FIELD_OFFSET, 
-                                             currentWaitersForFree, currentWaitersForFree + operation)) {
-                    break;
-                }
-            }   
+            add(stripe, WAITERS_FOR_ACCESS, -1);
+            return idleCount;
         }
         
-        private void acquireFreeLock() {
-            operateOnWaitersForFree(+1);
+        private int acquireStripeFreeLock(int stripe) {
+            int idleCount = 0;
+            add(stripe, WAITERS_FOR_FREE, +1);
             for (;;) {
-                if (waitersForAccess > 0) {
-                    while (memoryState < 0);
+                if (get(stripe, WAITERS_FOR_ACCESS) > 0) {
+                    while (get(stripe, MEMORY_STATE) < 0) {
+                        waitStrategy.idle(++idleCount);
+                    }
                 }
-                int currentState = memoryState;
+                int currentState = get(stripe, MEMORY_STATE);
                 if (currentState <= 0) {
-                    if (UNSAFE.compareAndSwapInt(this, MEMORY_STATE_FIELD_OFFSET, 
-                                                 currentState, currentState - 1)) {
+                    if (compareAndSet(stripe, MEMORY_STATE, currentState, currentState - 1)) {
                         break;
                     }
+                } else {
+                    waitStrategy.idle(++idleCount);
                 }
             }
-            operateOnWaitersForFree(-1);
+            add(stripe, WAITERS_FOR_FREE, -1);
+            return idleCount;
         }
 
-        private void releaseAccessLock() {
-            for (;;) {
-                int currentState = memoryState;
-                assert currentState > 0 : "Current state must be negative while releasing access lock but it is " + currentState;
-                if (UNSAFE.compareAndSwapInt(this, MEMORY_STATE_FIELD_OFFSET, 
-                                             currentState, currentState - 1)) {
-                    break;
+        private void releaseStripeAccessLock(int stripe) {
+            int previousState = stripes.getAndDecrement(index(stripe, MEMORY_STATE));
+            assert previousState > 0 : "Current state must be positive while releasing access lock but it is " + previousState;
+        }
+        
+        private void releaseStripeFreeLock(int stripe) {
+            int previousState = stripes.getAndIncrement(index(stripe, MEMORY_STATE));
+            assert previousState < 0 : "Current state must be negative while releasing free lock but it is " + previousState;
+        }
+        
+        private void acquireAccessLock(long address, long size) {
+            long acquireStartTime = accessLockMetrics != null ? System.nanoTime() : 0;
+            int idleCount = 0;
+            int firstStripe = firstStripe(address);
+            int stripeCount = stripeCount(address, size);
+            if (stripeCount == 1) {
+                idleCount += acquireStripeAccessLock(firstStripe);
+            } else {
+                // Stripes wrapped around to the beginning are acquired first to keep the ascending order
+                for (int i = 0, end = firstStripe + stripeCount - this.stripeCount; i < end; i++) {
+                    idleCount += acquireStripeAccessLock(i);
                 }
+                for (int i = firstStripe, end = Math.min(firstStripe + stripeCount, this.stripeCount); i < end; i++) {
+                    idleCount += acquireStripeAccessLock(i);
+                }
+            }
+            if (accessLockMetrics != null) {
+                accessLockMetrics.onAcquire(idleCount, acquireStartTime);
             }
         }
         
-        private void releaseFreeLock() {
-            for (;;) {
-                int currentState = memoryState;
-            	assert currentState < 0 : "Current state must be negative while releasing free lock but it is " + currentState;
-                if (UNSAFE.compareAndSwapInt(this, MEMORY_STATE_FIELD_OFFSET, 
-                                             currentState, currentState + 1)) {
-                    break;
+        private void acquireAccessLock(long sourceAddress, long destinationAddress, long size) {
+            long acquireStartTime = accessLockMetrics != null ? System.nanoTime() : 0;
+            int idleCount = 0;
+            int sourceFirstStripe = firstStripe(sourceAddress);
+            int sourceStripeCount = stripeCount(sourceAddress, size);
+            int destinationFirstStripe = firstStripe(destinationAddress);
+            int destinationStripeCount = stripeCount(destinationAddress, size);
+            // Stripes of both regions are acquired together (once for the shared ones) in ascending order
+            for (int i = 0; i < this.stripeCount; i++) {
+                if (isInStripes(i, sourceFirstStripe, sourceStripeCount) 
+                        || isInStripes(i, destinationFirstStripe, destinationStripeCount)) {
+                    idleCount += acquireStripeAccessLock(i);
+                }
+            }
+            if (accessLockMetrics != null) {
+                accessLockMetrics.onAcquire(idleCount, acquireStartTime);
+            }
+        }
+        
+        private void acquireFreeLock(long address, long size) {
+            long acquireStartTime = freeLockMetrics != null ? System.nanoTime() : 0;
+            int idleCount = 0;
+            int firstStripe = firstStripe(address);
+            int stripeCount = stripeCount(address, size);
+            if (stripeCount == 1) {
+                idleCount += acquireStripeFreeLock(firstStripe);
+            } else {
+                // Stripes wrapped around to the beginning are acquired first to keep the ascending order
+                for (int i = 0, end = firstStripe + stripeCount - this.stripeCount; i < end; i++) {
+                    idleCount += acquireStripeFreeLock(i);
+                }
+                for (int i = firstStripe, end = Math.min(firstStripe + stripeCount, this.stripeCount); i < end; i++) {
+                    idleCount += acquireStripeFreeLock(i);
+                }
+            }
+            if (freeLockMetrics != null) {
+                freeLockMetrics.onAcquire(idleCount, acquireStartTime);
+            }
+        }
+        
+        private void releaseAccessLock(long address, long size) {
+            if (accessLockMetrics != null) {
+                accessLockMetrics.onRelease();
+            }
+            int firstStripe = firstStripe(address);
+            int stripeCount = stripeCount(address, size);
+            for (int i = 0; i < stripeCount; i++) {
+                releaseStripeAccessLock((firstStripe + i) & stripeMask);
+            }
+        }
+        
+        private void releaseAccessLock(long sourceAddress, long destinationAddress, long size) {
+            if (accessLockMetrics != null) {
+                accessLockMetrics.onRelease();
+            }
+            int sourceFirstStripe = firstStripe(sourceAddress);
+            int sourceStripeCount = stripeCount(sourceAddress, size);
+            int destinationFirstStripe = firstStripe(destinationAddress);
+            int destinationStripeCount = stripeCount(destinationAddress, size);
+            for (int i = 0; i < this.stripeCount; i++) {
+                if (isInStripes(i, sourceFirstStripe, sourceStripeCount) 
+                        || isInStripes(i, destinationFirstStripe, destinationStripeCount)) {
+                    releaseStripeAccessLock(i);
                 }
             }
         }
+        
+        private void releaseFreeLock(long address, long size) {
+            if (freeLockMetrics != null) {
+                freeLockMetrics.onRelease();
+            }
+            int firstStripe = firstStripe(address);
+            int stripeCount = stripeCount(address, size);
+            for (int i = 0; i < stripeCount; i++) {
+                releaseStripeFreeLock((firstStripe + i) & stripeMask);
+            }
+        }
+        
     }
 
     //////////////////////////////////////////////////////////////////////////
@@ -366,13 +795,32 @@ public final class MySafeDelegator {
     }
     
     private static long doAllocateMemory(Unsafe unsafe, long size) {
+        if (RED_ZONE_MODE_ENABLED) {
+            long rawAddress = unsafe.allocateMemory(size + (RED_ZONE_SIZE << 1));
+            return RedZones.fill(unsafe, rawAddress, size, RED_ZONE_SIZE);
+        }
         return unsafe.allocateMemory(size);
     }
     
     public static void afterAllocateMemory(long size, long address) {
-        ALLOCATED_MEMORY_STORAGE.put(address, size);
-        ALLOCATED_MEMORY.addAndGet(size);
-        if (ALLOCATION_PATH_MONITORING_MODE_ENABLED) {
+        // Read before the storage, so the region is not cached as valid if it is freed meanwhile by another thread
+        long freeEpoch = MEMORY_REGION_CACHE_ENABLED ? FREE_EPOCH.get(address) : 0L;
+        if (ALLOCATION_FILTER != null) {
+            // Added before the storage, so an address in the storage is never filtered out
+            ALLOCATION_FILTER.add(address);
+        }
+        if (ALLOCATION_RECORD_STORAGE != null) {
+            long allocationPathKey = ALLOCATION_PATH_MANAGER.resolveAllocationPathKey(2);
+            ALLOCATION_RECORD_STORAGE.put(address, size, allocationPathKey);
+        } else {
+            ALLOCATED_MEMORY_STORAGE.put(address, size);
+        }
+        if (MEMORY_REGION_CACHE_ENABLED) {
+            // Allocated memory is most likely to be accessed by its allocator thread first
+            MEMORY_REGION_CACHES.get().add(address, address + size, address, freeEpoch);
+        }
+        ALLOCATED_MEMORY.add(size);
+        if (ALLOCATION_PATH_MONITORING_MODE_ENABLED && ALLOCATION_RECORD_STORAGE == null) {
             ALLOCATION_PATH_MANAGER.saveAllocationPathOnAllocation(ALLOCATION_PATH_STORAGE, address, 2);
         }
         if (REGISTERED_LISTENER_EXIST) {
@@ -401,26 +849,68 @@ public final class MySafeDelegator {
                 listener.beforeFreeMemory(address);
             }
         }    
-        return ALLOCATED_MEMORY_STORAGE.remove(address);
+        if (ALLOCATION_FILTER != null && !ALLOCATION_FILTER.mightContain(address)) {
+            // Definitely not allocated, so there is no need to look up the storage
+            return INVALID;
+        }
+        long size = ALLOCATED_MEMORY_STORAGE.remove(address);
+        if (ALLOCATION_FILTER != null && size != INVALID) {
+            ALLOCATION_FILTER.remove(address);
+            RECENTLY_FREED_ADDRESS_FILTER.add(address);
+        }
+        if (MEMORY_REGION_CACHE_ENABLED && size != INVALID) {
+            // Cached regions are invalidated before the memory is actually freed. 
+            // Unknown memories are never cached, so there is nothing to invalidate for them.
+            FREE_EPOCH.increase(address, size);
+        }
+        return size;
+    }
+    
+    private static void doFreeMemory(Unsafe unsafe, long address, long size) {
+        if (RED_ZONE_MODE_ENABLED && size != INVALID) {
+            // Memory has been allocated with red zones only if it is known
+            checkRedZones(unsafe, address, size);
+            if (isRedZoneCheckInProgress()) {
+                RED_ZONE_DEFERRED_FREES.offer(new long[] { address, size });
+                // Check might have been finished before the memory is deferred
+                if (!redZoneCheckInProgress) {
+                    freeRedZoneDeferredMemories(unsafe);
+                }
+                return;
+            }
+        }
+        releaseMemory(unsafe, address, size);
     }
     
-    private static void doFreeMemory(Unsafe unsafe, long address) {
+    private static void releaseMemory(Unsafe unsafe, long address, long size) {
+        long rawAddress = address;
+        if (RED_ZONE_MODE_ENABLED && size != INVALID) {
+            rawAddress -= RED_ZONE_SIZE;
+        }
+        if (EPOCH_BASED_MEMORY_RECLAIMER != null) {
+            // Memory might still be accessed by the accessors which have seen it allocated, 
+            // so it is freed after all of them have exited their critical sections
+            EPOCH_BASED_MEMORY_RECLAIMER.retire(rawAddress);
+            return;
+        }
+        // Only the stripe of the address is locked if the memory is unknown
         if (SAFE_MEMORY_ACCESS_MODE_ENABLED && MEMORY_ACCESS_LOCK != null) {
-            MEMORY_ACCESS_LOCK.acquireFreeLock();
+            MEMORY_ACCESS_LOCK.acquireFreeLock(address, size);
         }    
         try {
-            unsafe.freeMemory(address);
+            unsafe.freeMemory(rawAddress);
         } finally {
             if (SAFE_MEMORY_ACCESS_MODE_ENABLED && MEMORY_ACCESS_LOCK != null) {
-                MEMORY_ACCESS_LOCK.releaseFreeLock();
+                MEMORY_ACCESS_LOCK.releaseFreeLock(address, size);
             }     
         }
     }
     
     public static void afterFreeMemory(long address, long size) {
         if (size != INVALID) {
-            ALLOCATED_MEMORY.addAndGet(-size);
-            if (ALLOCATION_PATH_MONITORING_MODE_ENABLED) {
+            ALLOCATED_MEMORY.add(-size);
+            // Allocation path has already been removed with the record if it is stored in the same record
+            if (ALLOCATION_PATH_MONITORING_MODE_ENABLED && ALLOCATION_RECORD_STORAGE == null) {
                 ALLOCATION_PATH_MANAGER.deleteAllocationPathOnFree(ALLOCATION_PATH_STORAGE, address);
             }
             if (REGISTERED_LISTENER_EXIST) {
@@ -433,7 +923,7 @@ public final class MySafeDelegator {
             }    
         } else {
             if (SAFE_MEMORY_MANAGEMENT_MODE_ENABLED) {
-                String msg = "Tried to free unallocated (or out of the record) memory at address " + 
+                String msg = "Tried to free " + getUnallocatedMemoryDescription(address) + " memory at address " + 
                         String.format("0x%016x", address);
                 if (REGISTERED_LISTENER_EXIST) {
                     for (MemoryListener listener : LISTENERS) {
@@ -458,14 +948,22 @@ public final class MySafeDelegator {
     public static void freeMemory(Unsafe unsafe, long address) {  
         long size = beforeFreeMemory(address);
         if (size != INVALID) {
-            doFreeMemory(unsafe, address);
+            if (QUARANTINE != null) {
+                quarantineMemory(unsafe, address, size);
+            } else {
+                doFreeMemory(unsafe, address, size);
+            }
             afterFreeMemory(address, size);
         } else {
+            if (QUARANTINE != null) {
+                // Quarantined memory must not be freed again, since it is freed on eviction anyway
+                checkNotQuarantined(address, FREE);
+            }
             if (!SAFE_MEMORY_MANAGEMENT_MODE_ENABLED) {
-                String msg = "Trying to free unallocated (or out of the record) memory at address " + 
+                String msg = "Trying to free " + getUnallocatedMemoryDescription(address) + " memory at address " + 
                              String.format("0x%016x", address);
                 LOGGER.warn(msg);
-                doFreeMemory(unsafe, address);
+                doFreeMemory(unsafe, address, INVALID);
             } else {
                 afterFreeMemory(address, size);
             }    
@@ -475,7 +973,20 @@ public final class MySafeDelegator {
     //////////////////////////////////////////////////////////////////////////
     
     public static long beforeReallocateMemory(long oldAddress) {
+        if (ALLOCATION_FILTER != null && !ALLOCATION_FILTER.mightContain(oldAddress)) {
+            // Definitely not allocated, so there is no need to look up the storage
+            return INVALID;
+        }
         long oldSize = ALLOCATED_MEMORY_STORAGE.remove(oldAddress);
+        if (ALLOCATION_FILTER != null && oldSize != INVALID) {
+            ALLOCATION_FILTER.remove(oldAddress);
+            RECENTLY_FREED_ADDRESS_FILTER.add(oldAddress);
+        }
+        if (MEMORY_REGION_CACHE_ENABLED && oldSize != INVALID) {
+            // Cached regions are invalidated before the memory is actually reallocated. 
+            // Unknown memories are never cached, so there is nothing to invalidate for them.
+            FREE_EPOCH.increase(oldAddress, oldSize);
+        }
         if (oldSize != INVALID) {
             if (REGISTERED_LISTENER_EXIST) {
                 for (MemoryListener listener : LISTENERS) {
@@ -486,15 +997,31 @@ public final class MySafeDelegator {
         return oldSize;
     }
     
-    private static long doReallocateMemory(Unsafe unsafe, long oldAddress, long newSize) {
+    private static long doReallocateMemory(Unsafe unsafe, long oldAddress, long oldSize, long newSize) {
+        if (oldSize != INVALID 
+                && (EPOCH_BASED_MEMORY_RECLAIMER != null || (RED_ZONE_MODE_ENABLED && isRedZoneCheckInProgress()))) {
+            // Old memory might still be accessed (or its red zones might be being checked), 
+            // so it is moved into a new memory and its free is deferred
+            long newAddress = doAllocateMemory(unsafe, newSize);
+            unsafe.copyMemory(oldAddress, newAddress, Math.min(oldSize, newSize));
+            doFreeMemory(unsafe, oldAddress, oldSize);
+            return newAddress;
+        }
+        // Only the stripe of the address is locked if the memory is unknown
         if (SAFE_MEMORY_ACCESS_MODE_ENABLED && MEMORY_ACCESS_LOCK != null) {
-            MEMORY_ACCESS_LOCK.acquireFreeLock();
+            MEMORY_ACCESS_LOCK.acquireFreeLock(oldAddress, oldSize);
         }   
         try {
+            if (RED_ZONE_MODE_ENABLED && oldSize != INVALID) {
+                // Memory has been allocated with red zones only if it is known
+                checkRedZones(unsafe, oldAddress, oldSize);
+                long rawAddress = unsafe.reallocateMemory(oldAddress - RED_ZONE_SIZE, newSize + (RED_ZONE_SIZE << 1));
+                return RedZones.fill(unsafe, rawAddress, newSize, RED_ZONE_SIZE);
+            }
             return unsafe.reallocateMemory(oldAddress, newSize);
         } finally {
             if (SAFE_MEMORY_ACCESS_MODE_ENABLED && MEMORY_ACCESS_LOCK != null) {
-                MEMORY_ACCESS_LOCK.releaseFreeLock();
+                MEMORY_ACCESS_LOCK.releaseFreeLock(oldAddress, oldSize);
             }
         }
     }
@@ -502,9 +1029,22 @@ public final class MySafeDelegator {
     public static void afterReallocateMemory(long oldAddress, long oldSize, 
                                              long newAddress, long newSize) {
         if (oldSize != INVALID) {
-            ALLOCATED_MEMORY_STORAGE.put(newAddress, newSize);
-            ALLOCATED_MEMORY.addAndGet(newSize - oldSize);
-            if (ALLOCATION_PATH_MONITORING_MODE_ENABLED) {
+            long freeEpoch = MEMORY_REGION_CACHE_ENABLED ? FREE_EPOCH.get(newAddress) : 0L;
+            if (ALLOCATION_FILTER != null) {
+                // Added before the storage, so an address in the storage is never filtered out
+                ALLOCATION_FILTER.add(newAddress);
+            }
+            if (ALLOCATION_RECORD_STORAGE != null) {
+                long allocationPathKey = ALLOCATION_PATH_MANAGER.resolveAllocationPathKey(2);
+                ALLOCATION_RECORD_STORAGE.put(newAddress, newSize, allocationPathKey);
+            } else {
+                ALLOCATED_MEMORY_STORAGE.put(newAddress, newSize);
+            }
+            if (MEMORY_REGION_CACHE_ENABLED) {
+                MEMORY_REGION_CACHES.get().add(newAddress, newAddress + newSize, newAddress, freeEpoch);
+            }
+            ALLOCATED_MEMORY.add(newSize - oldSize);
+            if (ALLOCATION_PATH_MONITORING_MODE_ENABLED && ALLOCATION_RECORD_STORAGE == null) {
                 ALLOCATION_PATH_MANAGER.deleteAllocationPathOnFree(ALLOCATION_PATH_STORAGE, oldAddress);
                 ALLOCATION_PATH_MANAGER.saveAllocationPathOnAllocation(ALLOCATION_PATH_STORAGE, newAddress, 2);
             }
@@ -520,7 +1060,7 @@ public final class MySafeDelegator {
             }  
         }  else {
             if (SAFE_MEMORY_MANAGEMENT_MODE_ENABLED) {
-                String msg = "Tried to reallocate unallocated (or out of the record) memory at address " + 
+                String msg = "Tried to reallocate " + getUnallocatedMemoryDescription(oldAddress) + " memory at address " + 
                              String.format("0x%016x", oldAddress) + " with new size " + newSize;
                 if (REGISTERED_LISTENER_EXIST) {
                     for (MemoryListener listener : LISTENERS) {
@@ -546,15 +1086,23 @@ public final class MySafeDelegator {
         long oldSize = beforeReallocateMemory(oldAddress);
         long newAddress = INVALID;
         if (oldSize != INVALID) {
-            newAddress = doReallocateMemory(unsafe, oldAddress, newSize);
+            if (QUARANTINE != null) {
+                newAddress = reallocateMemoryByQuarantining(unsafe, oldAddress, oldSize, newSize);
+            } else {
+                newAddress = doReallocateMemory(unsafe, oldAddress, oldSize, newSize);
+            }
             afterReallocateMemory(oldAddress, oldSize, newAddress, newSize);
 
         } else {
+            if (QUARANTINE != null) {
+                // Quarantined memory must not be reallocated, since it is freed on eviction anyway
+                checkNotQuarantined(oldAddress, REALLOCATE);
+            }
             if (!SAFE_MEMORY_MANAGEMENT_MODE_ENABLED) {
-                String msg = "Trying to reallocate unallocated (or out of the record) memory at address " + 
+                String msg = "Trying to reallocate " + getUnallocatedMemoryDescription(oldAddress) + " memory at address " + 
                              String.format("0x%016x", oldAddress) + " with new size " + newSize;
                 LOGGER.warn(msg);
-                newAddress = doReallocateMemory(unsafe, oldAddress, newSize);
+                newAddress = doReallocateMemory(unsafe, oldAddress, oldSize, newSize);
             } else {
                 afterReallocateMemory(oldAddress, oldSize, newAddress, newSize);
             }
@@ -564,25 +1112,270 @@ public final class MySafeDelegator {
     
     //////////////////////////////////////////////////////////////////////////
     
+    private static String getUnallocatedMemoryDescription(long address) {
+        if (RECENTLY_FREED_ADDRESS_FILTER != null && RECENTLY_FREED_ADDRESS_FILTER.mightContain(address)) {
+            return "already freed (probably double freed)";
+        }
+        return "unallocated (or out of the record)";
+    }
+    
+    private static void quarantineMemory(Unsafe unsafe, long address, long size) {
+        // Poisoned, so dangling reads are noticeable even when the memory accesses are not checked
+        unsafe.setMemory(address, size, QUARANTINE_POISON);
+        QuarantinedMemory quarantinedMemory = 
+                new QuarantinedMemory(address, size, System.currentTimeMillis(), 
+                                      Thread.currentThread().getName(), captureFreeSite());
+        List<QuarantinedMemory> evictedMemories = QUARANTINE.put(quarantinedMemory);
+        if (evictedMemories != null) {
+            for (QuarantinedMemory evictedMemory : evictedMemories) {
+                doFreeMemory(unsafe, evictedMemory.address, evictedMemory.size);
+            }
+        }
+    }
+    
+    private static long reallocateMemoryByQuarantining(Unsafe unsafe, long oldAddress, long oldSize, long newSize) {
+        // Reallocation might move the memory, so old memory is quarantined instead of being reallocated in place
+        long newAddress = doAllocateMemory(unsafe, newSize);
+        unsafe.copyMemory(oldAddress, newAddress, Math.min(oldSize, newSize));
+        quarantineMemory(unsafe, oldAddress, oldSize);
+        return newAddress;
+    }
+    
+    private static StackTraceElement[] captureFreeSite() {
+        if (QUARANTINE_FREE_SITE_DEPTH <= 0) {
+            return NO_FREE_SITE;
+        }
+        StackTraceElement[] stackTrace = new Throwable().getStackTrace();
+        int start = 0;
+        // Skip the frames of MySafe itself
+        while (start < stackTrace.length && isInternalFrame(stackTrace[start])) {
+            start++;
+        }
+        return Arrays.copyOfRange(stackTrace, start, Math.min(stackTrace.length, start + QUARANTINE_FREE_SITE_DEPTH));
+    }
+    
+    private static boolean isInternalFrame(StackTraceElement frame) {
+        String className = frame.getClassName();
+        return className.startsWith("tr.com.serkanozal.mysafe.impl.") || className.equals(Unsafe.class.getName());
+    }
+    
+    private static String describeQuarantinedMemory(QuarantinedMemory quarantinedMemory) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("which has been freed from the allocated memory at address ").
+           append(String.format("0x%016x", quarantinedMemory.address)).
+           append(" with size ").append(quarantinedMemory.size).
+           append(" by thread '").append(quarantinedMemory.freeThreadName).append("' ").
+           append(System.currentTimeMillis() - quarantinedMemory.freeTime).append(" milliseconds ago");
+        for (StackTraceElement frame : quarantinedMemory.freeSite) {
+            sb.append("\n\tat ").append(frame);
+        }
+        return sb.toString();
+    }
+    
+    private static void checkNotQuarantined(long address, IllegalMemoryAccessListener.MemoryAccessType memoryAccessType) {
+        QuarantinedMemory quarantinedMemory = QUARANTINE.find(address, 1);
+        if (quarantinedMemory != null) {
+            String msg = "Trying to " + (memoryAccessType == FREE ? "free" : "reallocate") + 
+                         " already freed memory at address " + String.format("0x%016x", address) + " " + 
+                         describeQuarantinedMemory(quarantinedMemory);
+            if (ILLEGAL_MEMORY_ACCESS_LISTENER != null) {
+                ILLEGAL_MEMORY_ACCESS_LISTENER.onIllegalMemoryAccess(address, INVALID, memoryAccessType);
+            }
+            LOGGER.error(msg);
+            throw new IllegalArgumentException(msg);
+        }
+    }
+    
+    private static String getIllegalMemoryAccessMessage(IllegalMemoryAccessListener.MemoryAccessType memoryAccessType, 
+                                                        long address, long size) {
+        String msg = "Trying to access (" + memoryAccessType + ") unallocated (or out of the record) memory " +
+                     "at address " + String.format("0x%016x", address) + " with size " + size;
+        if (QUARANTINE != null) {
+            QuarantinedMemory quarantinedMemory = QUARANTINE.find(address, size);
+            if (quarantinedMemory != null) {
+                msg += " (use after free) " + describeQuarantinedMemory(quarantinedMemory);
+            }
+        }
+        return msg;
+    }
+    
+    //////////////////////////////////////////////////////////////////////////
+    
+    public static void checkRedZones() {
+        if (!RED_ZONE_MODE_ENABLED) {
+            throw new IllegalStateException(
+                    "Red zone mode is not enabled. " +
+                    "Please enable it with 'mysafe.enableRedZoneMode' system property");
+        }
+        synchronized (RED_ZONE_CHECK_LOCK) {
+            // Memories freed from now on are deferred until the check is finished
+            redZoneCheckInProgress = true;
+            try {
+                ALLOCATED_MEMORY_STORAGE.iterate(new AllocatedMemoryIterator() {
+                    @Override
+                    public void onAllocatedMemory(long address, long size) {
+                        checkRedZones(DEFAULT_UNSAFE, address, size);
+                    }
+                });
+            } finally {
+                redZoneCheckInProgress = false;
+                freeRedZoneDeferredMemories(DEFAULT_UNSAFE);
+            }
+        }
+    }
+    
+    private static boolean isRedZoneCheckInProgress() {
+        // Memory has been removed from the storage before, 
+        // so don't let the flag to be read before the removal is visible to the checker
+        DEFAULT_UNSAFE.fullFence();
+        return redZoneCheckInProgress;
+    }
+    
+    private static void freeRedZoneDeferredMemories(Unsafe unsafe) {
+        // Each deferred memory is polled (so freed) only once, even if there are concurrent callers
+        long[] deferredFree;
+        while ((deferredFree = RED_ZONE_DEFERRED_FREES.poll()) != null) {
+            releaseMemory(unsafe, deferredFree[0], deferredFree[1]);
+        }
+    }
+    
+    private static void checkRedZones(Unsafe unsafe, long address, long size) {
+        long corruptedAddress = RedZones.findCorruption(unsafe, address, size, RED_ZONE_SIZE);
+        if (corruptedAddress != RedZones.NO_CORRUPTION) {
+            // Repair the red zones, so the same corruption is reported only once
+            RedZones.fill(unsafe, address - RED_ZONE_SIZE, size, RED_ZONE_SIZE);
+            if (ILLEGAL_MEMORY_ACCESS_LISTENER != null) {
+                ILLEGAL_MEMORY_ACCESS_LISTENER.onIllegalMemoryAccess(corruptedAddress, 1, OUT_OF_BOUNDS_WRITE);
+            }
+            LOGGER.error("Detected out of bounds write at address " + String.format("0x%016x", corruptedAddress) + 
+                         " around the allocated memory at address " + String.format("0x%016x", address) + 
+                         " with size " + size);
+        }
+    }
+    
+    //////////////////////////////////////////////////////////////////////////
+    
     public static long getAllocatedMemorySize() {
-        return ALLOCATED_MEMORY.get();
+        return ALLOCATED_MEMORY.sum();
+    }
+    
+    public static ThreadAllocatedMemoryInfo[] getThreadAllocatedMemories() {
+        return ALLOCATED_MEMORY.getThreadAllocatedMemories();
+    }
+    
+    public static long getInternalAllocatedMemorySize() {
+        return InternalNativeMemoryAllocator.getAllocatedMemorySize();
+    }
+    
+    public static LockMetricsInfo[] getMemoryAccessLockMetrics() {
+        if (MEMORY_ACCESS_LOCK == null) {
+            return new LockMetricsInfo[0];
+        }
+        return MEMORY_ACCESS_LOCK.getMetrics();
+    }
+    
+    public static void iterateOnAllocatedMemories(final AllocatedMemoryIterator iterator) {
+        if (iterator instanceof ConcurrentAllocatedMemoryIterator) {
+            PARALLEL_ALLOCATION_RECORD_AGGREGATOR.aggregate(
+                    AllocatedMemorySplits.withAllocationPaths(AllocatedMemorySplits.of(ALLOCATED_MEMORY_STORAGE), null), 
+                    new AllocationRecordAggregator<Void>() {
+                        @Override
+                        public Void createPartialResult() {
+                            return null;
+                        }
+                        @Override
+                        public void onAllocationRecord(Void partialResult, long address, long size, long allocationPathKey) {
+                            iterator.onAllocatedMemory(address, size);
+                        }
+                        @Override
+                        public Void merge(Void partialResult1, Void partialResult2) {
+                            return null;
+                        }
+                    });
+        } else {
+            ALLOCATED_MEMORY_STORAGE.iterate(iterator);
+        }
+    }
+    
+    public static AllocatedMemoryInfo[] getAllocatedMemories() {
+        List<AllocatedMemoryInfo> allocatedMemories = 
+                aggregateAllocationRecords(new AllocationRecordAggregator<List<AllocatedMemoryInfo>>() {
+                    @Override
+                    public List<AllocatedMemoryInfo> createPartialResult() {
+                        return new ArrayList<AllocatedMemoryInfo>();
+                    }
+                    @Override
+                    public void onAllocationRecord(List<AllocatedMemoryInfo> partialResult, 
+                                                   long address, long size, long allocationPathKey) {
+                        partialResult.add(new AllocatedMemoryInfo(address, size));
+                    }
+                    @Override
+                    public List<AllocatedMemoryInfo> merge(List<AllocatedMemoryInfo> partialResult1, 
+                                                           List<AllocatedMemoryInfo> partialResult2) {
+                        partialResult1.addAll(partialResult2);
+                        return partialResult1;
+                    }
+                });
+        return allocatedMemories.toArray(new AllocatedMemoryInfo[allocatedMemories.size()]);
+    }
+    
+    private static <R> R aggregateAllocationRecords(final AllocationRecordAggregator<R> aggregator) {
+        if (ALLOCATION_PATH_MONITORING_MODE_ENABLED && THREAD_LOCAL_MEMORY_USAGE_PATTERN_EXIST) {
+            // Allocation paths are kept in thread-local storages of the allocator threads
+            // and they can only be looked up from the iterating thread itself
+            final R result = aggregator.createPartialResult();
+            iterateOnAllocationRecords(new AllocationRecordIterator() {
+                @Override
+                public void onAllocationRecord(long address, long size, long allocationPathKey) {
+                    aggregator.onAllocationRecord(result, address, size, allocationPathKey);
+                }
+            });
+            return result;
+        } else {
+            AllocationRecordSplit split = 
+                    AllocatedMemorySplits.withAllocationPaths(
+                            AllocatedMemorySplits.of(ALLOCATED_MEMORY_STORAGE), 
+                            ALLOCATION_PATH_STORAGE);
+            return PARALLEL_ALLOCATION_RECORD_AGGREGATOR.aggregate(split, aggregator);
+        }
     }
     
-    public static void iterateOnAllocatedMemories(AllocatedMemoryIterator iterator) {
-        ALLOCATED_MEMORY_STORAGE.iterate(iterator);     
+    private static void iterateOnAllocationRecords(final AllocationRecordIterator iterator) {
+        if (ALLOCATION_RECORD_STORAGE != null) {
+            ALLOCATION_RECORD_STORAGE.iterate(iterator);
+        } else {
+            ALLOCATED_MEMORY_STORAGE.iterate(new AllocatedMemoryIterator() {
+                @Override
+                public void onAllocatedMemory(long address, long size) {
+                    long allocationPathKey = 
+                            ALLOCATION_PATH_MONITORING_MODE_ENABLED 
+                                ? ALLOCATION_PATH_STORAGE.getAllocationPathKey(address)
+                                : INVALID;
+                    iterator.onAllocationRecord(address, size, allocationPathKey);
+                }
+            });
+        }
+    }
+
+    private static AllocationPath getAllocationPath(long allocationPathKey) {
+        if (allocationPathKey <= 0) {
+            return null;
+        } else {
+            return ALLOCATION_PATH_MANAGER.getAllocationPath(allocationPathKey);
+        }
     }
     
     public static void dumpAllocatedMemories(final PrintStream ps, final Unsafe unsafe) {
-        ALLOCATED_MEMORY_STORAGE.iterate(new AllocatedMemoryIterator() {
+        iterateOnAllocationRecords(new AllocationRecordIterator() {
             @Override
-            public void onAllocatedMemory(long address, long size) {
+            public void onAllocationRecord(long address, long size, long allocationPathKey) {
                 ps.println("Address         : " + String.format("0x%016x", address));
                 ps.println("Size            : " + size + " bytes");
                 ps.println("Dump            :");
                 dump(ps, unsafe, address, size);
                 if (ALLOCATION_PATH_MONITORING_MODE_ENABLED) {
                     ps.println("Allocation Path :");
-                    AllocationPath allocationPath = ALLOCATION_PATH_MANAGER.getAllocationPath(ALLOCATION_PATH_STORAGE, address);
+                    AllocationPath allocationPath = getAllocationPath(allocationPathKey);
                     if (allocationPath == null) {
                         ps.println("\tNo related allocation path!");
                     } else {
@@ -615,49 +1408,126 @@ public final class MySafeDelegator {
         }     
     }
     
-    public static void dumpAllocationPaths(final PrintStream ps) {
+    public static void dumpAllocationPaths(PrintStream ps) {
         if (ALLOCATION_PATH_MONITORING_MODE_ENABLED) {
-            ALLOCATED_MEMORY_STORAGE.iterate(new AllocatedMemoryIterator() {
+            AllocationPathUsages allocationPathUsages = 
+                    aggregateAllocationRecords(new AllocationRecordAggregator<AllocationPathUsages>() {
+                        @Override
+                        public AllocationPathUsages createPartialResult() {
+                            return new AllocationPathUsages();
+                        }
+                        @Override
+                        public void onAllocationRecord(AllocationPathUsages partialResult, 
+                                                       long address, long size, long allocationPathKey) {
+                            partialResult.add(allocationPathKey, size, 1);
+                        }
+                        @Override
+                        public AllocationPathUsages merge(AllocationPathUsages partialResult1, 
+                                                          AllocationPathUsages partialResult2) {
+                            return partialResult1.merge(partialResult2);
+                        }
+                    });
+            
+            dumpAllocationPathUsages(ps, allocationPathUsages);
+        } else {
+            ps.println("Allocation path monitoring is not enabled. " +
+                       "Please enable it with 'mysafe.enableAllocationPathMonitoringMode' system property");
+        }
+    }
+    
+    private static void dumpAllocationPathUsages(PrintStream ps, AllocationPathUsages allocationPathUsages) {
+        final Long2LongMap allocatedMemories = allocationPathUsages.allocatedMemories;
+        final Long2LongMap allocationCounts = allocationPathUsages.allocationCounts;
+        List<Long> allocationPathKeys = new ArrayList<Long>((int) allocatedMemories.size());
+        LongLongCursor cursor = allocatedMemories.cursor();
+        while (cursor.advance()) {
+            allocationPathKeys.add(cursor.key());
+        }
+        // Show the allocation paths holding the most memory first
+        Collections.sort(allocationPathKeys, new Comparator<Long>() {
+            @Override
+            public int compare(Long allocationPathKey1, Long allocationPathKey2) {
+                long allocatedMemory1 = allocatedMemories.get(allocationPathKey1);
+                long allocatedMemory2 = allocatedMemories.get(allocationPathKey2);
+                return allocatedMemory1 > allocatedMemory2 ? -1 : (allocatedMemory1 < allocatedMemory2 ? 1 : 0);
+            }
+        });
+        
+        for (long allocationPathKey : allocationPathKeys) {
+            ps.println("Allocated memory : " + allocatedMemories.get(allocationPathKey) + " bytes");
+            ps.println("Allocation count : " + allocationCounts.get(allocationPathKey));
+            ps.println("Allocation path  :");
+            AllocationPath allocationPath = getAllocationPath(allocationPathKey);
+            if (allocationPath == null) {
+                ps.println("\tNo related allocation path!");
+            } else {
+                for (String callPoint : allocationPath.callPoints) {
+                    ps.println("\t|- " + callPoint);
+                }
+            }
+            ps.println();
+            ps.print("========================================");
+            ps.print("========================================");
+            ps.println();
+            ps.println();
+        }
+    }
+    
+    public static void iterateOnAllocatedMemoriesOlderThan(long ageInMillis, AllocatedMemoryIterator iterator) {
+        checkAllocationAgeTrackingEnabled();
+        GENERATIONAL_ALLOCATED_MEMORY_STORAGE.iterateOlderThan(ageInMillis, iterator);
+    }
+    
+    public static void dumpAllocationPathsOlderThan(long ageInMillis, PrintStream ps) {
+        checkAllocationAgeTrackingEnabled();
+        if (ALLOCATION_PATH_MONITORING_MODE_ENABLED) {
+            final AllocationPathUsages allocationPathUsages = new AllocationPathUsages();
+            GENERATIONAL_ALLOCATED_MEMORY_STORAGE.iterateOlderThan(ageInMillis, new AllocatedMemoryIterator() {
                 @Override
                 public void onAllocatedMemory(long address, long size) {
-                    ps.println("Allocated memory : " + size + " bytes");
-                    ps.println("Allocation path  :");
-                    AllocationPath allocationPath = ALLOCATION_PATH_MANAGER.getAllocationPath(ALLOCATION_PATH_STORAGE, address);
-                    if (allocationPath == null) {
-                        ps.println("\tNo related allocation path!");
-                    } else {
-                        for (String callPoint : allocationPath.callPoints) {
-                            ps.println("\t|- " + callPoint);
-                        }
-                    }
-                    ps.println();
-                    ps.print("========================================");
-                    ps.print("========================================");
-                    ps.println();
-                    ps.println();
+                    allocationPathUsages.add(ALLOCATION_PATH_STORAGE.getAllocationPathKey(address), size, 1);
                 }
             });
+            dumpAllocationPathUsages(ps, allocationPathUsages);
         } else {
             ps.println("Allocation path monitoring is not enabled. " +
                        "Please enable it with 'mysafe.enableAllocationPathMonitoringMode' system property");
         }
     }
     
+    private static void checkAllocationAgeTrackingEnabled() {
+        if (!ALLOCATION_AGE_TRACKING_ENABLED) {
+            throw new IllegalStateException(
+                    "Allocation age tracking is not enabled. " +
+                    "Please enable it with 'mysafe.enableAllocationAgeTracking' system property");
+        }
+    }
+    
     public static void generateAllocationPathDiagrams() {
         generateAllocationPathDiagrams(AllocationPathDiagramGenerator.DEFAULT_DIAGRAM_NANE);
     }
     
     public static void generateAllocationPathDiagrams(String diagramName) {
         if (ALLOCATION_PATH_MONITORING_MODE_ENABLED) {
-            final Long2LongMap allocationPathMemoryUsageMap = new HeapMemoryBackedLong2LongHashMap(0);
-            ALLOCATED_MEMORY_STORAGE.iterate(new AllocatedMemoryIterator() {
-                @Override
-                public void onAllocatedMemory(long address, long size) {
-                    long allocationPathKey = ALLOCATION_PATH_STORAGE.getAllocationPathKey(address);
-                    addAllocationPathMemoryUsage(allocationPathMemoryUsageMap, allocationPathKey, size);
-                }
-            });
+            AllocationPathUsages allocationPathUsages = 
+                    aggregateAllocationRecords(new AllocationRecordAggregator<AllocationPathUsages>() {
+                        @Override
+                        public AllocationPathUsages createPartialResult() {
+                            return new AllocationPathUsages();
+                        }
+                        @Override
+                        public void onAllocationRecord(AllocationPathUsages partialResult, 
+                                                       long address, long size, long allocationPathKey) {
+                            partialResult.add(allocationPathKey, size, 1);
+                        }
+                        @Override
+                        public AllocationPathUsages merge(AllocationPathUsages partialResult1, 
+                                                          AllocationPathUsages partialResult2) {
+                            return partialResult1.merge(partialResult2);
+                        }
+                    });
 
+            Long2LongMap allocationPathMemoryUsageMap = allocationPathUsages.allocatedMemories;
             LongLongCursor cursor = allocationPathMemoryUsageMap.cursor();
             List<AllocationPathAllocatedMemory> allocationPathAllocatedMemories =
                     new ArrayList<AllocationPathAllocatedMemory>((int) allocationPathMemoryUsageMap.size());
@@ -675,12 +1545,39 @@ public final class MySafeDelegator {
         }
     }
     
-    private static void addAllocationPathMemoryUsage(Long2LongMap allocationPathMemoryUsageMap, 
-                                                     long allocationPathKey,
-                                                     long size) {
-        long allocatedMemory = allocationPathMemoryUsageMap.get(allocationPathKey);
-        allocatedMemory += size;
-        allocationPathMemoryUsageMap.put(allocationPathKey, allocatedMemory);
+    /**
+     * Allocated memories and allocation counts per allocation path 
+     * aggregated from a split of allocation records.
+     */
+    private static final class AllocationPathUsages {
+        
+        private final Long2LongMap allocatedMemories = new HeapMemoryBackedLong2LongHashMap(0);
+        private final Long2LongMap allocationCounts = new HeapMemoryBackedLong2LongHashMap(0);
+        
+        private void add(long allocationPathKey, long allocatedMemory, long allocationCount) {
+            if (allocationPathKey <= 0) {
+                // Zero is the missing value of the maps, so all unknown paths are grouped under the invalid key
+                allocationPathKey = INVALID;
+            }
+            allocatedMemories.put(allocationPathKey, allocatedMemories.get(allocationPathKey) + allocatedMemory);
+            allocationCounts.put(allocationPathKey, allocationCounts.get(allocationPathKey) + allocationCount);
+        }
+        
+        private AllocationPathUsages merge(AllocationPathUsages allocationPathUsages) {
+            AllocationPathUsages smaller = this;
+            AllocationPathUsages bigger = allocationPathUsages;
+            if (smaller.allocatedMemories.size() > bigger.allocatedMemories.size()) {
+                smaller = allocationPathUsages;
+                bigger = this;
+            }
+            LongLongCursor cursor = smaller.allocatedMemories.cursor();
+            while (cursor.advance()) {
+                long allocationPathKey = cursor.key();
+                bigger.add(allocationPathKey, cursor.value(), smaller.allocationCounts.get(allocationPathKey));
+            }
+            return bigger;
+        }
+        
     }
     
     //////////////////////////////////////////////////////////////////////////
@@ -707,23 +1604,60 @@ public final class MySafeDelegator {
 
     //////////////////////////////////////////////////////////////////////////
     
+    private static boolean isAllocated(long address, long size) {
+        if (MEMORY_REGION_CACHE_ENABLED) {
+            MemoryRegionCache memoryRegionCache = MEMORY_REGION_CACHES.get();
+            if (memoryRegionCache.contains(address, size)) {
+                return true;
+            }
+            // Free epoch must be read before the lookup, so a region freed meanwhile is not cached as valid
+            long freeEpoch = memoryRegionCache.freeEpochOf(address);
+            if (MEMORY_REGION_RESOLVER != null) {
+                long startAddress = MEMORY_REGION_RESOLVER.findAllocatedMemoryStart(address, size);
+                if (startAddress == INVALID) {
+                    return false;
+                }
+                long allocationSize = ALLOCATED_MEMORY_STORAGE.get(startAddress);
+                if (allocationSize == INVALID || (address + size) > (startAddress + allocationSize)) {
+                    // Freed or reallocated concurrently
+                    return false;
+                }
+                memoryRegionCache.add(startAddress, startAddress + allocationSize, address, freeEpoch);
+                return true;
+            } else if (ALLOCATED_MEMORY_STORAGE.contains(address, size)) {
+                // Bounds of the containing allocated memory are not known, so only the accessed range is cached
+                memoryRegionCache.add(address, address + size, address, freeEpoch);
+                return true;
+            } else {
+                return false;
+            }
+        }
+        return ALLOCATED_MEMORY_STORAGE.contains(address, size);
+    }
+    
     private static void checkMemoryAccess(long address, long size, 
             IllegalMemoryAccessListener.MemoryAccessType memoryAccessType) {
         if (SAFE_MEMORY_ACCESS_MODE_ENABLED) {
             if (MEMORY_ACCESS_LOCK != null) {
-                MEMORY_ACCESS_LOCK.acquireAccessLock();
-            }    
-            if (!ALLOCATED_MEMORY_STORAGE.contains(address, size)) {
+                MEMORY_ACCESS_LOCK.acquireAccessLock(address, size);
+            } else if (EPOCH_BASED_MEMORY_RECLAIMER != null) {
+                EPOCH_BASED_MEMORY_RECLAIMER.enterCriticalSection();
+            }
+            if (MEMORY_ACCESS_CHECK_SAMPLER != null && !MEMORY_ACCESS_CHECK_SAMPLER.sample()) {
+                // Not sampled, so not checked. Access lock (if there is) is released on return as usual
+                return;
+            }
+            if (!isAllocated(address, size)) {
                 if (MEMORY_ACCESS_LOCK != null) {
-                    MEMORY_ACCESS_LOCK.releaseAccessLock();
-                }    
+                    MEMORY_ACCESS_LOCK.releaseAccessLock(address, size);
+                } else if (EPOCH_BASED_MEMORY_RECLAIMER != null) {
+                    EPOCH_BASED_MEMORY_RECLAIMER.exitCriticalSection();
+                }
                 if (ILLEGAL_MEMORY_ACCESS_LISTENER != null) {
                     ILLEGAL_MEMORY_ACCESS_LISTENER.onIllegalMemoryAccess(
                             address, size,  memoryAccessType);
                 }
-                throw new IllegalArgumentException(
-                            "Trying to access (" + memoryAccessType + ") unallocated (or out of the record) memory " +
-                            "at address " + String.format("0x%016x", address) + " with size " + size);
+                throw new IllegalArgumentException(getIllegalMemoryAccessMessage(memoryAccessType, address, size));
             }
         }
     }
@@ -731,66 +1665,90 @@ public final class MySafeDelegator {
     private static void checkMemoryAccess(long sourceAddress, long destinationAddress, long size) {
         if (SAFE_MEMORY_ACCESS_MODE_ENABLED) {
             if (MEMORY_ACCESS_LOCK != null) {
-                MEMORY_ACCESS_LOCK.acquireAccessLock();
+                MEMORY_ACCESS_LOCK.acquireAccessLock(sourceAddress, destinationAddress, size);
+            } else if (EPOCH_BASED_MEMORY_RECLAIMER != null) {
+                EPOCH_BASED_MEMORY_RECLAIMER.enterCriticalSection();
+            }
+            if (MEMORY_ACCESS_CHECK_SAMPLER != null && !MEMORY_ACCESS_CHECK_SAMPLER.sample()) {
+                // Not sampled, so not checked. Access lock (if there is) is released on return as usual
+                return;
             }
-            if (!ALLOCATED_MEMORY_STORAGE.contains(sourceAddress, size)) {
+            if (!isAllocated(sourceAddress, size)) {
                 if (MEMORY_ACCESS_LOCK != null) {
-                    MEMORY_ACCESS_LOCK.releaseAccessLock();
-                } 
+                    MEMORY_ACCESS_LOCK.releaseAccessLock(sourceAddress, destinationAddress, size);
+                } else if (EPOCH_BASED_MEMORY_RECLAIMER != null) {
+                    EPOCH_BASED_MEMORY_RECLAIMER.exitCriticalSection();
+                }
                 if (ILLEGAL_MEMORY_ACCESS_LISTENER != null) {
                     ILLEGAL_MEMORY_ACCESS_LISTENER.onIllegalMemoryAccess(
                             sourceAddress, size,  READ);
                 }
-                throw new IllegalArgumentException(
-                            "Trying to access (" + READ + ") unallocated (or out of the record) memory " +
-                            "at address " + String.format("0x%016x", sourceAddress) + " with size " + size);
+                throw new IllegalArgumentException(getIllegalMemoryAccessMessage(READ, sourceAddress, size));
                 
             }
-            if (!ALLOCATED_MEMORY_STORAGE.contains(destinationAddress, size)) {
+            if (!isAllocated(destinationAddress, size)) {
                 if (MEMORY_ACCESS_LOCK != null) {
-                    MEMORY_ACCESS_LOCK.releaseAccessLock();
-                } 
+                    MEMORY_ACCESS_LOCK.releaseAccessLock(sourceAddress, destinationAddress, size);
+                } else if (EPOCH_BASED_MEMORY_RECLAIMER != null) {
+                    EPOCH_BASED_MEMORY_RECLAIMER.exitCriticalSection();
+                }
                 if (ILLEGAL_MEMORY_ACCESS_LISTENER != null) {
                     ILLEGAL_MEMORY_ACCESS_LISTENER.onIllegalMemoryAccess(
                             destinationAddress, size,  WRITE);
                 }
-                throw new IllegalArgumentException(
-                            "Trying to access (" + WRITE + ") unallocated (or out of the record) memory " +
-                            "at address " + String.format("0x%016x", destinationAddress) + " with size " + size);
+                throw new IllegalArgumentException(getIllegalMemoryAccessMessage(WRITE, destinationAddress, size));
             }
         }
     }
     
-    private static void onReturnMemoryAccess() {
+    private static void onReturnMemoryAccess(long address, long size) {
         if (SAFE_MEMORY_ACCESS_MODE_ENABLED && MEMORY_ACCESS_LOCK != null) {
-            MEMORY_ACCESS_LOCK.releaseAccessLock();
-        }    
+            MEMORY_ACCESS_LOCK.releaseAccessLock(address, size);
+        } else if (EPOCH_BASED_MEMORY_RECLAIMER != null) {
+            EPOCH_BASED_MEMORY_RECLAIMER.exitCriticalSection();
+        }
+    }
+    
+    private static void onReturnMemoryAccess(long sourceAddress, long destinationAddress, long size) {
+        if (SAFE_MEMORY_ACCESS_MODE_ENABLED && MEMORY_ACCESS_LOCK != null) {
+            MEMORY_ACCESS_LOCK.releaseAccessLock(sourceAddress, destinationAddress, size);
+        } else if (EPOCH_BASED_MEMORY_RECLAIMER != null) {
+            EPOCH_BASED_MEMORY_RECLAIMER.exitCriticalSection();
+        }
     }
     
     private static void checkMemoryAccess(Object o, long offset, long size,
             IllegalMemoryAccessListener.MemoryAccessType memoryAccessType) {
         if (SAFE_MEMORY_ACCESS_MODE_ENABLED && o == null) {
             if (MEMORY_ACCESS_LOCK != null) {
-                MEMORY_ACCESS_LOCK.acquireAccessLock();
+                MEMORY_ACCESS_LOCK.acquireAccessLock(offset, size);
+            } else if (EPOCH_BASED_MEMORY_RECLAIMER != null) {
+                EPOCH_BASED_MEMORY_RECLAIMER.enterCriticalSection();
+            }
+            if (MEMORY_ACCESS_CHECK_SAMPLER != null && !MEMORY_ACCESS_CHECK_SAMPLER.sample()) {
+                // Not sampled, so not checked. Access lock (if there is) is released on return as usual
+                return;
             }
-            if (!ALLOCATED_MEMORY_STORAGE.contains(offset, size)) {
+            if (!isAllocated(offset, size)) {
                 if (MEMORY_ACCESS_LOCK != null) {
-                    MEMORY_ACCESS_LOCK.releaseAccessLock();
+                    MEMORY_ACCESS_LOCK.releaseAccessLock(offset, size);
+                } else if (EPOCH_BASED_MEMORY_RECLAIMER != null) {
+                    EPOCH_BASED_MEMORY_RECLAIMER.exitCriticalSection();
                 }
                 if (ILLEGAL_MEMORY_ACCESS_LISTENER != null) {
                     ILLEGAL_MEMORY_ACCESS_LISTENER.onIllegalMemoryAccess(
                             offset, size, memoryAccessType);
                 }
-                throw new IllegalArgumentException(
-                            "Trying to access (" + memoryAccessType + ") unallocated (or out of the record) memory " +
-                            "at address " + String.format("0x%016x", offset) + " with size " + size);
+                throw new IllegalArgumentException(getIllegalMemoryAccessMessage(memoryAccessType, offset, size));
             }
         }
     }
     
-    private static void onReturnMemoryAccess(Object o) {
+    private static void onReturnMemoryAccess(Object o, long offset, long size) {
         if (SAFE_MEMORY_ACCESS_MODE_ENABLED && MEMORY_ACCESS_LOCK != null && o == null) {
-            MEMORY_ACCESS_LOCK.releaseAccessLock();
+            MEMORY_ACCESS_LOCK.releaseAccessLock(offset, size);
+        } else if (EPOCH_BASED_MEMORY_RECLAIMER != null && o == null) {
+            EPOCH_BASED_MEMORY_RECLAIMER.exitCriticalSection();
         }
     }
     
@@ -798,39 +1756,48 @@ public final class MySafeDelegator {
             Object destinationObject, long destinationOffset, long size) {
         if (SAFE_MEMORY_ACCESS_MODE_ENABLED && sourceObject == null && destinationObject == null) {
             if (MEMORY_ACCESS_LOCK != null) {
-                MEMORY_ACCESS_LOCK.acquireAccessLock();
+                MEMORY_ACCESS_LOCK.acquireAccessLock(sourceOffset, destinationOffset, size);
+            } else if (EPOCH_BASED_MEMORY_RECLAIMER != null) {
+                EPOCH_BASED_MEMORY_RECLAIMER.enterCriticalSection();
             }
-            if (!ALLOCATED_MEMORY_STORAGE.contains(sourceOffset, size)) {
+            if (MEMORY_ACCESS_CHECK_SAMPLER != null && !MEMORY_ACCESS_CHECK_SAMPLER.sample()) {
+                // Not sampled, so not checked. Access lock (if there is) is released on return as usual
+                return;
+            }
+            if (!isAllocated(sourceOffset, size)) {
                 if (MEMORY_ACCESS_LOCK != null) {
-                    MEMORY_ACCESS_LOCK.releaseAccessLock();
+                    MEMORY_ACCESS_LOCK.releaseAccessLock(sourceOffset, destinationOffset, size);
+                } else if (EPOCH_BASED_MEMORY_RECLAIMER != null) {
+                    EPOCH_BASED_MEMORY_RECLAIMER.exitCriticalSection();
                 }
                 if (ILLEGAL_MEMORY_ACCESS_LISTENER != null) {
                     ILLEGAL_MEMORY_ACCESS_LISTENER.onIllegalMemoryAccess(
                             sourceOffset, size, READ);
                 }
-                throw new IllegalArgumentException(
-                            "Trying to access (" + READ + ") unallocated (or out of the record) memory " +
-                            "at address " + String.format("0x%016x", sourceOffset) + " with size " + size);
+                throw new IllegalArgumentException(getIllegalMemoryAccessMessage(READ, sourceOffset, size));
             }
-            if (!ALLOCATED_MEMORY_STORAGE.contains(destinationOffset, size)) {
+            if (!isAllocated(destinationOffset, size)) {
                 if (MEMORY_ACCESS_LOCK != null) {
-                    MEMORY_ACCESS_LOCK.releaseAccessLock();
+                    MEMORY_ACCESS_LOCK.releaseAccessLock(sourceOffset, destinationOffset, size);
+                } else if (EPOCH_BASED_MEMORY_RECLAIMER != null) {
+                    EPOCH_BASED_MEMORY_RECLAIMER.exitCriticalSection();
                 }
                 if (ILLEGAL_MEMORY_ACCESS_LISTENER != null) {
                     ILLEGAL_MEMORY_ACCESS_LISTENER.onIllegalMemoryAccess(
                             destinationOffset, size, WRITE);
                 }
-                throw new IllegalArgumentException(
-                            "Trying to access (" + WRITE + ") unallocated (or out of the record) memory " +
-                            "at address " + String.format("0x%016x", destinationOffset) + " with size " + size);
+                throw new IllegalArgumentException(getIllegalMemoryAccessMessage(WRITE, destinationOffset, size));
             }
         }
     }
 
-    private static void onReturnMemoryAccess(Object sourceObject, Object destinationObject) {
+    private static void onReturnMemoryAccess(Object sourceObject, long sourceOffset, 
+            Object destinationObject, long destinationOffset, long size) {
         if (SAFE_MEMORY_ACCESS_MODE_ENABLED && MEMORY_ACCESS_LOCK != null && 
                 sourceObject == null && destinationObject == null) {
-            MEMORY_ACCESS_LOCK.releaseAccessLock();
+            MEMORY_ACCESS_LOCK.releaseAccessLock(sourceOffset, destinationOffset, size);
+        } else if (EPOCH_BASED_MEMORY_RECLAIMER != null && sourceObject == null && destinationObject == null) {
+            EPOCH_BASED_MEMORY_RECLAIMER.exitCriticalSection();
         }
     }
     
@@ -842,7 +1809,7 @@ public final class MySafeDelegator {
         try {
             return UNSAFE_MEMORY_ACCESSOR.getBoolean(unsafe, o, offset);
         } finally {
-            onReturnMemoryAccess(o);
+            onReturnMemoryAccess(o, offset, 1);
         }
     }
 
@@ -852,7 +1819,7 @@ public final class MySafeDelegator {
         try {
             UNSAFE_MEMORY_ACCESSOR.putBoolean(unsafe, o, offset, x);
         } finally {
-            onReturnMemoryAccess(o);
+            onReturnMemoryAccess(o, offset, 1);
         }
     }
 
@@ -862,7 +1829,7 @@ public final class MySafeDelegator {
         try {
             return UNSAFE_MEMORY_ACCESSOR.getByte(unsafe, o, offset);
         } finally {
-            onReturnMemoryAccess(o);
+            onReturnMemoryAccess(o, offset, 1);
         }
     }
 
@@ -872,7 +1839,7 @@ public final class MySafeDelegator {
         try {
             UNSAFE_MEMORY_ACCESSOR.putByte(unsafe, o, offset, x);
         } finally {
-            onReturnMemoryAccess(o);
+            onReturnMemoryAccess(o, offset, 1);
         }
     }
     
@@ -882,7 +1849,7 @@ public final class MySafeDelegator {
         try {
             return UNSAFE_MEMORY_ACCESSOR.getChar(unsafe, o, offset);
         } finally {
-            onReturnMemoryAccess(o);
+            onReturnMemoryAccess(o, offset, 2);
         }
     }
 
@@ -892,7 +1859,7 @@ public final class MySafeDelegator {
         try {
             UNSAFE_MEMORY_ACCESSOR.putChar(unsafe, o, offset, x);
         } finally {
-            onReturnMemoryAccess(o);
+            onReturnMemoryAccess(o, offset, 2);
         }
     }
 
@@ -902,7 +1869,7 @@ public final class MySafeDelegator {
         try {
             return UNSAFE_MEMORY_ACCESSOR.getShort(unsafe, o, offset);
         } finally {
-            onReturnMemoryAccess(o);
+            onReturnMemoryAccess(o, offset, 2);
         }
     }
 
@@ -912,7 +1879,7 @@ public final class MySafeDelegator {
         try {
             UNSAFE_MEMORY_ACCESSOR.putShort(unsafe, o, offset, x);
         } finally {
-            onReturnMemoryAccess(o);
+            onReturnMemoryAccess(o, offset, 2);
         }
     }
 
@@ -922,7 +1889,7 @@ public final class MySafeDelegator {
         try {
             return UNSAFE_MEMORY_ACCESSOR.getInt(unsafe, o, (long)offset);
         } finally {
-            onReturnMemoryAccess(o);
+            onReturnMemoryAccess(o, offset, 4);
         }
     }
 
@@ -932,7 +1899,7 @@ public final class MySafeDelegator {
         try {
             UNSAFE_MEMORY_ACCESSOR.putInt(unsafe, o, offset, x);
         } finally {
-            onReturnMemoryAccess(o);
+            onReturnMemoryAccess(o, offset, 4);
         }
     }
 
@@ -942,7 +1909,7 @@ public final class MySafeDelegator {
         try {
             return UNSAFE_MEMORY_ACCESSOR.getFloat(unsafe, o, offset);
         } finally {
-            onReturnMemoryAccess(o);
+            onReturnMemoryAccess(o, offset, 4);
         }
     }
 
@@ -952,7 +1919,7 @@ public final class MySafeDelegator {
         try {
             UNSAFE_MEMORY_ACCESSOR.putFloat(unsafe, o, offset, x);
         } finally {
-            onReturnMemoryAccess(o);
+            onReturnMemoryAccess(o, offset, 4);
         }
     }
 
@@ -962,7 +1929,7 @@ public final class MySafeDelegator {
         try {
             return UNSAFE_MEMORY_ACCESSOR.getLong(unsafe, o, offset);
         } finally {
-            onReturnMemoryAccess(o);
+            onReturnMemoryAccess(o, offset, 8);
         }
     }
 
@@ -972,7 +1939,7 @@ public final class MySafeDelegator {
         try {
             UNSAFE_MEMORY_ACCESSOR.putLong(unsafe, o, offset, x);
         } finally {
-            onReturnMemoryAccess(o);
+            onReturnMemoryAccess(o, offset, 8);
         }
     }
 
@@ -982,7 +1949,7 @@ public final class MySafeDelegator {
         try {
             return UNSAFE_MEMORY_ACCESSOR.getDouble(unsafe, o, offset);
         } finally {
-            onReturnMemoryAccess(o);
+            onReturnMemoryAccess(o, offset, 8);
         }
     }
 
@@ -992,7 +1959,7 @@ public final class MySafeDelegator {
         try {
             UNSAFE_MEMORY_ACCESSOR.putDouble(unsafe, o, offset, x);
         } finally {
-            onReturnMemoryAccess(o);
+            onReturnMemoryAccess(o, offset, 8);
         }
     }
 
@@ -1002,7 +1969,7 @@ public final class MySafeDelegator {
         try {
             return UNSAFE_MEMORY_ACCESSOR.getObject(unsafe, o, offset);
         } finally {
-            onReturnMemoryAccess(o);
+            onReturnMemoryAccess(o, offset, OBJECT_REFERENCE_SIZE);
         }
     }
 
@@ -1012,7 +1979,7 @@ public final class MySafeDelegator {
         try {
             UNSAFE_MEMORY_ACCESSOR.putObject(unsafe, o, offset, x);
         } finally {
-            onReturnMemoryAccess(o);
+            onReturnMemoryAccess(o, offset, OBJECT_REFERENCE_SIZE);
         }
     }
     
@@ -1023,7 +1990,7 @@ public final class MySafeDelegator {
         try {
             return UNSAFE_MEMORY_ACCESSOR.getBoolean(unsafe, o, offset);
         } finally {
-            onReturnMemoryAccess(o);
+            onReturnMemoryAccess(o, offset, 1);
         }
     }
     
@@ -1032,7 +1999,7 @@ public final class MySafeDelegator {
         try {
             UNSAFE_MEMORY_ACCESSOR.putBoolean(unsafe, o, offset, x);
         } finally {
-            onReturnMemoryAccess(o);
+            onReturnMemoryAccess(o, offset, 1);
         }
     }
     
@@ -1041,7 +2008,7 @@ public final class MySafeDelegator {
         try {
             return UNSAFE_MEMORY_ACCESSOR.getByte(unsafe, o, offset);
         } finally {
-            onReturnMemoryAccess(o);
+            onReturnMemoryAccess(o, offset, 1);
         }
     }
     
@@ -1050,7 +2017,7 @@ public final class MySafeDelegator {
         try {
             UNSAFE_MEMORY_ACCESSOR.putByte(unsafe, o, offset, x);
         } finally {
-            onReturnMemoryAccess(o);
+            onReturnMemoryAccess(o, offset, 1);
         }
     }
     
@@ -1059,7 +2026,7 @@ public final class MySafeDelegator {
         try {
             return UNSAFE_MEMORY_ACCESSOR.getChar(unsafe, o, offset);
         } finally {
-            onReturnMemoryAccess(o);
+            onReturnMemoryAccess(o, offset, 2);
         }
     }
     
@@ -1068,7 +2035,7 @@ public final class MySafeDelegator {
         try {
             UNSAFE_MEMORY_ACCESSOR.putChar(unsafe, o, offset, x);
         } finally {
-            onReturnMemoryAccess(o);
+            onReturnMemoryAccess(o, offset, 2);
         }
     }
     
@@ -1077,7 +2044,7 @@ public final class MySafeDelegator {
         try {
             return UNSAFE_MEMORY_ACCESSOR.getShort(unsafe, o, offset);
         } finally {
-            onReturnMemoryAccess(o);
+            onReturnMemoryAccess(o, offset, 2);
         }
     }
     
@@ -1086,7 +2053,7 @@ public final class MySafeDelegator {
         try {
             UNSAFE_MEMORY_ACCESSOR.putShort(unsafe, o, offset, x);
         } finally {
-            onReturnMemoryAccess(o);
+            onReturnMemoryAccess(o, offset, 2);
         }
     }
     
@@ -1095,7 +2062,7 @@ public final class MySafeDelegator {
         try {
             return UNSAFE_MEMORY_ACCESSOR.getInt(unsafe, o, offset);
         } finally {
-            onReturnMemoryAccess(o);
+            onReturnMemoryAccess(o, offset, 4);
         }
     }
     
@@ -1104,7 +2071,7 @@ public final class MySafeDelegator {
         try {
             UNSAFE_MEMORY_ACCESSOR.putInt(unsafe, o, offset, x);
         } finally {
-            onReturnMemoryAccess(o);
+            onReturnMemoryAccess(o, offset, 4);
         }
     }
     
@@ -1113,7 +2080,7 @@ public final class MySafeDelegator {
         try {
             return UNSAFE_MEMORY_ACCESSOR.getFloat(unsafe, o, offset);
         } finally {
-            onReturnMemoryAccess(o);
+            onReturnMemoryAccess(o, offset, 4);
         }
     }
     
@@ -1122,7 +2089,7 @@ public final class MySafeDelegator {
         try {
             UNSAFE_MEMORY_ACCESSOR.putFloat(unsafe, o, offset, x);
         } finally {
-            onReturnMemoryAccess(o);
+            onReturnMemoryAccess(o, offset, 4);
         }
     }
     
@@ -1131,7 +2098,7 @@ public final class MySafeDelegator {
         try {
             return UNSAFE_MEMORY_ACCESSOR.getLong(unsafe, o, offset);
         } finally {
-            onReturnMemoryAccess(o);
+            onReturnMemoryAccess(o, offset, 8);
         }
     }
     
@@ -1140,7 +2107,7 @@ public final class MySafeDelegator {
         try {
             UNSAFE_MEMORY_ACCESSOR.putLong(unsafe, o, offset, x);
         } finally {
-            onReturnMemoryAccess(o);
+            onReturnMemoryAccess(o, offset, 8);
         }
     }
     
@@ -1149,7 +2116,7 @@ public final class MySafeDelegator {
         try {
             return UNSAFE_MEMORY_ACCESSOR.getDouble(unsafe, o, offset);
         } finally {
-            onReturnMemoryAccess(o);
+            onReturnMemoryAccess(o, offset, 8);
         }
     }
     
@@ -1158,7 +2125,7 @@ public final class MySafeDelegator {
         try {
             UNSAFE_MEMORY_ACCESSOR.putDouble(unsafe, o, offset, x);
         } finally {
-            onReturnMemoryAccess(o);
+            onReturnMemoryAccess(o, offset, 8);
         }
     }
     
@@ -1167,7 +2134,7 @@ public final class MySafeDelegator {
         try {
             return UNSAFE_MEMORY_ACCESSOR.getObject(unsafe, o, offset);
         } finally {
-            onReturnMemoryAccess(o);
+            onReturnMemoryAccess(o, offset, OBJECT_REFERENCE_SIZE);
         }
     }
     
@@ -1176,7 +2143,7 @@ public final class MySafeDelegator {
         try {
             UNSAFE_MEMORY_ACCESSOR.putObject(unsafe, o, offset, x);
         } finally {
-            onReturnMemoryAccess(o);
+            onReturnMemoryAccess(o, offset, OBJECT_REFERENCE_SIZE);
         }
     }
     
@@ -1187,7 +2154,7 @@ public final class MySafeDelegator {
         try {
             return UNSAFE_MEMORY_ACCESSOR.getBooleanVolatile(unsafe, o, offset);
         } finally {
-            onReturnMemoryAccess(o);
+            onReturnMemoryAccess(o, offset, 1);
         }
     }
     
@@ -1196,7 +2163,7 @@ public final class MySafeDelegator {
         try {
             UNSAFE_MEMORY_ACCESSOR.putBooleanVolatile(unsafe, o, offset, x);
         } finally {
-            onReturnMemoryAccess(o);
+            onReturnMemoryAccess(o, offset, 1);
         }
     }
     
@@ -1205,7 +2172,7 @@ public final class MySafeDelegator {
         try {
             return UNSAFE_MEMORY_ACCESSOR.getByteVolatile(unsafe, o, offset);
         } finally {
-            onReturnMemoryAccess(o);
+            onReturnMemoryAccess(o, offset, 1);
         }
     }
     
@@ -1214,7 +2181,7 @@ public final class MySafeDelegator {
         try {
             UNSAFE_MEMORY_ACCESSOR.putByteVolatile(unsafe, o, offset, x);
         } finally {
-            onReturnMemoryAccess(o);
+            onReturnMemoryAccess(o, offset, 1);
         }
     }
     
@@ -1223,7 +2190,7 @@ public final class MySafeDelegator {
         try {
             return UNSAFE_MEMORY_ACCESSOR.getCharVolatile(unsafe, o, offset);
         } finally {
-            onReturnMemoryAccess(o);
+            onReturnMemoryAccess(o, offset, 2);
         }
     }
     
@@ -1232,7 +2199,7 @@ public final class MySafeDelegator {
         try {
             UNSAFE_MEMORY_ACCESSOR.putCharVolatile(unsafe, o, offset, x);
         } finally {
-            onReturnMemoryAccess(o);
+            onReturnMemoryAccess(o, offset, 2);
         }
     }
     
@@ -1241,7 +2208,7 @@ public final class MySafeDelegator {
         try {
             return UNSAFE_MEMORY_ACCESSOR.getShortVolatile(unsafe, o, offset);
         } finally {
-            onReturnMemoryAccess(o);
+            onReturnMemoryAccess(o, offset, 2);
         }
     }
     
@@ -1250,7 +2217,7 @@ public final class MySafeDelegator {
         try {
             UNSAFE_MEMORY_ACCESSOR.putShortVolatile(unsafe, o, offset, x);
         } finally {
-            onReturnMemoryAccess(o);
+            onReturnMemoryAccess(o, offset, 2);
         }
     }
     
@@ -1259,7 +2226,7 @@ public final class MySafeDelegator {
         try {
             return UNSAFE_MEMORY_ACCESSOR.getIntVolatile(unsafe, o, offset);
         } finally {
-            onReturnMemoryAccess(o);
+            onReturnMemoryAccess(o, offset, 4);
         }
     }
     
@@ -1268,7 +2235,7 @@ public final class MySafeDelegator {
         try {
             UNSAFE_MEMORY_ACCESSOR.putIntVolatile(unsafe, o, offset, x);
         } finally {
-            onReturnMemoryAccess(o);
+            onReturnMemoryAccess(o, offset, 4);
         }
     }
     
@@ -1277,7 +2244,7 @@ public final class MySafeDelegator {
         try {
             return UNSAFE_MEMORY_ACCESSOR.getFloatVolatile(unsafe, o, offset);
         } finally {
-            onReturnMemoryAccess(o);
+            onReturnMemoryAccess(o, offset, 4);
         }
     }
     
@@ -1286,7 +2253,7 @@ public final class MySafeDelegator {
         try {
             UNSAFE_MEMORY_ACCESSOR.putFloatVolatile(unsafe, o, offset, x);
         } finally {
-            onReturnMemoryAccess(o);
+            onReturnMemoryAccess(o, offset, 4);
         }
     }
     
@@ -1295,7 +2262,7 @@ public final class MySafeDelegator {
         try {
             return UNSAFE_MEMORY_ACCESSOR.getLongVolatile(unsafe, o, offset);
         } finally {
-            onReturnMemoryAccess(o);
+            onReturnMemoryAccess(o, offset, 8);
         }
     }
     
@@ -1304,7 +2271,7 @@ public final class MySafeDelegator {
         try {
             UNSAFE_MEMORY_ACCESSOR.putLongVolatile(unsafe, o, offset, x);
         } finally {
-            onReturnMemoryAccess(o);
+            onReturnMemoryAccess(o, offset, 8);
         }
     }
     
@@ -1313,7 +2280,7 @@ public final class MySafeDelegator {
         try {
             return UNSAFE_MEMORY_ACCESSOR.getDoubleVolatile(unsafe, o, offset);
         } finally {
-            onReturnMemoryAccess(o);
+            onReturnMemoryAccess(o, offset, 8);
         }
     }
     
@@ -1322,7 +2289,7 @@ public final class MySafeDelegator {
         try {
             UNSAFE_MEMORY_ACCESSOR.putDoubleVolatile(unsafe, o, offset, x);
         } finally {
-            onReturnMemoryAccess(o);
+            onReturnMemoryAccess(o, offset, 8);
         }
     }
     
@@ -1331,7 +2298,7 @@ public final class MySafeDelegator {
         try {
             return UNSAFE_MEMORY_ACCESSOR.getObjectVolatile(unsafe, o, offset);
         } finally {
-            onReturnMemoryAccess(o);
+            onReturnMemoryAccess(o, offset, OBJECT_REFERENCE_SIZE);
         }
     }
     
@@ -1340,7 +2307,7 @@ public final class MySafeDelegator {
         try {
             UNSAFE_MEMORY_ACCESSOR.putObjectVolatile(unsafe, o, offset, x);
         } finally {
-            onReturnMemoryAccess(o);
+            onReturnMemoryAccess(o, offset, OBJECT_REFERENCE_SIZE);
         }
     }
     
@@ -1351,7 +2318,7 @@ public final class MySafeDelegator {
         try {
             return UNSAFE_MEMORY_ACCESSOR.getByte(unsafe, address) == 0 ? false : true;
         } finally {
-            onReturnMemoryAccess();
+            onReturnMemoryAccess(address, 1);
         }
     }
     
@@ -1360,7 +2327,7 @@ public final class MySafeDelegator {
         try {
             UNSAFE_MEMORY_ACCESSOR.putByte(unsafe, address, x ? (byte) 0x01 : (byte) 0x00);
         } finally {
-            onReturnMemoryAccess();
+            onReturnMemoryAccess(address, 1);
         }
     }
     
@@ -1369,7 +2336,7 @@ public final class MySafeDelegator {
         try {
             return UNSAFE_MEMORY_ACCESSOR.getByte(unsafe, address);
         } finally {
-            onReturnMemoryAccess();
+            onReturnMemoryAccess(address, 1);
         }
     }
     
@@ -1378,7 +2345,7 @@ public final class MySafeDelegator {
         try {
             UNSAFE_MEMORY_ACCESSOR.putByte(unsafe, address, x);
         } finally {
-            onReturnMemoryAccess();
+            onReturnMemoryAccess(address, 1);
         }
     }
     
@@ -1387,7 +2354,7 @@ public final class MySafeDelegator {
         try {
             return UNSAFE_MEMORY_ACCESSOR.getChar(unsafe, address);
         } finally {
-            onReturnMemoryAccess();
+            onReturnMemoryAccess(address, 2);
         }
     }
     
@@ -1396,7 +2363,7 @@ public final class MySafeDelegator {
         try {
             UNSAFE_MEMORY_ACCESSOR.putChar(unsafe, address, x);
         } finally {
-            onReturnMemoryAccess();
+            onReturnMemoryAccess(address, 2);
         }
     }
     
@@ -1405,7 +2372,7 @@ public final class MySafeDelegator {
         try {
             return UNSAFE_MEMORY_ACCESSOR.getShort(unsafe, address);
         } finally {
-            onReturnMemoryAccess();
+            onReturnMemoryAccess(address, 2);
         }
     }
     
@@ -1414,7 +2381,7 @@ public final class MySafeDelegator {
         try {
             UNSAFE_MEMORY_ACCESSOR.putShort(unsafe, address, x);
         } finally {
-            onReturnMemoryAccess();
+            onReturnMemoryAccess(address, 2);
         }
     }
     
@@ -1423,7 +2390,7 @@ public final class MySafeDelegator {
         try {
             return UNSAFE_MEMORY_ACCESSOR.getInt(unsafe, address);
         } finally {
-            onReturnMemoryAccess();
+            onReturnMemoryAccess(address, 4);
         }
     }
     
@@ -1432,7 +2399,7 @@ public final class MySafeDelegator {
         try {
             UNSAFE_MEMORY_ACCESSOR.putInt(unsafe, address, x);
         } finally {
-            onReturnMemoryAccess();
+            onReturnMemoryAccess(address, 4);
         }
     }
     
@@ -1441,7 +2408,7 @@ public final class MySafeDelegator {
         try {
             return UNSAFE_MEMORY_ACCESSOR.getFloat(unsafe, address);
         } finally {
-            onReturnMemoryAccess();
+            onReturnMemoryAccess(address, 4);
         }
     }
     
@@ -1450,7 +2417,7 @@ public final class MySafeDelegator {
         try {
             UNSAFE_MEMORY_ACCESSOR.putFloat(unsafe, address, x);
         } finally {
-            onReturnMemoryAccess();
+            onReturnMemoryAccess(address, 4);
         }
     }
     
@@ -1459,7 +2426,7 @@ public final class MySafeDelegator {
         try {
             return UNSAFE_MEMORY_ACCESSOR.getLong(unsafe, address);
         } finally {
-            onReturnMemoryAccess();
+            onReturnMemoryAccess(address, 8);
         }
     }
     
@@ -1468,7 +2435,7 @@ public final class MySafeDelegator {
         try {
             UNSAFE_MEMORY_ACCESSOR.putLong(unsafe, address, x);
         } finally {
-            onReturnMemoryAccess();
+            onReturnMemoryAccess(address, 8);
         }
     }
     
@@ -1477,7 +2444,7 @@ public final class MySafeDelegator {
         try {
             return UNSAFE_MEMORY_ACCESSOR.getDouble(unsafe, address);
         } finally {
-            onReturnMemoryAccess();
+            onReturnMemoryAccess(address, 8);
         }
     }
     
@@ -1486,7 +2453,7 @@ public final class MySafeDelegator {
         try {
             UNSAFE_MEMORY_ACCESSOR.putDouble(unsafe, address, x);
         } finally {
-            onReturnMemoryAccess();
+            onReturnMemoryAccess(address, 8);
         }
     }
     
@@ -1497,7 +2464,7 @@ public final class MySafeDelegator {
         try {
             return UNSAFE_MEMORY_ACCESSOR.getAddress(unsafe, address);
         } finally {
-            onReturnMemoryAccess();
+            onReturnMemoryAccess(address, OBJECT_REFERENCE_SIZE);
         }
     }
     
@@ -1506,7 +2473,7 @@ public final class MySafeDelegator {
         try {
             UNSAFE_MEMORY_ACCESSOR.putAddress(unsafe, address, x);
         } finally {
-            onReturnMemoryAccess();
+            onReturnMemoryAccess(address, OBJECT_REFERENCE_SIZE);
         }
     }
     
@@ -1517,7 +2484,7 @@ public final class MySafeDelegator {
         try {
             UNSAFE_MEMORY_ACCESSOR.setMemory(unsafe, address, bytes, value);
         } finally {
-            onReturnMemoryAccess();
+            onReturnMemoryAccess(address, bytes);
         }
     }
     
@@ -1529,7 +2496,7 @@ public final class MySafeDelegator {
         try {
             UNSAFE_MEMORY_ACCESSOR.setMemory(unsafe, o, offset, bytes, value);
         } finally {
-            onReturnMemoryAccess(o);
+            onReturnMemoryAccess(o, offset, bytes);
         }
     }
     
@@ -1538,7 +2505,7 @@ public final class MySafeDelegator {
         try {
             UNSAFE_MEMORY_ACCESSOR.copyMemory(unsafe, srcAddress, destAddress, bytes);
         } finally {
-            onReturnMemoryAccess();
+            onReturnMemoryAccess(srcAddress, destAddress, bytes);
         }
     }
     
@@ -1551,7 +2518,7 @@ public final class MySafeDelegator {
         try {
             UNSAFE_MEMORY_ACCESSOR.copyMemory(unsafe, srcBase, srcOffset, destBase, destOffset, bytes);
         } finally {
-            onReturnMemoryAccess(srcBase, destBase);
+            onReturnMemoryAccess(srcBase, srcOffset, destBase, destOffset, bytes);
         }
     }
     
@@ -1563,7 +2530,7 @@ public final class MySafeDelegator {
         try {
             return UNSAFE_MEMORY_ACCESSOR.compareAndSwapInt(unsafe, o, offset, expected, x);
         } finally {
-            onReturnMemoryAccess(o);
+            onReturnMemoryAccess(o, offset, 4);
         }
     }
 
@@ -1573,7 +2540,7 @@ public final class MySafeDelegator {
         try {
             return UNSAFE_MEMORY_ACCESSOR.compareAndSwapLong(unsafe, o, offset, expected, x);
         } finally {
-            onReturnMemoryAccess(o);
+            onReturnMemoryAccess(o, offset, 8);
         }
     }
 
@@ -1583,7 +2550,7 @@ public final class MySafeDelegator {
         try {
             return UNSAFE_MEMORY_ACCESSOR.compareAndSwapObject(unsafe, o, offset, expected, x);
         } finally {
-            onReturnMemoryAccess(o);
+            onReturnMemoryAccess(o, offset, OBJECT_REFERENCE_SIZE);
         }
     }
 
@@ -1594,7 +2561,7 @@ public final class MySafeDelegator {
         try {
             UNSAFE_MEMORY_ACCESSOR.putOrderedInt(unsafe, o, offset, x);
         } finally {
-            onReturnMemoryAccess(o);
+            onReturnMemoryAccess(o, offset, 4);
         }
     }
 
@@ -1603,7 +2570,7 @@ public final class MySafeDelegator {
         try {
             UNSAFE_MEMORY_ACCESSOR.putOrderedLong(unsafe, o, offset, x);
         } finally {
-            onReturnMemoryAccess(o);
+            onReturnMemoryAccess(o, offset, 8);
         }
     }
     
@@ -1612,7 +2579,7 @@ public final class MySafeDelegator {
         try {
             UNSAFE_MEMORY_ACCESSOR.putOrderedObject(unsafe, o, offset, x);
         } finally {
-            onReturnMemoryAccess(o);
+            onReturnMemoryAccess(o, offset, OBJECT_REFERENCE_SIZE);
         }
     }
 
@@ -1626,7 +2593,7 @@ public final class MySafeDelegator {
         try {
             return UNSAFE_MEMORY_ACCESSOR.getAndAddInt(unsafe, o, offset, delta);
         } finally {
-            onReturnMemoryAccess(o);
+            onReturnMemoryAccess(o, offset, 4);
         }
     }
     
@@ -1638,7 +2605,7 @@ public final class MySafeDelegator {
         try {
             return UNSAFE_MEMORY_ACCESSOR.getAndAddLong(unsafe, o, offset, delta);
         } finally {
-            onReturnMemoryAccess(o);
+            onReturnMemoryAccess(o, offset, 8);
         }
     }
     
@@ -1650,7 +2617,7 @@ public final class MySafeDelegator {
         try {
             return UNSAFE_MEMORY_ACCESSOR.getAndSetInt(unsafe, o, offset, newValue);
         } finally {
-            onReturnMemoryAccess(o);
+            onReturnMemoryAccess(o, offset, 4);
         }
     }
     
@@ -1662,7 +2629,7 @@ public final class MySafeDelegator {
         try {
             return UNSAFE_MEMORY_ACCESSOR.getAndSetLong(unsafe, o, offset, newValue);
         } finally {
-            onReturnMemoryAccess(o);
+            onReturnMemoryAccess(o, offset, 8);
         }
     }
     
@@ -1674,7 +2641,7 @@ public final class MySafeDelegator {
         try {
             return UNSAFE_MEMORY_ACCESSOR.getAndSetObject(unsafe, o, offset, newValue);
         } finally {
-            onReturnMemoryAccess(o);
+            onReturnMemoryAccess(o, offset, OBJECT_REFERENCE_SIZE);
         }
     }
     
@@ -8,6 +8,8 @@ import tr.com.serkanozal.mysafe.impl.allocpath.storage.AllocationPathStorage;
  */
 public interface AllocationPathManager {
 
+    long resolveAllocationPathKey(int skipFrameCount);
+
     void saveAllocationPathOnAllocation(AllocationPathStorage allocationPathStorage, long address, int skipFrameCount);
 
     void deleteAllocationPathOnFree(AllocationPathStorage allocationPathStorage, long address);
@@ -102,8 +102,7 @@ public class InstrumentationBasedAllocationPathManager implements AllocationPath
     }
 
     // "synchronized" is used for atomicity of whole operation, not for visibility
-    private synchronized void backTraceAndInjectCallPoints(AllocationPathStorage allocationPathStorage,
-                                                           long address, int skipFrameCount) {
+    private synchronized long backTraceAndInjectCallPoints(int skipFrameCount) {
         skipFrameCount++;
         StackTraceElement[] stackTraceElements = Thread.currentThread().getStackTrace();
         skipFrameCount++;
@@ -154,11 +153,18 @@ public class InstrumentationBasedAllocationPathManager implements AllocationPath
             prematureAllocationPaths.put(allocationPathKey, Boolean.TRUE);
         }
 
-        allocationPathStorage.connectAddressWithAllocationPath(address, allocationPathKey);
+        return allocationPathKey;
     }
 
     @Override
     public void saveAllocationPathOnAllocation(AllocationPathStorage allocationPathStorage, long address, int skipFrameCount) {
+        skipFrameCount++;
+        long allocationPathKey = resolveAllocationPathKey(skipFrameCount);
+        allocationPathStorage.connectAddressWithAllocationPath(address, allocationPathKey);
+    }
+
+    @Override
+    public long resolveAllocationPathKey(int skipFrameCount) {
         skipFrameCount++;
         ThreadLocalAllocationPath threadLocalAllocationPath = THREAD_LOCAL_ALLOCATION_PATH_MAP.get();
         int callPointIndex = threadLocalAllocationPath.allocationCallPointIndex;
@@ -169,12 +175,12 @@ public class InstrumentationBasedAllocationPathManager implements AllocationPath
 
             // Back-trace call path and instrument each method
             // by creating, registering and injecting call points.
-            backTraceAndInjectCallPoints(allocationPathStorage, address, skipFrameCount);
+            return backTraceAndInjectCallPoints(skipFrameCount);
         } else {
             long allocationPathKey = threadLocalAllocationPath.allocationPathKey;
             if (callPointIndex < AllocationPath.MAX_ALLOCATION_PATH_DEPTH) {
                 if (prematureAllocationPaths.containsKey(allocationPathKey)) {
-                    allocationPathStorage.connectAddressWithAllocationPath(address, allocationPathKey);
+                    return allocationPathKey;
                 } else {
                     /*
                      * Back-trace call path and check
@@ -184,10 +190,10 @@ public class InstrumentationBasedAllocationPathManager implements AllocationPath
                      * - Else, Back-trace call path and instrument each method
                      *   by creating, registering and injecting call points until max allocation path depth.
                      */
-                    backTraceAndInjectCallPoints(allocationPathStorage, address, skipFrameCount);
+                    return backTraceAndInjectCallPoints(skipFrameCount);
                 }
             } else {
-                allocationPathStorage.connectAddressWithAllocationPath(address, allocationPathKey);
+                return allocationPathKey;
             }
         }
     }
@@ -15,143 +15,234 @@
  */
 package tr.com.serkanozal.mysafe.impl.allocpath.storage;
 
-import java.lang.ref.SoftReference;
-import java.util.Iterator;
-import java.util.Map;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.TimeUnit;
 
 import sun.misc.Unsafe;
+import tr.com.serkanozal.mysafe.impl.util.Compactable;
 
-abstract class AbstractThreadLocalAllocationPathStorage implements AllocationPathStorage {
+abstract class AbstractThreadLocalAllocationPathStorage implements AllocationPathStorage, Compactable {
 
+    private static final long INVALID = -1;
+    
     protected final Unsafe unsafe;
-    private final ConcurrentMap<SoftReference<Thread>, AllocationPathStorage> allAllocationPathStorages =
-            new ConcurrentHashMap<SoftReference<Thread>, AllocationPathStorage>();
-    private final ThreadLocal<AllocationPathStorage> threadLocalAllocationPathStorages;
+    private final ConcurrentMap<ThreadReference, AbstractInternalThreadLocalAllocationPathStorage> allAllocationPathStorages =
+            new ConcurrentHashMap<ThreadReference, AbstractInternalThreadLocalAllocationPathStorage>();
+    private final ThreadLocal<AbstractInternalThreadLocalAllocationPathStorage> threadLocalAllocationPathStorages =
+            new ThreadLocal<AbstractInternalThreadLocalAllocationPathStorage>();
+    // References of the garbage collected (so dead) threads are enqueued here by the GC
+    private final ReferenceQueue<Thread> deadThreadReferences = new ReferenceQueue<Thread>();
+    // Allocation paths of the live memories of the dead threads
+    private final AllocationPathStorage orphanAllocationPathStorage = new StripedAllocationPathStorage();
+    private volatile boolean orphanAllocationPathExist;
 
-    public AbstractThreadLocalAllocationPathStorage(final Unsafe unsafe,
-                                                    ScheduledExecutorService scheduler) {
+    public AbstractThreadLocalAllocationPathStorage(Unsafe unsafe) {
         this.unsafe = unsafe;
-        this.threadLocalAllocationPathStorages = new ThreadLocal<AllocationPathStorage>() {
-            @Override
-            protected AllocationPathStorage initialValue() {
-                AllocationPathStorage allocationPathStorage = createInternalThreadLocalAllocationPathStorage(unsafe);
-                SoftReference<Thread> threadRef = new SoftReference<Thread>(Thread.currentThread());
-                allAllocationPathStorages.put(threadRef, allocationPathStorage);
-                return allocationPathStorage;
-            };
-        };
-        scheduler.scheduleAtFixedRate(new IdleThreadLocalAllocationPathStorageCleaner(), 5, 5, TimeUnit.SECONDS);
     }
     
-    abstract protected AllocationPathStorage createInternalThreadLocalAllocationPathStorage(Unsafe unsafe);
+    abstract protected AbstractInternalThreadLocalAllocationPathStorage 
+            createInternalThreadLocalAllocationPathStorage(Unsafe unsafe);
 
+    private AbstractInternalThreadLocalAllocationPathStorage threadLocalAllocationPathStorage(boolean create) {
+        AbstractInternalThreadLocalAllocationPathStorage allocationPathStorage = 
+                threadLocalAllocationPathStorages.get();
+        if (allocationPathStorage == null && create) {
+            expungeDeadThreads();
+            allocationPathStorage = createInternalThreadLocalAllocationPathStorage(unsafe);
+            allAllocationPathStorages.put(
+                    new ThreadReference(Thread.currentThread(), deadThreadReferences), 
+                    allocationPathStorage);
+            threadLocalAllocationPathStorages.set(allocationPathStorage);
+        }
+        return allocationPathStorage;
+    }
+    
+    private void expungeDeadThreads() {
+        Reference<? extends Thread> threadRef;
+        while ((threadRef = deadThreadReferences.poll()) != null) {
+            AbstractInternalThreadLocalAllocationPathStorage allocationPathStorage = 
+                    allAllocationPathStorages.remove(threadRef);
+            if (allocationPathStorage != null) {
+                if (!allocationPathStorage.isEmpty()) {
+                    // Owner thread is dead, so there is no concurrent writer
+                    allocationPathStorage.copyAllocationPathsTo(orphanAllocationPathStorage);
+                    orphanAllocationPathExist = true;
+                }
+                allocationPathStorage.freeResources();
+            }
+        }
+    }
+    
     @Override
     public long getAllocationPathKey(long address) {
-        return threadLocalAllocationPathStorages.get().getAllocationPathKey(address);
+        AbstractInternalThreadLocalAllocationPathStorage allocationPathStorage = 
+                threadLocalAllocationPathStorage(false);
+        long allocationPathKey = 
+                allocationPathStorage != null 
+                    ? allocationPathStorage.getAllocationPathKey(address) 
+                    : INVALID;
+        if (allocationPathKey == INVALID && orphanAllocationPathExist) {
+            allocationPathKey = orphanAllocationPathStorage.getAllocationPathKey(address);
+        }
+        return allocationPathKey;
     }
     
     @Override
     public void connectAddressWithAllocationPath(long address, long allocationPathKey) {
-        threadLocalAllocationPathStorages.get().connectAddressWithAllocationPath(address, allocationPathKey);
+        threadLocalAllocationPathStorage(true).connectAddressWithAllocationPath(address, allocationPathKey);
     }
 
     @Override
     public void disconnectAddressFromAllocationPath(long address) {
-        threadLocalAllocationPathStorages.get().disconnectAddressFromAllocationPath(address);
+        AbstractInternalThreadLocalAllocationPathStorage allocationPathStorage = 
+                threadLocalAllocationPathStorage(false);
+        if (allocationPathStorage != null) {
+            allocationPathStorage.disconnectAddressFromAllocationPath(address);
+        }
+        if (orphanAllocationPathExist) {
+            orphanAllocationPathStorage.disconnectAddressFromAllocationPath(address);
+        }
     }
     
     @Override
     public boolean isEmpty() {
-        Iterator<Map.Entry<SoftReference<Thread>, AllocationPathStorage>> iter =
-                allAllocationPathStorages.entrySet().iterator();
-        while (iter.hasNext()) {
-            Map.Entry<SoftReference<Thread>, AllocationPathStorage> entry = iter.next();
-            if (isIdle(entry)) {
-                iter.remove();
-            } else {
-                AllocationPathStorage allocationPathStorage = entry.getValue();
-                if (!allocationPathStorage.isEmpty()) {
-                    return false;
-                }
+        expungeDeadThreads();
+        for (AbstractInternalThreadLocalAllocationPathStorage allocationPathStorage 
+                : allAllocationPathStorages.values()) {
+            if (!allocationPathStorage.isEmpty()) {
+                return false;
             }
         }
-        return true;
+        return orphanAllocationPathStorage.isEmpty();
     }
-
-    private boolean isIdle(Map.Entry<SoftReference<Thread>, AllocationPathStorage> entry) {
-        SoftReference<Thread> threadRef = entry.getKey();
-        Thread thread = threadRef.get();
-        if (thread == null || !thread.isAlive()) {
-            return entry.getValue().isEmpty();
-        } 
-        return false;
+    
+    /**
+     * Weak reference to the owner thread of a storage. 
+     * Enqueued by the GC when the thread is garbage collected, so there is no need to poll threads.
+     * Uses identity equality, so it can be used as key in the storage map.
+     */
+    /**
+     * Reclaims the storages of the dead threads and requests compaction from the live ones. 
+     * Storages are only written by their owner threads, 
+     * so a storage is compacted by its owner thread on its next write.
+     */
+    @Override
+    public void compact() {
+        expungeDeadThreads();
+        for (AbstractInternalThreadLocalAllocationPathStorage allocationPathStorage 
+                : allAllocationPathStorages.values()) {
+            allocationPathStorage.requestCompaction();
+        }
     }
-
-    private class IdleThreadLocalAllocationPathStorageCleaner implements Runnable {
-
-        @Override
-        public void run() {
-            Iterator<Map.Entry<SoftReference<Thread>, AllocationPathStorage>> iter =
-                    allAllocationPathStorages.entrySet().iterator();
-            while (iter.hasNext()) {
-                Map.Entry<SoftReference<Thread>, AllocationPathStorage> entry = iter.next();
-                if (isIdle(entry)) {
-                    iter.remove();
-                }
-            }
+    
+    private static final class ThreadReference extends WeakReference<Thread> {
+        
+        private ThreadReference(Thread thread, ReferenceQueue<Thread> queue) {
+            super(thread, queue);
         }
         
     }
     
     protected abstract class AbstractInternalThreadLocalAllocationPathStorage implements AllocationPathStorage {
 
-        private static final int AVAILABLE = 0x00;
-        private static final int IN_PROGRESS = 0x01;
-        
         private final Unsafe UNSAFE;
-        private final long stateFieldOffset;
+        private final long versionFieldOffset;
         
         /*
-         * This field is used to support happens-before (HB) and synchronized access 
-         * between memory allocator/disposer thread and allocated memory iterator thread(s).
-         * Note that HB is supported by CAS and volatile write on this field.
+         * This field is used to support happens-before (HB) and consistent reads 
+         * between memory allocator/disposer thread and other thread(s) as a sequence lock (seqlock).
          * 
-         * There will be no blocking from the allocator/disposer thread's perspective, 
+         * There is only one writer which is the owner (allocator/disposer) thread, 
          * because this storage is thread-local and always will be accessed by same thread.
-         * So there will be no concurrent mutating accesses into here.
+         * So the owner thread never blocks and never does CAS. It only makes the version odd 
+         * before writing and makes it even again after writing by ordered stores.
          * 
-         * However, there can be different thread(s) to iterate on allocated memories.
-         * From their perspective, they can block each other and they be blocked each other.
-         * Also, they can block allocator/disposer thread and they be blocked allocator/disposer thread.
-         * But since iterating will not be frequently, we can live with locking in these cases.
+         * Other threads read optimistically and retry if the version has been changed while reading.
          */
-        @SuppressWarnings("unused")
-        private volatile int state = AVAILABLE;
+        private volatile long version;
+        // Set by the background compaction and handled by the owner thread on its next write
+        private volatile boolean compactionRequested;
         
         protected AbstractInternalThreadLocalAllocationPathStorage(Unsafe unsafe) {
             UNSAFE = unsafe;
             try {
-                stateFieldOffset = 
+                versionFieldOffset = 
                         UNSAFE.objectFieldOffset(
-                                AbstractInternalThreadLocalAllocationPathStorage.class.getDeclaredField("state"));
+                                AbstractInternalThreadLocalAllocationPathStorage.class.getDeclaredField("version"));
             } catch (Throwable t) {
                 throw new IllegalStateException(t);
             }
         }
         
-        protected void acquire() {
-            while (UNSAFE.compareAndSwapInt(this, stateFieldOffset, AVAILABLE, IN_PROGRESS));
+        protected void beginWrite() {
+            UNSAFE.putOrderedLong(this, versionFieldOffset, version + 1);
+            // Don't let the writes on the storage to be reordered before odd version is visible 
+            UNSAFE.storeFence();
+        }
+        
+        protected void endWrite() {
+            if (compactionRequested) {
+                compactionRequested = false;
+                compactResources();
+            }
+            UNSAFE.putOrderedLong(this, versionFieldOffset, version + 1);
+        }
+        
+        /**
+         * Checks whether this storage is empty. 
+         * Might be called concurrently with the owner thread, 
+         * so it must not fail or loop forever in that case. The result is validated by the caller.
+         * 
+         * @return <code>true</code> if this storage is empty, otherwise <code>false</code>
+         */
+        abstract protected boolean doIsEmpty();
+        
+        /**
+         * Copies all the allocation paths into the given storage. 
+         * Called only after the owner thread has been garbage collected, 
+         * so there is no concurrent writer.
+         * 
+         * @param allocationPathStorage the {@link AllocationPathStorage} to copy allocation paths into
+         */
+        abstract protected void copyAllocationPathsTo(AllocationPathStorage allocationPathStorage);
+        
+        private void requestCompaction() {
+            compactionRequested = true;
+        }
+        
+        /**
+         * Compacts the resources (such as sparse tables) of this storage. 
+         * Called by the owner thread while writing when compaction is requested.
+         */
+        protected void compactResources() {
+        }
+        
+        /**
+         * Frees all the resources (such as native memory) of this storage when it is retired. 
+         * Called only after the allocation paths have been copied, so there is no concurrent writer.
+         */
+        protected void freeResources() {
         }
         
-        protected void free() {
-            state = AVAILABLE;
+        @Override
+        public boolean isEmpty() {
+            for (;;) {
+                long v;
+                while (((v = version) & 1) != 0) {
+                    Thread.yield();
+                }
+                boolean empty = doIsEmpty();
+                // Don't let the reads on the storage to be reordered after version check
+                UNSAFE.loadFence();
+                if (version == v) {
+                    return empty;
+                }
+            }
         }
 
     }
 
 }
-
@@ -15,22 +15,20 @@
  */
 package tr.com.serkanozal.mysafe.impl.allocpath.storage;
 
-import java.util.concurrent.ScheduledExecutorService;
-
 import sun.misc.Unsafe;
 import tr.com.serkanozal.mysafe.ThreadLocalMemoryUsageDecider;
+import tr.com.serkanozal.mysafe.impl.util.Compactable;
 
-public class ThreadLocalAwareAllocationPathStorage implements AllocationPathStorage {
+public class ThreadLocalAwareAllocationPathStorage implements AllocationPathStorage, Compactable {
 
     private final AllocationPathStorage globalAllocationPathStorage;
     private final AllocationPathStorage threadLocalAllocationPathStorage;
     private final ThreadLocalMemoryUsageDecider threadLocalMemoryUsageDecider;
     
     public ThreadLocalAwareAllocationPathStorage(Unsafe unsafe,
-                                                 ThreadLocalMemoryUsageDecider threadLocalMemoryUsageDecider,
-                                                 ScheduledExecutorService scheduler) {
-        this.globalAllocationPathStorage = new DefaultAllocationPathStorage();
-        this.threadLocalAllocationPathStorage = new ThreadLocalDefaultAllocationPathStorage(unsafe, scheduler);
+                                                 ThreadLocalMemoryUsageDecider threadLocalMemoryUsageDecider) {
+        this.globalAllocationPathStorage = new StripedAllocationPathStorage();
+        this.threadLocalAllocationPathStorage = new ThreadLocalDefaultAllocationPathStorage(unsafe);
         this.threadLocalMemoryUsageDecider = threadLocalMemoryUsageDecider;
     }
     
@@ -64,5 +62,10 @@ public class ThreadLocalAwareAllocationPathStorage implements AllocationPathStor
         }
         return false;
     }
+    
+    @Override
+    public void compact() {
+        ((Compactable) threadLocalAllocationPathStorage).compact();
+    }
 
 }
@@ -15,23 +15,38 @@
  */
 package tr.com.serkanozal.mysafe.impl.allocpath.storage;
 
-import java.util.concurrent.ScheduledExecutorService;
+import org.apache.log4j.Logger;
 
 import sun.misc.Unsafe;
 import tr.com.serkanozal.mysafe.impl.util.HeapMemoryBackedLong2LongHashMap;
+import tr.com.serkanozal.mysafe.impl.util.HeapMemoryBackedRobinHoodLong2LongHashMap;
 import tr.com.serkanozal.mysafe.impl.util.Long2LongMap;
+import tr.com.serkanozal.mysafe.impl.util.Long2LongMap.LongLongCursor;
 import tr.com.serkanozal.mysafe.impl.util.NativeMemoryBackedLong2LongHashMap;
+import tr.com.serkanozal.mysafe.impl.util.NativeMemoryBackedRobinHoodLong2LongHashMap;
 
 public class ThreadLocalDefaultAllocationPathStorage extends AbstractThreadLocalAllocationPathStorage {
 
     private static final boolean USE_NATIVE_MEMORY = Boolean.getBoolean("mysafe.useNativeMemoryForStorageWhenSupported");
+    private static final boolean USE_ROBIN_HOOD_HASHING = Boolean.getBoolean("mysafe.useRobinHoodHashingForStorage");
+    private static final boolean USE_INCREMENTAL_REHASH = Boolean.getBoolean("mysafe.useIncrementalRehashForStorage");
+    private static final long INITIAL_CAPACITY = 16;
     
-    public ThreadLocalDefaultAllocationPathStorage(Unsafe unsafe, ScheduledExecutorService scheduler) {
-        super(unsafe, scheduler);
+    private static final Logger LOGGER = Logger.getLogger(ThreadLocalDefaultAllocationPathStorage.class);
+    
+    static {
+        if (USE_ROBIN_HOOD_HASHING && USE_INCREMENTAL_REHASH) {
+            LOGGER.warn("Robin Hood hashing based maps are not rehashed incrementally, " + 
+                        "so \"mysafe.useIncrementalRehashForStorage\" is ignored");
+        }
+    }
+    
+    public ThreadLocalDefaultAllocationPathStorage(Unsafe unsafe) {
+        super(unsafe);
     }
 
     @Override
-    protected AllocationPathStorage createInternalThreadLocalAllocationPathStorage(Unsafe unsafe) {
+    protected AbstractInternalThreadLocalAllocationPathStorage createInternalThreadLocalAllocationPathStorage(Unsafe unsafe) {
         return new InternalThreadLocalDefaultAllocationPathStorage(unsafe);
     }
     
@@ -40,8 +55,16 @@ public class ThreadLocalDefaultAllocationPathStorage extends AbstractThreadLocal
 
         private final Long2LongMap allocationPathMap =
                 USE_NATIVE_MEMORY 
-                    ? new NativeMemoryBackedLong2LongHashMap(unsafe, -1)
-                    : new HeapMemoryBackedLong2LongHashMap(-1);
+                    ? (USE_ROBIN_HOOD_HASHING 
+                            ? new NativeMemoryBackedRobinHoodLong2LongHashMap(unsafe, -1)
+                            : new NativeMemoryBackedLong2LongHashMap(unsafe, INITIAL_CAPACITY, 
+                                    NativeMemoryBackedLong2LongHashMap.DEFAULT_LOAD_FACTOR, 
+                                    -1, false, USE_INCREMENTAL_REHASH))
+                    : (USE_ROBIN_HOOD_HASHING 
+                            ? new HeapMemoryBackedRobinHoodLong2LongHashMap(-1)
+                            : new HeapMemoryBackedLong2LongHashMap(INITIAL_CAPACITY, 
+                                    HeapMemoryBackedLong2LongHashMap.DEFAULT_LOAD_FACTOR, 
+                                    -1, USE_INCREMENTAL_REHASH));
  
         private InternalThreadLocalDefaultAllocationPathStorage(Unsafe unsafe) {
             super(unsafe);
@@ -54,33 +77,46 @@ public class ThreadLocalDefaultAllocationPathStorage extends AbstractThreadLocal
 
         @Override
         public void connectAddressWithAllocationPath(long address, long allocationPathKey) {
-            acquire();
+            beginWrite();
             try {
                 allocationPathMap.put(address, allocationPathKey);
             } finally {
-                free();
+                endWrite();
             }
         }
 
         @Override
         public void disconnectAddressFromAllocationPath(long address) {
-            acquire();
+            beginWrite();
             try {
                 allocationPathMap.remove(address);
             } finally {
-                free();
+                endWrite();
             }
         }
         
         @Override
-        public boolean isEmpty() {
-            acquire();
-            try {
-                return allocationPathMap.isEmpty();
-            } finally {
-                free();
+        protected boolean doIsEmpty() {
+            return allocationPathMap.isEmpty();
+        }
+        
+        @Override
+        protected void copyAllocationPathsTo(AllocationPathStorage allocationPathStorage) {
+            LongLongCursor cursor = allocationPathMap.cursor();
+            while (cursor.advance()) {
+                allocationPathStorage.connectAddressWithAllocationPath(cursor.key(), cursor.value());
             }
         }
+        
+        @Override
+        protected void compactResources() {
+            allocationPathMap.shrink();
+        }
+        
+        @Override
+        protected void freeResources() {
+            allocationPathMap.dispose();
+        }
 
     }
 
@@ -15,13 +15,12 @@
  */
 package tr.com.serkanozal.mysafe.impl.mx;
 
-import java.util.ArrayList;
-import java.util.List;
-
 import tr.com.serkanozal.mysafe.AllocatedMemoryInfo;
-import tr.com.serkanozal.mysafe.AllocatedMemoryIterator;
+import tr.com.serkanozal.mysafe.LockMetricsInfo;
 import tr.com.serkanozal.mysafe.MySafe;
 import tr.com.serkanozal.mysafe.MySafeMXBean;
+import tr.com.serkanozal.mysafe.ThreadAllocatedMemoryInfo;
+import tr.com.serkanozal.mysafe.impl.MySafeDelegator;
 
 public class MySafeMXBeanImpl implements MySafeMXBean {
 
@@ -29,17 +28,25 @@ public class MySafeMXBeanImpl implements MySafeMXBean {
     public long getAllocatedMemorySize() {
         return MySafe.getAllocatedMemorySize();
     }
+    
+    @Override
+    public ThreadAllocatedMemoryInfo[] getThreadAllocatedMemories() {
+        return MySafe.getThreadAllocatedMemories();
+    }
+    
+    @Override
+    public long getInternalAllocatedMemorySize() {
+        return MySafe.getInternalAllocatedMemorySize();
+    }
+    
+    @Override
+    public LockMetricsInfo[] getMemoryAccessLockMetrics() {
+        return MySafe.getMemoryAccessLockMetrics();
+    }
 
     @Override
     public AllocatedMemoryInfo[] getAllocatedMemories() {
-        final List<AllocatedMemoryInfo> allocatedMemories = new ArrayList<AllocatedMemoryInfo>();
-        MySafe.iterateOnAllocatedMemories(new AllocatedMemoryIterator() {
-            @Override
-            public void onAllocatedMemory(long address, long size) {
-                allocatedMemories.add(new AllocatedMemoryInfo(address, size));
-            }
-        });
-        return allocatedMemories.toArray(new AllocatedMemoryInfo[0]);
+        return MySafeDelegator.getAllocatedMemories();
     }
 
     @Override
@@ -0,0 +1,74 @@
+/*
+ * Copyright (c) 2017, Serkan OZAL, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tr.com.serkanozal.mysafe.impl.storage;
+
+import tr.com.serkanozal.mysafe.AllocatedMemoryIterator;
+import tr.com.serkanozal.mysafe.AllocatedMemorySplit;
+
+/**
+ * {@link AllocatedMemorySplit} implementation which covers a range of indexes 
+ * (such as stripes or table slots) as <code>[fromIndex, toIndex)</code>.
+ * It is split by halving its range.
+ * 
+ * @author Serkan OZAL
+ */
+public abstract class AbstractIndexRangeAllocatedMemorySplit implements AllocatedMemorySplit {
+
+    protected int fromIndex;
+    protected final int toIndex;
+    
+    protected AbstractIndexRangeAllocatedMemorySplit(int fromIndex, int toIndex) {
+        this.fromIndex = fromIndex;
+        this.toIndex = toIndex;
+    }
+    
+    @Override
+    public AllocatedMemorySplit trySplit() {
+        if (toIndex - fromIndex < 2) {
+            return null;
+        }
+        int midIndex = (fromIndex + toIndex) >>> 1;
+        AllocatedMemorySplit split = createSplit(fromIndex, midIndex);
+        fromIndex = midIndex;
+        return split;
+    }
+
+    @Override
+    public void iterate(AllocatedMemoryIterator iterator) {
+        for (int i = fromIndex; i < toIndex; i++) {
+            iterate(i, iterator);
+        }
+    }
+    
+    /**
+     * Creates a new split of the same type which covers the given range.
+     * 
+     * @param fromIndex the start index (inclusive)
+     * @param toIndex   the end index (exclusive)
+     * @return the created split
+     */
+    protected abstract AllocatedMemorySplit createSplit(int fromIndex, int toIndex);
+    
+    /**
+     * Iterates on the allocated memories at the given index.
+     * 
+     * @param index     the index
+     * @param iterator  the {@link AllocatedMemoryIterator} instance to be notified 
+     *                  for each allocated memory while iterating
+     */
+    protected abstract void iterate(int index, AllocatedMemoryIterator iterator);
+    
+}
@@ -15,170 +15,793 @@
  */
 package tr.com.serkanozal.mysafe.impl.storage;
 
-import java.lang.ref.SoftReference;
-import java.util.Iterator;
-import java.util.Map;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.TimeUnit;
 
 import sun.misc.Unsafe;
 import tr.com.serkanozal.mysafe.AllocatedMemoryIterator;
+import tr.com.serkanozal.mysafe.AllocatedMemorySplit;
 import tr.com.serkanozal.mysafe.AllocatedMemoryStorage;
+import tr.com.serkanozal.mysafe.SplittableAllocatedMemoryStorage;
+import tr.com.serkanozal.mysafe.impl.util.Compactable;
+import tr.com.serkanozal.mysafe.impl.util.HeapMemoryBackedLong2LongHashMap;
+import tr.com.serkanozal.mysafe.impl.util.Long2LongMap;
 
-abstract class AbstractThreadLocalAllocatedMemoryStorage implements AllocatedMemoryStorage {
+abstract class AbstractThreadLocalAllocatedMemoryStorage implements SplittableAllocatedMemoryStorage, Compactable {
+
+    // Marks the remote frees of a storage whose memories are moved into the orphan storage
+    private static final RemoteFree CLOSED = new RemoteFree(INVALID);
 
     protected final Unsafe unsafe;
-    private final ConcurrentMap<SoftReference<Thread>, AllocatedMemoryStorage> allAllocatedMemoryStorages =
-            new ConcurrentHashMap<SoftReference<Thread>, AllocatedMemoryStorage>();
-    private final ThreadLocal<AllocatedMemoryStorage> threadLocalAllocatedMemoryStorages;
+    private final ConcurrentMap<ThreadReference, AbstractInternalThreadLocalAllocatedMemoryStorage> allAllocatedMemoryStorages =
+            new ConcurrentHashMap<ThreadReference, AbstractInternalThreadLocalAllocatedMemoryStorage>();
+    private final ThreadLocal<AbstractInternalThreadLocalAllocatedMemoryStorage> threadLocalAllocatedMemoryStorages =
+            new ThreadLocal<AbstractInternalThreadLocalAllocatedMemoryStorage>();
+    // References of the garbage collected (so dead) threads are enqueued here by the GC
+    private final ReferenceQueue<Thread> deadThreadReferences = new ReferenceQueue<Thread>();
+    // Live memories of the dead threads. They are still freeable and iterable through this storage.
+    private final AllocatedMemoryStorage orphanAllocatedMemoryStorage;
+    private volatile RemoteFreeListener remoteFreeListener;
     
-    public AbstractThreadLocalAllocatedMemoryStorage(final Unsafe unsafe, ScheduledExecutorService scheduler) {
+    public AbstractThreadLocalAllocatedMemoryStorage(Unsafe unsafe) {
         this.unsafe = unsafe;
-        this.threadLocalAllocatedMemoryStorages = new ThreadLocal<AllocatedMemoryStorage>() {
-            @Override
-            protected AllocatedMemoryStorage initialValue() {
-                AllocatedMemoryStorage allocatedMemoryStorage = createInternalThreadLocalAllocatedMemoryStorage(unsafe);
-                SoftReference<Thread> threadRef = new SoftReference<Thread>(Thread.currentThread());
-                allAllocatedMemoryStorages.put(threadRef, allocatedMemoryStorage);
-                return allocatedMemoryStorage;
-            };
-        };
-        scheduler.scheduleAtFixedRate(new IdleThreadLocalAllocatedMemoryStorageCleaner(), 5, 5, TimeUnit.SECONDS);
-    }
-    
-    abstract protected AllocatedMemoryStorage createInternalThreadLocalAllocatedMemoryStorage(Unsafe unsafe);
+        this.orphanAllocatedMemoryStorage = createOrphanAllocatedMemoryStorage();
+    }
+    
+    abstract protected AbstractInternalThreadLocalAllocatedMemoryStorage 
+            createInternalThreadLocalAllocatedMemoryStorage(Unsafe unsafe);
+    
+    /**
+     * Sets the listener to be notified when a memory is freed by a thread other than its allocator, 
+     * so the freed memory can be accounted to its allocator.
+     * 
+     * @param remoteFreeListener the {@link RemoteFreeListener} to be notified
+     */
+    public void setRemoteFreeListener(RemoteFreeListener remoteFreeListener) {
+        this.remoteFreeListener = remoteFreeListener;
+    }
+    
+    /**
+     * Creates the thread-safe storage where live memories of the dead threads are moved into.
+     * It is only used for freeing and iterating on these memories.
+     * 
+     * @return the created {@link AllocatedMemoryStorage}
+     */
+    protected AllocatedMemoryStorage createOrphanAllocatedMemoryStorage() {
+        return new StripedAllocatedMemoryStorage();
+    }
 
+    private AbstractInternalThreadLocalAllocatedMemoryStorage threadLocalAllocatedMemoryStorage(boolean create) {
+        AbstractInternalThreadLocalAllocatedMemoryStorage allocatedMemoryStorage = 
+                threadLocalAllocatedMemoryStorages.get();
+        if (allocatedMemoryStorage == null) {
+            // Don't create storage for the threads which don't allocate but only check or free
+            if (!create) {
+                return null;
+            }
+            expungeDeadThreads();
+            allocatedMemoryStorage = createInternalThreadLocalAllocatedMemoryStorage(unsafe);
+            ThreadReference threadRef = new ThreadReference(Thread.currentThread(), deadThreadReferences);
+            allocatedMemoryStorage.ownerThreadReference = threadRef;
+            allAllocatedMemoryStorages.put(threadRef, allocatedMemoryStorage);
+            threadLocalAllocatedMemoryStorages.set(allocatedMemoryStorage);
+        } else {
+            // Apply the frees done by other threads before touching to the storage
+            allocatedMemoryStorage.drainRemoteFrees();
+        }
+        return allocatedMemoryStorage;
+    }
+    
+    /**
+     * Moves the live memories of the threads which have been garbage collected 
+     * into the orphan storage and forgets their storages. 
+     * Each dead thread reference is polled from the queue only once, 
+     * so the storage of a dead thread is moved by only one thread.
+     */
+    private void expungeDeadThreads() {
+        Reference<? extends Thread> threadRef;
+        while ((threadRef = deadThreadReferences.poll()) != null) {
+            AbstractInternalThreadLocalAllocatedMemoryStorage allocatedMemoryStorage = 
+                    allAllocatedMemoryStorages.get(threadRef);
+            if (allocatedMemoryStorage != null) {
+                // Move before forgetting the storage, 
+                // so memories are always reachable from the remote frees
+                allocatedMemoryStorage.moveTo(orphanAllocatedMemoryStorage);
+                allAllocatedMemoryStorages.remove(threadRef);
+                allocatedMemoryStorage.dispose();
+            }
+        }
+    }
+    
     @Override
     public boolean contains(long address) {
-        return threadLocalAllocatedMemoryStorages.get().contains(address);
+        AbstractInternalThreadLocalAllocatedMemoryStorage allocatedMemoryStorage = 
+                threadLocalAllocatedMemoryStorage(false);
+        return allocatedMemoryStorage != null && allocatedMemoryStorage.contains(address);
     }
     
     @Override
     public boolean contains(long address, long size) {
-        return threadLocalAllocatedMemoryStorages.get().contains(address, size);
+        AbstractInternalThreadLocalAllocatedMemoryStorage allocatedMemoryStorage = 
+                threadLocalAllocatedMemoryStorage(false);
+        return allocatedMemoryStorage != null && allocatedMemoryStorage.contains(address, size);
     }
 
     @Override
     public long get(long address) {
-        return threadLocalAllocatedMemoryStorages.get().get(address);
+        AbstractInternalThreadLocalAllocatedMemoryStorage allocatedMemoryStorage = 
+                threadLocalAllocatedMemoryStorage(false);
+        return allocatedMemoryStorage != null ? allocatedMemoryStorage.get(address) : INVALID;
     }
 
     @Override
     public void put(long address, long size) {
-        threadLocalAllocatedMemoryStorages.get().put(address, size);
+        AbstractInternalThreadLocalAllocatedMemoryStorage allocatedMemoryStorage = 
+                threadLocalAllocatedMemoryStorage(true);
+        allocatedMemoryStorage.put(address, size);
     }
 
     @Override
     public long remove(long address) {
-        return threadLocalAllocatedMemoryStorages.get().remove(address);
+        AbstractInternalThreadLocalAllocatedMemoryStorage allocatedMemoryStorage = 
+                threadLocalAllocatedMemoryStorage(false);
+        // Memories are mostly freed by their allocator threads, so try the own storage first
+        if (allocatedMemoryStorage != null) {
+            long size = allocatedMemoryStorage.removeLocally(address);
+            if (size != INVALID) {
+                return size;
+            }
+        }
+        return removeRemotely(allocatedMemoryStorage, address);
+    }
+    
+    /*
+     * Memory has been allocated by another thread (or it is unknown or has already been freed), 
+     * so its owner storage is searched by optimistic reads without blocking the owners.
+     * Storages are registered before their first memory is put, 
+     * so the owner storage is always seen here when the memory is freed after its allocation.
+     */
+    private long removeRemotely(AbstractInternalThreadLocalAllocatedMemoryStorage ownAllocatedMemoryStorage, 
+                                long address) {
+        for (AbstractInternalThreadLocalAllocatedMemoryStorage allocatedMemoryStorage 
+                : allAllocatedMemoryStorages.values()) {
+            if (allocatedMemoryStorage != ownAllocatedMemoryStorage) {
+                long size = allocatedMemoryStorage.freeRemotely(address);
+                if (size != INVALID) {
+                    notifyRemoteFree(allocatedMemoryStorage.ownerThreadReference.get(), size);
+                    return size;
+                }
+            }
+        }
+        // Memories are moved into the orphan storage before their storage is forgotten,
+        // so the memory is in the orphan storage if its owner storage is not found or has been moved 
+        long size = orphanAllocatedMemoryStorage.remove(address);
+        if (size != INVALID) {
+            notifyRemoteFree(null, size);
+        }
+        return size;
+    }
+    
+    private void notifyRemoteFree(Thread owner, long size) {
+        RemoteFreeListener listener = remoteFreeListener;
+        if (listener != null) {
+            listener.onRemoteFree(owner, size);
+        }
     }
 
     @Override
     public void iterate(AllocatedMemoryIterator iterator) {
-        Iterator<Map.Entry<SoftReference<Thread>, AllocatedMemoryStorage>> iter = 
-                allAllocatedMemoryStorages.entrySet().iterator();
-        while (iter.hasNext()) {
-            Map.Entry<SoftReference<Thread>, AllocatedMemoryStorage> entry = iter.next();
-            if (isIdle(entry)) {
-                iter.remove();
-            } else {
-                AllocatedMemoryStorage allocatedMemoryStorage = entry.getValue();
+        expungeDeadThreads();
+        for (AbstractInternalThreadLocalAllocatedMemoryStorage allocatedMemoryStorage 
+                : allAllocatedMemoryStorages.values()) {
+            if (!allocatedMemoryStorage.isMoved()) {
                 allocatedMemoryStorage.iterate(iterator);
+            }    
+        }
+        orphanAllocatedMemoryStorage.iterate(iterator);
+    }
+    
+    @Override
+    public AllocatedMemorySplit split() {
+        expungeDeadThreads();
+        List<AbstractInternalThreadLocalAllocatedMemoryStorage> allocatedMemoryStorages = 
+                new ArrayList<AbstractInternalThreadLocalAllocatedMemoryStorage>(allAllocatedMemoryStorages.size());
+        for (AbstractInternalThreadLocalAllocatedMemoryStorage allocatedMemoryStorage 
+                : allAllocatedMemoryStorages.values()) {
+            if (!allocatedMemoryStorage.isMoved()) {
+                allocatedMemoryStorages.add(allocatedMemoryStorage);
             }
         }
+        return AllocatedMemorySplits.concat(
+                new StorageRangeSplit(
+                        allocatedMemoryStorages.toArray(
+                                new AbstractInternalThreadLocalAllocatedMemoryStorage[allocatedMemoryStorages.size()]), 
+                        0, allocatedMemoryStorages.size()),
+                AllocatedMemorySplits.of(orphanAllocatedMemoryStorage));
     }
     
     @Override
     public boolean isEmpty() {
-        Iterator<Map.Entry<SoftReference<Thread>, AllocatedMemoryStorage>> iter = 
-                allAllocatedMemoryStorages.entrySet().iterator();
-        while (iter.hasNext()) {
-            Map.Entry<SoftReference<Thread>, AllocatedMemoryStorage> entry = iter.next();
-            if (isIdle(entry)) {
-                iter.remove();
-            } else {
-                AllocatedMemoryStorage allocatedMemoryStorage = entry.getValue();
-                if (!allocatedMemoryStorage.isEmpty()) {
-                    return false;
-                }
+        expungeDeadThreads();
+        for (AbstractInternalThreadLocalAllocatedMemoryStorage allocatedMemoryStorage 
+                : allAllocatedMemoryStorages.values()) {
+            if (!allocatedMemoryStorage.isMoved() && !allocatedMemoryStorage.isEmptyOfLiveMemories()) {
+                return false;
             }
         }
-        return true;
+        return orphanAllocatedMemoryStorage.isEmpty();
+    }
+    
+    /**
+     * Reclaims the storages of the dead threads and requests compaction from the live ones. 
+     * Storages are only written by their owner threads, 
+     * so a storage is compacted by its owner thread on its next write.
+     */
+    @Override
+    public void compact() {
+        expungeDeadThreads();
+        for (AbstractInternalThreadLocalAllocatedMemoryStorage allocatedMemoryStorage 
+                : allAllocatedMemoryStorages.values()) {
+            allocatedMemoryStorage.requestCompaction();
+        }
+        if (orphanAllocatedMemoryStorage instanceof Compactable) {
+            ((Compactable) orphanAllocatedMemoryStorage).compact();
+        }
     }
     
-    private boolean isIdle(Map.Entry<SoftReference<Thread>, AllocatedMemoryStorage> entry) {
-        SoftReference<Thread> threadRef = entry.getKey();
-        Thread thread = threadRef.get();
-        if (thread == null || !thread.isAlive()) {
-            return entry.getValue().isEmpty();
-        } 
-        return false;
+    /**
+     * Weak reference to the owner thread of a storage. 
+     * Enqueued by the GC when the thread is garbage collected, so there is no need to poll threads.
+     * Uses identity equality, so it can be used as key in the storage map.
+     */
+    private static final class ThreadReference extends WeakReference<Thread> {
+        
+        private ThreadReference(Thread thread, ReferenceQueue<Thread> queue) {
+            super(thread, queue);
+        }
+        
     }
     
-    private class IdleThreadLocalAllocatedMemoryStorageCleaner implements Runnable {
+    /**
+     * Covers a range of the thread-local storages, 
+     * so storages of different threads are iterated in parallel.
+     */
+    private static final class StorageRangeSplit extends AbstractIndexRangeAllocatedMemorySplit {
+        
+        private final AbstractInternalThreadLocalAllocatedMemoryStorage[] allocatedMemoryStorages;
+        
+        private StorageRangeSplit(AbstractInternalThreadLocalAllocatedMemoryStorage[] allocatedMemoryStorages, 
+                                  int fromIndex, int toIndex) {
+            super(fromIndex, toIndex);
+            this.allocatedMemoryStorages = allocatedMemoryStorages;
+        }
 
         @Override
-        public void run() {
-            Iterator<Map.Entry<SoftReference<Thread>, AllocatedMemoryStorage>> iter = 
-                    allAllocatedMemoryStorages.entrySet().iterator();
-            while (iter.hasNext()) {
-                Map.Entry<SoftReference<Thread>, AllocatedMemoryStorage> entry = iter.next();
-                if (isIdle(entry)) {
-                    iter.remove();
-                }
-            }
+        protected AllocatedMemorySplit createSplit(int fromIndex, int toIndex) {
+            return new StorageRangeSplit(allocatedMemoryStorages, fromIndex, toIndex);
+        }
+
+        @Override
+        protected void iterate(int index, AllocatedMemoryIterator iterator) {
+            allocatedMemoryStorages[index].iterate(iterator);
         }
         
     }
     
     protected abstract class AbstractInternalThreadLocalAllocatedMemoryStorage implements AllocatedMemoryStorage {
 
-        private static final int AVAILABLE = 0x00;
-        private static final int IN_PROGRESS = 0x01;
+        private static final int ITERATION_CHUNK_SIZE = 1024;
+        private static final int MAX_ITERATION_PASS_COUNT = 3;
         
         private final Unsafe UNSAFE;
-        private final long stateFieldOffset;
+        private final long versionFieldOffset;
+        private final long readerCountFieldOffset;
+        private final long remoteFreesFieldOffset;
+        
+        private ThreadReference ownerThreadReference;
         
         /*
-         * This field is used to support happens-before (HB) and synchronized access 
-         * between memory allocator/disposer thread and allocated memory iterator thread(s).
-         * Note that HB is supported by CAS and volatile write on this field.
+         * These fields are used to support happens-before (HB) and consistent reads 
+         * between memory allocator/disposer thread and allocated memory iterator thread(s)
+         * as a sequence lock (seqlock).
          * 
-         * There will be no blocking from the allocator/disposer thread's perspective, 
+         * There is only one writer which is the owner (allocator/disposer) thread, 
          * because this storage is thread-local and always will be accessed by same thread.
-         * So there will be no concurrent mutating accesses into here.
+         * So the owner thread never blocks and never does CAS. It only makes the version odd 
+         * before writing and makes it even again after writing by ordered stores.
          * 
          * However, there can be different thread(s) to iterate on allocated memories.
-         * From their perspective, they can block each other and they be blocked each other.
-         * Also, they can block allocator/disposer thread and they be blocked allocator/disposer thread.
-         * But since iterating will not be frequently, we can live with locking in these cases.
+         * They read optimistically in chunks and retry a chunk if the version has been changed 
+         * while reading it. So they never block the owner thread, but they might retry.
+         * 
+         * Readers are also counted, so the owner thread can defer releasing the resources 
+         * (such as old native memory tables) which might still be read by them.
+         */
+        private volatile long version;
+        private volatile int readerCount;
+        
+        /*
+         * Memories allocated by the owner thread but freed by other threads.
+         * 
+         * Other threads never remove from the storage itself,
+         * because the owner thread is the only writer and it reads the storage without any check.
+         * Instead they push the freed memories here (as a lock-free multi-producer single-consumer stack)
+         * and the owner thread removes them from the storage on its next operation.
+         * Until then, these memories are skipped while iterating.
+         * 
+         * A memory is pushed only once, so concurrent remote frees of the same memory have one winner. 
+         * Between a remote free and a free by the owner thread, the winner is decided 
+         * by the order of the push and the write of the owner thread (see "freeRemotely").
          * 
+         * When memories of the dead owner thread are moved, the stack is closed, 
+         * so the remote frees go to the orphan storage from then on.
          */
-        @SuppressWarnings("unused")
-        private volatile int state = AVAILABLE;
+        private volatile RemoteFree remoteFrees;
+        // Set when memories of the dead owner thread are moved into the orphan storage
+        private volatile boolean moved;
+        // Set when the storage is retired, so readers don't touch its released resources
+        private volatile boolean disposed;
+        // Set by the background compaction and handled by the owner thread on its next write
+        private volatile boolean compactionRequested;
         
         protected AbstractInternalThreadLocalAllocatedMemoryStorage(Unsafe unsafe) {
             UNSAFE = unsafe;
             try {
-                stateFieldOffset = 
-                        UNSAFE.objectFieldOffset(
-                                AbstractInternalThreadLocalAllocatedMemoryStorage.class.getDeclaredField("state"));
+                Class<?> clazz = AbstractInternalThreadLocalAllocatedMemoryStorage.class;
+                versionFieldOffset = UNSAFE.objectFieldOffset(clazz.getDeclaredField("version"));
+                readerCountFieldOffset = UNSAFE.objectFieldOffset(clazz.getDeclaredField("readerCount"));
+                remoteFreesFieldOffset = UNSAFE.objectFieldOffset(clazz.getDeclaredField("remoteFrees"));
             } catch (Throwable t) {
                 throw new IllegalStateException(t);
             }
         }
         
-        protected void acquire() {
-            while (UNSAFE.compareAndSwapInt(this, stateFieldOffset, AVAILABLE, IN_PROGRESS));
+        ////////////////////////////////////////////////////////////////////////////////
+        
+        protected void beginWrite() {
+            UNSAFE.putOrderedLong(this, versionFieldOffset, version + 1);
+            // Don't let the writes on the storage to be reordered before odd version is visible 
+            UNSAFE.storeFence();
+        }
+        
+        protected void endWrite() {
+            if (compactionRequested) {
+                compactionRequested = false;
+                compactResources();
+            }
+            UNSAFE.putOrderedLong(this, versionFieldOffset, version + 1);
+            if (hasRetiredResources()) {
+                // Make the new state visible before checking readers, 
+                // so a reader registered after this check cannot see the retired resources
+                UNSAFE.fullFence();
+                if (readerCount == 0) {
+                    freeRetiredResources();
+                }
+            }
+        }
+        
+        private void beginRead() {
+            UNSAFE.getAndAddInt(this, readerCountFieldOffset, 1);
+        }
+        
+        private void endRead() {
+            UNSAFE.getAndAddInt(this, readerCountFieldOffset, -1);
+        }
+        
+        private long awaitStableVersion() {
+            long v;
+            while (((v = version) & 1) != 0) {
+                Thread.yield();
+            }
+            return v;
+        }
+        
+        private boolean validateVersion(long v) {
+            // Don't let the reads on the storage to be reordered after version check
+            UNSAFE.loadFence();
+            return version == v;
+        }
+        
+        /**
+         * Returns <code>true</code> if there are resources (such as old native memory tables) 
+         * which are not used by the storage anymore but might still be read by the concurrent readers.
+         * 
+         * @return <code>true</code> if there are retired resources, otherwise <code>false</code>
+         */
+        protected boolean hasRetiredResources() {
+            return false;
+        }
+        
+        /**
+         * Frees the retired resources. Called by the owner thread when there is no concurrent reader.
+         */
+        protected void freeRetiredResources() {
+        }
+        
+        /**
+         * Compacts the resources (such as sparse tables) of this storage. 
+         * Called by the owner thread while writing when compaction is requested.
+         */
+        protected void compactResources() {
+        }
+        
+        /**
+         * Frees all the resources (such as native memory) of this storage when it is retired. 
+         * Called when there is no writer and no concurrent reader.
+         */
+        protected void freeResources() {
+        }
+        
+        /**
+         * Removes the memory at the given address from this storage.
+         * Called between {@link #beginWrite()} and {@link #endWrite()}.
+         * 
+         * @param address the address of the memory to be removed
+         * @return the size of the removed memory if there is, otherwise {@link AllocatedMemoryStorage#INVALID}
+         */
+        abstract protected long doRemove(long address);
+        
+        /**
+         * Checks whether this storage is empty. 
+         * Might be called concurrently with the owner thread, 
+         * so it must not fail or loop forever in that case. The result is validated by the caller.
+         * 
+         * @return <code>true</code> if this storage is empty, otherwise <code>false</code>
+         */
+        abstract protected boolean doIsEmpty();
+        
+        /**
+         * Copies the allocated memories starting from the given cursor into the given chunk
+         * as address and size pairs. Addresses of the unused pairs are set to {@link AllocatedMemoryStorage#INVALID}.
+         * Might be called concurrently with the owner thread, 
+         * so it must not fail or loop forever in that case. The result is validated by the caller.
+         * 
+         * @param cursor    the cursor to start copying from (<code>0</code> at first)
+         * @param chunk     the chunk to copy into
+         * @return the cursor to continue copying from if there might be more allocated memories, 
+         *         otherwise <code>-1</code>
+         */
+        abstract protected long copyAllocatedMemories(long cursor, long[] chunk);
+        
+        @Override
+        public boolean isEmpty() {
+            beginRead();
+            try {
+                if (disposed) {
+                    return true;
+                }
+                for (;;) {
+                    long v = awaitStableVersion();
+                    boolean empty = doIsEmpty();
+                    if (validateVersion(v)) {
+                        return empty;
+                    }
+                }
+            } finally {
+                endRead();
+            }
+        }
+        
+        @Override
+        public void iterate(AllocatedMemoryIterator iterator) {
+            long[] chunk = new long[ITERATION_CHUNK_SIZE << 1];
+            // Entries might be moved while iterating, so further passes report only the missed ones
+            Long2LongMap reportedAddresses = new HeapMemoryBackedLong2LongHashMap(INVALID);
+            beginRead();
+            try {
+                if (disposed) {
+                    // Memories have already been moved
+                    return;
+                }
+                for (int pass = 0; pass < MAX_ITERATION_PASS_COUNT; pass++) {
+                    long passVersion = awaitStableVersion();
+                    Long2LongMap remotelyFreedAddresses = snapshotRemoteFrees();
+                    long cursor = 0;
+                    while (cursor >= 0) {
+                        long v = awaitStableVersion();
+                        long nextCursor;
+                        try {
+                            nextCursor = copyAllocatedMemories(cursor, chunk);
+                        } catch (RuntimeException e) {
+                            if (validateVersion(v)) {
+                                throw e;
+                            }
+                            // Failed because of concurrent write, so retry the chunk
+                            continue;
+                        }
+                        if (!validateVersion(v)) {
+                            continue;
+                        }
+                        for (int i = 0; i < chunk.length; i += 2) {
+                            long address = chunk[i];
+                            if (address == INVALID || reportedAddresses.containsKey(address)) {
+                                continue;
+                            }
+                            if (remotelyFreedAddresses != null 
+                                    && remotelyFreedAddresses.containsKey(address)) {
+                                continue;
+                            }
+                            reportedAddresses.put(address, chunk[i + 1]);
+                            iterator.onAllocatedMemory(address, chunk[i + 1]);
+                        }
+                        cursor = nextCursor;
+                    }
+                    if (validateVersion(passVersion)) {
+                        // Nothing has been changed while iterating, so no memory has been missed
+                        break;
+                    }
+                }
+            } finally {
+                endRead();
+            }
+        }
+        
+        // Reads the given memory from a stable version and returns the version, 
+        // so the caller can check whether the owner thread has written since then
+        private long getOptimistically(long address, long[] sizeHolder) {
+            for (;;) {
+                long v = awaitStableVersion();
+                long size;
+                try {
+                    size = get(address);
+                } catch (RuntimeException e) {
+                    if (validateVersion(v)) {
+                        throw e;
+                    }
+                    continue;
+                }
+                if (validateVersion(v)) {
+                    sizeHolder[0] = size;
+                    return v;
+                }
+            }
+        }
+        
+        ////////////////////////////////////////////////////////////////////////////////
+        
+        /**
+         * Removes the memory at the given address by the owner thread. 
+         * If the memory has been freed remotely but it is not drained yet, 
+         * the remote free has won, so it is not removed twice.
+         * 
+         * @param address the address of the memory to be removed
+         * @return the size of the removed memory if it is removed by this call, 
+         *         otherwise {@link AllocatedMemoryStorage#INVALID}
+         */
+        private long removeLocally(long address) {
+            beginWrite();
+            try {
+                // Odd version must be visible before reading the remote frees, 
+                // so either we see a concurrent remote free of the memory or it sees our write
+                UNSAFE.fullFence();
+                RemoteFree remoteFree = findRemoteFree(remoteFrees, address);
+                long size = doRemove(address);
+                if (remoteFree != null) {
+                    remoteFree.state = RemoteFree.APPLIED;
+                    return INVALID;
+                }
+                return size;
+            } finally {
+                endWrite();
+            }
+        }
+        
+        /**
+         * Frees the memory at the given address on behalf of the owner thread 
+         * if it has been allocated by the owner thread.
+         * 
+         * The owner thread is never blocked. The memory is found by an optimistic read 
+         * and pushed to the remote frees unless it has already been pushed. 
+         * If the owner thread hasn't written since the read, it will see the push 
+         * before removing the memory itself. Otherwise the push has won only if 
+         * the owner thread has applied it or the memory is still there.
+         * 
+         * @param address the address of the memory to be freed
+         * @return the size of the freed memory if it is freed through this storage, 
+         *         otherwise {@link AllocatedMemoryStorage#INVALID} 
+         */
+        private long freeRemotely(long address) {
+            long[] sizeHolder = new long[1];
+            RemoteFree remoteFree = null;
+            beginRead();
+            try {
+                for (;;) {
+                    RemoteFree head = remoteFrees;
+                    if (head == CLOSED || disposed) {
+                        break;
+                    }
+                    if (findRemoteFree(head, address) != null) {
+                        // Already freed remotely
+                        return INVALID;
+                    }
+                    // Remote frees are read before the version, 
+                    // so the ones drained meanwhile are seen as removed from the storage
+                    long v = getOptimistically(address, sizeHolder);
+                    long size = sizeHolder[0];
+                    if (size == INVALID) {
+                        return INVALID;
+                    }
+                    if (remoteFree == null) {
+                        remoteFree = new RemoteFree(address);
+                    }
+                    remoteFree.next = head;
+                    if (UNSAFE.compareAndSwapObject(this, remoteFreesFieldOffset, head, remoteFree)) {
+                        if (version == v) {
+                            return size;
+                        }
+                        return awaitRemoteFreeResult(remoteFree, size, sizeHolder);
+                    }
+                }
+            } finally {
+                endRead();
+            }
+            // Memories are being moved, so wait until they are in the orphan storage
+            while (!moved) {
+                Thread.yield();
+            }
+            return INVALID;
+        }
+        
+        /*
+         * Owner thread has written after the memory was read, 
+         * so it might have removed the memory itself without seeing the remote free.
+         * The memory cannot be put again before the remote free is drained, 
+         * so if it is still there and the remote free is not drained yet, the remote free has won.
+         */
+        private long awaitRemoteFreeResult(RemoteFree remoteFree, long size, long[] sizeHolder) {
+            boolean present = false;
+            // All the remote frees are drained before the memories are moved
+            if (!disposed) {
+                getOptimistically(remoteFree.address, sizeHolder);
+                present = sizeHolder[0] != INVALID;
+            }
+            int state = remoteFree.state;
+            if (state == RemoteFree.APPLIED || (state == RemoteFree.PENDING && present)) {
+                return size;
+            }
+            // Owner thread has won and the remote free is just a no-op for it
+            return INVALID;
+        }
+        
+        private RemoteFree findRemoteFree(RemoteFree remoteFree, long address) {
+            for (; remoteFree != null && remoteFree != CLOSED; remoteFree = remoteFree.next) {
+                if (remoteFree.address == address) {
+                    return remoteFree;
+                }
+            }
+            return null;
+        }
+        
+        private RemoteFree takeRemoteFrees(RemoteFree replacement) {
+            for (;;) {
+                RemoteFree head = remoteFrees;
+                if (UNSAFE.compareAndSwapObject(this, remoteFreesFieldOffset, head, replacement)) {
+                    return head;
+                }
+            }
         }
         
-        protected void free() {
-            state = AVAILABLE;
+        private Long2LongMap snapshotRemoteFrees() {
+            RemoteFree remoteFree = remoteFrees;
+            if (remoteFree == null || remoteFree == CLOSED) {
+                return null;
+            }
+            Long2LongMap remotelyFreedAddresses = new HeapMemoryBackedLong2LongHashMap(INVALID);
+            for (; remoteFree != null; remoteFree = remoteFree.next) {
+                remotelyFreedAddresses.put(remoteFree.address, remoteFree.address);
+            }
+            return remotelyFreedAddresses;
+        }
+        
+        private void drainRemoteFrees() {
+            if (remoteFrees == null) {
+                return;
+            }
+            beginWrite();
+            try {
+                doDrainRemoteFrees(takeRemoteFrees(null));
+            } finally {
+                endWrite();
+            }
+        }
+        
+        private void doDrainRemoteFrees(RemoteFree remoteFree) {
+            for (; remoteFree != null && remoteFree != CLOSED; remoteFree = remoteFree.next) {
+                long size = doRemove(remoteFree.address);
+                // Might have already been applied by the owner thread's own free of the memory
+                if (remoteFree.state == RemoteFree.PENDING) {
+                    remoteFree.state = size != INVALID ? RemoteFree.APPLIED : RemoteFree.DISCARDED;
+                }
+            }
+        }
+        
+        /**
+         * Moves the live memories into the given storage. 
+         * Called only after the owner thread has been garbage collected, 
+         * so the only concurrent writers are the remote frees which are redirected to the given storage
+         * by closing the remote frees stack.
+         * 
+         * @param allocatedMemoryStorage the {@link AllocatedMemoryStorage} to move memories into
+         */
+        private void moveTo(AllocatedMemoryStorage allocatedMemoryStorage) {
+            beginWrite();
+            try {
+                doDrainRemoteFrees(takeRemoteFrees(CLOSED));
+            } finally {
+                endWrite();
+            }
+            long[] chunk = new long[ITERATION_CHUNK_SIZE << 1];
+            long cursor = 0;
+            while (cursor >= 0) {
+                cursor = copyAllocatedMemories(cursor, chunk);
+                for (int i = 0; i < chunk.length; i += 2) {
+                    long address = chunk[i];
+                    if (address != INVALID) {
+                        allocatedMemoryStorage.put(address, chunk[i + 1]);
+                    }
+                }
+            }
+            moved = true;
+        }
+        
+        private boolean isMoved() {
+            return moved;
+        }
+        
+        private void requestCompaction() {
+            compactionRequested = true;
+        }
+        
+        /**
+         * Releases the resources of this storage after its memories have been moved.
+         */
+        private void dispose() {
+            disposed = true;
+            // Readers check the disposed flag after registering themselves, 
+            // so waiting for the registered ones is enough before releasing the resources
+            while (readerCount != 0) {
+                Thread.yield();
+            }
+            freeResources();
+        }
+        
+        private boolean isEmptyOfLiveMemories() {
+            if (remoteFrees == null) {
+                return isEmpty();
+            }
+            final boolean[] empty = { true };
+            iterate(new AllocatedMemoryIterator() {
+                @Override
+                public void onAllocatedMemory(long address, long size) {
+                    empty[0] = false;
+                }
+            });
+            return empty[0];
         }
 
     }
+    
+    private static final class RemoteFree {
+        
+        private static final int PENDING = 0;
+        // Memory has been removed by the owner thread on behalf of the remote free
+        private static final int APPLIED = 1;
+        // Memory had already been removed by the owner thread itself
+        private static final int DISCARDED = 2;
+        
+        private final long address;
+        private RemoteFree next;
+        private volatile int state;
+        
+        private RemoteFree(long address) {
+            this.address = address;
+        }
+        
+    }
 
 }
-
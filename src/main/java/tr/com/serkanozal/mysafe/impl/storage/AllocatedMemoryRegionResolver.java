@@ -0,0 +1,40 @@
+/*
+ * Copyright (c) 2017, Serkan OZAL, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tr.com.serkanozal.mysafe.impl.storage;
+
+import tr.com.serkanozal.mysafe.AllocatedMemoryStorage;
+
+/**
+ * Interface for {@link AllocatedMemoryStorage} implementations which can find 
+ * the allocated memory containing an address (not only the exact allocated address) efficiently,
+ * so the whole region can be cached by the callers.
+ * 
+ * @author Serkan OZAL
+ */
+public interface AllocatedMemoryRegionResolver {
+
+    /**
+     * Finds the start address of the allocated memory containing the given memory range 
+     * as <code>[address, address + size]</code>.
+     * 
+     * @param address   start address of the memory range
+     * @param size      size of the memory range
+     * @return the start address of the containing allocated memory if there is, 
+     *         otherwise {@link AllocatedMemoryStorage#INVALID}
+     */
+    long findAllocatedMemoryStart(long address, long size);
+    
+}
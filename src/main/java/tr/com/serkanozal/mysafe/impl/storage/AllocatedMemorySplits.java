@@ -0,0 +1,174 @@
+/*
+ * Copyright (c) 2017, Serkan OZAL, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tr.com.serkanozal.mysafe.impl.storage;
+
+import tr.com.serkanozal.mysafe.AllocatedMemoryIterator;
+import tr.com.serkanozal.mysafe.AllocatedMemorySplit;
+import tr.com.serkanozal.mysafe.AllocatedMemoryStorage;
+import tr.com.serkanozal.mysafe.SplittableAllocatedMemoryStorage;
+import tr.com.serkanozal.mysafe.impl.allocpath.storage.AllocationPathStorage;
+
+/**
+ * Utilities for creating and combining {@link AllocatedMemorySplit}s.
+ * 
+ * @author Serkan OZAL
+ */
+public final class AllocatedMemorySplits {
+
+    private AllocatedMemorySplits() {
+        throw new UnsupportedOperationException("Not avaiable for instantiation!");
+    }
+    
+    /**
+     * Creates a split which covers all the allocated memories in the given storage.
+     * If the storage is not a {@link SplittableAllocatedMemoryStorage}, 
+     * the returned split cannot be split and it is iterated by the storage itself.
+     * 
+     * @param allocatedMemoryStorage the {@link AllocatedMemoryStorage} instance
+     * @return the {@link AllocatedMemorySplit} covering all the allocated memories in the storage
+     */
+    public static AllocatedMemorySplit of(AllocatedMemoryStorage allocatedMemoryStorage) {
+        if (allocatedMemoryStorage instanceof SplittableAllocatedMemoryStorage) {
+            return ((SplittableAllocatedMemoryStorage) allocatedMemoryStorage).split();
+        } else {
+            return new StorageAllocatedMemorySplit(allocatedMemoryStorage);
+        }
+    }
+    
+    /**
+     * Creates a split which covers the allocated memories of both of the given splits.
+     * 
+     * @param first     the first {@link AllocatedMemorySplit}
+     * @param second    the second {@link AllocatedMemorySplit}
+     * @return the {@link AllocatedMemorySplit} covering both of the splits
+     */
+    public static AllocatedMemorySplit concat(AllocatedMemorySplit first, AllocatedMemorySplit second) {
+        return new CompositeAllocatedMemorySplit(first, second);
+    }
+    
+    /**
+     * Adapts the given split to an {@link AllocationRecordSplit}. 
+     * Allocation path keys are looked up from the given {@link AllocationPathStorage} if there is,
+     * otherwise they are reported as <code>-1</code>.
+     * Given split is returned as is if it is already an {@link AllocationRecordSplit}.
+     * 
+     * @param split                     the {@link AllocatedMemorySplit} to be adapted
+     * @param allocationPathStorage     the {@link AllocationPathStorage} to look up allocation paths,
+     *                                  can be <code>null</code>
+     * @return the {@link AllocationRecordSplit} covering the allocated memories of the given split
+     */
+    public static AllocationRecordSplit withAllocationPaths(AllocatedMemorySplit split, 
+                                                            AllocationPathStorage allocationPathStorage) {
+        if (split instanceof AllocationRecordSplit) {
+            return (AllocationRecordSplit) split;
+        } else {
+            return new PathResolvingAllocationRecordSplit(split, allocationPathStorage);
+        }
+    }
+    
+    private static final class StorageAllocatedMemorySplit implements AllocatedMemorySplit {
+        
+        private final AllocatedMemoryStorage allocatedMemoryStorage;
+        
+        private StorageAllocatedMemorySplit(AllocatedMemoryStorage allocatedMemoryStorage) {
+            this.allocatedMemoryStorage = allocatedMemoryStorage;
+        }
+        
+        @Override
+        public AllocatedMemorySplit trySplit() {
+            return null;
+        }
+        
+        @Override
+        public void iterate(AllocatedMemoryIterator iterator) {
+            allocatedMemoryStorage.iterate(iterator);
+        }
+        
+    }
+    
+    private static final class CompositeAllocatedMemorySplit implements AllocatedMemorySplit {
+        
+        private AllocatedMemorySplit first;
+        private final AllocatedMemorySplit second;
+        
+        private CompositeAllocatedMemorySplit(AllocatedMemorySplit first, AllocatedMemorySplit second) {
+            this.first = first;
+            this.second = second;
+        }
+        
+        @Override
+        public AllocatedMemorySplit trySplit() {
+            if (first != null) {
+                // Give away the first part as a whole and continue with the second one
+                AllocatedMemorySplit split = first;
+                first = null;
+                return split;
+            }
+            return second.trySplit();
+        }
+        
+        @Override
+        public void iterate(AllocatedMemoryIterator iterator) {
+            if (first != null) {
+                first.iterate(iterator);
+            }
+            second.iterate(iterator);
+        }
+        
+    }
+    
+    private static final class PathResolvingAllocationRecordSplit implements AllocationRecordSplit {
+        
+        private final AllocatedMemorySplit split;
+        private final AllocationPathStorage allocationPathStorage;
+        
+        private PathResolvingAllocationRecordSplit(AllocatedMemorySplit split, 
+                                                   AllocationPathStorage allocationPathStorage) {
+            this.split = split;
+            this.allocationPathStorage = allocationPathStorage;
+        }
+        
+        @Override
+        public AllocationRecordSplit trySplit() {
+            AllocatedMemorySplit newSplit = split.trySplit();
+            if (newSplit == null) {
+                return null;
+            }
+            return withAllocationPaths(newSplit, allocationPathStorage);
+        }
+        
+        @Override
+        public void iterate(AllocatedMemoryIterator iterator) {
+            split.iterate(iterator);
+        }
+        
+        @Override
+        public void iterate(final AllocationRecordIterator iterator) {
+            split.iterate(new AllocatedMemoryIterator() {
+                @Override
+                public void onAllocatedMemory(long address, long size) {
+                    long allocationPathKey = 
+                            allocationPathStorage != null 
+                                ? allocationPathStorage.getAllocationPathKey(address)
+                                : AllocatedMemoryStorage.INVALID;
+                    iterator.onAllocationRecord(address, size, allocationPathKey);
+                }
+            });
+        }
+        
+    }
+    
+}
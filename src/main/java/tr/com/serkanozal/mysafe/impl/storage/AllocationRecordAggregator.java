@@ -0,0 +1,57 @@
+/*
+ * Copyright (c) 2017, Serkan OZAL, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tr.com.serkanozal.mysafe.impl.storage;
+
+/**
+ * Contract point for aggregating allocation records split by split.
+ * Each split is aggregated into its own partial result without any synchronization
+ * and then partial results are merged.
+ * 
+ * @param <R> type of the aggregation result
+ * 
+ * @author Serkan OZAL
+ */
+public interface AllocationRecordAggregator<R> {
+
+    /**
+     * Creates an empty partial result for a split.
+     * 
+     * @return the created partial result
+     */
+    R createPartialResult();
+    
+    /**
+     * Called for each allocation record of the split 
+     * which the given partial result belongs to.
+     * 
+     * @param partialResult         the partial result of the split
+     * @param address               address of the allocated memory
+     * @param size                  size of the allocated memory
+     * @param allocationPathKey     key of the allocation path of the allocated memory 
+     *                              if there is, otherwise <code>-1</code>
+     */
+    void onAllocationRecord(R partialResult, long address, long size, long allocationPathKey);
+    
+    /**
+     * Merges the given partial results.
+     * 
+     * @param partialResult1 the first partial result
+     * @param partialResult2 the second partial result
+     * @return the merged result
+     */
+    R merge(R partialResult1, R partialResult2);
+    
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright (c) 2017, Serkan OZAL, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tr.com.serkanozal.mysafe.impl.storage;
+
+import tr.com.serkanozal.mysafe.SplittableAllocatedMemoryStorage;
+import tr.com.serkanozal.mysafe.impl.allocpath.storage.AllocationPathStorage;
+
+/**
+ * Storage which keeps size and allocation path key of an allocated memory 
+ * together in a single record. So both of them are stored, retrieved and removed 
+ * with a single lookup instead of a lookup per storage.
+ * 
+ * @author Serkan OZAL
+ */
+public interface AllocationRecordStorage extends SplittableAllocatedMemoryStorage, AllocationPathStorage {
+
+    /**
+     * Stores the allocated memory with its allocation path.
+     * 
+     * @param address               address of the allocated memory
+     * @param size                  size of the allocated memory
+     * @param allocationPathKey     key of the allocation path of the allocated memory
+     */
+    void put(long address, long size, long allocationPathKey);
+
+    /**
+     * Iterates on the allocation records.
+     * 
+     * @param iterator the {@link AllocationRecordIterator} instance to be notified for each record
+     */
+    void iterate(AllocationRecordIterator iterator);
+    
+    @Override
+    AllocationRecordSplit split();
+
+}
@@ -0,0 +1,401 @@
+/*
+ * Copyright (c) 2017, Serkan OZAL, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tr.com.serkanozal.mysafe.impl.storage;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+import tr.com.serkanozal.mysafe.AllocatedMemoryIterator;
+import tr.com.serkanozal.mysafe.AllocatedMemorySplit;
+import tr.com.serkanozal.mysafe.AllocatedMemoryStorage;
+import tr.com.serkanozal.mysafe.SplittableAllocatedMemoryStorage;
+import tr.com.serkanozal.mysafe.impl.util.Compactable;
+import tr.com.serkanozal.mysafe.impl.util.Long2LongMap.LongLongConsumer;
+import tr.com.serkanozal.mysafe.impl.util.StripedLong2LongHashMap;
+
+/**
+ * {@link AllocatedMemoryStorage} decorator which additionally keeps the allocated memories 
+ * in buckets by their allocation epochs, so the allocated memories older than some age 
+ * can be found by iterating only the old buckets instead of all the allocated memories.
+ * 
+ * Epochs are coarse (derived from the wall clock) and a bucket is appended for each epoch. 
+ * On compaction, empty buckets are retired and the oldest buckets are merged in bulk 
+ * while there are more buckets than the limit, so older generations are tracked with less precision. 
+ * Allocating threads never merge; if compaction falls behind (or it is disabled), 
+ * the newest bucket is extended to the new epochs once there are twice as many buckets as the limit.
+ * Merged bucket is published before its regions are migrated and the regions are migrated 
+ * one by one under their own locks, so puts and removes are not blocked while merging.
+ * 
+ * Note that every allocated memory is stored twice (in the decorated storage and in its bucket), 
+ * so the memory cost of keeping the allocated memories is doubled.
+ * 
+ * @author Serkan OZAL
+ */
+public class GenerationalAllocatedMemoryStorage implements SplittableAllocatedMemoryStorage, Compactable {
+
+    public static final long DEFAULT_EPOCH_LENGTH_IN_MILLIS = 10 * 1000;
+    public static final int DEFAULT_MAX_BUCKET_COUNT = 64;
+    
+    private static final int LOCK_COUNT = 64;
+    private static final int BUCKET_STRIPE_COUNT = 8;
+    private static final Bucket[] NO_BUCKETS = new Bucket[0];
+    
+    private final AllocatedMemoryStorage allocatedMemoryStorage;
+    private final long epochLengthInMillis;
+    private final int maxBucketCount;
+    // Guards the bucket of an address against being merged or retired while it is updated
+    private final ReentrantLock[] locks;
+    // Ordered from the oldest to the newest and replaced as a whole under the lock of the storage
+    private volatile Bucket[] buckets = NO_BUCKETS;
+    // Serializes the compactions, so a bucket is merged or retired only after its migration is completed
+    private final Object compactionLock = new Object();
+    
+    public GenerationalAllocatedMemoryStorage(AllocatedMemoryStorage allocatedMemoryStorage) {
+        this(allocatedMemoryStorage, DEFAULT_EPOCH_LENGTH_IN_MILLIS, DEFAULT_MAX_BUCKET_COUNT);
+    }
+    
+    public GenerationalAllocatedMemoryStorage(AllocatedMemoryStorage allocatedMemoryStorage, 
+                                              long epochLengthInMillis, int maxBucketCount) {
+        if (epochLengthInMillis <= 0) {
+            throw new IllegalArgumentException("Epoch length must be positive but it is " + epochLengthInMillis);
+        }
+        if (maxBucketCount < 2) {
+            throw new IllegalArgumentException("Max bucket count must be at least 2 but it is " + maxBucketCount);
+        }
+        this.allocatedMemoryStorage = allocatedMemoryStorage;
+        this.epochLengthInMillis = epochLengthInMillis;
+        this.maxBucketCount = maxBucketCount;
+        this.locks = new ReentrantLock[LOCK_COUNT];
+        for (int i = 0; i < LOCK_COUNT; i++) {
+            locks[i] = new ReentrantLock();
+        }
+    }
+    
+    public AllocatedMemoryStorage getAllocatedMemoryStorage() {
+        return allocatedMemoryStorage;
+    }
+    
+    private long currentEpoch() {
+        return System.currentTimeMillis() / epochLengthInMillis;
+    }
+    
+    private ReentrantLock lock(long address) {
+        long h = address * 0x9E3779B97F4A7C15L;
+        return locks[(int) (h >>> 32) & (LOCK_COUNT - 1)];
+    }
+    
+    private void lockAll() {
+        for (ReentrantLock lock : locks) {
+            lock.lock();
+        }
+    }
+    
+    private void unlockAll() {
+        for (int i = locks.length - 1; i >= 0; i--) {
+            locks[i].unlock();
+        }
+    }
+    
+    private Bucket bucketOf(long epoch) {
+        Bucket[] currentBuckets = buckets;
+        if (currentBuckets.length > 0) {
+            Bucket newestBucket = currentBuckets[currentBuckets.length - 1];
+            // Epoch might be a bit behind of the newest bucket if it was taken just before the epoch changed,
+            // then the allocated memory is assumed as a bit younger than it actually is
+            if (newestBucket.endEpoch >= epoch) {
+                return newestBucket;
+            }
+        }
+        return addBucket(epoch);
+    }
+    
+    private synchronized Bucket addBucket(long epoch) {
+        Bucket[] currentBuckets = buckets;
+        if (currentBuckets.length > 0) {
+            Bucket newestBucket = currentBuckets[currentBuckets.length - 1];
+            if (newestBucket.endEpoch >= epoch) {
+                return newestBucket;
+            }
+        }
+        if (currentBuckets.length >= 2 * maxBucketCount) {
+            // Waiting for the compaction to merge the old buckets, 
+            // so the newest one is extended instead (its memories are assumed to be as young as the new epoch)
+            Bucket newestBucket = currentBuckets[currentBuckets.length - 1];
+            newestBucket.endEpoch = epoch;
+            return newestBucket;
+        }
+        Bucket newBucket = new Bucket(epoch, epoch, new StripedLong2LongHashMap(BUCKET_STRIPE_COUNT, INVALID));
+        Bucket[] newBuckets = new Bucket[currentBuckets.length + 1];
+        System.arraycopy(currentBuckets, 0, newBuckets, 0, currentBuckets.length);
+        newBuckets[newBuckets.length - 1] = newBucket;
+        buckets = newBuckets;
+        return newBucket;
+    }
+    
+    // Called under the compaction lock
+    private void mergeOldBuckets() {
+        for (;;) {
+            Bucket mergedBucket = publishMergedBucket();
+            if (mergedBucket == null) {
+                return;
+            }
+            // Wait for the puts which have seen the merged buckets as not retired, 
+            // so no region is put into the smaller one after it is migrated
+            for (ReentrantLock lock : locks) {
+                lock.lock();
+                lock.unlock();
+            }
+            // Migrated without holding the lock of the storage, so new buckets can still be added meanwhile
+            migrate(mergedBucket);
+        }
+    }
+    
+    // Merges the oldest two buckets if there are more buckets than the limit 
+    private synchronized Bucket publishMergedBucket() {
+        Bucket[] currentBuckets = buckets;
+        if (currentBuckets.length <= maxBucketCount) {
+            return null;
+        }
+        Bucket older = currentBuckets[0];
+        Bucket younger = currentBuckets[1];
+        // Copy the smaller one into the bigger one
+        StripedLong2LongHashMap bigger;
+        StripedLong2LongHashMap smaller;
+        if (older.regions.size() >= younger.regions.size()) {
+            bigger = older.regions;
+            smaller = younger.regions;
+        } else {
+            bigger = younger.regions;
+            smaller = older.regions;
+        }
+        Bucket mergedBucket = new Bucket(older.startEpoch, younger.endEpoch, bigger, smaller);
+        Bucket[] newBuckets = new Bucket[currentBuckets.length - 1];
+        newBuckets[0] = mergedBucket;
+        System.arraycopy(currentBuckets, 2, newBuckets, 1, currentBuckets.length - 2);
+        buckets = newBuckets;
+        older.retired = true;
+        younger.retired = true;
+        return mergedBucket;
+    }
+    
+    private void migrate(final Bucket bucket) {
+        final StripedLong2LongHashMap migratingRegions = bucket.migratingRegions;
+        // Stripes are iterated on their copies, so regions are moved without holding the stripe locks
+        migratingRegions.longForEach(new LongLongConsumer() {
+            @Override
+            public void accept(long address, long size) {
+                ReentrantLock lock = lock(address);
+                lock.lock();
+                try {
+                    // Region might have been removed in the meantime
+                    if (migratingRegions.remove(address) != INVALID) {
+                        bucket.regions.put(address, size);
+                    }
+                } finally {
+                    lock.unlock();
+                }
+            }
+        });
+        bucket.migratingRegions = null;
+    }
+    
+    @Override
+    public boolean contains(long address) {
+        return allocatedMemoryStorage.contains(address);
+    }
+
+    @Override
+    public boolean contains(long address, long size) {
+        return allocatedMemoryStorage.contains(address, size);
+    }
+
+    @Override
+    public long get(long address) {
+        return allocatedMemoryStorage.get(address);
+    }
+
+    @Override
+    public void put(long address, long size) {
+        allocatedMemoryStorage.put(address, size);
+        long epoch = currentEpoch();
+        ReentrantLock lock = lock(address);
+        for (;;) {
+            Bucket bucket = bucketOf(epoch);
+            lock.lock();
+            try {
+                // Bucket might have been merged into another one in the meantime, then retry
+                if (!bucket.retired) {
+                    bucket.regions.put(address, size);
+                    return;
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    @Override
+    public long remove(long address) {
+        long size = allocatedMemoryStorage.remove(address);
+        if (size != INVALID) {
+            ReentrantLock lock = lock(address);
+            lock.lock();
+            try {
+                Bucket[] currentBuckets = buckets;
+                // Most of the allocated memories die young, so start from the newest bucket
+                for (int i = currentBuckets.length - 1; i >= 0; i--) {
+                    if (currentBuckets[i].remove(address)) {
+                        break;
+                    }
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+        return size;
+    }
+
+    @Override
+    public void iterate(AllocatedMemoryIterator iterator) {
+        allocatedMemoryStorage.iterate(iterator);
+    }
+    
+    @Override
+    public AllocatedMemorySplit split() {
+        return AllocatedMemorySplits.of(allocatedMemoryStorage);
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return allocatedMemoryStorage.isEmpty();
+    }
+    
+    /**
+     * Iterates on the allocated memories which have been allocated at least the given time ago.
+     * Only the buckets older than the given age are iterated. 
+     * Since ages are tracked at bucket granularity, allocated memories in the buckets 
+     * spanning the given age are not reported even though some of them might be old enough. 
+     * Iteration is weakly consistent, so an allocated memory might be missed or repeated 
+     * if it is put, removed or migrated by a bucket merge concurrently.
+     * 
+     * @param ageInMillis   the minimum age (in milliseconds) of the allocated memories to be iterated
+     * @param iterator      the {@link AllocatedMemoryIterator} instance to be notified 
+     *                      for each allocated memory while iterating
+     */
+    public void iterateOlderThan(long ageInMillis, final AllocatedMemoryIterator iterator) {
+        long now = System.currentTimeMillis();
+        LongLongConsumer consumer = new LongLongConsumer() {
+            @Override
+            public void accept(long address, long size) {
+                iterator.onAllocatedMemory(address, size);
+            }
+        };
+        for (Bucket bucket : buckets) {
+            // All the allocated memories in the bucket have been allocated before the end of its last epoch
+            long bucketEndTime = (bucket.endEpoch + 1) * epochLengthInMillis;
+            if (now - bucketEndTime < ageInMillis) {
+                // Buckets are ordered by age, so the next ones are younger
+                break;
+            }
+            bucket.regions.longForEach(consumer);
+            StripedLong2LongHashMap migratingRegions = bucket.migratingRegions;
+            if (migratingRegions != null) {
+                migratingRegions.longForEach(consumer);
+            }
+        }
+    }
+    
+    public int getBucketCount() {
+        return buckets.length;
+    }
+
+    /**
+     * Compacts the decorated storage, retires the empty buckets 
+     * and merges the oldest buckets while there are more buckets than the limit. 
+     * Merging is done by the compacting thread, so allocating threads never merge buckets.
+     */
+    @Override
+    public void compact() {
+        if (allocatedMemoryStorage instanceof Compactable) {
+            ((Compactable) allocatedMemoryStorage).compact();
+        }
+        synchronized (compactionLock) {
+            retireEmptyBuckets();
+            mergeOldBuckets();
+        }
+    }
+    
+    private synchronized void retireEmptyBuckets() {
+        Bucket[] currentBuckets = buckets;
+        if (currentBuckets.length <= 1) {
+            return;
+        }
+        lockAll();
+        try {
+            Bucket[] newBuckets = new Bucket[currentBuckets.length];
+            int newBucketCount = 0;
+            for (int i = 0; i < currentBuckets.length; i++) {
+                Bucket bucket = currentBuckets[i];
+                // Newest bucket is kept for the next allocations
+                if (i < currentBuckets.length - 1 && bucket.regions.isEmpty()) {
+                    bucket.retired = true;
+                } else {
+                    newBuckets[newBucketCount++] = bucket;
+                }
+            }
+            if (newBucketCount < currentBuckets.length) {
+                Bucket[] retainedBuckets = new Bucket[newBucketCount];
+                System.arraycopy(newBuckets, 0, retainedBuckets, 0, newBucketCount);
+                buckets = retainedBuckets;
+            }
+        } finally {
+            unlockAll();
+        }
+    }
+    
+    private static final class Bucket {
+        
+        private final long startEpoch;
+        // Only the newest bucket is extended and only under the lock of the storage
+        private volatile long endEpoch;
+        private final StripedLong2LongHashMap regions;
+        // Regions of the merged bucket which are still being moved into the regions of this bucket
+        private volatile StripedLong2LongHashMap migratingRegions;
+        private volatile boolean retired;
+        
+        private Bucket(long startEpoch, long endEpoch, StripedLong2LongHashMap regions) {
+            this(startEpoch, endEpoch, regions, null);
+        }
+        
+        private Bucket(long startEpoch, long endEpoch, 
+                       StripedLong2LongHashMap regions, StripedLong2LongHashMap migratingRegions) {
+            this.startEpoch = startEpoch;
+            this.endEpoch = endEpoch;
+            this.regions = regions;
+            this.migratingRegions = migratingRegions;
+        }
+        
+        // Called under the lock of the address, so a region being migrated is found in exactly one of the maps
+        private boolean remove(long address) {
+            if (regions.remove(address) != INVALID) {
+                return true;
+            }
+            StripedLong2LongHashMap currentMigratingRegions = migratingRegions;
+            return currentMigratingRegions != null && currentMigratingRegions.remove(address) != INVALID;
+        }
+        
+    }
+
+}
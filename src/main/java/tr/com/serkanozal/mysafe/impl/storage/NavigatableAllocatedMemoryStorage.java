@@ -22,7 +22,7 @@ import java.util.concurrent.ConcurrentSkipListMap;
 import tr.com.serkanozal.mysafe.AllocatedMemoryIterator;
 import tr.com.serkanozal.mysafe.AllocatedMemoryStorage;
 
-public class NavigatableAllocatedMemoryStorage implements AllocatedMemoryStorage {
+public class NavigatableAllocatedMemoryStorage implements AllocatedMemoryStorage, AllocatedMemoryRegionResolver {
 
     private final NavigableMap<Long, Long> allocatedMemories;
     
@@ -52,6 +52,17 @@ public class NavigatableAllocatedMemoryStorage implements AllocatedMemoryStorage
         return address >= startAddress && (address + size) <= endAddress;
     }
 
+    @Override
+    public long findAllocatedMemoryStart(long address, long size) {
+        Map.Entry<Long, Long> entry = allocatedMemories.floorEntry(address);
+        if (entry == null) {
+            return INVALID;
+        }
+        long startAddress = entry.getKey();
+        long endAddress = startAddress + entry.getValue();
+        return (address + size) <= endAddress ? startAddress : INVALID;
+    }
+
     @Override
     public long get(long address) {
         Long size = allocatedMemories.get(address);
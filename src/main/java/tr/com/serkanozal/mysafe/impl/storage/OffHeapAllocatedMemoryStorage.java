@@ -0,0 +1,130 @@
+/*
+ * Copyright (c) 2017, Serkan OZAL, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tr.com.serkanozal.mysafe.impl.storage;
+
+import sun.misc.Unsafe;
+import tr.com.serkanozal.mysafe.AllocatedMemoryIterator;
+import tr.com.serkanozal.mysafe.AllocatedMemorySplit;
+import tr.com.serkanozal.mysafe.SplittableAllocatedMemoryStorage;
+import tr.com.serkanozal.mysafe.impl.util.Compactable;
+import tr.com.serkanozal.mysafe.impl.util.ConcurrentNativeMemoryBackedLong2LongHashMap;
+import tr.com.serkanozal.mysafe.impl.util.Long2LongMap.LongLongConsumer;
+import tr.com.serkanozal.mysafe.impl.util.Long2LongMap.LongLongCursor;
+
+/**
+ * Global (thread-safe) storage whose allocated memories are kept in native memory, 
+ * so it doesn't put any pressure on the GC regardless of the number of allocated memories.
+ * 
+ * @author Serkan OZAL
+ */
+public class OffHeapAllocatedMemoryStorage implements SplittableAllocatedMemoryStorage, Compactable {
+
+    private final ConcurrentNativeMemoryBackedLong2LongHashMap allocatedMemories;
+
+    public OffHeapAllocatedMemoryStorage(Unsafe unsafe) {
+        this.allocatedMemories = new ConcurrentNativeMemoryBackedLong2LongHashMap(unsafe, INVALID);
+    }
+
+    @Override
+    public boolean contains(long address) {
+        return allocatedMemories.containsKey(address);
+    }
+
+    @Override
+    public boolean contains(long address, long size) {
+        if (allocatedMemories.containsKey(address)) {
+            return true;
+        }
+        LongLongCursor cursor = allocatedMemories.cursor();
+        while (cursor.advance()) {
+            long startAddress = cursor.key();
+            long endAddress = startAddress + cursor.value();
+            if (address >= startAddress && (address + size) <= endAddress) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public long get(long address) {
+        return allocatedMemories.get(address);
+    }
+
+    @Override
+    public void put(long address, long size) {
+        allocatedMemories.put(address, size);
+    }
+
+    @Override
+    public long remove(long address) {
+        return allocatedMemories.remove(address);
+    }
+
+    @Override
+    public void iterate(AllocatedMemoryIterator iterator) {
+        allocatedMemories.longForEach(new IteratorAdapter(iterator));
+    }
+
+    @Override
+    public AllocatedMemorySplit split() {
+        return new SegmentRangeSplit(0, allocatedMemories.segmentCount());
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return allocatedMemories.isEmpty();
+    }
+    
+    @Override
+    public void compact() {
+        allocatedMemories.shrink();
+    }
+
+    private static final class IteratorAdapter implements LongLongConsumer {
+
+        private final AllocatedMemoryIterator iterator;
+
+        private IteratorAdapter(AllocatedMemoryIterator iterator) {
+            this.iterator = iterator;
+        }
+
+        @Override
+        public void accept(long key, long value) {
+            iterator.onAllocatedMemory(key, value);
+        }
+
+    }
+
+    private final class SegmentRangeSplit extends AbstractIndexRangeAllocatedMemorySplit {
+
+        private SegmentRangeSplit(int fromSegment, int toSegment) {
+            super(fromSegment, toSegment);
+        }
+
+        @Override
+        protected AllocatedMemorySplit createSplit(int fromIndex, int toIndex) {
+            return new SegmentRangeSplit(fromIndex, toIndex);
+        }
+
+        @Override
+        protected void iterate(int index, AllocatedMemoryIterator iterator) {
+            allocatedMemories.longForEach(index, new IteratorAdapter(iterator));
+        }
+
+    }
+
+}
@@ -0,0 +1,489 @@
+/*
+ * Copyright (c) 2017, Serkan OZAL, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tr.com.serkanozal.mysafe.impl.storage;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import tr.com.serkanozal.mysafe.AllocatedMemoryIterator;
+import tr.com.serkanozal.mysafe.AllocatedMemorySplit;
+import tr.com.serkanozal.mysafe.AllocatedMemoryStorage;
+import tr.com.serkanozal.mysafe.SplittableAllocatedMemoryStorage;
+
+/**
+ * Global (thread-safe) storage whose allocated memories are indexed by the pages they intersect with 
+ * through a multi-level page table, so a memory access is checked by a few memory loads.
+ * 
+ * @author Serkan OZAL
+ */
+public class PageTableAllocatedMemoryStorage implements SplittableAllocatedMemoryStorage {
+
+    /*
+     * <page_no> = <address> >>> <page_shift>;
+     *
+     * Structure of <page_no> (for default 12 bits page shift):
+     * +-------------------------------------------------------------+
+     * | <root_index> | <level1_index> | <level2_index> | <page_index> |
+     * |==============|================|================|==============|
+     * | 13 bits      | 13 bits        | 13 bits        | 13 bits      |
+     * +-------------------------------------------------------------+
+     *
+     * Every level is populated lazily when a region is stored on a page under it.
+     * Each page slot points to an immutable (copy-on-write) page which holds
+     * all the regions intersecting with that page sorted by their start addresses.
+     * So a region check costs a few memory loads regardless of the number of live regions.
+     * 
+     * Regions spanning more than "LARGE_REGION_PAGE_COUNT" pages are not put on the pages 
+     * but kept in a sorted storage, so storing or removing a region costs a bounded number of page updates. 
+     * Live memory regions don't overlap, so a region not found on its page is searched there.
+     */
+
+    private static final int DEFAULT_PAGE_SHIFT = 12;
+    private static final int MIN_PAGE_SHIFT = 3;
+    private static final int MAX_PAGE_SHIFT = 32;
+    private static final int PAGE_TABLE_LEVEL = 3;
+    private static final int LARGE_REGION_PAGE_COUNT = 16;
+
+    private final int pageShift;
+    private final int levelBits;
+    private final int levelMask;
+    private final int rootMask;
+    private final AtomicReferenceArray<Object> root;
+    private final AllocatedMemoryStorage largeRegions = new NavigatableAllocatedMemoryStorage();
+
+    public PageTableAllocatedMemoryStorage() {
+        this(Integer.getInteger("mysafe.pageTableStoragePageShift", DEFAULT_PAGE_SHIFT));
+    }
+
+    public PageTableAllocatedMemoryStorage(int pageShift) {
+        if (pageShift < MIN_PAGE_SHIFT || pageShift > MAX_PAGE_SHIFT) {
+            throw new IllegalArgumentException(
+                    "Page shift must be between " + MIN_PAGE_SHIFT + " and " + MAX_PAGE_SHIFT +
+                    " but it is " + pageShift);
+        }
+        int pageNoBits = Long.SIZE - pageShift;
+        this.pageShift = pageShift;
+        this.levelBits = (pageNoBits + 3) / 4;
+        this.levelMask = (1 << levelBits) - 1;
+        this.rootMask = (1 << (pageNoBits - (3 * levelBits))) - 1;
+        this.root = new AtomicReferenceArray<Object>(rootMask + 1);
+    }
+
+    @SuppressWarnings("unchecked")
+    private AtomicReferenceArray<Object> table(AtomicReferenceArray<Object> parent, int index, boolean create) {
+        AtomicReferenceArray<Object> table = (AtomicReferenceArray<Object>) parent.get(index);
+        if (table == null && create) {
+            AtomicReferenceArray<Object> newTable = new AtomicReferenceArray<Object>(levelMask + 1);
+            if (parent.compareAndSet(index, null, newTable)) {
+                table = newTable;
+            } else {
+                table = (AtomicReferenceArray<Object>) parent.get(index);
+            }
+        }
+        return table;
+    }
+
+    private AtomicReferenceArray<Object> pageTable(long pageNo, boolean create) {
+        AtomicReferenceArray<Object> level1 =
+                table(root, (int) (pageNo >>> (3 * levelBits)) & rootMask, create);
+        if (level1 == null) {
+            return null;
+        }
+        AtomicReferenceArray<Object> level2 =
+                table(level1, (int) (pageNo >>> (2 * levelBits)) & levelMask, create);
+        if (level2 == null) {
+            return null;
+        }
+        return table(level2, (int) (pageNo >>> levelBits) & levelMask, create);
+    }
+
+    private int pageIndex(long pageNo) {
+        return (int) pageNo & levelMask;
+    }
+
+    private Page page(long address) {
+        long pageNo = address >>> pageShift;
+        AtomicReferenceArray<Object> pageTable = pageTable(pageNo, false);
+        if (pageTable == null) {
+            return null;
+        }
+        return (Page) pageTable.get(pageIndex(pageNo));
+    }
+
+    private long lastPageNo(long address, long size) {
+        // End address is also treated as inside the region as other storages do
+        return (address + size) >>> pageShift;
+    }
+    
+    private boolean isLargeRegion(long address, long size) {
+        return lastPageNo(address, size) - (address >>> pageShift) >= LARGE_REGION_PAGE_COUNT;
+    }
+
+    @Override
+    public boolean contains(long address) {
+        return contains(address, 0);
+    }
+
+    @Override
+    public boolean contains(long address, long size) {
+        return containsOnPage(address, size) 
+                || (!largeRegions.isEmpty() && largeRegions.contains(address, size));
+    }
+    
+    private boolean containsOnPage(long address, long size) {
+        Page page = page(address);
+        if (page == null) {
+            return false;
+        }
+        int index = page.floorIndex(address);
+        if (index < 0) {
+            return false;
+        }
+        long startAddress = page.startAt(index);
+        long regionSize = page.sizeAt(index);
+        if ((startAddress >>> pageShift) != (address >>> pageShift)) {
+            // Region starts on an earlier page which owns the region (puts and removes are decided there), 
+            // so its size is taken from there in case the region is being replaced or removed concurrently
+            regionSize = get(startAddress);
+            if (regionSize == INVALID) {
+                return false;
+            }
+        }
+        return address >= startAddress && (address + size) <= startAddress + regionSize;
+    }
+
+    @Override
+    public long get(long address) {
+        Page page = page(address);
+        long size = page != null ? page.get(address) : INVALID;
+        if (size == INVALID && !largeRegions.isEmpty()) {
+            return largeRegions.get(address);
+        }
+        return size;
+    }
+
+    @Override
+    public void put(long address, long size) {
+        if (isLargeRegion(address, size)) {
+            largeRegions.put(address, size);
+            // Region might have been a small one before
+            removeFromPages(address);
+            return;
+        }
+        putToPages(address, size);
+        if (!largeRegions.isEmpty()) {
+            // Region might have been a large one before
+            largeRegions.remove(address);
+        }
+    }
+    
+    private void putToPages(long address, long size) {
+        long firstPageNo = address >>> pageShift;
+        long lastPageNo = lastPageNo(address, size);
+        for (long pageNo = firstPageNo + 1; pageNo <= lastPageNo; pageNo++) {
+            putToPage(pageNo, address, size);
+        }
+        // Region is published on the first page at last, so a concurrent removal which finds it there 
+        // never misses its entries on the other pages
+        long oldSize = putToPage(firstPageNo, address, size);
+        if (oldSize != INVALID) {
+            // Region has been replaced by a smaller one, so it is removed from the pages it doesn't cover anymore
+            long oldLastPageNo = lastPageNo(address, oldSize);
+            for (long pageNo = lastPageNo + 1; pageNo <= oldLastPageNo; pageNo++) {
+                removeFromPage(pageNo, address);
+            }
+        }
+    }
+    
+    private long putToPage(long pageNo, long address, long size) {
+        AtomicReferenceArray<Object> pageTable = pageTable(pageNo, true);
+        int pageIndex = pageIndex(pageNo);
+        for (;;) {
+            Page page = (Page) pageTable.get(pageIndex);
+            Page newPage = page != null ? page.with(address, size) : new Page(address, size);
+            if (pageTable.compareAndSet(pageIndex, page, newPage)) {
+                return page != null ? page.get(address) : INVALID;
+            }
+        }
+    }
+
+    @Override
+    public long remove(long address) {
+        long size = removeFromPages(address);
+        if (size == INVALID && !largeRegions.isEmpty()) {
+            return largeRegions.remove(address);
+        }
+        return size;
+    }
+    
+    private long removeFromPages(long address) {
+        long firstPageNo = address >>> pageShift;
+        // Removal from the first page decides the owner of the removal,
+        // so concurrent removals of the same address cannot both succeed
+        long size = removeFromPage(firstPageNo, address);
+        if (size == INVALID) {
+            return INVALID;
+        }
+        long lastPageNo = lastPageNo(address, size);
+        for (long pageNo = firstPageNo + 1; pageNo <= lastPageNo; pageNo++) {
+            removeFromPage(pageNo, address);
+        }
+        return size;
+    }
+
+    private long removeFromPage(long pageNo, long address) {
+        AtomicReferenceArray<Object> pageTable = pageTable(pageNo, false);
+        if (pageTable == null) {
+            return INVALID;
+        }
+        int pageIndex = pageIndex(pageNo);
+        for (;;) {
+            Page page = (Page) pageTable.get(pageIndex);
+            if (page == null) {
+                return INVALID;
+            }
+            int index = page.indexOf(address);
+            if (index < 0) {
+                return INVALID;
+            }
+            if (pageTable.compareAndSet(pageIndex, page, page.without(index))) {
+                return page.sizeAt(index);
+            }
+        }
+    }
+
+    @Override
+    public void iterate(AllocatedMemoryIterator iterator) {
+        iterate(root, 0, 0L, 0, rootMask + 1, iterator);
+        largeRegions.iterate(iterator);
+    }
+
+    private int levelShift(int level) {
+        return (PAGE_TABLE_LEVEL - level) * levelBits;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void iterate(AtomicReferenceArray<Object> table, int level, long pageNoPrefix, 
+                         int fromIndex, int toIndex, AllocatedMemoryIterator iterator) {
+        for (int i = fromIndex; i < toIndex; i++) {
+            Object entry = table.get(i);
+            if (entry == null) {
+                continue;
+            }
+            long pageNo = pageNoPrefix | ((long) i << levelShift(level));
+            if (level == PAGE_TABLE_LEVEL) {
+                ((Page) entry).iterate(pageNo, pageShift, iterator);
+            } else {
+                AtomicReferenceArray<Object> childTable = (AtomicReferenceArray<Object>) entry;
+                iterate(childTable, level + 1, pageNo, 0, childTable.length(), iterator);
+            }
+        }
+    }
+
+    @Override
+    public AllocatedMemorySplit split() {
+        return AllocatedMemorySplits.concat(
+                new TableSplit(root, 0, 0L, 0, rootMask + 1), 
+                AllocatedMemorySplits.of(largeRegions));
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return largeRegions.isEmpty() && arePagesEmpty();
+    }
+    
+    private boolean arePagesEmpty() {
+        for (int i = 0; i <= rootMask; i++) {
+            AtomicReferenceArray<Object> level1 = table(root, i, false);
+            if (level1 == null) {
+                continue;
+            }
+            for (int j = 0; j <= levelMask; j++) {
+                AtomicReferenceArray<Object> level2 = table(level1, j, false);
+                if (level2 == null) {
+                    continue;
+                }
+                for (int k = 0; k <= levelMask; k++) {
+                    AtomicReferenceArray<Object> pageTable = table(level2, k, false);
+                    if (pageTable == null) {
+                        continue;
+                    }
+                    for (int l = 0; l <= levelMask; l++) {
+                        if (pageTable.get(l) != null) {
+                            return false;
+                        }
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Covers a range of the slots of a table. 
+     * Split by halving its occupied slots or by going down into its single occupied slot.
+     */
+    private final class TableSplit implements AllocatedMemorySplit {
+
+        private AtomicReferenceArray<Object> table;
+        private int level;
+        private long pageNoPrefix;
+        private int fromIndex;
+        private int toIndex;
+
+        private TableSplit(AtomicReferenceArray<Object> table, int level, long pageNoPrefix, 
+                           int fromIndex, int toIndex) {
+            this.table = table;
+            this.level = level;
+            this.pageNoPrefix = pageNoPrefix;
+            this.fromIndex = fromIndex;
+            this.toIndex = toIndex;
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override
+        public AllocatedMemorySplit trySplit() {
+            for (;;) {
+                int lowestIndex = fromIndex;
+                while (lowestIndex < toIndex && table.get(lowestIndex) == null) {
+                    lowestIndex++;
+                }
+                if (lowestIndex == toIndex) {
+                    return null;
+                }
+                int highestIndex = toIndex - 1;
+                while (highestIndex > lowestIndex && table.get(highestIndex) == null) {
+                    highestIndex--;
+                }
+                if (highestIndex > lowestIndex) {
+                    int midIndex = (lowestIndex + highestIndex + 1) >>> 1;
+                    AllocatedMemorySplit split = new TableSplit(table, level, pageNoPrefix, fromIndex, midIndex);
+                    fromIndex = midIndex;
+                    return split;
+                }
+                if (level == PAGE_TABLE_LEVEL) {
+                    return null;
+                }
+                pageNoPrefix |= (long) lowestIndex << levelShift(level);
+                table = (AtomicReferenceArray<Object>) table.get(lowestIndex);
+                level++;
+                fromIndex = 0;
+                toIndex = table.length();
+            }
+        }
+
+        @Override
+        public void iterate(AllocatedMemoryIterator iterator) {
+            PageTableAllocatedMemoryStorage.this.iterate(table, level, pageNoPrefix, fromIndex, toIndex, iterator);
+        }
+
+    }
+
+    /**
+     * Immutable set of the regions intersecting with a page.
+     * Regions are kept as <code>[start, size]</code> pairs sorted by their start addresses.
+     */
+    private static final class Page {
+
+        private final long[] regions;
+
+        private Page(long address, long size) {
+            this.regions = new long[] { address, size };
+        }
+
+        private Page(long[] regions) {
+            this.regions = regions;
+        }
+
+        // Returns the index of the last region whose start address is not bigger than the given address
+        private int floorIndex(long address) {
+            int low = 0;
+            int high = (regions.length >> 1) - 1;
+            int floor = -1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                long start = regions[mid << 1];
+                if (start <= address) {
+                    floor = mid;
+                    low = mid + 1;
+                } else {
+                    high = mid - 1;
+                }
+            }
+            return floor;
+        }
+
+        private int indexOf(long address) {
+            int index = floorIndex(address);
+            if (index >= 0 && regions[index << 1] == address) {
+                return index;
+            }
+            return -1;
+        }
+
+        private long startAt(int index) {
+            return regions[index << 1];
+        }
+
+        private long sizeAt(int index) {
+            return regions[(index << 1) + 1];
+        }
+
+        private long get(long address) {
+            int index = indexOf(address);
+            return index >= 0 ? sizeAt(index) : INVALID;
+        }
+
+        private Page with(long address, long size) {
+            int index = floorIndex(address);
+            if (index >= 0 && regions[index << 1] == address) {
+                long[] newRegions = regions.clone();
+                newRegions[(index << 1) + 1] = size;
+                return new Page(newRegions);
+            }
+            int insertIndex = (index + 1) << 1;
+            long[] newRegions = new long[regions.length + 2];
+            System.arraycopy(regions, 0, newRegions, 0, insertIndex);
+            newRegions[insertIndex] = address;
+            newRegions[insertIndex + 1] = size;
+            System.arraycopy(regions, insertIndex, newRegions, insertIndex + 2, regions.length - insertIndex);
+            return new Page(newRegions);
+        }
+
+        private Page without(int index) {
+            if (regions.length == 2) {
+                return null;
+            }
+            int removeIndex = index << 1;
+            long[] newRegions = new long[regions.length - 2];
+            System.arraycopy(regions, 0, newRegions, 0, removeIndex);
+            System.arraycopy(regions, removeIndex + 2, newRegions, removeIndex, newRegions.length - removeIndex);
+            return new Page(newRegions);
+        }
+
+        private void iterate(long pageNo, int pageShift, AllocatedMemoryIterator iterator) {
+            for (int i = 0; i < regions.length; i += 2) {
+                long address = regions[i];
+                // Only report regions on their first page,
+                // so regions spanning multiple pages are reported only once
+                if ((address >>> pageShift) == pageNo) {
+                    iterator.onAllocatedMemory(address, regions[i + 1]);
+                }
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) 2017, Serkan OZAL, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tr.com.serkanozal.mysafe.impl.storage;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Aggregates allocation records by iterating on the splits in parallel on a fork/join pool.
+ * Pool is created on the first parallel aggregation, 
+ * so there is no thread started if parallel iteration is never used.
+ * 
+ * @author Serkan OZAL
+ */
+public class ParallelAllocationRecordAggregator {
+
+    // Split more than the parallelism so busy workers can be helped by the idle ones
+    private static final int EXTRA_SPLIT_DEPTH = 2;
+    
+    private final int parallelism;
+    private final int maxSplitDepth;
+    private volatile ForkJoinPool pool;
+    
+    public ParallelAllocationRecordAggregator(int parallelism) {
+        if (parallelism <= 0) {
+            throw new IllegalArgumentException("Parallelism must be positive but it is " + parallelism);
+        }
+        this.parallelism = parallelism;
+        this.maxSplitDepth = 
+                parallelism > 1 
+                    ? (32 - Integer.numberOfLeadingZeros(parallelism - 1)) + EXTRA_SPLIT_DEPTH 
+                    : 0;
+    }
+    
+    public int getParallelism() {
+        return parallelism;
+    }
+    
+    private ForkJoinPool pool() {
+        ForkJoinPool p = pool;
+        if (p == null) {
+            synchronized (this) {
+                p = pool;
+                if (p == null) {
+                    p = new ForkJoinPool(parallelism);
+                    pool = p;
+                }
+            }
+        }
+        return p;
+    }
+    
+    /**
+     * Aggregates the allocation records covered by the given split.
+     * Splits are aggregated in parallel if parallelism is bigger than <code>1</code>, 
+     * otherwise the whole split is aggregated on the caller thread.
+     * 
+     * @param split         the {@link AllocationRecordSplit} to be aggregated
+     * @param aggregator    the {@link AllocationRecordAggregator} to aggregate records
+     * @return the aggregation result
+     */
+    public <R> R aggregate(AllocationRecordSplit split, AllocationRecordAggregator<R> aggregator) {
+        AggregationTask<R> task = new AggregationTask<R>(split, aggregator, maxSplitDepth);
+        if (maxSplitDepth == 0) {
+            return task.compute();
+        }
+        return pool().invoke(task);
+    }
+    
+    private static final class AggregationTask<R> extends RecursiveTask<R> {
+        
+        private static final long serialVersionUID = 1L;
+        
+        private final AllocationRecordSplit split;
+        private final AllocationRecordAggregator<R> aggregator;
+        private final int splitDepth;
+        
+        private AggregationTask(AllocationRecordSplit split, AllocationRecordAggregator<R> aggregator, int splitDepth) {
+            this.split = split;
+            this.aggregator = aggregator;
+            this.splitDepth = splitDepth;
+        }
+
+        @Override
+        protected R compute() {
+            AllocationRecordSplit otherSplit = splitDepth > 0 ? split.trySplit() : null;
+            if (otherSplit == null) {
+                final R partialResult = aggregator.createPartialResult();
+                split.iterate(new AllocationRecordIterator() {
+                    @Override
+                    public void onAllocationRecord(long address, long size, long allocationPathKey) {
+                        aggregator.onAllocationRecord(partialResult, address, size, allocationPathKey);
+                    }
+                });
+                return partialResult;
+            }
+            AggregationTask<R> otherTask = new AggregationTask<R>(otherSplit, aggregator, splitDepth - 1);
+            otherTask.fork();
+            R result = new AggregationTask<R>(split, aggregator, splitDepth - 1).compute();
+            return aggregator.merge(otherTask.join(), result);
+        }
+        
+    }
+    
+}
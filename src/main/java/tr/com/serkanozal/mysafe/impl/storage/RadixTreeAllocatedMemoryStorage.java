@@ -0,0 +1,144 @@
+/*
+ * Copyright (c) 2017, Serkan OZAL, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tr.com.serkanozal.mysafe.impl.storage;
+
+import tr.com.serkanozal.mysafe.AllocatedMemoryIterator;
+import tr.com.serkanozal.mysafe.AllocatedMemorySplit;
+import tr.com.serkanozal.mysafe.SplittableAllocatedMemoryStorage;
+import tr.com.serkanozal.mysafe.impl.util.Compactable;
+import tr.com.serkanozal.mysafe.impl.util.ConcurrentLong2LongRadixTree;
+import tr.com.serkanozal.mysafe.impl.util.Long2LongMap.LongLongConsumer;
+
+/**
+ * Global (thread-safe) storage whose allocated memories are kept ordered by their addresses in a radix tree, 
+ * so the allocated memory containing an address can be found without any locking.
+ * 
+ * @author Serkan OZAL
+ */
+public class RadixTreeAllocatedMemoryStorage 
+        implements SplittableAllocatedMemoryStorage, AllocatedMemoryRegionResolver, Compactable {
+
+    private final ConcurrentLong2LongRadixTree allocatedMemories;
+
+    public RadixTreeAllocatedMemoryStorage() {
+        this.allocatedMemories = new ConcurrentLong2LongRadixTree(INVALID);
+    }
+
+    @Override
+    public boolean contains(long address) {
+        return contains(address, 0);
+    }
+
+    @Override
+    public boolean contains(long address, long size) {
+        long startAddress = allocatedMemories.floorKey(address);
+        if (startAddress == INVALID) {
+            return false;
+        }
+        long allocationSize = allocatedMemories.get(startAddress);
+        if (allocationSize == INVALID) {
+            // Removed concurrently
+            return false;
+        }
+        long endAddress = startAddress + allocationSize;
+        return address >= startAddress && (address + size) <= endAddress;
+    }
+
+    @Override
+    public long findAllocatedMemoryStart(long address, long size) {
+        long startAddress = allocatedMemories.floorKey(address);
+        if (startAddress == INVALID) {
+            return INVALID;
+        }
+        long allocationSize = allocatedMemories.get(startAddress);
+        if (allocationSize == INVALID || (address + size) > startAddress + allocationSize) {
+            return INVALID;
+        }
+        return startAddress;
+    }
+
+    @Override
+    public long get(long address) {
+        return allocatedMemories.get(address);
+    }
+
+    @Override
+    public void put(long address, long size) {
+        allocatedMemories.put(address, size);
+    }
+
+    @Override
+    public long remove(long address) {
+        return allocatedMemories.remove(address);
+    }
+
+    @Override
+    public void iterate(AllocatedMemoryIterator iterator) {
+        allocatedMemories.longForEach(new IteratorAdapter(iterator));
+    }
+
+    @Override
+    public AllocatedMemorySplit split() {
+        return new TreeSplit(allocatedMemories.split());
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return allocatedMemories.isEmpty();
+    }
+
+    @Override
+    public void compact() {
+        allocatedMemories.prune();
+    }
+
+    private static final class IteratorAdapter implements LongLongConsumer {
+
+        private final AllocatedMemoryIterator iterator;
+
+        private IteratorAdapter(AllocatedMemoryIterator iterator) {
+            this.iterator = iterator;
+        }
+
+        @Override
+        public void accept(long key, long value) {
+            iterator.onAllocatedMemory(key, value);
+        }
+
+    }
+
+    private static final class TreeSplit implements AllocatedMemorySplit {
+
+        private final ConcurrentLong2LongRadixTree.Split split;
+
+        private TreeSplit(ConcurrentLong2LongRadixTree.Split split) {
+            this.split = split;
+        }
+
+        @Override
+        public AllocatedMemorySplit trySplit() {
+            ConcurrentLong2LongRadixTree.Split newSplit = split.trySplit();
+            return newSplit != null ? new TreeSplit(newSplit) : null;
+        }
+
+        @Override
+        public void iterate(AllocatedMemoryIterator iterator) {
+            split.longForEach(new IteratorAdapter(iterator));
+        }
+
+    }
+
+}
@@ -0,0 +1,35 @@
+/*
+ * Copyright (c) 2017, Serkan OZAL, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tr.com.serkanozal.mysafe.impl.storage;
+
+/**
+ * Listener of the frees of memories which have been allocated by other threads.
+ * 
+ * @author Serkan OZAL
+ */
+public interface RemoteFreeListener {
+
+    /**
+     * Called by the freeing thread when it has removed a memory allocated by another thread 
+     * from the storage.
+     * 
+     * @param owner the thread which has allocated the memory, 
+     *              <code>null</code> if it is dead and not known anymore
+     * @param size  the size of the removed memory
+     */
+    void onRemoteFree(Thread owner, long size);
+    
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2017, Serkan OZAL, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tr.com.serkanozal.mysafe.impl.storage;
+
+import sun.misc.Unsafe;
+import tr.com.serkanozal.mysafe.AllocatedMemoryIterator;
+import tr.com.serkanozal.mysafe.AllocatedMemorySplit;
+import tr.com.serkanozal.mysafe.AllocatedMemoryStorage;
+import tr.com.serkanozal.mysafe.SplittableAllocatedMemoryStorage;
+import tr.com.serkanozal.mysafe.impl.util.Compactable;
+import tr.com.serkanozal.mysafe.impl.util.ShadowMemory;
+
+/**
+ * {@link AllocatedMemoryStorage} decorator which marks the allocated memories on a {@link ShadowMemory},
+ * so memory accesses into the allocated memories are checked by a few memory loads 
+ * without looking up the decorated storage. Decorated storage is only looked up 
+ * when the shadow memory cannot decide (for the partially allocated granules or illegal accesses).
+ * 
+ * @author Serkan OZAL
+ */
+public class ShadowMemoryAllocatedMemoryStorage implements SplittableAllocatedMemoryStorage, Compactable {
+
+    private final AllocatedMemoryStorage allocatedMemoryStorage;
+    private final ShadowMemory shadowMemory;
+    
+    public ShadowMemoryAllocatedMemoryStorage(AllocatedMemoryStorage allocatedMemoryStorage, Unsafe unsafe) {
+        this(allocatedMemoryStorage, new ShadowMemory(unsafe));
+    }
+    
+    public ShadowMemoryAllocatedMemoryStorage(AllocatedMemoryStorage allocatedMemoryStorage, 
+                                              ShadowMemory shadowMemory) {
+        this.allocatedMemoryStorage = allocatedMemoryStorage;
+        this.shadowMemory = shadowMemory;
+    }
+    
+    @Override
+    public boolean contains(long address) {
+        return shadowMemory.isAllocated(address, 1) || allocatedMemoryStorage.contains(address);
+    }
+
+    @Override
+    public boolean contains(long address, long size) {
+        return shadowMemory.isAllocated(address, size) || allocatedMemoryStorage.contains(address, size);
+    }
+
+    @Override
+    public long get(long address) {
+        return allocatedMemoryStorage.get(address);
+    }
+
+    @Override
+    public void put(long address, long size) {
+        allocatedMemoryStorage.put(address, size);
+        shadowMemory.markAllocated(address, size);
+    }
+
+    @Override
+    public long remove(long address) {
+        long size = allocatedMemoryStorage.remove(address);
+        if (size != INVALID) {
+            shadowMemory.markFree(address, size);
+        }
+        return size;
+    }
+
+    @Override
+    public void iterate(AllocatedMemoryIterator iterator) {
+        allocatedMemoryStorage.iterate(iterator);
+    }
+    
+    @Override
+    public AllocatedMemorySplit split() {
+        return AllocatedMemorySplits.of(allocatedMemoryStorage);
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return allocatedMemoryStorage.isEmpty();
+    }
+    
+    @Override
+    public void compact() {
+        if (allocatedMemoryStorage instanceof Compactable) {
+            ((Compactable) allocatedMemoryStorage).compact();
+        }
+    }
+
+}
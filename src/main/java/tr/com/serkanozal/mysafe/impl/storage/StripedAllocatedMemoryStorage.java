@@ -0,0 +1,138 @@
+/*
+ * Copyright (c) 2017, Serkan OZAL, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tr.com.serkanozal.mysafe.impl.storage;
+
+import tr.com.serkanozal.mysafe.AllocatedMemoryIterator;
+import tr.com.serkanozal.mysafe.AllocatedMemorySplit;
+import tr.com.serkanozal.mysafe.SplittableAllocatedMemoryStorage;
+import tr.com.serkanozal.mysafe.impl.util.Long2LongMap.LongLongConsumer;
+import tr.com.serkanozal.mysafe.impl.util.PackedLong2LongHashMap;
+import tr.com.serkanozal.mysafe.impl.util.StripedLong2LongHashMap;
+
+/**
+ * Global (thread-safe) storage whose allocated memories are distributed over lock striped maps, 
+ * so accesses to different stripes don't contend.
+ * 
+ * @author Serkan OZAL
+ */
+public class StripedAllocatedMemoryStorage implements SplittableAllocatedMemoryStorage {
+
+    private static final boolean USE_PACKED_ENCODING = Boolean.getBoolean("mysafe.usePackedEncodingForStorage");
+    private static final int PACKED_ENCODING_ALIGNMENT_SHIFT = 
+            Integer.getInteger("mysafe.packedEncodingAlignmentShift", PackedLong2LongHashMap.DEFAULT_ALIGNMENT_SHIFT);
+
+    private final StripedLong2LongHashMap allocatedMemories;
+
+    public StripedAllocatedMemoryStorage() {
+        this(StripedLong2LongHashMap.DEFAULT_STRIPE_COUNT);
+    }
+
+    public StripedAllocatedMemoryStorage(int stripeCount) {
+        this.allocatedMemories = 
+                new StripedLong2LongHashMap(stripeCount, INVALID, 
+                                            USE_PACKED_ENCODING ? PACKED_ENCODING_ALIGNMENT_SHIFT : -1);
+    }
+
+    @Override
+    public boolean contains(long address) {
+        return contains(address, 0);
+    }
+
+    /**
+     * Memories are not ordered by their addresses, so if there is no memory starting at the given address, 
+     * all the stripes are scanned (one at a time under its lock). 
+     * So this is <code>O(n)</code> in the count of the allocated memories. 
+     * {@link ThreadLocalNavigatableAllocatedMemoryStorage} or the page table/radix tree based storages 
+     * should be preferred when interior addresses are checked frequently.
+     */
+    @Override
+    public boolean contains(long address, long size) {
+        if (allocatedMemories.containsKey(address)) {
+            return true;
+        }
+        int stripeCount = allocatedMemories.stripeCount();
+        for (int i = 0; i < stripeCount; i++) {
+            if (allocatedMemories.containsRange(i, address, size)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public long get(long address) {
+        return allocatedMemories.get(address);
+    }
+
+    @Override
+    public void put(long address, long size) {
+        allocatedMemories.put(address, size);
+    }
+
+    @Override
+    public long remove(long address) {
+        return allocatedMemories.remove(address);
+    }
+
+    @Override
+    public void iterate(AllocatedMemoryIterator iterator) {
+        allocatedMemories.longForEach(new IteratorAdapter(iterator));
+    }
+
+    @Override
+    public AllocatedMemorySplit split() {
+        return new StripeRangeSplit(0, allocatedMemories.stripeCount());
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return allocatedMemories.isEmpty();
+    }
+
+    private static final class IteratorAdapter implements LongLongConsumer {
+
+        private final AllocatedMemoryIterator iterator;
+
+        private IteratorAdapter(AllocatedMemoryIterator iterator) {
+            this.iterator = iterator;
+        }
+
+        @Override
+        public void accept(long key, long value) {
+            iterator.onAllocatedMemory(key, value);
+        }
+
+    }
+
+    private final class StripeRangeSplit extends AbstractIndexRangeAllocatedMemorySplit {
+
+        private StripeRangeSplit(int fromStripe, int toStripe) {
+            super(fromStripe, toStripe);
+        }
+
+        @Override
+        protected AllocatedMemorySplit createSplit(int fromIndex, int toIndex) {
+            return new StripeRangeSplit(fromIndex, toIndex);
+        }
+
+        @Override
+        protected void iterate(int index, AllocatedMemoryIterator iterator) {
+            allocatedMemories.longForEach(index, new IteratorAdapter(iterator));
+        }
+
+    }
+
+}
@@ -0,0 +1,238 @@
+/*
+ * Copyright (c) 2017, Serkan OZAL, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tr.com.serkanozal.mysafe.impl.storage;
+
+import tr.com.serkanozal.mysafe.AllocatedMemoryIterator;
+import tr.com.serkanozal.mysafe.impl.util.Long2RecordHashMap;
+import tr.com.serkanozal.mysafe.impl.util.StripedLong2LongHashMap;
+
+/**
+ * Global (thread-safe) storage whose allocation records (size and allocation path key) 
+ * are distributed over lock striped maps, so accesses to different stripes don't contend.
+ * 
+ * @author Serkan OZAL
+ */
+public class StripedAllocationRecordStorage implements AllocationRecordStorage {
+
+    private static final int SIZE_INDEX = 0;
+    private static final int ALLOCATION_PATH_KEY_INDEX = 1;
+    private static final int VALUE_COUNT = 2;
+
+    private final Long2RecordHashMap[] stripes;
+    private final int stripeMask;
+
+    public StripedAllocationRecordStorage() {
+        this(StripedLong2LongHashMap.DEFAULT_STRIPE_COUNT);
+    }
+
+    public StripedAllocationRecordStorage(int stripeCount) {
+        if (stripeCount <= 0) {
+            throw new IllegalArgumentException("Stripe count must be positive but it is " + stripeCount);
+        }
+        int actualStripeCount = Integer.highestOneBit(stripeCount);
+        if (actualStripeCount < stripeCount) {
+            actualStripeCount <<= 1;
+        }
+        this.stripes = new Long2RecordHashMap[actualStripeCount];
+        this.stripeMask = actualStripeCount - 1;
+        for (int i = 0; i < actualStripeCount; i++) {
+            stripes[i] = new Long2RecordHashMap(VALUE_COUNT, INVALID);
+        }
+    }
+
+    private Long2RecordHashMap stripe(long address) {
+        long h = address * 0x9E3779B97F4A7C15L;
+        return stripes[(int) (h >>> 40) & stripeMask];
+    }
+
+    @Override
+    public boolean contains(long address) {
+        return contains(address, 0);
+    }
+
+    @Override
+    public boolean contains(long address, long size) {
+        if (get(address) != INVALID) {
+            return true;
+        }
+        for (Long2RecordHashMap stripe : stripes) {
+            synchronized (stripe) {
+                int entryLength = stripe.entryLength();
+                for (int i = stripe.nextIndex(0); i >= 0; i = stripe.nextIndex(i + entryLength)) {
+                    long startAddress = stripe.keyAt(i);
+                    long endAddress = startAddress + stripe.valueAt(i, SIZE_INDEX);
+                    if (address >= startAddress && (address + size) <= endAddress) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public long get(long address) {
+        Long2RecordHashMap stripe = stripe(address);
+        synchronized (stripe) {
+            return stripe.get(address, SIZE_INDEX);
+        }
+    }
+
+    @Override
+    public void put(long address, long size) {
+        put(address, size, INVALID);
+    }
+
+    @Override
+    public void put(long address, long size, long allocationPathKey) {
+        Long2RecordHashMap stripe = stripe(address);
+        synchronized (stripe) {
+            int index = stripe.insert(address);
+            stripe.setValueAt(index, SIZE_INDEX, size);
+            stripe.setValueAt(index, ALLOCATION_PATH_KEY_INDEX, allocationPathKey);
+        }
+    }
+
+    @Override
+    public long remove(long address) {
+        Long2RecordHashMap stripe = stripe(address);
+        synchronized (stripe) {
+            return stripe.remove(address);
+        }
+    }
+
+    @Override
+    public long getAllocationPathKey(long address) {
+        Long2RecordHashMap stripe = stripe(address);
+        synchronized (stripe) {
+            return stripe.get(address, ALLOCATION_PATH_KEY_INDEX);
+        }
+    }
+
+    @Override
+    public void connectAddressWithAllocationPath(long address, long allocationPathKey) {
+        Long2RecordHashMap stripe = stripe(address);
+        synchronized (stripe) {
+            int index = stripe.indexOf(address);
+            if (index >= 0) {
+                stripe.setValueAt(index, ALLOCATION_PATH_KEY_INDEX, allocationPathKey);
+            }
+        }
+    }
+
+    @Override
+    public void disconnectAddressFromAllocationPath(long address) {
+        // Allocation path is removed with the record itself
+        // but the record might still be there if allocation path is disconnected explicitly
+        connectAddressWithAllocationPath(address, INVALID);
+    }
+
+    @Override
+    public void iterate(final AllocatedMemoryIterator iterator) {
+        iterate(new AllocationRecordIterator() {
+            @Override
+            public void onAllocationRecord(long address, long size, long allocationPathKey) {
+                iterator.onAllocatedMemory(address, size);
+            }
+        });
+    }
+
+    @Override
+    public void iterate(AllocationRecordIterator iterator) {
+        for (Long2RecordHashMap stripe : stripes) {
+            iterate(stripe, iterator);
+        }
+    }
+
+    private void iterate(Long2RecordHashMap stripe, AllocationRecordIterator iterator) {
+        // Records are copied under the stripe lock and iterator is called on the copy without holding it.
+        // So a rehash or chain compaction by a concurrent put/remove never makes a record to be missed or repeated.
+        long[] records;
+        int length = 0;
+        synchronized (stripe) {
+            records = new long[(int) stripe.size() * (VALUE_COUNT + 1)];
+            int entryLength = stripe.entryLength();
+            for (int index = stripe.nextIndex(0); 
+                 index >= 0 && length < records.length; 
+                 index = stripe.nextIndex(index + entryLength)) {
+                records[length++] = stripe.keyAt(index);
+                records[length++] = stripe.valueAt(index, SIZE_INDEX);
+                records[length++] = stripe.valueAt(index, ALLOCATION_PATH_KEY_INDEX);
+            }
+        }
+        for (int i = 0; i < length; i += VALUE_COUNT + 1) {
+            iterator.onAllocationRecord(records[i], records[i + 1], records[i + 2]);
+        }
+    }
+
+    @Override
+    public AllocationRecordSplit split() {
+        return new StripeRangeSplit(0, stripes.length);
+    }
+
+    @Override
+    public boolean isEmpty() {
+        for (Long2RecordHashMap stripe : stripes) {
+            synchronized (stripe) {
+                if (!stripe.isEmpty()) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private final class StripeRangeSplit implements AllocationRecordSplit {
+
+        private int fromStripe;
+        private final int toStripe;
+
+        private StripeRangeSplit(int fromStripe, int toStripe) {
+            this.fromStripe = fromStripe;
+            this.toStripe = toStripe;
+        }
+
+        @Override
+        public AllocationRecordSplit trySplit() {
+            if (toStripe - fromStripe < 2) {
+                return null;
+            }
+            int midStripe = (fromStripe + toStripe) >>> 1;
+            AllocationRecordSplit split = new StripeRangeSplit(fromStripe, midStripe);
+            fromStripe = midStripe;
+            return split;
+        }
+
+        @Override
+        public void iterate(final AllocatedMemoryIterator iterator) {
+            iterate(new AllocationRecordIterator() {
+                @Override
+                public void onAllocationRecord(long address, long size, long allocationPathKey) {
+                    iterator.onAllocatedMemory(address, size);
+                }
+            });
+        }
+
+        @Override
+        public void iterate(AllocationRecordIterator iterator) {
+            for (int i = fromStripe; i < toStripe; i++) {
+                StripedAllocationRecordStorage.this.iterate(stripes[i], iterator);
+            }
+        }
+
+    }
+
+}
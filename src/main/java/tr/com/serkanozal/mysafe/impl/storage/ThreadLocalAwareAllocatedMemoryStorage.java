@@ -16,10 +16,13 @@
 package tr.com.serkanozal.mysafe.impl.storage;
 
 import tr.com.serkanozal.mysafe.AllocatedMemoryIterator;
+import tr.com.serkanozal.mysafe.AllocatedMemorySplit;
 import tr.com.serkanozal.mysafe.AllocatedMemoryStorage;
+import tr.com.serkanozal.mysafe.SplittableAllocatedMemoryStorage;
 import tr.com.serkanozal.mysafe.ThreadLocalMemoryUsageDecider;
+import tr.com.serkanozal.mysafe.impl.util.Compactable;
 
-public class ThreadLocalAwareAllocatedMemoryStorage implements AllocatedMemoryStorage {
+public class ThreadLocalAwareAllocatedMemoryStorage implements SplittableAllocatedMemoryStorage, Compactable {
 
     private final AllocatedMemoryStorage globalAllocatedMemoryStorage;
     private final AllocatedMemoryStorage threadLocalAllocatedMemoryStorage;
@@ -72,6 +75,13 @@ public class ThreadLocalAwareAllocatedMemoryStorage implements AllocatedMemorySt
         globalAllocatedMemoryStorage.iterate(iterator);
     }
     
+    @Override
+    public AllocatedMemorySplit split() {
+        return AllocatedMemorySplits.concat(
+                AllocatedMemorySplits.of(threadLocalAllocatedMemoryStorage), 
+                AllocatedMemorySplits.of(globalAllocatedMemoryStorage));
+    }
+    
     @Override
     public boolean isEmpty() {
         if (threadLocalAllocatedMemoryStorage.isEmpty()) {
@@ -79,5 +89,15 @@ public class ThreadLocalAwareAllocatedMemoryStorage implements AllocatedMemorySt
         }
         return false;
     }
+    
+    @Override
+    public void compact() {
+        if (threadLocalAllocatedMemoryStorage instanceof Compactable) {
+            ((Compactable) threadLocalAllocatedMemoryStorage).compact();
+        }
+        if (globalAllocatedMemoryStorage instanceof Compactable) {
+            ((Compactable) globalAllocatedMemoryStorage).compact();
+        }
+    }
 
 }
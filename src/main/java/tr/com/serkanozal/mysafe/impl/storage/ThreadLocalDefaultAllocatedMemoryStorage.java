@@ -15,40 +15,83 @@
  */
 package tr.com.serkanozal.mysafe.impl.storage;
 
-import java.util.concurrent.ScheduledExecutorService;
+import org.apache.log4j.Logger;
 
 import sun.misc.Unsafe;
-import tr.com.serkanozal.mysafe.AllocatedMemoryIterator;
-import tr.com.serkanozal.mysafe.AllocatedMemoryStorage;
 import tr.com.serkanozal.mysafe.impl.util.HeapMemoryBackedLong2LongHashMap;
+import tr.com.serkanozal.mysafe.impl.util.HeapMemoryBackedRobinHoodLong2LongHashMap;
 import tr.com.serkanozal.mysafe.impl.util.Long2LongMap;
-import tr.com.serkanozal.mysafe.impl.util.Long2LongMap.LongLongConsumer;
 import tr.com.serkanozal.mysafe.impl.util.Long2LongMap.LongLongCursor;
 import tr.com.serkanozal.mysafe.impl.util.NativeMemoryBackedLong2LongHashMap;
+import tr.com.serkanozal.mysafe.impl.util.NativeMemoryBackedRobinHoodLong2LongHashMap;
+import tr.com.serkanozal.mysafe.impl.util.PackedLong2LongHashMap;
 
 public class ThreadLocalDefaultAllocatedMemoryStorage extends AbstractThreadLocalAllocatedMemoryStorage {
 
     private static final boolean USE_NATIVE_MEMORY = Boolean.getBoolean("mysafe.useNativeMemoryForStorageWhenSupported");
+    private static final boolean USE_ROBIN_HOOD_HASHING = Boolean.getBoolean("mysafe.useRobinHoodHashingForStorage");
+    private static final boolean USE_INCREMENTAL_REHASH = Boolean.getBoolean("mysafe.useIncrementalRehashForStorage");
+    private static final boolean USE_PACKED_ENCODING = Boolean.getBoolean("mysafe.usePackedEncodingForStorage");
+    private static final int PACKED_ENCODING_ALIGNMENT_SHIFT = 
+            Integer.getInteger("mysafe.packedEncodingAlignmentShift", PackedLong2LongHashMap.DEFAULT_ALIGNMENT_SHIFT);
+    private static final long INITIAL_CAPACITY = 16;
     
-    public ThreadLocalDefaultAllocatedMemoryStorage(Unsafe unsafe, ScheduledExecutorService scheduler) {
-        super(unsafe, scheduler);
+    private static final Logger LOGGER = Logger.getLogger(ThreadLocalDefaultAllocatedMemoryStorage.class);
+    
+    static {
+        if (USE_PACKED_ENCODING) {
+            if (USE_NATIVE_MEMORY) {
+                LOGGER.warn("Packed encoding is not supported by native memory backed storages, " + 
+                            "so \"mysafe.usePackedEncodingForStorage\" is ignored");
+            } else if (USE_ROBIN_HOOD_HASHING || USE_INCREMENTAL_REHASH) {
+                LOGGER.warn("Packed encoding takes precedence, so \"mysafe.useRobinHoodHashingForStorage\" " + 
+                            "and \"mysafe.useIncrementalRehashForStorage\" are ignored");
+            }
+        }
+        if (USE_ROBIN_HOOD_HASHING && USE_INCREMENTAL_REHASH && (USE_NATIVE_MEMORY || !USE_PACKED_ENCODING)) {
+            LOGGER.warn("Robin Hood hashing based maps are not rehashed incrementally, " + 
+                        "so \"mysafe.useIncrementalRehashForStorage\" is ignored");
+        }
+    }
+    
+    public ThreadLocalDefaultAllocatedMemoryStorage(Unsafe unsafe) {
+        super(unsafe);
     }
 
     @Override
-    protected AllocatedMemoryStorage createInternalThreadLocalAllocatedMemoryStorage(Unsafe unsafe) {
+    protected AbstractInternalThreadLocalAllocatedMemoryStorage createInternalThreadLocalAllocatedMemoryStorage(Unsafe unsafe) {
         return new InternalThreadLocalDefaultAllocatedMemoryStorage(unsafe);
     }
     
     private class InternalThreadLocalDefaultAllocatedMemoryStorage 
             extends AbstractInternalThreadLocalAllocatedMemoryStorage {
 
-        private final Long2LongMap allocatedMemories = 
-                USE_NATIVE_MEMORY 
-                    ? new NativeMemoryBackedLong2LongHashMap(unsafe, INVALID)
-                    : new HeapMemoryBackedLong2LongHashMap(INVALID);
+        private final Long2LongMap allocatedMemories;
+        // Concurrent readers might still be reading old tables, so they are freed later
+        private final NativeMemoryBackedLong2LongHashMap nativeAllocatedMemories;
  
         private InternalThreadLocalDefaultAllocatedMemoryStorage(Unsafe unsafe) {
             super(unsafe);
+            if (USE_NATIVE_MEMORY) {
+                nativeAllocatedMemories = 
+                        USE_ROBIN_HOOD_HASHING
+                            ? new NativeMemoryBackedRobinHoodLong2LongHashMap(unsafe, INVALID, true)
+                            : new NativeMemoryBackedLong2LongHashMap(unsafe, INITIAL_CAPACITY, 
+                                    NativeMemoryBackedLong2LongHashMap.DEFAULT_LOAD_FACTOR, 
+                                    INVALID, true, USE_INCREMENTAL_REHASH);
+                allocatedMemories = nativeAllocatedMemories;
+            } else if (USE_PACKED_ENCODING) {
+                nativeAllocatedMemories = null;
+                allocatedMemories = new PackedLong2LongHashMap(PACKED_ENCODING_ALIGNMENT_SHIFT, INVALID);
+            } else {
+                nativeAllocatedMemories = null;
+                allocatedMemories = 
+                        USE_ROBIN_HOOD_HASHING
+                            ? new HeapMemoryBackedRobinHoodLong2LongHashMap(INVALID)
+                            : new HeapMemoryBackedLong2LongHashMap(INITIAL_CAPACITY, 
+                                    HeapMemoryBackedLong2LongHashMap.DEFAULT_LOAD_FACTOR, 
+                                    INVALID, USE_INCREMENTAL_REHASH);
+            }
         }
 
         @Override
@@ -76,47 +119,57 @@ public class ThreadLocalDefaultAllocatedMemoryStorage extends AbstractThreadLoca
 
         @Override
         public void put(long address, long size) {
-            acquire();
+            beginWrite();
             try {
                 allocatedMemories.put(address, size);
             } finally {
-                free();
+                endWrite();
             }
         }
 
         @Override
         public long remove(long address) {
-            acquire();
+            beginWrite();
             try {
-                return allocatedMemories.remove(address);
+                return doRemove(address);
             } finally {
-                free();
+                endWrite();
             }    
         }
+        
+        @Override
+        protected long doRemove(long address) {
+            return allocatedMemories.remove(address);
+        }
 
         @Override
-        public void iterate(final AllocatedMemoryIterator iterator) {
-            acquire();
-            try {
-                allocatedMemories.longForEach(new LongLongConsumer() {
-                    @Override
-                    public void accept(long key, long value) {
-                        iterator.onAllocatedMemory(key, value);
-                    }
-                });
-            } finally {
-                free();
-            }    
+        protected boolean doIsEmpty() {
+            return allocatedMemories.isEmpty();
         }
         
         @Override
-        public boolean isEmpty() {
-            acquire();
-            try {
-                return allocatedMemories.isEmpty();
-            } finally {
-                free();
-            }
+        protected long copyAllocatedMemories(long cursor, long[] chunk) {
+            return allocatedMemories.copyEntries(cursor, chunk);
+        }
+        
+        @Override
+        protected boolean hasRetiredResources() {
+            return nativeAllocatedMemories != null && nativeAllocatedMemories.hasRetiredTables();
+        }
+        
+        @Override
+        protected void freeRetiredResources() {
+            nativeAllocatedMemories.freeRetiredTables();
+        }
+        
+        @Override
+        protected void compactResources() {
+            allocatedMemories.shrink();
+        }
+        
+        @Override
+        protected void freeResources() {
+            allocatedMemories.dispose();
         }
         
     }
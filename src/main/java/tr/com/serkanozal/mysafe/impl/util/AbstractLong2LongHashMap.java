@@ -18,39 +18,77 @@ package tr.com.serkanozal.mysafe.impl.util;
 
 /**
  * A Probing hashmap specialised for long key and value pairs.
+ * 
+ * When incremental rehash is enabled, the map doesn't move all the entries into the new table at once 
+ * on resize. Instead, the old table is kept as migrating table and every subsequent put/remove 
+ * migrates a bounded number of its buckets, so there is no long pause for big maps.
  */
 abstract class AbstractLong2LongHashMap implements Long2LongMap {
     
     public static final double DEFAULT_LOAD_FACTOR = 0.6;
+    
+    // Table is shrunk when its size drops to this fraction of its resize threshold. 
+    // Shrunk table is at least quarter and at most half loaded (relative to the resize threshold), 
+    // so there are gaps against grow/shrink cycles around a single size.
+    private static final long SHRINK_THRESHOLD_DIVISOR = 8;
+    // Number of buckets migrated from the migrating table by each put/remove while rehashing incrementally
+    private static final long MIGRATION_BUCKET_COUNT_PER_OPERATION = 16;
 
     protected final double loadFactor;
     protected final long missingValue;
+    // Map is shrunk back to its initial capacity when it becomes empty
+    protected final long initialCapacity;
+    protected final boolean incrementalRehash;
 
     protected long entriesLength;
     protected long capacity;
     protected long mask;
     protected long resizeThreshold;
     protected long size;
+    
+    /*
+     * Old table while rehashing incrementally. 
+     * 
+     * Buckets before the migration index have been migrated into the current table. 
+     * Migrated or overridden entries are not removed from the migrating table 
+     * but their values are set to the missing value, so the probe chains stay unbroken.
+     * New entries are always put into the current table.
+     */
+    protected long migratingEntriesLength;
+    protected long migratingMask;
+    protected long migrationIndex;
 
     public AbstractLong2LongHashMap(long initialCapacity, double loadFactor, long missingValue) {
-        this(loadFactor, missingValue);
-        capacity(nextPowerOfTwo(initialCapacity));
+        this(initialCapacity, loadFactor, missingValue, false);
+    }
+    
+    public AbstractLong2LongHashMap(long initialCapacity, double loadFactor, long missingValue, 
+                                    boolean incrementalRehash) {
+        this.loadFactor = loadFactor;
+        this.missingValue = missingValue;
+        this.initialCapacity = nextPowerOfTwo(initialCapacity);
+        this.incrementalRehash = incrementalRehash;
+        capacity(this.initialCapacity);
     }
 
     public AbstractLong2LongHashMap(long missingValue) {
         this(16, DEFAULT_LOAD_FACTOR, missingValue);
     }
-
-    private AbstractLong2LongHashMap(double loadFactor, long missingValue) {
-        this.loadFactor = loadFactor;
-        this.missingValue = missingValue;
+    
+    private static long nextPowerOfTwo(final long value) {
+        return 1L << (64 - Long.numberOfLeadingZeros(value - 1));
     }
     
-    private long nextPowerOfTwo(final long value) {
-        return 1 << (64 - Long.numberOfLeadingZeros(value - 1));
+    protected long fastLongMix(long k) {
+        return mix(k);
     }
     
-    private long fastLongMix(long k) {
+    protected long evenLongHash(final long value, final long mask) {
+        final long h = fastLongMix(value);
+        return h & mask & ~1;
+    }
+    
+    static long mix(final long k) {
         // phi = 2^64 / goldenRatio
         final long phi = 0x9E3779B97F4A7C15L;
         long h = k * phi;
@@ -58,11 +96,6 @@ abstract class AbstractLong2LongHashMap implements Long2LongMap {
         return h ^ (h >>> 16);
     }
     
-    private long evenLongHash(final long value, final long mask) {
-        final long h = fastLongMix(value);
-        return h & mask & ~1;
-    }
-    
     abstract protected long getEntry(long index);
    
     abstract protected void setEntry(long index, long entry);
@@ -72,6 +105,22 @@ abstract class AbstractLong2LongHashMap implements Long2LongMap {
     abstract protected void allocateEntries(long length);
     
     abstract protected void rehash(long newCapacity);
+    
+    abstract protected long getMigratingEntry(long index);
+    
+    abstract protected void setMigratingEntry(long index, long entry);
+    
+    /**
+     * Keeps the current entries as the migrating entries, 
+     * so new entries can be allocated without losing them.
+     */
+    abstract protected void retainEntriesForMigration();
+    
+    /**
+     * Releases the migrating entries. 
+     * Called when all the entries have been migrated or the map has been cleared.
+     */
+    abstract protected void releaseMigratingEntries();
 
     @Override
     public long size() {
@@ -93,13 +142,16 @@ abstract class AbstractLong2LongHashMap implements Long2LongMap {
             }
             index = next(index);
         }
-        return missingValue;
+        return isMigrating() ? getFromMigratingEntries(key) : missingValue;
     }
 
     @Override
     public long put(final long key, final long value) {
         assert key != missingValue : "Invalid key " + key;
         assert value != missingValue : "Invalid value " + value;
+        if (isMigrating()) {
+            migrateBuckets(MIGRATION_BUCKET_COUNT_PER_OPERATION);
+        }
         long oldValue = missingValue;
         long index = evenLongHash(key, mask);
         long candidateKey;
@@ -111,6 +163,10 @@ abstract class AbstractLong2LongHashMap implements Long2LongMap {
             index = next(index);
         }
         if (oldValue == missingValue) {
+            if (isMigrating()) {
+                // Entry is moved into the current table if it has not been migrated yet
+                oldValue = removeFromMigratingEntries(key);
+            }
             ++size;
             setEntry(index, key);
         }
@@ -125,8 +181,109 @@ abstract class AbstractLong2LongHashMap implements Long2LongMap {
             if (newCapacity < 0) {
                 throw new IllegalStateException("Max capacity reached at size=" + size);
             }
-            rehash(newCapacity);
+            if (incrementalRehash) {
+                if (isMigrating()) {
+                    // Not expected with the default migration rate, but don't keep more than two tables
+                    migrateBuckets(migratingEntriesLength);
+                }
+                startMigration(newCapacity);
+            } else {
+                rehash(newCapacity);
+            }
+        }
+    }
+    
+    protected final boolean isMigrating() {
+        return migratingEntriesLength != 0;
+    }
+    
+    private void startMigration(final long newCapacity) {
+        retainEntriesForMigration();
+        migratingEntriesLength = entriesLength;
+        migratingMask = mask;
+        migrationIndex = 0;
+        final long liveSize = size;
+        capacity(newCapacity);
+        size = liveSize;
+    }
+    
+    private void migrateBuckets(final long bucketCount) {
+        final long end = Math.min(migrationIndex + (bucketCount << 1), migratingEntriesLength);
+        for (long i = migrationIndex; i < end; i += 2) {
+            final long key = getMigratingEntry(i);
+            if (key != missingValue) {
+                final long value = getMigratingEntry(i + 1);
+                if (value != missingValue) {
+                    insertMigratedEntry(key, value);
+                }
+            }
+        }
+        migrationIndex = end;
+        if (migrationIndex >= migratingEntriesLength) {
+            finishMigration();
+        }
+    }
+    
+    private void insertMigratedEntry(final long key, final long value) {
+        // Not migrated entries are never in the current table, so there is no need to search for the key
+        long index = evenLongHash(key, mask);
+        while (getEntry(index) != missingValue) {
+            index = next(index);
+        }
+        setEntry(index, key);
+        setEntry(index + 1, value);
+    }
+    
+    private void finishMigration() {
+        // Migration is marked as finished before the migrating entries are released, 
+        // so readers checking "isMigrating()" don't go into the released entries
+        migratingEntriesLength = 0;
+        releaseMigratingEntries();
+        migratingMask = 0;
+        migrationIndex = 0;
+    }
+    
+    /**
+     * Gets the index of the not migrated entry of the given key in the migrating table.
+     * 
+     * @param key the key 
+     * @return the index of the not migrated entry if there is, otherwise <code>-1</code>
+     */
+    private long migratingIndexOf(final long key) {
+        long index = evenLongHash(key, migratingMask);
+        for (long i = migratingEntriesLength >> 1; i > 0; i--) {
+            final long candidateKey = getMigratingEntry(index);
+            if (candidateKey == missingValue) {
+                return -1;
+            }
+            if (candidateKey == key) {
+                return isMigratingEntryAlive(index) ? index : -1;
+            }
+            index = (index + 2) & migratingMask;
         }
+        return -1;
+    }
+    
+    private boolean isMigratingEntryAlive(final long index) {
+        return index >= migrationIndex 
+                && getMigratingEntry(index) != missingValue 
+                && getMigratingEntry(index + 1) != missingValue;
+    }
+    
+    protected final long getFromMigratingEntries(final long key) {
+        final long index = migratingIndexOf(key);
+        return index >= 0 ? getMigratingEntry(index + 1) : missingValue;
+    }
+    
+    private long removeFromMigratingEntries(final long key) {
+        final long index = migratingIndexOf(key);
+        if (index < 0) {
+            return missingValue;
+        }
+        final long oldValue = getMigratingEntry(index + 1);
+        setMigratingEntry(index + 1, missingValue);
+        size--;
+        return oldValue;
     }
 
     @Override
@@ -137,6 +294,11 @@ abstract class AbstractLong2LongHashMap implements Long2LongMap {
                 consumer.accept(getEntry(i), getEntry(i + 1));
             }
         }
+        for (long i = migrationIndex; i < migratingEntriesLength; i += 2) {
+            if (isMigratingEntryAlive(i)) {
+                consumer.accept(getMigratingEntry(i), getMigratingEntry(i + 1));
+            }
+        }
     }
 
     @Override
@@ -146,21 +308,30 @@ abstract class AbstractLong2LongHashMap implements Long2LongMap {
 
     private final class LongLongCursorImpl implements LongLongCursor {
         
+        // Indexes after the current entries are the indexes of the migrating entries
         private long i = -2;
 
         public boolean advance() {
             do {
                 i += 2;
-            } while (i < entriesLength && getEntry(i) == missingValue);
-            return i < entriesLength;
+            } while (i < entriesLength + migratingEntriesLength && !isAlive(i));
+            return i < entriesLength + migratingEntriesLength;
+        }
+        
+        private boolean isAlive(long index) {
+            if (index < entriesLength) {
+                return getEntry(index) != missingValue;
+            } else {
+                return isMigratingEntryAlive(index - entriesLength);
+            }
         }
 
         public long key() {
-            return getEntry(i);
+            return i < entriesLength ? getEntry(i) : getMigratingEntry(i - entriesLength);
         }
 
         public long value() {
-            return getEntry(i + 1);
+            return i < entriesLength ? getEntry(i + 1) : getMigratingEntry(i - entriesLength + 1);
         }
         
     }
@@ -178,17 +349,29 @@ abstract class AbstractLong2LongHashMap implements Long2LongMap {
                 return true;
             }
         }
+        for (long i = migrationIndex; i < migratingEntriesLength; i += 2) {
+            if (isMigratingEntryAlive(i) && getMigratingEntry(i + 1) == value) {
+                return true;
+            }
+        }
         return false;
     }
 
     @Override
     public void clear() {
+        if (isMigrating()) {
+            finishMigration();
+        }
         fillEntries(missingValue);
         size = 0;
+        shrinkIfGrown();
     }
 
     @Override
     public long remove(final long key) {
+        if (isMigrating()) {
+            migrateBuckets(MIGRATION_BUCKET_COUNT_PER_OPERATION);
+        }
         long index = evenLongHash(key, mask);
         long candidateKey;
         while ((candidateKey = getEntry(index)) != missingValue) {
@@ -199,10 +382,16 @@ abstract class AbstractLong2LongHashMap implements Long2LongMap {
                 setEntry(valueIndex, missingValue);
                 size--;
                 compactChain(index);
+                onRemove();
                 return oldValue;
             }
             index = next(index);
         }
+        if (isMigrating()) {
+            final long oldValue = removeFromMigratingEntries(key);
+            onRemove();
+            return oldValue;
+        }
         return missingValue;
     }
 
@@ -225,6 +414,141 @@ abstract class AbstractLong2LongHashMap implements Long2LongMap {
         }
     }
     
+    /*
+     * Robin Hood hashing variant of the operations. 
+     * 
+     * On insertion, an entry which is closer to its home slot gives its slot to the inserted one 
+     * which is further from its home slot, so probe lengths are kept balanced and short 
+     * even at high load factors. Lookups stop as soon as they reach an entry closer 
+     * to its home slot than the searched key would be. On removal, following entries 
+     * are shifted back by one slot until an empty slot or an entry at its home slot, 
+     * so there is no tombstone and no separate chain compaction.
+     * 
+     * All entries of a map must be written by the same variant. 
+     * Lookups are implemented by the subclasses against a single snapshot of the table, 
+     * like the linear probing lookups.
+     */
+    
+    private long robinHoodIndexOf(final long key) {
+        long index = evenLongHash(key, mask);
+        for (long probeLength = 0; probeLength < capacity; probeLength++) {
+            final long candidateKey = getEntry(index);
+            if (candidateKey == missingValue) {
+                return -1;
+            }
+            if (candidateKey == key) {
+                return index;
+            }
+            if (probeLength(index, candidateKey) < probeLength) {
+                // Key would have taken this slot if it was in the map 
+                return -1;
+            }
+            index = next(index);
+        }
+        return -1;
+    }
+    
+    protected final long robinHoodPut(long key, long value) {
+        assert key != missingValue : "Invalid key " + key;
+        assert value != missingValue : "Invalid value " + value;
+        long index = evenLongHash(key, mask);
+        long probeLength = 0;
+        while (true) {
+            final long candidateKey = getEntry(index);
+            if (candidateKey == missingValue) {
+                setEntry(index, key);
+                setEntry(index + 1, value);
+                ++size;
+                break;
+            }
+            if (candidateKey == key) {
+                final long oldValue = getEntry(index + 1);
+                setEntry(index + 1, value);
+                return oldValue;
+            }
+            final long candidateProbeLength = probeLength(index, candidateKey);
+            if (candidateProbeLength < probeLength) {
+                // Take the slot and carry the displaced entry forward.
+                // Keys are unique, so the carried entry never matches another key.
+                final long candidateValue = getEntry(index + 1);
+                setEntry(index, key);
+                setEntry(index + 1, value);
+                key = candidateKey;
+                value = candidateValue;
+                probeLength = candidateProbeLength;
+            }
+            index = next(index);
+            probeLength++;
+        }
+        checkResize();
+        return missingValue;
+    }
+    
+    protected final long robinHoodRemove(final long key) {
+        long index = robinHoodIndexOf(key);
+        if (index < 0) {
+            return missingValue;
+        }
+        final long oldValue = getEntry(index + 1);
+        // Backward shift deletion
+        while (true) {
+            final long nextIndex = next(index);
+            final long nextKey = getEntry(nextIndex);
+            if (nextKey == missingValue || probeLength(nextIndex, nextKey) == 0) {
+                setEntry(index, missingValue);
+                setEntry(index + 1, missingValue);
+                break;
+            }
+            setEntry(index, nextKey);
+            setEntry(index + 1, getEntry(nextIndex + 1));
+            index = nextIndex;
+        }
+        size--;
+        onRemove();
+        return oldValue;
+    }
+    
+    private long probeLength(final long index, final long key) {
+        return ((index - evenLongHash(key, mask)) & mask) >> 1;
+    }
+    
+    private void onRemove() {
+        if (size == 0) {
+            shrinkIfGrown();
+        } else if (!incrementalRehash) {
+            // Shrinking is amortized by the removals since the last resize. 
+            // But in incremental rehash mode, there must be no pause, so it is left to "shrink()" calls.
+            shrink();
+        }
+    }
+    
+    @Override
+    public boolean shrink() {
+        if (capacity <= initialCapacity || size > resizeThreshold / SHRINK_THRESHOLD_DIVISOR) {
+            return false;
+        }
+        if (isMigrating()) {
+            migrateBuckets(migratingEntriesLength);
+        }
+        long newCapacity = capacity;
+        while (newCapacity > initialCapacity && size <= (long) ((newCapacity >> 1) * loadFactor) / 2) {
+            newCapacity >>= 1;
+        }
+        rehash(newCapacity);
+        return true;
+    }
+    
+    private void shrinkIfGrown() {
+        if (isMigrating()) {
+            // Map is empty, so there is no entry left to migrate
+            finishMigration();
+        }
+        // Don't keep a big table (possibly on native memory) for an empty map 
+        if (capacity > initialCapacity) {
+            rehash(initialCapacity);
+        }
+    }
+    
     private long next(final long index) {
         return (index + 2) & mask;
     }
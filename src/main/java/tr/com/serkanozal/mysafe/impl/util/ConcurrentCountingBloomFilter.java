@@ -0,0 +1,137 @@
+/*
+ * Copyright (c) 2017, Serkan OZAL, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tr.com.serkanozal.mysafe.impl.util;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free counting Bloom filter for addresses. Supports removal, so it can be maintained 
+ * alongside a storage to answer "definitely not contained" without looking up the storage.
+ * 
+ * Filter is blocked: all counters of an address are in the same 64 bytes (a cache line), 
+ * so a lookup touches a single cache line. Counters are 4 bits, 16 of them are packed into a long 
+ * and updated by CAS. Saturated counters are never decremented, so there are no false negatives 
+ * but only false positives (which increase as the filter gets crowded).
+ * 
+ * @author Serkan OZAL
+ */
+public final class ConcurrentCountingBloomFilter {
+
+    private static final int COUNTER_BITS = 4;
+    private static final long COUNTER_MASK = (1L << COUNTER_BITS) - 1;
+    private static final long SATURATED = COUNTER_MASK;
+    private static final int COUNTERS_PER_WORD = Long.SIZE / COUNTER_BITS;
+    private static final int WORDS_PER_BLOCK = 8;
+    private static final int COUNTERS_PER_BLOCK = COUNTERS_PER_WORD * WORDS_PER_BLOCK;
+    private static final int COUNTER_INDEX_BITS = Integer.numberOfTrailingZeros(COUNTERS_PER_BLOCK);
+    private static final int HASH_COUNT = 3;
+    
+    private final AtomicLongArray words;
+    private final int blockMask;
+    
+    public ConcurrentCountingBloomFilter(int counterCount) {
+        if (counterCount < COUNTERS_PER_BLOCK) {
+            throw new IllegalArgumentException(
+                    "Counter count must be at least " + COUNTERS_PER_BLOCK + " but it is " + counterCount);
+        }
+        int blockCount = Integer.highestOneBit(counterCount / COUNTERS_PER_BLOCK);
+        this.words = new AtomicLongArray(blockCount * WORDS_PER_BLOCK);
+        this.blockMask = blockCount - 1;
+    }
+    
+    static long hash(long address) {
+        // Finalizer of MurmurHash3, so aligned addresses are spread over all bits
+        long h = address;
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        h ^= h >>> 33;
+        return h;
+    }
+    
+    private int blockStart(long hash) {
+        // High bits select the block and low bits select the counters in the block
+        return ((int) (hash >>> 32) & blockMask) * WORDS_PER_BLOCK;
+    }
+    
+    private static int counterIndex(long hash, int i) {
+        return (int) (hash >>> (i * COUNTER_INDEX_BITS)) & (COUNTERS_PER_BLOCK - 1);
+    }
+    
+    public void add(long address) {
+        long hash = hash(address);
+        int blockStart = blockStart(hash);
+        for (int i = 0; i < HASH_COUNT; i++) {
+            int counterIndex = counterIndex(hash, i);
+            int wordIndex = blockStart + counterIndex / COUNTERS_PER_WORD;
+            int shift = (counterIndex % COUNTERS_PER_WORD) * COUNTER_BITS;
+            for (;;) {
+                long word = words.get(wordIndex);
+                long counter = (word >>> shift) & COUNTER_MASK;
+                if (counter == SATURATED 
+                        || words.compareAndSet(wordIndex, word, word + (1L << shift))) {
+                    break;
+                }
+            }
+        }
+    }
+    
+    /**
+     * Removes the given address which must have been added before.
+     * 
+     * @param address the address to be removed
+     */
+    public void remove(long address) {
+        long hash = hash(address);
+        int blockStart = blockStart(hash);
+        for (int i = 0; i < HASH_COUNT; i++) {
+            int counterIndex = counterIndex(hash, i);
+            int wordIndex = blockStart + counterIndex / COUNTERS_PER_WORD;
+            int shift = (counterIndex % COUNTERS_PER_WORD) * COUNTER_BITS;
+            for (;;) {
+                long word = words.get(wordIndex);
+                long counter = (word >>> shift) & COUNTER_MASK;
+                // Saturated counter might be shared by more addresses than it can count, so it is sticky
+                if (counter == SATURATED || counter == 0
+                        || words.compareAndSet(wordIndex, word, word - (1L << shift))) {
+                    break;
+                }
+            }
+        }
+    }
+    
+    /**
+     * Checks whether the given address might have been added.
+     * 
+     * @param address the address to be checked
+     * @return <code>false</code> if the given address has definitely not been added, 
+     *         otherwise <code>true</code>
+     */
+    public boolean mightContain(long address) {
+        long hash = hash(address);
+        int blockStart = blockStart(hash);
+        for (int i = 0; i < HASH_COUNT; i++) {
+            int counterIndex = counterIndex(hash, i);
+            long word = words.get(blockStart + counterIndex / COUNTERS_PER_WORD);
+            if (((word >>> ((counterIndex % COUNTERS_PER_WORD) * COUNTER_BITS)) & COUNTER_MASK) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+}
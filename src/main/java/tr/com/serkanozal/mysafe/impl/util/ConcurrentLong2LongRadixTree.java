@@ -0,0 +1,710 @@
+/*
+ * Copyright (c) 2017, Serkan OZAL, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tr.com.serkanozal.mysafe.impl.util;
+
+import java.util.Comparator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import tr.com.serkanozal.mysafe.impl.util.Long2LongMap.LongLongConsumer;
+
+/**
+ * A concurrent, ordered radix tree specialised for long key and value pairs 
+ * where keys are addresses and values are sizes. 
+ * Keys are ordered as unsigned values (which is the natural order for addresses).
+ * Lookups (including floor lookups) don't allocate.
+ * 
+ * Keys are indexed by their 8 bytes granules, so a leaf covers 512 bytes of address space 
+ * and unaligned keys share the slot of their granule. Low bits of the key are kept in the value. 
+ * Keys colliding in the same granule and values which cannot be encoded 
+ * (negative or too big ones) are kept in an overflow map instead, which is empty in practice.
+ * 
+ * Bitmaps of the inner nodes mark their non-empty children, so searches skip the empty subtrees. 
+ * Empty nodes are unlinked by {@link #prune()}: their slots are frozen by CAS first, 
+ * so a writer either fills a slot before it is frozen (then pruning is given up) 
+ * or sees it frozen and retries from the root once the node is unlinked.
+ * Unlinked nodes are reclaimed by the GC, so readers holding them are still safe.
+ * 
+ * The same key is not expected to be put and removed concurrently 
+ * (an address is only freed after it has been allocated).
+ * 
+ * @author Serkan OZAL
+ */
+public class ConcurrentLong2LongRadixTree {
+
+    /*
+     * <granule> = <key> >>> 3;
+     * 
+     * Structure of <granule>:
+     * +-------------------------------------------------------------------+
+     * | <root_index> | <level1_index> | ... | <level6_index> | <leaf_index> |
+     * |==============|================|=====|================|==============|
+     * | 7 bits       | 8 bits         | ... | 8 bits         | 6 bits       |
+     * +-------------------------------------------------------------------+
+     * 
+     * Structure of a leaf slot:
+     * +--------------------------------+
+     * | <key_low_bits> | <value>       |
+     * |================|===============|
+     * | 3 bits         | 61 bits       |
+     * +--------------------------------+
+     * 
+     * Empty slots are marked by "EMPTY" and slots frozen for pruning by "FROZEN", 
+     * which never collide with an encoded entry as encodable values are limited.
+     */
+
+    private static final int ALIGNMENT_SHIFT = 3;
+    private static final long KEY_LOW_BITS_MASK = (1L << ALIGNMENT_SHIFT) - 1;
+    private static final int VALUE_BITS = Long.SIZE - ALIGNMENT_SHIFT;
+    private static final long VALUE_MASK = (1L << VALUE_BITS) - 1;
+    private static final long MAX_ENCODABLE_VALUE = VALUE_MASK - 2;
+    private static final long EMPTY = -1L;
+    private static final long FROZEN = -2L;
+    // Returned by the leaf put when the slot is used by another key in the same granule
+    private static final long COLLIDED = -3L;
+    // Returned by the puts when they have hit a node being pruned
+    private static final long RETRY = -4L;
+    private static final Object FROZEN_CHILD = new Object();
+    
+    private static final int LEVEL_COUNT = 8;
+    private static final int LEAF_LEVEL = LEVEL_COUNT - 1;
+    private static final int[] LEVEL_SHIFTS = { 54, 46, 38, 30, 22, 14, 6, 0 };
+    private static final int[] LEVEL_BITS = { 7, 8, 8, 8, 8, 8, 8, 6 };
+    
+    private static final Comparator<Long> UNSIGNED_ORDER = new Comparator<Long>() {
+        @Override
+        public int compare(Long key1, Long key2) {
+            return compareUnsigned(key1, key2);
+        }
+    };
+
+    private final long missingValue;
+    private final InnerNode root;
+    private final ConcurrentSkipListMap<Long, Long> overflowEntries = 
+            new ConcurrentSkipListMap<Long, Long>(UNSIGNED_ORDER);
+
+    public ConcurrentLong2LongRadixTree(long missingValue) {
+        this.missingValue = missingValue;
+        this.root = new InnerNode(LEVEL_BITS[0]);
+    }
+
+    private static int compareUnsigned(long key1, long key2) {
+        long flippedKey1 = key1 ^ Long.MIN_VALUE;
+        long flippedKey2 = key2 ^ Long.MIN_VALUE;
+        return flippedKey1 < flippedKey2 ? -1 : (flippedKey1 == flippedKey2 ? 0 : 1);
+    }
+    
+    private static long granule(long key) {
+        return key >>> ALIGNMENT_SHIFT;
+    }
+    
+    private static int slotIndex(long granule, int level) {
+        return (int) (granule >>> LEVEL_SHIFTS[level]) & ((1 << LEVEL_BITS[level]) - 1);
+    }
+
+    private static long granulePrefix(long prefix, int level, int slotIndex) {
+        return prefix | ((long) slotIndex << LEVEL_SHIFTS[level]);
+    }
+    
+    private static boolean isEncodable(long value) {
+        return value >= 0 && value <= MAX_ENCODABLE_VALUE;
+    }
+    
+    private static long encode(long key, long value) {
+        return ((key & KEY_LOW_BITS_MASK) << VALUE_BITS) | value;
+    }
+    
+    private static boolean isEntry(long slot) {
+        return slot != EMPTY && slot != FROZEN;
+    }
+    
+    private static boolean isEntryOf(long slot, long key) {
+        return isEntry(slot) && (slot >>> VALUE_BITS) == (key & KEY_LOW_BITS_MASK);
+    }
+    
+    private static long keyOf(long granule, long slot) {
+        return (granule << ALIGNMENT_SHIFT) | (slot >>> VALUE_BITS);
+    }
+    
+    private static long valueOf(long slot) {
+        return slot & VALUE_MASK;
+    }
+
+    private LeafNode leaf(long granule) {
+        Object node = root;
+        for (int level = 0; level < LEAF_LEVEL; level++) {
+            node = ((InnerNode) node).children.get(slotIndex(granule, level));
+            if (node == null || node == FROZEN_CHILD) {
+                return null;
+            }
+        }
+        return (LeafNode) node;
+    }
+
+    public boolean isEmpty() {
+        return root.bitmap.lowestBit(0) < 0 && overflowEntries.isEmpty();
+    }
+
+    public long get(long key) {
+        LeafNode leaf = leaf(granule(key));
+        if (leaf != null) {
+            long slot = leaf.values.get(slotIndex(granule(key), LEAF_LEVEL));
+            if (isEntryOf(slot, key)) {
+                return valueOf(slot);
+            }
+        }
+        return getFromOverflowEntries(key);
+    }
+    
+    private long getFromOverflowEntries(long key) {
+        if (overflowEntries.isEmpty()) {
+            return missingValue;
+        }
+        Long value = overflowEntries.get(key);
+        return value != null ? value : missingValue;
+    }
+
+    public boolean containsKey(long key) {
+        return get(key) != missingValue;
+    }
+
+    public long put(long key, long value) {
+        assert value != missingValue : "Invalid value " + value;
+        if (!overflowEntries.isEmpty() && overflowEntries.containsKey(key)) {
+            return putToOverflowEntries(key, value);
+        }
+        if (!isEncodable(value)) {
+            // Key might have been in the tree with an encodable value before
+            long oldValue = remove(root, 0, granule(key), key);
+            long oldOverflowValue = putToOverflowEntries(key, value);
+            return oldValue != EMPTY ? oldValue : oldOverflowValue;
+        }
+        long granule = granule(key);
+        long encodedValue = encode(key, value);
+        for (;;) {
+            long oldValue = put(root, 0, granule, key, encodedValue);
+            if (oldValue == COLLIDED) {
+                return putToOverflowEntries(key, value);
+            }
+            if (oldValue != RETRY) {
+                return oldValue == EMPTY ? missingValue : oldValue;
+            }
+            // Hit a node being pruned, so retry once it is unlinked (or left as it is)
+            Thread.yield();
+        }
+    }
+    
+    private long putToOverflowEntries(long key, long value) {
+        Long oldValue = overflowEntries.put(key, value);
+        return oldValue != null ? oldValue : missingValue;
+    }
+    
+    /*
+     * Bits are synced bottom-up after each put and remove. 
+     * A sync rechecks the slot after updating its bit and repeats on a change, 
+     * so a bit updated from a stale read is corrected by its own writer 
+     * and bitmaps match their slots once the writers are done.
+     */
+    private long put(InnerNode node, int level, long granule, long key, long encodedValue) {
+        int slotIndex = slotIndex(granule, level);
+        int childLevel = level + 1;
+        Object child = node.child(slotIndex, childLevel);
+        if (child == FROZEN_CHILD) {
+            return RETRY;
+        }
+        long oldValue = 
+                childLevel == LEAF_LEVEL 
+                    ? put((LeafNode) child, granule, key, encodedValue) 
+                    : put((InnerNode) child, childLevel, granule, key, encodedValue);
+        if (oldValue != RETRY && oldValue != COLLIDED) {
+            syncBit(node, slotIndex, child);
+        }
+        return oldValue;
+    }
+    
+    private long put(LeafNode leaf, long granule, long key, long encodedValue) {
+        int slotIndex = slotIndex(granule, LEAF_LEVEL);
+        for (;;) {
+            long slot = leaf.values.get(slotIndex);
+            if (slot == FROZEN) {
+                return RETRY;
+            }
+            if (slot != EMPTY && !isEntryOf(slot, key)) {
+                return COLLIDED;
+            }
+            if (leaf.values.compareAndSet(slotIndex, slot, encodedValue)) {
+                syncBit(leaf, slotIndex);
+                return slot == EMPTY ? EMPTY : valueOf(slot);
+            }
+        }
+    }
+
+    public long remove(long key) {
+        long oldValue = remove(root, 0, granule(key), key);
+        if (oldValue != EMPTY) {
+            return oldValue;
+        }
+        if (overflowEntries.isEmpty()) {
+            return missingValue;
+        }
+        Long overflowValue = overflowEntries.remove(key);
+        return overflowValue != null ? overflowValue : missingValue;
+    }
+    
+    private long remove(InnerNode node, int level, long granule, long key) {
+        int slotIndex = slotIndex(granule, level);
+        int childLevel = level + 1;
+        Object child = node.children.get(slotIndex);
+        if (child == null || child == FROZEN_CHILD) {
+            return EMPTY;
+        }
+        long oldValue = 
+                childLevel == LEAF_LEVEL 
+                    ? remove((LeafNode) child, granule, key) 
+                    : remove((InnerNode) child, childLevel, granule, key);
+        if (oldValue != EMPTY) {
+            syncBit(node, slotIndex, child);
+        }
+        return oldValue;
+    }
+    
+    private long remove(LeafNode leaf, long granule, long key) {
+        int slotIndex = slotIndex(granule, LEAF_LEVEL);
+        for (;;) {
+            long slot = leaf.values.get(slotIndex);
+            if (!isEntryOf(slot, key)) {
+                return EMPTY;
+            }
+            if (leaf.values.compareAndSet(slotIndex, slot, EMPTY)) {
+                syncBit(leaf, slotIndex);
+                return valueOf(slot);
+            }
+        }
+    }
+
+    private static void syncBit(LeafNode leaf, int slotIndex) {
+        for (;;) {
+            boolean occupied = isEntry(leaf.values.get(slotIndex));
+            leaf.bitmap.updateBit(slotIndex, occupied);
+            if (isEntry(leaf.values.get(slotIndex)) == occupied) {
+                return;
+            }
+        }
+    }
+    
+    private static void syncBit(InnerNode node, int slotIndex, Object child) {
+        Bitmap childBitmap = child instanceof LeafNode ? ((LeafNode) child).bitmap : ((InnerNode) child).bitmap;
+        for (;;) {
+            boolean occupied = !childBitmap.isEmpty();
+            node.bitmap.updateBit(slotIndex, occupied);
+            if (!childBitmap.isEmpty() == occupied) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Gets the greatest key less than or equal to the given key.
+     *
+     * @param key the key
+     * @return the greatest key less than or equal to the given key if there is,
+     *         otherwise the missing value
+     */
+    public long floorKey(long key) {
+        long floorKey = floorKey(root, 0, 0L, granule(key), key);
+        if (!overflowEntries.isEmpty()) {
+            Map.Entry<Long, Long> overflowEntry = overflowEntries.floorEntry(key);
+            if (overflowEntry != null 
+                    && (floorKey == missingValue || compareUnsigned(overflowEntry.getKey(), floorKey) > 0)) {
+                return overflowEntry.getKey();
+            }
+        }
+        return floorKey;
+    }
+
+    private long floorKey(InnerNode node, int level, long prefix, long granule, long key) {
+        int slotIndex = slotIndex(granule, level);
+        int childLevel = level + 1;
+        if (node.bitmap.isSet(slotIndex)) {
+            Object child = node.children.get(slotIndex);
+            long childPrefix = granulePrefix(prefix, level, slotIndex);
+            long floorKey = missingValue;
+            if (child instanceof LeafNode) {
+                floorKey = floorKey((LeafNode) child, childPrefix, slotIndex(granule, LEAF_LEVEL), key);
+            } else if (child instanceof InnerNode) {
+                floorKey = floorKey((InnerNode) child, childLevel, childPrefix, granule, key);
+            }
+            if (floorKey != missingValue) {
+                return floorKey;
+            }
+        }
+        return maxKeyBelow(node, level, prefix, slotIndex - 1);
+    }
+
+    private long floorKey(LeafNode leaf, long prefix, int fromSlotIndex, long key) {
+        for (int i = leaf.bitmap.highestBit(fromSlotIndex); i >= 0; i = leaf.bitmap.highestBit(i - 1)) {
+            long slot = leaf.values.get(i);
+            if (isEntry(slot)) {
+                long candidateKey = keyOf(granulePrefix(prefix, LEAF_LEVEL, i), slot);
+                // Key in the granule of the given key might be above the given key
+                if (i < fromSlotIndex || compareUnsigned(candidateKey, key) <= 0) {
+                    return candidateKey;
+                }
+            }
+        }
+        return missingValue;
+    }
+
+    private long maxKeyBelow(InnerNode node, int level, long prefix, int fromSlotIndex) {
+        int childLevel = level + 1;
+        for (int i = node.bitmap.highestBit(fromSlotIndex); i >= 0; i = node.bitmap.highestBit(i - 1)) {
+            Object child = node.children.get(i);
+            long childPrefix = granulePrefix(prefix, level, i);
+            long maxKey = missingValue;
+            if (child instanceof LeafNode) {
+                LeafNode leaf = (LeafNode) child;
+                maxKey = floorKey(leaf, childPrefix, leaf.values.length() - 1, -1L);
+            } else if (child instanceof InnerNode) {
+                InnerNode childNode = (InnerNode) child;
+                maxKey = maxKeyBelow(childNode, childLevel, childPrefix, childNode.children.length() - 1);
+            }
+            if (maxKey != missingValue) {
+                return maxKey;
+            }
+        }
+        return missingValue;
+    }
+
+    /**
+     * Unlinks the empty nodes, so the memory of the tree shrinks back after the keys are removed.
+     * Might be called concurrently with the other operations but not with another pruning.
+     */
+    public void prune() {
+        prune(root, 0);
+    }
+    
+    // Returns true if all the children of the given node have been unlinked
+    private boolean prune(InnerNode node, int level) {
+        int childLevel = level + 1;
+        boolean empty = true;
+        for (int i = 0; i < node.children.length(); i++) {
+            Object child = node.children.get(i);
+            if (child == null) {
+                continue;
+            }
+            boolean frozen;
+            if (childLevel == LEAF_LEVEL) {
+                LeafNode leaf = (LeafNode) child;
+                frozen = leaf.bitmap.isEmpty() && leaf.freeze();
+            } else {
+                InnerNode childNode = (InnerNode) child;
+                frozen = prune(childNode, childLevel) && childNode.freeze();
+            }
+            if (frozen) {
+                // Child is frozen, so nothing can be put into it and it is only ours to unlink
+                node.children.set(i, null);
+            } else {
+                empty = false;
+            }
+        }
+        return empty;
+    }
+
+    /**
+     * Iterates on the entries in the order of their keys. 
+     * Entries of the overflow map (if there are) are iterated at last.
+     *
+     * @param consumer the {@link LongLongConsumer} to be notified for each entry
+     */
+    public void longForEach(LongLongConsumer consumer) {
+        forEach(root, 0, 0L, 0, root.children.length(), consumer);
+        forEachOverflowEntry(consumer);
+    }
+    
+    private void forEachOverflowEntry(LongLongConsumer consumer) {
+        for (Map.Entry<Long, Long> entry : overflowEntries.entrySet()) {
+            consumer.accept(entry.getKey(), entry.getValue());
+        }
+    }
+
+    private void forEach(InnerNode node, int level, long prefix, 
+                         int fromSlotIndex, int toSlotIndex, LongLongConsumer consumer) {
+        int childLevel = level + 1;
+        for (int i = node.bitmap.lowestBit(fromSlotIndex); 
+             i >= 0 && i < toSlotIndex; 
+             i = node.bitmap.lowestBit(i + 1)) {
+            Object child = node.children.get(i);
+            long childPrefix = granulePrefix(prefix, level, i);
+            if (child instanceof LeafNode) {
+                LeafNode leaf = (LeafNode) child;
+                int leafSlotCount = leaf.values.length();
+                for (int j = leaf.bitmap.lowestBit(0); j >= 0 && j < leafSlotCount; j = leaf.bitmap.lowestBit(j + 1)) {
+                    long slot = leaf.values.get(j);
+                    if (isEntry(slot)) {
+                        consumer.accept(keyOf(granulePrefix(childPrefix, LEAF_LEVEL, j), slot), valueOf(slot));
+                    }
+                }
+            } else if (child instanceof InnerNode) {
+                InnerNode childNode = (InnerNode) child;
+                forEach(childNode, childLevel, childPrefix, 0, childNode.children.length(), consumer);
+            }
+        }
+    }
+
+    /**
+     * Creates a split which covers all the entries.
+     *
+     * @return the {@link Split} covering all the entries
+     */
+    public Split split() {
+        return new Split(root, 0, 0L, 0, root.children.length(), true);
+    }
+
+    /**
+     * Part of the tree which covers a range of slots of a node.
+     * A split is not thread-safe but different splits can be iterated concurrently.
+     * Like the whole tree iteration, entries put or removed concurrently 
+     * might or might not be seen.
+     */
+    public final class Split {
+
+        private InnerNode node;
+        private int level;
+        private long prefix;
+        private int fromSlotIndex;
+        private int toSlotIndex;
+        // Only one split covers the overflow entries
+        private boolean coversOverflowEntries;
+
+        private Split(InnerNode node, int level, long prefix, int fromSlotIndex, int toSlotIndex, 
+                      boolean coversOverflowEntries) {
+            this.node = node;
+            this.level = level;
+            this.prefix = prefix;
+            this.fromSlotIndex = fromSlotIndex;
+            this.toSlotIndex = toSlotIndex;
+            this.coversOverflowEntries = coversOverflowEntries;
+        }
+
+        /**
+         * Splits the occupied slots of this split into two halves.
+         *
+         * @return the new split covering the lower half if this split can be split, 
+         *         otherwise <code>null</code>
+         */
+        public Split trySplit() {
+            for (;;) {
+                int lowestSlotIndex = node.bitmap.lowestBit(fromSlotIndex);
+                if (lowestSlotIndex < 0 || lowestSlotIndex >= toSlotIndex) {
+                    return null;
+                }
+                int highestSlotIndex = node.bitmap.highestBit(toSlotIndex - 1);
+                if (highestSlotIndex > lowestSlotIndex) {
+                    int midSlotIndex = (lowestSlotIndex + highestSlotIndex + 1) >>> 1;
+                    Split split = new Split(node, level, prefix, fromSlotIndex, midSlotIndex, false);
+                    fromSlotIndex = midSlotIndex;
+                    return split;
+                }
+                // Addresses usually share their high bits, 
+                // so go down through the single child until the tree branches
+                Object child = node.children.get(lowestSlotIndex);
+                if (!(child instanceof InnerNode)) {
+                    return null;
+                }
+                prefix = granulePrefix(prefix, level, lowestSlotIndex);
+                node = (InnerNode) child;
+                level++;
+                fromSlotIndex = 0;
+                toSlotIndex = node.children.length();
+            }
+        }
+
+        /**
+         * Iterates on the entries of this split in the order of their keys.
+         *
+         * @param consumer the {@link LongLongConsumer} to be notified for each entry
+         */
+        public void longForEach(LongLongConsumer consumer) {
+            forEach(node, level, prefix, fromSlotIndex, toSlotIndex, consumer);
+            if (coversOverflowEntries) {
+                forEachOverflowEntry(consumer);
+            }
+        }
+
+    }
+
+    private static final class InnerNode {
+
+        private final AtomicReferenceArray<Object> children;
+        // Marks the non-empty children
+        private final Bitmap bitmap;
+
+        private InnerNode(int bits) {
+            this.children = new AtomicReferenceArray<Object>(1 << bits);
+            this.bitmap = new Bitmap(1 << bits);
+        }
+
+        private Object child(int slotIndex, int childLevel) {
+            Object child = children.get(slotIndex);
+            if (child == null) {
+                Object newChild =
+                        childLevel == LEAF_LEVEL
+                            ? new LeafNode(LEVEL_BITS[childLevel])
+                            : new InnerNode(LEVEL_BITS[childLevel]);
+                if (children.compareAndSet(slotIndex, null, newChild)) {
+                    child = newChild;
+                } else {
+                    child = children.get(slotIndex);
+                }
+            }
+            return child;
+        }
+        
+        // Freezes all the slots if none of them has a child, so no child can be attached anymore
+        private boolean freeze() {
+            for (int i = 0; i < children.length(); i++) {
+                if (!children.compareAndSet(i, null, FROZEN_CHILD)) {
+                    for (int j = 0; j < i; j++) {
+                        children.set(j, null);
+                    }
+                    return false;
+                }
+            }
+            return true;
+        }
+
+    }
+
+    private static final class LeafNode {
+
+        private final AtomicLongArray values;
+        private final Bitmap bitmap;
+
+        private LeafNode(int bits) {
+            this.values = new AtomicLongArray(1 << bits);
+            this.bitmap = new Bitmap(1 << bits);
+            for (int i = 0; i < values.length(); i++) {
+                values.set(i, EMPTY);
+            }
+        }
+        
+        // Freezes all the slots if all of them are empty, so no entry can be put anymore
+        private boolean freeze() {
+            for (int i = 0; i < values.length(); i++) {
+                if (!values.compareAndSet(i, EMPTY, FROZEN)) {
+                    for (int j = 0; j < i; j++) {
+                        values.set(j, EMPTY);
+                    }
+                    return false;
+                }
+            }
+            return true;
+        }
+
+    }
+
+    private static final class Bitmap {
+
+        private final AtomicLongArray words;
+
+        private Bitmap(int bitCount) {
+            this.words = new AtomicLongArray((bitCount + Long.SIZE - 1) / Long.SIZE);
+        }
+        
+        private boolean isSet(int bit) {
+            return (words.get(bit >>> 6) & (1L << bit)) != 0;
+        }
+        
+        private boolean isEmpty() {
+            for (int i = 0; i < words.length(); i++) {
+                if (words.get(i) != 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private void updateBit(int bit, boolean set) {
+            if (set) {
+                setBit(bit);
+            } else {
+                clearBit(bit);
+            }
+        }
+
+        private void setBit(int bit) {
+            int wordIndex = bit >>> 6;
+            long mask = 1L << bit;
+            for (;;) {
+                long word = words.get(wordIndex);
+                if ((word & mask) != 0 || words.compareAndSet(wordIndex, word, word | mask)) {
+                    return;
+                }
+            }
+        }
+
+        private void clearBit(int bit) {
+            int wordIndex = bit >>> 6;
+            long mask = 1L << bit;
+            for (;;) {
+                long word = words.get(wordIndex);
+                if ((word & mask) == 0 || words.compareAndSet(wordIndex, word, word & ~mask)) {
+                    return;
+                }
+            }
+        }
+
+        // Returns the highest set bit which is not bigger than the given bit, otherwise -1
+        private int highestBit(int fromBit) {
+            if (fromBit < 0) {
+                return -1;
+            }
+            int wordIndex = fromBit >>> 6;
+            long word = words.get(wordIndex) & (-1L >>> (63 - (fromBit & 63)));
+            for (;;) {
+                if (word != 0) {
+                    return (wordIndex << 6) + 63 - Long.numberOfLeadingZeros(word);
+                }
+                if (--wordIndex < 0) {
+                    return -1;
+                }
+                word = words.get(wordIndex);
+            }
+        }
+
+        // Returns the lowest set bit which is not smaller than the given bit, otherwise -1
+        private int lowestBit(int fromBit) {
+            int wordIndex = fromBit >>> 6;
+            if (wordIndex >= words.length()) {
+                return -1;
+            }
+            long word = words.get(wordIndex) & (-1L << (fromBit & 63));
+            for (;;) {
+                if (word != 0) {
+                    return (wordIndex << 6) + Long.numberOfTrailingZeros(word);
+                }
+                if (++wordIndex >= words.length()) {
+                    return -1;
+                }
+                word = words.get(wordIndex);
+            }
+        }
+
+    }
+
+}
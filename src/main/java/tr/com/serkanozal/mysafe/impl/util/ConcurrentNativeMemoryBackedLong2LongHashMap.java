@@ -0,0 +1,576 @@
+/*
+ * Copyright (c) 2017, Serkan OZAL, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tr.com.serkanozal.mysafe.impl.util;
+
+import sun.misc.Unsafe;
+
+/**
+ * A thread-safe hashmap specialised for long key and value pairs 
+ * which lives entirely in native memory, so it has no GC footprint and no boxing.
+ * 
+ * Keys are distributed over segments and each segment is an open addressing (linear probing) table 
+ * hashed the same way as the {@link AbstractLong2LongHashMap} based maps. 
+ * Entries are claimed, updated and removed by CAS on their native addresses, 
+ * so any number of threads can write concurrently without locking each other out. 
+ * However, operations are not lock-free: every operation registers itself on its segment 
+ * (an atomic increment of the active operation count) and spins/yields while the segment is being rebuilt.
+ * 
+ * Keys are never cleared on removal (only their values are), 
+ * so the probe chains stay unbroken and a removed key is reused when it is put again.
+ * When the claimed slots of a segment exceed its resize threshold, 
+ * the segment is rebuilt with a capacity for its live entries (so it might grow or shrink) 
+ * and removed keys are dropped. Rebuild is the only exclusive operation and it blocks only its own segment: 
+ * operations on that segment wait until the new table is installed and 
+ * the rebuild waits for the operations already in progress on the old table.
+ * 
+ * Iterations are weakly consistent: they never fail, 
+ * but they might miss or repeat entries put, removed or rebuilt concurrently.
+ * 
+ * @author Serkan OZAL
+ */
+public class ConcurrentNativeMemoryBackedLong2LongHashMap implements Long2LongMap {
+
+    /*
+     * Structure of an entry:
+     * +-------------------+
+     * | <key>   | <value> |
+     * |=========|=========|
+     * | 8 bytes | 8 bytes |
+     * +-------------------+
+     */
+    
+    private static final long ENTRY_SIZE = 16;
+    private static final long VALUE_OFFSET = 8;
+    private static final long INITIAL_SEGMENT_CAPACITY = 64;
+    // Claimed slots (including the ones of the removed keys) are counted against the load factor
+    private static final double LOAD_FACTOR = AbstractLong2LongHashMap.DEFAULT_LOAD_FACTOR;
+    // Segment is shrunk when its size drops to this fraction of its resize threshold
+    private static final long SHRINK_THRESHOLD_DIVISOR = 8;
+    private static final int ITERATION_CHUNK_SIZE = 1024;
+    // Low bits of an iteration index is the slot in the segment and high bits is the segment
+    private static final int SEGMENT_INDEX_SHIFT = 40;
+    private static final long SLOT_INDEX_MASK = (1L << SEGMENT_INDEX_SHIFT) - 1;
+    
+    private final Unsafe unsafe;
+    private final long missingValue;
+    private final Segment[] segments;
+    private final int segmentMask;
+    private final long activeOperationCountFieldOffset;
+    private final long exclusiveFieldOffset;
+    private final long usedSlotCountFieldOffset;
+    private final long sizeFieldOffset;
+    
+    public ConcurrentNativeMemoryBackedLong2LongHashMap(Unsafe unsafe, long missingValue) {
+        this(unsafe, StripedLong2LongHashMap.DEFAULT_STRIPE_COUNT, missingValue);
+    }
+    
+    public ConcurrentNativeMemoryBackedLong2LongHashMap(Unsafe unsafe, int segmentCount, long missingValue) {
+        if (segmentCount <= 0) {
+            throw new IllegalArgumentException("Segment count must be positive but it is " + segmentCount);
+        }
+        int actualSegmentCount = Integer.highestOneBit(segmentCount);
+        if (actualSegmentCount < segmentCount) {
+            actualSegmentCount <<= 1;
+        }
+        this.unsafe = unsafe;
+        this.missingValue = missingValue;
+        try {
+            activeOperationCountFieldOffset = 
+                    unsafe.objectFieldOffset(Segment.class.getDeclaredField("activeOperationCount"));
+            exclusiveFieldOffset = 
+                    unsafe.objectFieldOffset(Segment.class.getDeclaredField("exclusive"));
+            usedSlotCountFieldOffset = 
+                    unsafe.objectFieldOffset(Segment.class.getDeclaredField("usedSlotCount"));
+            sizeFieldOffset = 
+                    unsafe.objectFieldOffset(Segment.class.getDeclaredField("size"));
+        } catch (Throwable t) {
+            throw new IllegalStateException(t);
+        }
+        this.segments = new Segment[actualSegmentCount];
+        this.segmentMask = actualSegmentCount - 1;
+        for (int i = 0; i < actualSegmentCount; i++) {
+            segments[i] = new Segment();
+        }
+    }
+    
+    private Segment segment(long key) {
+        // Use different bits than the ones used by the segment tables for their slots
+        long h = key * 0x9E3779B97F4A7C15L;
+        return segments[(int) (h >>> 40) & segmentMask];
+    }
+    
+    private static long slot(long key, long capacity) {
+        return AbstractLong2LongHashMap.mix(key) & (capacity - 1);
+    }
+    
+    private static long capacityFor(long size) {
+        // Rebuilt table is at most half loaded, so there is a gap before the next rebuild
+        long capacity = INITIAL_SEGMENT_CAPACITY;
+        while (size > (long) (capacity * LOAD_FACTOR) / 2) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+    
+    public int segmentCount() {
+        return segments.length;
+    }
+
+    @Override
+    public long size() {
+        long size = 0;
+        for (Segment segment : segments) {
+            size += segment.size;
+        }
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        for (Segment segment : segments) {
+            if (segment.size != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public boolean containsKey(long key) {
+        return get(key) != missingValue;
+    }
+
+    @Override
+    public boolean containsValue(long value) {
+        long[] chunk = new long[ITERATION_CHUNK_SIZE << 1];
+        long cursor = 0;
+        while (cursor >= 0) {
+            cursor = copyEntries(cursor, chunk);
+            for (int i = 0; i < chunk.length; i += 2) {
+                if (chunk[i] != missingValue && chunk[i + 1] == value) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public long get(long key) {
+        Segment segment = segment(key);
+        segment.enter();
+        try {
+            long keyAddress = segment.findKey(key);
+            return keyAddress != 0L 
+                    ? unsafe.getLongVolatile(null, keyAddress + VALUE_OFFSET) 
+                    : missingValue;
+        } finally {
+            segment.exit();
+        }
+    }
+
+    @Override
+    public long put(long key, long value) {
+        assert key != missingValue : "Invalid key " + key;
+        assert value != missingValue : "Invalid value " + value;
+        Segment segment = segment(key);
+        for (;;) {
+            long oldValue = missingValue;
+            boolean rebuildNeeded;
+            long keyAddress;
+            segment.enter();
+            try {
+                keyAddress = segment.findOrClaimKey(key);
+                if (keyAddress != 0L) {
+                    long valueAddress = keyAddress + VALUE_OFFSET;
+                    do {
+                        oldValue = unsafe.getLongVolatile(null, valueAddress);
+                    } while (!unsafe.compareAndSwapLong(null, valueAddress, oldValue, value));
+                    if (oldValue == missingValue) {
+                        unsafe.getAndAddLong(segment, sizeFieldOffset, 1);
+                    }
+                }
+                rebuildNeeded = segment.usedSlotCount > segment.resizeThreshold;
+            } finally {
+                segment.exit();
+            }
+            if (rebuildNeeded || keyAddress == 0L) {
+                // Rebuild must not be done while in an operation, 
+                // otherwise it waits for this operation forever
+                segment.rebuildIfNeeded(keyAddress == 0L);
+            }
+            if (keyAddress != 0L) {
+                return oldValue;
+            }
+            // Table was full, so try again on the rebuilt table
+        }
+    }
+
+    @Override
+    public long remove(long key) {
+        Segment segment = segment(key);
+        segment.enter();
+        try {
+            long keyAddress = segment.findKey(key);
+            if (keyAddress == 0L) {
+                return missingValue;
+            }
+            long valueAddress = keyAddress + VALUE_OFFSET;
+            long oldValue;
+            do {
+                oldValue = unsafe.getLongVolatile(null, valueAddress);
+                if (oldValue == missingValue) {
+                    return missingValue;
+                }
+            } while (!unsafe.compareAndSwapLong(null, valueAddress, oldValue, missingValue));
+            unsafe.getAndAddLong(segment, sizeFieldOffset, -1);
+            return oldValue;
+        } finally {
+            segment.exit();
+        }
+    }
+
+    @Override
+    public void clear() {
+        for (Segment segment : segments) {
+            segment.clear();
+        }
+    }
+
+    @Override
+    public void longForEach(LongLongConsumer consumer) {
+        for (int i = 0; i < segments.length; i++) {
+            longForEach(i, consumer);
+        }
+    }
+    
+    /**
+     * Iterates on the entries of the given segment. 
+     * Entries are copied in chunks and the consumer is called outside of the segment, 
+     * so the consumer is free to access this map.
+     * 
+     * @param segmentIndex  index of the segment to be iterated
+     * @param consumer      the {@link LongLongConsumer} to be notified for each entry
+     */
+    public void longForEach(int segmentIndex, LongLongConsumer consumer) {
+        long[] chunk = new long[ITERATION_CHUNK_SIZE << 1];
+        long cursor = ((long) segmentIndex) << SEGMENT_INDEX_SHIFT;
+        while (cursor >= 0 && (cursor >>> SEGMENT_INDEX_SHIFT) == segmentIndex) {
+            cursor = copyEntries(segmentIndex, cursor & SLOT_INDEX_MASK, chunk, 0);
+            for (int i = 0; i < chunk.length; i += 2) {
+                long key = chunk[i];
+                if (key != missingValue) {
+                    consumer.accept(key, chunk[i + 1]);
+                }
+            }
+        }
+    }
+
+    @Override
+    public LongLongCursor cursor() {
+        return new LongLongCursorImpl();
+    }
+    
+    private final class LongLongCursorImpl implements LongLongCursor {
+        
+        private final long[] chunk = new long[ITERATION_CHUNK_SIZE << 1];
+        private long nextIndex = 0;
+        private int i = chunk.length;
+
+        @Override
+        public boolean advance() {
+            for (;;) {
+                for (i += 2; i < chunk.length; i += 2) {
+                    if (chunk[i] != missingValue) {
+                        return true;
+                    }
+                }
+                if (nextIndex < 0) {
+                    return false;
+                }
+                nextIndex = copyEntries(nextIndex, chunk);
+                i = -2;
+            }
+        }
+
+        @Override
+        public long key() {
+            return chunk[i];
+        }
+
+        @Override
+        public long value() {
+            return chunk[i + 1];
+        }
+        
+    }
+
+    @Override
+    public long copyEntries(long fromIndex, long[] chunk) {
+        int segmentIndex = (int) (fromIndex >>> SEGMENT_INDEX_SHIFT);
+        long slotIndex = fromIndex & SLOT_INDEX_MASK;
+        int length = 0;
+        while (segmentIndex < segments.length && length < chunk.length) {
+            long nextIndex = copyEntries(segmentIndex, slotIndex, chunk, length);
+            if (nextIndex >= 0) {
+                // Chunk is full
+                return nextIndex;
+            }
+            while (length < chunk.length && chunk[length] != missingValue) {
+                length += 2;
+            }
+            segmentIndex++;
+            slotIndex = 0;
+        }
+        return segmentIndex < segments.length ? ((long) segmentIndex) << SEGMENT_INDEX_SHIFT : -1;
+    }
+    
+    private long copyEntries(int segmentIndex, long fromSlot, long[] chunk, int offset) {
+        Segment segment = segments[segmentIndex];
+        int length = offset;
+        long slot = fromSlot;
+        segment.enter();
+        try {
+            long tableAddress = segment.tableAddress;
+            long capacity = segment.capacity;
+            for (; slot < capacity && length < chunk.length; slot++) {
+                long keyAddress = tableAddress + slot * ENTRY_SIZE;
+                long key = unsafe.getLongVolatile(null, keyAddress);
+                if (key != missingValue) {
+                    long value = unsafe.getLongVolatile(null, keyAddress + VALUE_OFFSET);
+                    if (value != missingValue) {
+                        chunk[length++] = key;
+                        chunk[length++] = value;
+                    }
+                }
+            }
+            for (int j = length; j < chunk.length; j += 2) {
+                chunk[j] = missingValue;
+            }
+            return slot < capacity ? (((long) segmentIndex) << SEGMENT_INDEX_SHIFT) | slot : -1;
+        } finally {
+            segment.exit();
+        }
+    }
+
+    @Override
+    public boolean shrink() {
+        boolean shrunk = false;
+        for (Segment segment : segments) {
+            shrunk |= segment.shrink();
+        }
+        return shrunk;
+    }
+
+    /**
+     * Frees the tables of all the segments.
+     * Must be called only when there is no concurrent operation.
+     */
+    @Override
+    public void dispose() {
+        for (Segment segment : segments) {
+            segment.dispose();
+        }
+    }
+    
+    private final class Segment {
+        
+        private volatile long tableAddress;
+        private volatile long capacity;
+        private volatile long resizeThreshold;
+        // Number of operations in progress on the current table
+        private volatile int activeOperationCount;
+        // Set while the table is being rebuilt (or cleared) exclusively
+        private volatile int exclusive;
+        // Number of claimed slots including the ones of the removed keys
+        private volatile long usedSlotCount;
+        private volatile long size;
+        
+        private Segment() {
+            allocateTable(INITIAL_SEGMENT_CAPACITY);
+        }
+        
+        private void allocateTable(long newCapacity) {
+            long newTableAddress = 
+                    InternalNativeMemoryAllocator.allocateMemory(unsafe, newCapacity * ENTRY_SIZE);
+            for (long i = 0; i < newCapacity; i++) {
+                unsafe.putLong(newTableAddress + i * ENTRY_SIZE, missingValue);
+                unsafe.putLong(newTableAddress + i * ENTRY_SIZE + VALUE_OFFSET, missingValue);
+            }
+            capacity = newCapacity;
+            resizeThreshold = (long) (newCapacity * LOAD_FACTOR);
+            // Publish the table after it is filled
+            tableAddress = newTableAddress;
+        }
+        
+        private void freeTable() {
+            InternalNativeMemoryAllocator.freeMemory(unsafe, tableAddress, capacity * ENTRY_SIZE);
+        }
+        
+        private void enter() {
+            for (;;) {
+                while (exclusive != 0) {
+                    Thread.yield();
+                }
+                unsafe.getAndAddInt(this, activeOperationCountFieldOffset, 1);
+                // Rebuild sets the flag before checking the operations, 
+                // so either it sees this operation or this operation sees the flag
+                if (exclusive == 0) {
+                    return;
+                }
+                unsafe.getAndAddInt(this, activeOperationCountFieldOffset, -1);
+            }
+        }
+        
+        private void exit() {
+            unsafe.getAndAddInt(this, activeOperationCountFieldOffset, -1);
+        }
+        
+        private void enterExclusively() {
+            while (!unsafe.compareAndSwapInt(this, exclusiveFieldOffset, 0, 1)) {
+                Thread.yield();
+            }
+            while (activeOperationCount != 0) {
+                Thread.yield();
+            }
+        }
+        
+        private void exitExclusively() {
+            exclusive = 0;
+        }
+        
+        private long findKey(long key) {
+            long tableAddress = this.tableAddress;
+            long capacity = this.capacity;
+            long slot = slot(key, capacity);
+            for (long i = 0; i < capacity; i++) {
+                long keyAddress = tableAddress + slot * ENTRY_SIZE;
+                long candidateKey = unsafe.getLongVolatile(null, keyAddress);
+                if (candidateKey == key) {
+                    return keyAddress;
+                }
+                if (candidateKey == missingValue) {
+                    return 0L;
+                }
+                slot = (slot + 1) & (capacity - 1);
+            }
+            return 0L;
+        }
+        
+        private long findOrClaimKey(long key) {
+            long tableAddress = this.tableAddress;
+            long capacity = this.capacity;
+            long slot = slot(key, capacity);
+            for (long i = 0; i < capacity; i++) {
+                long keyAddress = tableAddress + slot * ENTRY_SIZE;
+                long candidateKey = unsafe.getLongVolatile(null, keyAddress);
+                if (candidateKey == missingValue) {
+                    if (unsafe.compareAndSwapLong(null, keyAddress, missingValue, key)) {
+                        unsafe.getAndAddLong(this, usedSlotCountFieldOffset, 1);
+                        return keyAddress;
+                    }
+                    // Claimed concurrently, maybe for the same key
+                    candidateKey = unsafe.getLongVolatile(null, keyAddress);
+                }
+                if (candidateKey == key) {
+                    return keyAddress;
+                }
+                slot = (slot + 1) & (capacity - 1);
+            }
+            // Table is full
+            return 0L;
+        }
+        
+        private void rebuildIfNeeded(boolean force) {
+            enterExclusively();
+            try {
+                // Might have been rebuilt by another thread meanwhile
+                if (force || usedSlotCount > resizeThreshold) {
+                    rebuild(capacityFor(size));
+                }
+            } finally {
+                exitExclusively();
+            }
+        }
+        
+        private boolean shrink() {
+            if (capacity <= INITIAL_SEGMENT_CAPACITY || size > resizeThreshold / SHRINK_THRESHOLD_DIVISOR) {
+                return false;
+            }
+            enterExclusively();
+            try {
+                long newCapacity = capacityFor(size);
+                if (newCapacity >= capacity) {
+                    return false;
+                }
+                rebuild(newCapacity);
+                return true;
+            } finally {
+                exitExclusively();
+            }
+        }
+        
+        private void rebuild(long newCapacity) {
+            long oldTableAddress = tableAddress;
+            long oldCapacity = capacity;
+            allocateTable(newCapacity);
+            long count = 0;
+            for (long i = 0; i < oldCapacity; i++) {
+                long oldKeyAddress = oldTableAddress + i * ENTRY_SIZE;
+                long key = unsafe.getLong(oldKeyAddress);
+                long value = unsafe.getLong(oldKeyAddress + VALUE_OFFSET);
+                if (key != missingValue && value != missingValue) {
+                    long slot = slot(key, newCapacity);
+                    while (unsafe.getLong(tableAddress + slot * ENTRY_SIZE) != missingValue) {
+                        slot = (slot + 1) & (newCapacity - 1);
+                    }
+                    unsafe.putLong(tableAddress + slot * ENTRY_SIZE, key);
+                    unsafe.putLong(tableAddress + slot * ENTRY_SIZE + VALUE_OFFSET, value);
+                    count++;
+                }
+            }
+            // There is no operation in progress, so the old table can be freed immediately
+            InternalNativeMemoryAllocator.freeMemory(unsafe, oldTableAddress, oldCapacity * ENTRY_SIZE);
+            usedSlotCount = count;
+            size = count;
+        }
+        
+        private void clear() {
+            enterExclusively();
+            try {
+                freeTable();
+                allocateTable(INITIAL_SEGMENT_CAPACITY);
+                usedSlotCount = 0;
+                size = 0;
+            } finally {
+                exitExclusively();
+            }
+        }
+        
+        private void dispose() {
+            if (tableAddress != 0L) {
+                freeTable();
+                tableAddress = 0L;
+                capacity = 0;
+                resizeThreshold = 0;
+                usedSlotCount = 0;
+                size = 0;
+            }
+        }
+        
+    }
+
+}
@@ -0,0 +1,252 @@
+/*
+ * Copyright (c) 2017, Serkan OZAL, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tr.com.serkanozal.mysafe.impl.util;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import sun.misc.Unsafe;
+
+/**
+ * Epoch based deferred reclamation of the freed memories. 
+ * 
+ * Accessors announce the global epoch on their own per-thread records while they are in critical section 
+ * (between checking and accessing memory), so entering and exiting critical section 
+ * are wait-free and there are no shared writes. Freed memories (already unlinked from the storage) 
+ * are retired with the global epoch at that time and they are actually freed 
+ * only after every accessor in critical section has announced a newer epoch. 
+ * So memory cannot be freed while it is being accessed by an accessor which has seen it allocated. 
+ * 
+ * Retired memories are batched on the per-thread records of the retiring threads, 
+ * so retiring is not synchronized with the other threads. 
+ * Full batches are handed off to the reclaimer through a lock-free stack 
+ * and the reclaimer also frees the reclaimable prefixes of the batches which are still being filled up, 
+ * so memories retired by the threads not retiring anymore are not kept forever.
+ * 
+ * @author Serkan OZAL
+ */
+public final class EpochBasedMemoryReclaimer {
+
+    private static final long INACTIVE = 0L;
+    
+    private final Unsafe unsafe;
+    private final int reclamationBatchSize;
+    private final AtomicLong globalEpoch = new AtomicLong(INACTIVE + 1);
+    private final CopyOnWriteArrayList<ThreadRecord> threadRecords = new CopyOnWriteArrayList<ThreadRecord>();
+    private final ThreadLocal<ThreadRecord> threadRecordHolder = new ThreadLocal<ThreadRecord>() {
+        @Override
+        protected ThreadRecord initialValue() {
+            ThreadRecord threadRecord = new ThreadRecord(Thread.currentThread(), reclamationBatchSize);
+            threadRecords.add(threadRecord);
+            return threadRecord;
+        }
+    };
+    // Head of the stack of the full batches handed off by the retiring threads
+    private final AtomicReference<RetiredBatch> handedOffBatches = new AtomicReference<RetiredBatch>();
+    private final Lock reclamationLock = new ReentrantLock();
+    // Batches which are not filled up anymore but not reclaimed completely yet. 
+    // Only accessed by the reclaimer while holding the reclamation lock.
+    private final List<RetiredBatch> limboBatches = new ArrayList<RetiredBatch>();
+    
+    public EpochBasedMemoryReclaimer(Unsafe unsafe, int reclamationBatchSize) {
+        if (reclamationBatchSize <= 0) {
+            throw new IllegalArgumentException(
+                    "Reclamation batch size must be positive but it is " + reclamationBatchSize);
+        }
+        this.unsafe = unsafe;
+        this.reclamationBatchSize = reclamationBatchSize;
+    }
+    
+    public void enterCriticalSection() {
+        // Announced by volatile write, so reads of the storage cannot be reordered before the announcement
+        threadRecordHolder.get().epoch = globalEpoch.get();
+    }
+    
+    public void exitCriticalSection() {
+        // Accesses of the critical section cannot be reordered after the ordered write
+        ThreadRecord.EPOCH_UPDATER.lazySet(threadRecordHolder.get(), INACTIVE);
+    }
+    
+    /**
+     * Retires the given memory to be freed when it cannot be accessed anymore. 
+     * The memory must have been unlinked from the storage already, 
+     * so the accessors entering critical section afterwards cannot see it.
+     * 
+     * @param address the address of the memory to be freed
+     */
+    public void retire(long address) {
+        ThreadRecord threadRecord = threadRecordHolder.get();
+        RetiredBatch batch = threadRecord.batch;
+        int size = batch.size;
+        batch.addresses[size] = address;
+        batch.epochs[size] = globalEpoch.get();
+        // Published by ordered write, so the reclaimer sees the retired memory with its epoch
+        RetiredBatch.SIZE_UPDATER.lazySet(batch, ++size);
+        if (size == reclamationBatchSize) {
+            // Replaced before handed off, so the reclaimer never sees the full batch on the thread record 
+            // after it has taken it from the stack
+            threadRecord.batch = new RetiredBatch(reclamationBatchSize);
+            handOff(batch);
+            tryReclaim();
+        }
+    }
+    
+    private void handOff(RetiredBatch batch) {
+        for (;;) {
+            RetiredBatch head = handedOffBatches.get();
+            batch.next = head;
+            if (handedOffBatches.compareAndSet(head, batch)) {
+                return;
+            }
+        }
+    }
+    
+    /**
+     * Frees the retired memories which cannot be accessed anymore, 
+     * unless there is another ongoing reclamation.
+     */
+    public void tryReclaim() {
+        if (!reclamationLock.tryLock()) {
+            return;
+        }
+        try {
+            // Accessors entering critical section from now on are distinguished from the older ones
+            globalEpoch.incrementAndGet();
+            long minActiveEpoch = Long.MAX_VALUE;
+            Iterator<ThreadRecord> iter = threadRecords.iterator();
+            while (iter.hasNext()) {
+                ThreadRecord threadRecord = iter.next();
+                long epoch = threadRecord.epoch;
+                if (epoch != INACTIVE) {
+                    minActiveEpoch = Math.min(minActiveEpoch, epoch);
+                } else if (threadRecord.owner.get() == null) {
+                    // Owner thread is gone, so it cannot enter critical section or retire memory anymore
+                    threadRecords.remove(threadRecord);
+                    limboBatches.add(threadRecord.batch);
+                }
+            }
+            RetiredBatch batch = handedOffBatches.getAndSet(null);
+            while (batch != null) {
+                RetiredBatch next = batch.next;
+                batch.next = null;
+                limboBatches.add(batch);
+                batch = next;
+            }
+            Iterator<RetiredBatch> limboIter = limboBatches.iterator();
+            while (limboIter.hasNext()) {
+                if (reclaim(limboIter.next(), minActiveEpoch)) {
+                    limboIter.remove();
+                }
+            }
+            for (ThreadRecord threadRecord : threadRecords) {
+                reclaim(threadRecord.batch, minActiveEpoch);
+            }
+        } finally {
+            reclamationLock.unlock();
+        }
+    }
+    
+    // Frees the reclaimable prefix of the given batch as epochs of a batch are non-decreasing 
+    // and returns whether all the memories published in the batch have been freed
+    private boolean reclaim(RetiredBatch batch, long minActiveEpoch) {
+        int size = batch.size;
+        int reclaimed = batch.reclaimed;
+        while (reclaimed < size && batch.epochs[reclaimed] < minActiveEpoch) {
+            unsafe.freeMemory(batch.addresses[reclaimed]);
+            reclaimed++;
+        }
+        batch.reclaimed = reclaimed;
+        return reclaimed == size;
+    }
+    
+    /**
+     * Gets the count of the retired memories which have not been freed yet. 
+     * Memories being retired concurrently by the other threads might not be counted.
+     * 
+     * @return the count of the retired memories which have not been freed yet
+     */
+    public int getRetiredMemoryCount() {
+        reclamationLock.lock();
+        try {
+            int count = 0;
+            for (RetiredBatch batch : limboBatches) {
+                count += batch.size - batch.reclaimed;
+            }
+            for (RetiredBatch batch = handedOffBatches.get(); batch != null; batch = batch.next) {
+                count += batch.size - batch.reclaimed;
+            }
+            for (ThreadRecord threadRecord : threadRecords) {
+                RetiredBatch batch = threadRecord.batch;
+                count += batch.size - batch.reclaimed;
+            }
+            return count;
+        } finally {
+            reclamationLock.unlock();
+        }
+    }
+    
+    private static final class RetiredBatch {
+        
+        private static final AtomicIntegerFieldUpdater<RetiredBatch> SIZE_UPDATER = 
+                AtomicIntegerFieldUpdater.newUpdater(RetiredBatch.class, "size");
+        
+        private final long[] addresses;
+        private final long[] epochs;
+        // Only written by the retiring thread
+        private volatile int size;
+        // Only accessed by the reclaimer while holding the reclamation lock
+        private int reclaimed;
+        private RetiredBatch next;
+        
+        private RetiredBatch(int capacity) {
+            this.addresses = new long[capacity];
+            this.epochs = new long[capacity];
+        }
+        
+    }
+    
+    private static final class ThreadRecord {
+        
+        private static final AtomicLongFieldUpdater<ThreadRecord> EPOCH_UPDATER = 
+                AtomicLongFieldUpdater.newUpdater(ThreadRecord.class, "epoch");
+        
+        private final WeakReference<Thread> owner;
+        // Paddings against false sharing between the records of different threads
+        @SuppressWarnings("unused")
+        private long p0, p1, p2, p3, p4, p5, p6;
+        private volatile long epoch = INACTIVE;
+        // Only replaced by the owner thread
+        private volatile RetiredBatch batch;
+        @SuppressWarnings("unused")
+        private long q0, q1, q2, q3, q4, q5, q6;
+        
+        private ThreadRecord(Thread owner, int batchSize) {
+            this.owner = new WeakReference<Thread>(owner);
+            this.batch = new RetiredBatch(batchSize);
+        }
+        
+    }
+    
+}
@@ -21,7 +21,10 @@ import sun.misc.Unsafe;
 
 public class HeapMemoryBackedLong2LongHashMap extends AbstractLong2LongHashMap {
 
+    private static final long[] DISPOSED_ENTRIES = new long[0];
+    
     private long[] entries;
+    private long[] migratingEntries;
     
     public HeapMemoryBackedLong2LongHashMap(long missingValue) {
         super(missingValue);
@@ -29,7 +32,113 @@ public class HeapMemoryBackedLong2LongHashMap extends AbstractLong2LongHashMap {
 
     public HeapMemoryBackedLong2LongHashMap(Unsafe unsafe, long initialCapacity,
                                             double loadFactor, long missingValue) {
-        super(initialCapacity, loadFactor, missingValue);
+        this(initialCapacity, loadFactor, missingValue);
+    }
+    
+    public HeapMemoryBackedLong2LongHashMap(long initialCapacity, double loadFactor, long missingValue) {
+        this(initialCapacity, loadFactor, missingValue, false);
+    }
+    
+    public HeapMemoryBackedLong2LongHashMap(long initialCapacity, double loadFactor, long missingValue, 
+                                            boolean incrementalRehash) {
+        super(initialCapacity, loadFactor, missingValue, incrementalRehash);
+    }
+
+    @Override
+    public long get(final long key) {
+        // Entries are read once, so concurrent readers never go out of the table while it is rehashed
+        final long[] entries = this.entries;
+        final int mask = entries.length - 1;
+        int index = (int) evenLongHash(key, mask);
+        for (int i = entries.length >> 1; i > 0; i--) {
+            final long candidateKey = entries[index];
+            if (candidateKey == missingValue) {
+                break;
+            }
+            if (candidateKey == key) {
+                return entries[index + 1];
+            }
+            index = (index + 2) & mask;
+        }
+        return getFromMigratingTable(key);
+    }
+    
+    private long getFromMigratingTable(final long key) {
+        // Migrating entries are read once, so a concurrent finish of the migration 
+        // never makes the reader fail on the released entries
+        final long[] migratingEntries = this.migratingEntries;
+        if (migratingEntries == null) {
+            return missingValue;
+        }
+        final int mask = migratingEntries.length - 1;
+        final long migrationIndex = this.migrationIndex;
+        int index = (int) evenLongHash(key, mask);
+        for (int i = migratingEntries.length >> 1; i > 0; i--) {
+            final long candidateKey = migratingEntries[index];
+            if (candidateKey == missingValue) {
+                break;
+            }
+            if (candidateKey == key) {
+                return index >= migrationIndex ? migratingEntries[index + 1] : missingValue;
+            }
+            index = (index + 2) & mask;
+        }
+        return missingValue;
+    }
+
+    protected final long robinHoodGet(final long key) {
+        // Entries are read once, so concurrent readers never go out of the table while it is rehashed
+        final long[] entries = this.entries;
+        final int mask = entries.length - 1;
+        int index = (int) evenLongHash(key, mask);
+        for (int probeLength = 0; probeLength < entries.length >> 1; probeLength++) {
+            final long candidateKey = entries[index];
+            if (candidateKey == missingValue) {
+                break;
+            }
+            if (candidateKey == key) {
+                return entries[index + 1];
+            }
+            if (((index - evenLongHash(candidateKey, mask)) & mask) >> 1 < probeLength) {
+                // Key would have taken this slot if it was in the map 
+                break;
+            }
+            index = (index + 2) & mask;
+        }
+        return missingValue;
+    }
+
+    @Override
+    public long copyEntries(long fromIndex, long[] chunk) {
+        final long[] entries = this.entries;
+        // Indexes after the current entries are the indexes of the migrating entries
+        final long[] migratingEntries = this.migratingEntries;
+        final int migratingEntriesLength = migratingEntries != null ? migratingEntries.length : 0;
+        final long migrationIndex = this.migrationIndex;
+        int i = (int) fromIndex;
+        int length = 0;
+        for (; i < entries.length && length < chunk.length; i += 2) {
+            final long key = entries[i];
+            if (key != missingValue) {
+                chunk[length++] = key;
+                chunk[length++] = entries[i + 1];
+            }
+        }
+        for (; i < entries.length + migratingEntriesLength && length < chunk.length; i += 2) {
+            final int j = i - entries.length;
+            if (j >= migrationIndex) {
+                final long key = migratingEntries[j];
+                final long value = migratingEntries[j + 1];
+                if (key != missingValue && value != missingValue) {
+                    chunk[length++] = key;
+                    chunk[length++] = value;
+                }
+            }
+        }
+        for (int j = length; j < chunk.length; j += 2) {
+            chunk[j] = missingValue;
+        }
+        return i < entries.length + migratingEntriesLength ? i : -1;
     }
 
     @Override
@@ -67,4 +176,34 @@ public class HeapMemoryBackedLong2LongHashMap extends AbstractLong2LongHashMap {
         }
     }
 
+    @Override
+    protected long getMigratingEntry(long index) {
+        return migratingEntries[(int) index];
+    }
+
+    @Override
+    protected void setMigratingEntry(long index, long entry) {
+        migratingEntries[(int) index] = entry;
+    }
+
+    @Override
+    protected void retainEntriesForMigration() {
+        migratingEntries = entries;
+    }
+
+    @Override
+    protected void releaseMigratingEntries() {
+        migratingEntries = null;
+    }
+
+    @Override
+    public void dispose() {
+        // Concurrent readers see an empty table instead of failing
+        entries = DISPOSED_ENTRIES;
+        migratingEntries = null;
+        migratingEntriesLength = 0;
+        entriesLength = 0;
+        size = 0;
+    }
+
 }
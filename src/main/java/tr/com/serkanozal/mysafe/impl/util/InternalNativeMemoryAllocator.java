@@ -0,0 +1,63 @@
+/*
+ * Copyright (c) 2017, Serkan OZAL, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tr.com.serkanozal.mysafe.impl.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import sun.misc.Unsafe;
+
+/**
+ * Allocates and frees the native memory used by MySafe itself (such as native memory backed storages),
+ * so the off-heap footprint of MySafe is accounted separately from the memory allocated by the application.
+ * 
+ * @author Serkan OZAL
+ */
+public final class InternalNativeMemoryAllocator {
+
+    private static final AtomicLong ALLOCATED_MEMORY = new AtomicLong(0L);
+    
+    private InternalNativeMemoryAllocator() {
+        throw new UnsupportedOperationException("Not avaiable for instantiation!");
+    }
+    
+    public static long allocateMemory(Unsafe unsafe, long size) {
+        long address = unsafe.allocateMemory(size);
+        ALLOCATED_MEMORY.addAndGet(size);
+        return address;
+    }
+    
+    /**
+     * Frees the native memory allocated by {@link #allocateMemory(Unsafe, long)}.
+     * 
+     * @param unsafe    the {@link Unsafe} instance
+     * @param address   address of the memory to be freed
+     * @param size      size of the memory to be freed which must be the allocated size
+     */
+    public static void freeMemory(Unsafe unsafe, long address, long size) {
+        unsafe.freeMemory(address);
+        ALLOCATED_MEMORY.addAndGet(-size);
+    }
+    
+    /**
+     * Gets the size of the native memory currently allocated by MySafe itself.
+     * 
+     * @return the size of the native memory currently allocated by MySafe itself in bytes
+     */
+    public static long getAllocatedMemorySize() {
+        return ALLOCATED_MEMORY.get();
+    }
+    
+}
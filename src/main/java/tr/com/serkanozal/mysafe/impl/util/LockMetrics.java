@@ -0,0 +1,111 @@
+/*
+ * Copyright (c) 2017, Serkan OZAL, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tr.com.serkanozal.mysafe.impl.util;
+
+import java.lang.ref.WeakReference;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import tr.com.serkanozal.mysafe.LockMetricsInfo;
+
+/**
+ * Records spin counts, waiting times and holding times of the acquisitions of a lock (or a side of a lock). 
+ * Holding times are measured per thread, so a thread must release a lock before acquiring it again. 
+ * 
+ * Each thread records into its own histograms, so there are no shared writes on acquisitions and releases. 
+ * Histograms of all the threads are merged on read.
+ * 
+ * @author Serkan OZAL
+ */
+public final class LockMetrics {
+
+    private final String name;
+    private final CopyOnWriteArrayList<ThreadMetrics> threadMetricsList = new CopyOnWriteArrayList<ThreadMetrics>();
+    private final ThreadLocal<ThreadMetrics> threadMetricsHolder = new ThreadLocal<ThreadMetrics>() {
+        @Override
+        protected ThreadMetrics initialValue() {
+            ThreadMetrics threadMetrics = new ThreadMetrics(Thread.currentThread());
+            threadMetricsList.add(threadMetrics);
+            return threadMetrics;
+        }
+    };
+    // Merged histograms of the threads which are gone. Only accessed while holding the monitor.
+    private final long[] spinCounts = new long[Log2Histogram.BUCKET_COUNT];
+    private final long[] waitTimes = new long[Log2Histogram.BUCKET_COUNT];
+    private final long[] holdTimes = new long[Log2Histogram.BUCKET_COUNT];
+    
+    public LockMetrics(String name) {
+        this.name = name;
+    }
+    
+    /**
+     * Called after the lock is acquired.
+     * 
+     * @param spinCount         count of the failed attempts until the lock is acquired
+     * @param acquireStartTime  start time (by {@link System#nanoTime()}) of the acquisition 
+     */
+    public void onAcquire(int spinCount, long acquireStartTime) {
+        long acquireTime = System.nanoTime();
+        ThreadMetrics threadMetrics = threadMetricsHolder.get();
+        threadMetrics.spinCountHistogram.record(spinCount);
+        threadMetrics.waitTimeHistogram.record(acquireTime - acquireStartTime);
+        threadMetrics.acquireTime = acquireTime;
+    }
+    
+    /**
+     * Called before the lock is released.
+     */
+    public void onRelease() {
+        ThreadMetrics threadMetrics = threadMetricsHolder.get();
+        threadMetrics.holdTimeHistogram.record(System.nanoTime() - threadMetrics.acquireTime);
+    }
+    
+    public synchronized LockMetricsInfo getInfo() {
+        long[] spinCountHistogram = spinCounts.clone();
+        long[] waitTimeHistogram = waitTimes.clone();
+        long[] holdTimeHistogram = holdTimes.clone();
+        for (ThreadMetrics threadMetrics : threadMetricsList) {
+            if (threadMetrics.owner.get() == null) {
+                // Owner thread is gone, so its histograms are not recorded anymore and they are merged once
+                threadMetricsList.remove(threadMetrics);
+                threadMetrics.addTo(spinCounts, waitTimes, holdTimes);
+            }
+            threadMetrics.addTo(spinCountHistogram, waitTimeHistogram, holdTimeHistogram);
+        }
+        return new LockMetricsInfo(name, spinCountHistogram, waitTimeHistogram, holdTimeHistogram);
+    }
+    
+    private static final class ThreadMetrics {
+        
+        private final WeakReference<Thread> owner;
+        private final Log2Histogram spinCountHistogram = new Log2Histogram();
+        private final Log2Histogram waitTimeHistogram = new Log2Histogram();
+        private final Log2Histogram holdTimeHistogram = new Log2Histogram();
+        // Only accessed by the owner thread
+        private long acquireTime;
+        
+        private ThreadMetrics(Thread owner) {
+            this.owner = new WeakReference<Thread>(owner);
+        }
+        
+        private void addTo(long[] spinCounts, long[] waitTimes, long[] holdTimes) {
+            spinCountHistogram.addTo(spinCounts);
+            waitTimeHistogram.addTo(waitTimes);
+            holdTimeHistogram.addTo(holdTimes);
+        }
+        
+    }
+    
+}
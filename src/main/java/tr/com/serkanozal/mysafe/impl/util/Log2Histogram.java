@@ -0,0 +1,62 @@
+/*
+ * Copyright (c) 2017, Serkan OZAL, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tr.com.serkanozal.mysafe.impl.util;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram with power of two buckets. 
+ * Bucket <code>0</code> counts the <code>0</code> values 
+ * and bucket <code>i</code> counts the values in <code>[2^(i-1), 2^i)</code>. 
+ * 
+ * It is supposed to be recorded by a single thread, so recording a value costs an ordered write 
+ * without any atomic instruction, but it can be read by any thread. 
+ * Histograms recorded by different threads are merged on read by {@link #addTo(long[])}.
+ * 
+ * @author Serkan OZAL
+ */
+public final class Log2Histogram {
+
+    public static final int BUCKET_COUNT = Long.SIZE;
+    
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+    
+    public void record(long value) {
+        // Negative values (such as non-monotonic time differences) are recorded as 0
+        int bucket = value <= 0 ? 0 : Long.SIZE - Long.numberOfLeadingZeros(value);
+        bucket = Math.min(bucket, BUCKET_COUNT - 1);
+        // Single writer, so there is no lost update
+        buckets.lazySet(bucket, buckets.get(bucket) + 1);
+    }
+    
+    /**
+     * Adds the counts of the buckets of this histogram to the given buckets.
+     * 
+     * @param snapshot the buckets to be added to
+     */
+    public void addTo(long[] snapshot) {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            snapshot[i] += buckets.get(i);
+        }
+    }
+    
+    public long[] getBuckets() {
+        long[] snapshot = new long[BUCKET_COUNT];
+        addTo(snapshot);
+        return snapshot;
+    }
+    
+}
@@ -36,6 +36,37 @@ public interface Long2LongMap {
     void longForEach(LongLongConsumer consumer);
     
     LongLongCursor cursor();
+    
+    /**
+     * Copies the entries starting from the given entry index into the given chunk 
+     * as key and value pairs until the chunk is full or there is no more entry.
+     * Keys of the unused pairs in the chunk are set to the missing value.
+     * 
+     * This method is safe to be called concurrently with a writer thread 
+     * in the sense that it never fails or reads outside of the table. 
+     * But the copied entries might be inconsistent in that case,
+     * so the caller is responsible for validating them.
+     * 
+     * @param fromIndex the entry index to start copying from (<code>0</code> at first)
+     * @param chunk     the chunk to copy entries into
+     * @return the entry index to continue copying from if there might be more entries, 
+     *         otherwise <code>-1</code>
+     */
+    long copyEntries(long fromIndex, long[] chunk);
+    
+    /**
+     * Shrinks the table of this map if the map has become sparse 
+     * (for example, after most of the entries put by a burst are removed).
+     * 
+     * @return <code>true</code> if the table has been shrunk, otherwise <code>false</code>
+     */
+    boolean shrink();
+    
+    /**
+     * Releases the resources (such as native memory) of this map.
+     * Map must not be used anymore after it is disposed.
+     */
+    void dispose();
 
     public interface LongLongCursor {
         
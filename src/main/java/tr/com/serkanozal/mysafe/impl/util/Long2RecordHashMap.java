@@ -0,0 +1,277 @@
+/*
+ * Copyright (c) 2017, Serkan OZAL, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tr.com.serkanozal.mysafe.impl.util;
+
+import java.util.Arrays;
+
+/**
+ * A probing hashmap which maps long keys to fixed size records of long values.
+ * Key and values of an entry are stored next to each other in a single heap array,
+ * so all values of a key are reached with one probe.
+ *
+ * Entries are addressed by their indexes which are valid until the next insertion
+ * (insertion might cause rehash) or removal (removal might move other entries).
+ * 
+ * @author Serkan OZAL
+ */
+public class Long2RecordHashMap {
+
+    /*
+     * Structure of an entry:
+     * +-------------------------------------------------------+
+     * | <key>   | <value_0> | <value_1> | ... | <value_n-1>   |
+     * |=========|===========|===========|=====|===============|
+     * | 8 bytes | 8 bytes   | 8 bytes   | ... | 8 bytes       |
+     * +-------------------------------------------------------+
+     */
+
+    public static final double DEFAULT_LOAD_FACTOR = 0.6;
+
+    private static final int DEFAULT_INITIAL_CAPACITY = 16;
+    // Table is shrunk when its size drops to this fraction of its resize threshold,
+    // so there are gaps against grow/shrink cycles around a single size
+    private static final int SHRINK_THRESHOLD_DIVISOR = 8;
+
+    private final int valueCount;
+    private final int entryLength;
+    private final double loadFactor;
+    private final long missingValue;
+    private final int initialCapacity;
+
+    private long[] entries;
+    private int capacity;
+    private int mask;
+    private int resizeThreshold;
+    private int size;
+
+    public Long2RecordHashMap(int valueCount, long missingValue) {
+        this(valueCount, DEFAULT_INITIAL_CAPACITY, DEFAULT_LOAD_FACTOR, missingValue);
+    }
+
+    public Long2RecordHashMap(int valueCount, int initialCapacity, double loadFactor, long missingValue) {
+        if (valueCount <= 0) {
+            throw new IllegalArgumentException("Value count must be positive but it is " + valueCount);
+        }
+        this.valueCount = valueCount;
+        this.entryLength = valueCount + 1;
+        this.loadFactor = loadFactor;
+        this.missingValue = missingValue;
+        this.initialCapacity = nextPowerOfTwo(initialCapacity);
+        capacity(this.initialCapacity);
+    }
+
+    private static int nextPowerOfTwo(int value) {
+        return 1 << (32 - Integer.numberOfLeadingZeros(value - 1));
+    }
+
+    private static int hash(long key, int mask) {
+        // phi = 2^64 / goldenRatio
+        long h = key * 0x9E3779B97F4A7C15L;
+        h ^= h >>> 32;
+        return (int) (h ^ (h >>> 16)) & mask;
+    }
+
+    private void capacity(int newCapacity) {
+        long newLength = (long) newCapacity * entryLength;
+        if (newLength > Integer.MAX_VALUE) {
+            throw new IllegalStateException("Max capacity reached at size=" + size);
+        }
+        capacity = newCapacity;
+        mask = newCapacity - 1;
+        resizeThreshold = (int) (newCapacity * loadFactor);
+        entries = new long[(int) newLength];
+        Arrays.fill(entries, missingValue);
+        size = 0;
+    }
+
+    public int valueCount() {
+        return valueCount;
+    }
+
+    public long size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Gets the index of the entry of the given key.
+     *
+     * @param key the key
+     * @return the index of the entry if there is, otherwise <code>-1</code>
+     */
+    public int indexOf(long key) {
+        int slot = hash(key, mask);
+        long candidateKey;
+        while ((candidateKey = entries[slot * entryLength]) != missingValue) {
+            if (candidateKey == key) {
+                return slot * entryLength;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * Gets the index of the entry of the given key by creating the entry if there is no.
+     * Values of the created entry are initialized to the missing value.
+     *
+     * @param key the key
+     * @return the index of the entry
+     */
+    public int insert(long key) {
+        assert key != missingValue : "Invalid key " + key;
+        if (size >= resizeThreshold) {
+            int index = indexOf(key);
+            if (index >= 0) {
+                return index;
+            }
+            rehash(capacity << 1);
+        }
+        int slot = hash(key, mask);
+        long candidateKey;
+        while ((candidateKey = entries[slot * entryLength]) != missingValue) {
+            if (candidateKey == key) {
+                return slot * entryLength;
+            }
+            slot = (slot + 1) & mask;
+        }
+        int index = slot * entryLength;
+        entries[index] = key;
+        size++;
+        return index;
+    }
+
+    public long keyAt(int index) {
+        return entries[index];
+    }
+
+    public long valueAt(int index, int valueIndex) {
+        return entries[index + 1 + valueIndex];
+    }
+
+    public void setValueAt(int index, int valueIndex, long value) {
+        entries[index + 1 + valueIndex] = value;
+    }
+
+    public long get(long key, int valueIndex) {
+        int index = indexOf(key);
+        return index >= 0 ? entries[index + 1 + valueIndex] : missingValue;
+    }
+
+    /**
+     * Removes the entry of the given key.
+     *
+     * @param key the key
+     * @return the first value of the removed entry if there is, otherwise the missing value
+     */
+    public long remove(long key) {
+        int index = indexOf(key);
+        if (index < 0) {
+            return missingValue;
+        }
+        long oldValue = entries[index + 1];
+        Arrays.fill(entries, index, index + entryLength, missingValue);
+        size--;
+        compactChain(index / entryLength);
+        shrink();
+        return oldValue;
+    }
+    
+    /**
+     * Shrinks the table if the map has become sparse. 
+     * Called on removal, so shrinking is amortized by the removals since the last resize.
+     * 
+     * @return <code>true</code> if the table has been shrunk, otherwise <code>false</code>
+     */
+    public boolean shrink() {
+        if (capacity <= initialCapacity || size > resizeThreshold / SHRINK_THRESHOLD_DIVISOR) {
+            return false;
+        }
+        int newCapacity = capacity;
+        while (newCapacity > initialCapacity && size <= (int) ((newCapacity >> 1) * loadFactor) / 2) {
+            newCapacity >>= 1;
+        }
+        rehash(newCapacity);
+        return true;
+    }
+
+    private void compactChain(int deleteSlot) {
+        int slot = deleteSlot;
+        while (true) {
+            slot = (slot + 1) & mask;
+            int index = slot * entryLength;
+            if (entries[index] == missingValue) {
+                return;
+            }
+            int hash = hash(entries[index], mask);
+            if ((slot < hash && (hash <= deleteSlot || deleteSlot <= slot))
+                    || (hash <= deleteSlot && deleteSlot <= slot)) {
+                int deleteIndex = deleteSlot * entryLength;
+                System.arraycopy(entries, index, entries, deleteIndex, entryLength);
+                Arrays.fill(entries, index, index + entryLength, missingValue);
+                deleteSlot = slot;
+            }
+        }
+    }
+
+    /**
+     * Gets the index of the first entry at or after the given index.
+     * Iteration over entries starts from <code>0</code>.
+     *
+     * @param fromIndex the index to start searching from
+     * @return the index of the found entry if there is, otherwise <code>-1</code>
+     */
+    public int nextIndex(int fromIndex) {
+        for (int index = fromIndex; index < entries.length; index += entryLength) {
+            if (entries[index] != missingValue) {
+                return index;
+            }
+        }
+        return -1;
+    }
+
+    public int entryLength() {
+        return entryLength;
+    }
+
+    public void clear() {
+        Arrays.fill(entries, missingValue);
+        size = 0;
+    }
+
+    private void rehash(int newCapacity) {
+        if (newCapacity <= 0) {
+            throw new IllegalStateException("Max capacity reached at size=" + size);
+        }
+        long[] oldEntries = entries;
+        capacity(newCapacity);
+        for (int i = 0; i < oldEntries.length; i += entryLength) {
+            long key = oldEntries[i];
+            if (key != missingValue) {
+                int slot = hash(key, mask);
+                while (entries[slot * entryLength] != missingValue) {
+                    slot = (slot + 1) & mask;
+                }
+                System.arraycopy(oldEntries, i, entries, slot * entryLength, entryLength);
+                size++;
+            }
+        }
+    }
+
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright (c) 2017, Serkan OZAL, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tr.com.serkanozal.mysafe.impl.util;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * Bounded FIFO quarantine of the freed memories. Freed memories are kept (poisoned by the caller) 
+ * in the quarantine instead of being released immediately, so they are not reused 
+ * and accesses into them can be identified as use-after-free with their free-sites.
+ * 
+ * When the quarantine exceeds its size or count limit, the oldest memories are evicted in batches 
+ * down to the limits minus (at least) one batch, so evictions are amortized over the batch 
+ * and the caller releases the evicted memories without holding the quarantine.
+ * 
+ * @author Serkan OZAL
+ */
+public final class MemoryQuarantine {
+
+    private final long maxSize;
+    private final int maxCount;
+    private final int releaseBatchSize;
+    private final ArrayDeque<QuarantinedMemory> queue = new ArrayDeque<QuarantinedMemory>();
+    // Quarantined memories by their addresses to find the ones containing an accessed address
+    private final NavigableMap<Long, QuarantinedMemory> quarantinedMemories = new TreeMap<Long, QuarantinedMemory>();
+    private long size;
+    
+    public MemoryQuarantine(long maxSize, int maxCount, int releaseBatchSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("Max size must be positive but it is " + maxSize);
+        }
+        if (maxCount <= 0) {
+            throw new IllegalArgumentException("Max count must be positive but it is " + maxCount);
+        }
+        if (releaseBatchSize <= 0) {
+            throw new IllegalArgumentException("Release batch size must be positive but it is " + releaseBatchSize);
+        }
+        this.maxSize = maxSize;
+        this.maxCount = maxCount;
+        this.releaseBatchSize = Math.min(releaseBatchSize, maxCount);
+    }
+    
+    /**
+     * Puts the given freed memory into the quarantine.
+     * 
+     * @param quarantinedMemory the freed memory to be quarantined
+     * @return the evicted memories to be released by the caller if there are, otherwise <code>null</code>
+     */
+    public List<QuarantinedMemory> put(QuarantinedMemory quarantinedMemory) {
+        synchronized (this) {
+            queue.addLast(quarantinedMemory);
+            quarantinedMemories.put(quarantinedMemory.address, quarantinedMemory);
+            size += quarantinedMemory.size;
+            if (size <= maxSize && queue.size() <= maxCount) {
+                return null;
+            }
+            List<QuarantinedMemory> evictedMemories = new ArrayList<QuarantinedMemory>(releaseBatchSize);
+            while (!queue.isEmpty() 
+                    && (evictedMemories.size() < releaseBatchSize || size > maxSize || queue.size() > maxCount)) {
+                QuarantinedMemory evictedMemory = queue.removeFirst();
+                quarantinedMemories.remove(evictedMemory.address);
+                size -= evictedMemory.size;
+                evictedMemories.add(evictedMemory);
+            }
+            return evictedMemories;
+        }
+    }
+    
+    /**
+     * Finds the quarantined memory which intersects with the given memory region.
+     * 
+     * @param address   start address of the memory region
+     * @param size      size of the memory region
+     * @return the found quarantined memory if there is, otherwise <code>null</code>
+     */
+    public QuarantinedMemory find(long address, long size) {
+        synchronized (this) {
+            Map.Entry<Long, QuarantinedMemory> entry = quarantinedMemories.floorEntry(address + Math.max(size, 1) - 1);
+            if (entry == null) {
+                return null;
+            }
+            QuarantinedMemory quarantinedMemory = entry.getValue();
+            return address < quarantinedMemory.address + quarantinedMemory.size ? quarantinedMemory : null;
+        }
+    }
+    
+    public long size() {
+        synchronized (this) {
+            return size;
+        }
+    }
+    
+    public int count() {
+        synchronized (this) {
+            return queue.size();
+        }
+    }
+    
+    public static final class QuarantinedMemory {
+        
+        public final long address;
+        public final long size;
+        public final long freeTime;
+        public final String freeThreadName;
+        // Might be empty if free-sites are not captured
+        public final StackTraceElement[] freeSite;
+        
+        public QuarantinedMemory(long address, long size, long freeTime, 
+                                 String freeThreadName, StackTraceElement[] freeSite) {
+            this.address = address;
+            this.size = size;
+            this.freeTime = freeTime;
+            this.freeThreadName = freeThreadName;
+            this.freeSite = freeSite;
+        }
+        
+    }
+    
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright (c) 2017, Serkan OZAL, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tr.com.serkanozal.mysafe.impl.util;
+
+/**
+ * Small cache of the recently accessed memory regions as <code>[start, end)</code> 
+ * with LRU replacement to check memory accesses without looking up the storage. 
+ * 
+ * Each cached region is only valid for the free epoch of its stripe (see {@link StripedFreeEpoch}) 
+ * it has been cached in, so a region is dropped when it is freed (or reallocated) 
+ * but frees of the regions in other stripes don't affect it. 
+ * To be checked against a single stripe, a cached region is clipped to 
+ * the address range of the stripe it is accessed through. 
+ * 
+ * This cache is not thread-safe and it is supposed to be used by its owner thread only.
+ * 
+ * @author Serkan OZAL
+ */
+public final class MemoryRegionCache {
+
+    private final StripedFreeEpoch freeEpoch;
+    private final long[] starts;
+    private final long[] ends;
+    private final long[] epochs;
+    private int count;
+    
+    public MemoryRegionCache(int capacity, StripedFreeEpoch freeEpoch) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive but it is " + capacity);
+        }
+        this.freeEpoch = freeEpoch;
+        this.starts = new long[capacity];
+        this.ends = new long[capacity];
+        this.epochs = new long[capacity];
+    }
+    
+    /**
+     * Gets the current free epoch for the given address to be used on caching a region containing it. 
+     * It must be read before the region is looked up, 
+     * so a region freed meanwhile is not cached as valid.
+     * 
+     * @param address the address to be accessed
+     * @return the current free epoch of the stripe of the address
+     */
+    public long freeEpochOf(long address) {
+        return freeEpoch.get(address);
+    }
+    
+    /**
+     * Checks whether the given memory range as <code>[address, address + size)</code> 
+     * is in one of the cached regions which are still valid. 
+     * Stale regions are dropped on the way.
+     * 
+     * @param address       start address of the memory range
+     * @param size          size of the memory range
+     * @return <code>true</code> if the range is covered by a cached region, otherwise <code>false</code>
+     */
+    public boolean contains(long address, long size) {
+        final long end = address + size;
+        for (int i = 0; i < count; i++) {
+            if (address >= starts[i] && end <= ends[i]) {
+                if (epochs[i] != freeEpoch.get(starts[i])) {
+                    // Region has been freed (or another region in its stripe has been freed)
+                    removeAt(i);
+                    return false;
+                }
+                if (i > 0) {
+                    moveToFront(i);
+                }
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * Adds the given region as the most recently used one by evicting the least recently used one if full. 
+     * The region is clipped to the address range of the stripe which the given accessed address maps to.
+     * 
+     * @param start         start address of the region
+     * @param end           end address (exclusive) of the region
+     * @param address       the accessed address in the region
+     * @param epoch         the free epoch read by {@link #freeEpochOf(long)} 
+     *                      for the accessed address before the region has been looked up
+     */
+    public void add(long start, long end, long address, long epoch) {
+        int last = count < starts.length ? count++ : count - 1;
+        System.arraycopy(starts, 0, starts, 1, last);
+        System.arraycopy(ends, 0, ends, 1, last);
+        System.arraycopy(epochs, 0, epochs, 1, last);
+        starts[0] = Math.max(start, freeEpoch.rangeStart(address));
+        ends[0] = Math.min(end, freeEpoch.rangeEnd(address));
+        epochs[0] = epoch;
+    }
+    
+    private void moveToFront(int index) {
+        long start = starts[index];
+        long end = ends[index];
+        long epoch = epochs[index];
+        System.arraycopy(starts, 0, starts, 1, index);
+        System.arraycopy(ends, 0, ends, 1, index);
+        System.arraycopy(epochs, 0, epochs, 1, index);
+        starts[0] = start;
+        ends[0] = end;
+        epochs[0] = epoch;
+    }
+    
+    private void removeAt(int index) {
+        int moved = --count - index;
+        System.arraycopy(starts, index + 1, starts, index, moved);
+        System.arraycopy(ends, index + 1, ends, index, moved);
+        System.arraycopy(epochs, index + 1, epochs, index, moved);
+    }
+    
+    public void clear() {
+        count = 0;
+    }
+    
+}
@@ -20,28 +20,173 @@ import tr.com.serkanozal.mysafe.MySafe;
 
 public class NativeMemoryBackedLong2LongHashMap extends AbstractLong2LongHashMap {
 
+    /*
+     * Structure of a table:
+     * +-------------------------------------------------------------+
+     * | <length> | <next_retired_table> | <entry_0> | ... | <entry_n> |
+     * |==========|======================|===========|=====|===========|
+     * | 8 bytes  | 8 bytes              | 8 bytes   | ... | 8 bytes   |
+     * +-------------------------------------------------------------+
+     * 
+     * Length is kept in the table itself, so a reader which reads the table address 
+     * concurrently with a rehash always sees the length of the table it reads.
+     * 
+     * When deferred table free is enabled, old tables are not freed on rehash 
+     * but chained as retired tables through their headers. 
+     * Then the owner frees them by "freeRetiredTables()" when there is no concurrent reader.
+     */
+    
+    private static final long LENGTH_OFFSET = 0;
+    private static final long NEXT_RETIRED_TABLE_OFFSET = 8;
+    private static final long HEADER_SIZE = 16;
+    
     private final Unsafe unsafe;
+    private final boolean deferredTableFree;
     private long entriesAddress;
+    private long migratingEntriesAddress;
+    private long retiredTablesAddress;
     
     public NativeMemoryBackedLong2LongHashMap(Unsafe unsafe, long missingValue) {
+        this(unsafe, missingValue, false);
+    }
+    
+    public NativeMemoryBackedLong2LongHashMap(Unsafe unsafe, long missingValue, boolean deferredTableFree) {
         super(missingValue);
         this.unsafe = unsafe;
+        this.deferredTableFree = deferredTableFree;
     }
 
     public NativeMemoryBackedLong2LongHashMap(Unsafe unsafe, long initialCapacity,
                                               double loadFactor, long missingValue) {
-        super(initialCapacity, loadFactor, missingValue);
+        this(unsafe, initialCapacity, loadFactor, missingValue, false);
+    }
+    
+    public NativeMemoryBackedLong2LongHashMap(Unsafe unsafe, long initialCapacity,
+                                              double loadFactor, long missingValue, 
+                                              boolean deferredTableFree) {
+        this(unsafe, initialCapacity, loadFactor, missingValue, deferredTableFree, false);
+    }
+    
+    public NativeMemoryBackedLong2LongHashMap(Unsafe unsafe, long initialCapacity,
+                                              double loadFactor, long missingValue, 
+                                              boolean deferredTableFree, boolean incrementalRehash) {
+        super(initialCapacity, loadFactor, missingValue, incrementalRehash);
         this.unsafe = unsafe;
+        this.deferredTableFree = deferredTableFree;
+    }
+
+    @Override
+    public long get(final long key) {
+        // Table is read once, so concurrent readers never go out of the table while it is rehashed
+        final long tableAddress = entriesAddress;
+        final long length = unsafe.getLong(tableAddress + LENGTH_OFFSET);
+        final long mask = length - 1;
+        long index = evenLongHash(key, mask);
+        for (long i = length >> 1; i > 0; i--) {
+            final long candidateKey = unsafe.getLong(tableAddress + HEADER_SIZE + (index << 3));
+            if (candidateKey == missingValue) {
+                break;
+            }
+            if (candidateKey == key) {
+                return unsafe.getLong(tableAddress + HEADER_SIZE + ((index + 1) << 3));
+            }
+            index = (index + 2) & mask;
+        }
+        return getFromMigratingTable(key);
+    }
+    
+    private long getFromMigratingTable(final long key) {
+        // Migrating table is read once and its length is taken from its own header, 
+        // so a concurrent finish of the migration never makes the reader go into a released table
+        final long tableAddress = migratingEntriesAddress;
+        if (tableAddress == 0L) {
+            return missingValue;
+        }
+        final long length = unsafe.getLong(tableAddress + LENGTH_OFFSET);
+        final long mask = length - 1;
+        final long migrationIndex = this.migrationIndex;
+        long index = evenLongHash(key, mask);
+        for (long i = length >> 1; i > 0; i--) {
+            final long candidateKey = unsafe.getLong(tableAddress + HEADER_SIZE + (index << 3));
+            if (candidateKey == missingValue) {
+                break;
+            }
+            if (candidateKey == key) {
+                return index >= migrationIndex 
+                        ? unsafe.getLong(tableAddress + HEADER_SIZE + ((index + 1) << 3)) 
+                        : missingValue;
+            }
+            index = (index + 2) & mask;
+        }
+        return missingValue;
+    }
+    
+    protected final long robinHoodGet(final long key) {
+        // Table is read once, so concurrent readers never go out of the table while it is rehashed
+        final long tableAddress = entriesAddress;
+        final long length = unsafe.getLong(tableAddress + LENGTH_OFFSET);
+        final long mask = length - 1;
+        long index = evenLongHash(key, mask);
+        for (long probeLength = 0; probeLength < length >> 1; probeLength++) {
+            final long candidateKey = unsafe.getLong(tableAddress + HEADER_SIZE + (index << 3));
+            if (candidateKey == missingValue) {
+                break;
+            }
+            if (candidateKey == key) {
+                return unsafe.getLong(tableAddress + HEADER_SIZE + ((index + 1) << 3));
+            }
+            if (((index - evenLongHash(candidateKey, mask)) & mask) >> 1 < probeLength) {
+                // Key would have taken this slot if it was in the map 
+                break;
+            }
+            index = (index + 2) & mask;
+        }
+        return missingValue;
+    }
+    
+    @Override
+    public long copyEntries(long fromIndex, long[] chunk) {
+        final long tableAddress = entriesAddress;
+        final long length = unsafe.getLong(tableAddress + LENGTH_OFFSET);
+        // Indexes after the current entries are the indexes of the migrating entries
+        final long migratingTableAddress = migratingEntriesAddress;
+        final long migratingLength = 
+                migratingTableAddress != 0L ? unsafe.getLong(migratingTableAddress + LENGTH_OFFSET) : 0L;
+        final long migrationIndex = this.migrationIndex;
+        long i = fromIndex;
+        int copied = 0;
+        for (; i < length && copied < chunk.length; i += 2) {
+            final long key = unsafe.getLong(tableAddress + HEADER_SIZE + (i << 3));
+            if (key != missingValue) {
+                chunk[copied++] = key;
+                chunk[copied++] = unsafe.getLong(tableAddress + HEADER_SIZE + ((i + 1) << 3));
+            }
+        }
+        for (; i < length + migratingLength && copied < chunk.length; i += 2) {
+            final long j = i - length;
+            if (j >= migrationIndex) {
+                final long key = unsafe.getLong(migratingTableAddress + HEADER_SIZE + (j << 3));
+                final long value = unsafe.getLong(migratingTableAddress + HEADER_SIZE + ((j + 1) << 3));
+                if (key != missingValue && value != missingValue) {
+                    chunk[copied++] = key;
+                    chunk[copied++] = value;
+                }
+            }
+        }
+        for (int j = copied; j < chunk.length; j += 2) {
+            chunk[j] = missingValue;
+        }
+        return i < length + migratingLength ? i : -1;
     }
 
     @Override
     protected long getEntry(long index) {
-        return unsafe.getLong(entriesAddress + (index << 3));
+        return unsafe.getLong(entriesAddress + HEADER_SIZE + (index << 3));
     }
 
     @Override
     protected void setEntry(long index, long entry) {
-        unsafe.putLong(entriesAddress + (index << 3), entry);
+        unsafe.putLong(entriesAddress + HEADER_SIZE + (index << 3), entry);
     }
 
     @Override
@@ -49,22 +194,23 @@ public class NativeMemoryBackedLong2LongHashMap extends AbstractLong2LongHashMap
         if (unsafe == null) {
             Unsafe u = MySafe.getUnsafe();
             for (long i = 0; i < entriesLength; i++) {
-                u.putLong(entriesAddress + (i << 3), missingValue);
+                u.putLong(entriesAddress + HEADER_SIZE + (i << 3), missingValue);
             } 
         } else {
             for (long i = 0; i < entriesLength; i++) {
-                unsafe.putLong(entriesAddress + (i << 3), missingValue);
+                unsafe.putLong(entriesAddress + HEADER_SIZE + (i << 3), missingValue);
             }  
         }    
     }
 
     @Override
     protected void allocateEntries(long length) {
-        if (unsafe == null) {
-            entriesAddress = MySafe.getUnsafe().allocateMemory(length << 3);
-        } else {
-            entriesAddress = unsafe.allocateMemory(length << 3);
-        }
+        // Called from super constructor before "unsafe" field is set
+        Unsafe u = unsafe != null ? unsafe : MySafe.getUnsafe();
+        long tableAddress = InternalNativeMemoryAllocator.allocateMemory(u, HEADER_SIZE + (length << 3));
+        u.putLong(tableAddress + LENGTH_OFFSET, length);
+        u.putLong(tableAddress + NEXT_RETIRED_TABLE_OFFSET, 0L);
+        entriesAddress = tableAddress;
     }
     
     @Override
@@ -73,12 +219,86 @@ public class NativeMemoryBackedLong2LongHashMap extends AbstractLong2LongHashMap
         final long oldEntriesLength = entriesLength;
         capacity(newCapacity);
         for (long i = 0; i < oldEntriesLength; i += 2) {
-            final long key = unsafe.getLong(oldEntriesAddress + (i << 3));
+            final long key = unsafe.getLong(oldEntriesAddress + HEADER_SIZE + (i << 3));
             if (key != missingValue) {
-                put(key, unsafe.getLong(oldEntriesAddress + ((i + 1) << 3)));
+                put(key, unsafe.getLong(oldEntriesAddress + HEADER_SIZE + ((i + 1) << 3)));
             }
         }
-        unsafe.freeMemory(oldEntriesAddress);
+        retireTable(oldEntriesAddress);
+    }
+    
+    private void retireTable(long tableAddress) {
+        if (deferredTableFree) {
+            unsafe.putLong(tableAddress + NEXT_RETIRED_TABLE_OFFSET, retiredTablesAddress);
+            retiredTablesAddress = tableAddress;
+        } else {
+            freeTable(tableAddress);
+        }
+    }
+    
+    @Override
+    protected long getMigratingEntry(long index) {
+        return unsafe.getLong(migratingEntriesAddress + HEADER_SIZE + (index << 3));
+    }
+
+    @Override
+    protected void setMigratingEntry(long index, long entry) {
+        unsafe.putLong(migratingEntriesAddress + HEADER_SIZE + (index << 3), entry);
+    }
+
+    @Override
+    protected void retainEntriesForMigration() {
+        migratingEntriesAddress = entriesAddress;
+    }
+
+    @Override
+    protected void releaseMigratingEntries() {
+        final long tableAddress = migratingEntriesAddress;
+        migratingEntriesAddress = 0L;
+        retireTable(tableAddress);
+    }
+    
+    public boolean hasRetiredTables() {
+        return retiredTablesAddress != 0L;
+    }
+    
+    /**
+     * Frees the old tables retired by rehash. 
+     * Must be called only when there is no concurrent reader.
+     */
+    public void freeRetiredTables() {
+        long tableAddress = retiredTablesAddress;
+        retiredTablesAddress = 0L;
+        while (tableAddress != 0L) {
+            long nextTableAddress = unsafe.getLong(tableAddress + NEXT_RETIRED_TABLE_OFFSET);
+            freeTable(tableAddress);
+            tableAddress = nextTableAddress;
+        }
+    }
+    
+    private void freeTable(long tableAddress) {
+        long length = unsafe.getLong(tableAddress + LENGTH_OFFSET);
+        InternalNativeMemoryAllocator.freeMemory(unsafe, tableAddress, HEADER_SIZE + (length << 3));
+    }
+    
+    /**
+     * Frees the current, migrating and retired tables.
+     * Must be called only when there is no concurrent reader.
+     */
+    @Override
+    public void dispose() {
+        if (entriesAddress != 0L) {
+            freeTable(entriesAddress);
+            entriesAddress = 0L;
+        }
+        if (migratingEntriesAddress != 0L) {
+            freeTable(migratingEntriesAddress);
+            migratingEntriesAddress = 0L;
+        }
+        freeRetiredTables();
+        migratingEntriesLength = 0;
+        entriesLength = 0;
+        size = 0;
     }
 
 }
@@ -0,0 +1,60 @@
+/*
+ * Copyright (c) 2017, Serkan OZAL, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tr.com.serkanozal.mysafe.impl.util;
+
+import sun.misc.Unsafe;
+
+/**
+ * Native memory backed hashmap specialised for long key and value pairs 
+ * which uses Robin Hood hashing with backward shift deletion. 
+ * Probe lengths are kept short even at high load factors, 
+ * so it can be used with a higher load factor to use less memory.
+ * 
+ * @author Serkan OZAL
+ */
+public class NativeMemoryBackedRobinHoodLong2LongHashMap extends NativeMemoryBackedLong2LongHashMap {
+
+    public static final double DEFAULT_LOAD_FACTOR = HeapMemoryBackedRobinHoodLong2LongHashMap.DEFAULT_LOAD_FACTOR;
+    
+    public NativeMemoryBackedRobinHoodLong2LongHashMap(Unsafe unsafe, long missingValue) {
+        this(unsafe, missingValue, false);
+    }
+    
+    public NativeMemoryBackedRobinHoodLong2LongHashMap(Unsafe unsafe, long missingValue, boolean deferredTableFree) {
+        super(unsafe, 16, DEFAULT_LOAD_FACTOR, missingValue, deferredTableFree);
+    }
+
+    public NativeMemoryBackedRobinHoodLong2LongHashMap(Unsafe unsafe, long initialCapacity, double loadFactor, 
+                                                       long missingValue, boolean deferredTableFree) {
+        super(unsafe, initialCapacity, loadFactor, missingValue, deferredTableFree);
+    }
+    
+    @Override
+    public long get(long key) {
+        return robinHoodGet(key);
+    }
+
+    @Override
+    public long put(long key, long value) {
+        return robinHoodPut(key, value);
+    }
+
+    @Override
+    public long remove(long key) {
+        return robinHoodRemove(key);
+    }
+    
+}
@@ -0,0 +1,383 @@
+/*
+ * Copyright (c) 2017, Serkan OZAL, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tr.com.serkanozal.mysafe.impl.util;
+
+import java.util.Arrays;
+
+/**
+ * A probing hashmap specialised for aligned addresses as keys and small sizes as values 
+ * which stores each entry as a single packed long, so it needs half of the memory 
+ * needed by the maps storing keys and values separately.
+ * 
+ * Entries which cannot be packed (unaligned or too big addresses, negative or too big values) 
+ * are stored in an overflow map as they are, so any key and value pair is still supported.
+ * 
+ * This map is not thread-safe. But {@link #copyEntries(long, long[])} 
+ * is safe to be called concurrently with the writer thread as specified by {@link Long2LongMap}.
+ * 
+ * @author Serkan OZAL
+ */
+public class PackedLong2LongHashMap implements Long2LongMap {
+
+    /*
+     * Structure of a packed entry:
+     * +------------------------------------------------------------------+
+     * | <address >> alignment_shift>           | <size>                  |
+     * |========================================|=========================|
+     * | 48 - alignment_shift bits              | 16 + alignment_shift bits |
+     * +------------------------------------------------------------------+
+     * 
+     * Addresses are assumed to be in the 48 bits virtual address space as on the most 64 bit platforms. 
+     * Entry with zero value is an empty slot, as there is no packable zero address.
+     */
+    
+    public static final int DEFAULT_ALIGNMENT_SHIFT = 4;
+    public static final double DEFAULT_LOAD_FACTOR = 0.6;
+    
+    private static final int ADDRESS_BITS = 48;
+    private static final long EMPTY = 0L;
+    private static final int DEFAULT_INITIAL_CAPACITY = 16;
+    // Table is shrunk when its size drops to this fraction of its resize threshold
+    private static final int SHRINK_THRESHOLD_DIVISOR = 8;
+    private static final long[] DISPOSED_ENTRIES = new long[0];
+    
+    private final long missingValue;
+    private final double loadFactor;
+    private final int alignmentShift;
+    private final long alignmentMask;
+    private final int sizeBits;
+    private final long sizeMask;
+    private final int initialCapacity;
+    // Entries which cannot be packed
+    private final HeapMemoryBackedLong2LongHashMap overflowEntries;
+    
+    private long[] entries;
+    private int mask;
+    private int resizeThreshold;
+    private int size;
+    
+    public PackedLong2LongHashMap(long missingValue) {
+        this(DEFAULT_ALIGNMENT_SHIFT, missingValue);
+    }
+    
+    public PackedLong2LongHashMap(int alignmentShift, long missingValue) {
+        this(alignmentShift, DEFAULT_INITIAL_CAPACITY, DEFAULT_LOAD_FACTOR, missingValue);
+    }
+    
+    public PackedLong2LongHashMap(int alignmentShift, int initialCapacity, double loadFactor, long missingValue) {
+        if (alignmentShift < 0 || alignmentShift > 16) {
+            throw new IllegalArgumentException("Alignment shift must be between 0 and 16 but it is " + alignmentShift);
+        }
+        this.missingValue = missingValue;
+        this.loadFactor = loadFactor;
+        this.alignmentShift = alignmentShift;
+        this.alignmentMask = (1L << alignmentShift) - 1;
+        this.sizeBits = 64 - (ADDRESS_BITS - alignmentShift);
+        this.sizeMask = (1L << sizeBits) - 1;
+        this.initialCapacity = 1 << (32 - Integer.numberOfLeadingZeros(initialCapacity - 1));
+        this.overflowEntries = new HeapMemoryBackedLong2LongHashMap(missingValue);
+        capacity(this.initialCapacity);
+    }
+    
+    private void capacity(int newCapacity) {
+        entries = new long[newCapacity];
+        mask = newCapacity - 1;
+        resizeThreshold = (int) (newCapacity * loadFactor);
+        size = 0;
+    }
+    
+    private static int slot(long address, int mask) {
+        return (int) AbstractLong2LongHashMap.mix(address) & mask;
+    }
+    
+    private boolean isPackable(long key, long value) {
+        return key != 0L 
+                && (key & alignmentMask) == 0 
+                && (key >>> ADDRESS_BITS) == 0 
+                && value >= 0 
+                && value <= sizeMask
+                && value != missingValue;
+    }
+    
+    private long pack(long key, long value) {
+        return ((key >>> alignmentShift) << sizeBits) | value;
+    }
+    
+    private long unpackKey(long entry) {
+        return (entry >>> sizeBits) << alignmentShift;
+    }
+    
+    private long unpackValue(long entry) {
+        return entry & sizeMask;
+    }
+    
+    private int indexOf(long key) {
+        final long packedKey = (key >>> alignmentShift) << sizeBits;
+        int index = slot(key, mask);
+        for (int i = entries.length; i > 0; i--) {
+            final long entry = entries[index];
+            if (entry == EMPTY) {
+                return -1;
+            }
+            if ((entry & ~sizeMask) == packedKey) {
+                return index;
+            }
+            index = (index + 1) & mask;
+        }
+        return -1;
+    }
+
+    @Override
+    public long size() {
+        return size + overflowEntries.size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size == 0 && overflowEntries.isEmpty();
+    }
+
+    @Override
+    public boolean containsKey(long key) {
+        return get(key) != missingValue;
+    }
+
+    @Override
+    public boolean containsValue(long value) {
+        if (value >= 0 && value <= sizeMask) {
+            final long[] entries = this.entries;
+            for (int i = 0; i < entries.length; i++) {
+                final long entry = entries[i];
+                if (entry != EMPTY && unpackValue(entry) == value) {
+                    return true;
+                }
+            }
+        }
+        return overflowEntries.containsValue(value);
+    }
+
+    @Override
+    public long get(long key) {
+        if (isPackable(key, 0)) {
+            final int index = indexOf(key);
+            if (index >= 0) {
+                return unpackValue(entries[index]);
+            }
+        }
+        return overflowEntries.isEmpty() ? missingValue : overflowEntries.get(key);
+    }
+
+    @Override
+    public long put(long key, long value) {
+        assert key != missingValue : "Invalid key " + key;
+        assert value != missingValue : "Invalid value " + value;
+        if (!isPackable(key, value)) {
+            // Key might have been packed with a smaller value before
+            long oldValue = isPackable(key, 0) ? removePacked(key) : missingValue;
+            long oldOverflowValue = overflowEntries.put(key, value);
+            return oldValue != missingValue ? oldValue : oldOverflowValue;
+        }
+        final long entry = pack(key, value);
+        final long packedKey = entry & ~sizeMask;
+        int index = slot(key, mask);
+        long candidateEntry;
+        while ((candidateEntry = entries[index]) != EMPTY) {
+            if ((candidateEntry & ~sizeMask) == packedKey) {
+                entries[index] = entry;
+                return unpackValue(candidateEntry);
+            }
+            index = (index + 1) & mask;
+        }
+        // Key might have been in the overflow map with a bigger value before
+        long oldValue = overflowEntries.isEmpty() ? missingValue : overflowEntries.remove(key);
+        entries[index] = entry;
+        if (++size > resizeThreshold) {
+            rehash(entries.length << 1);
+        }
+        return oldValue;
+    }
+
+    @Override
+    public long remove(long key) {
+        if (isPackable(key, 0)) {
+            long oldValue = removePacked(key);
+            if (oldValue != missingValue) {
+                return oldValue;
+            }
+        }
+        return overflowEntries.isEmpty() ? missingValue : overflowEntries.remove(key);
+    }
+    
+    private long removePacked(long key) {
+        int index = indexOf(key);
+        if (index < 0) {
+            return missingValue;
+        }
+        final long oldValue = unpackValue(entries[index]);
+        entries[index] = EMPTY;
+        size--;
+        compactChain(index);
+        shrink();
+        return oldValue;
+    }
+    
+    private void compactChain(int deleteIndex) {
+        int index = deleteIndex;
+        while (true) {
+            index = (index + 1) & mask;
+            final long entry = entries[index];
+            if (entry == EMPTY) {
+                return;
+            }
+            final int hash = slot(unpackKey(entry), mask);
+            if ((index < hash && (hash <= deleteIndex || deleteIndex <= index))
+                    || (hash <= deleteIndex && deleteIndex <= index)) {
+                entries[deleteIndex] = entry;
+                entries[index] = EMPTY;
+                deleteIndex = index;
+            }
+        }
+    }
+    
+    private void rehash(int newCapacity) {
+        if (newCapacity <= 0) {
+            throw new IllegalStateException("Max capacity reached at size=" + size);
+        }
+        final long[] oldEntries = entries;
+        final long[] newEntries = new long[newCapacity];
+        final int newMask = newCapacity - 1;
+        for (int i = 0; i < oldEntries.length; i++) {
+            final long entry = oldEntries[i];
+            if (entry != EMPTY) {
+                int index = slot(unpackKey(entry), newMask);
+                while (newEntries[index] != EMPTY) {
+                    index = (index + 1) & newMask;
+                }
+                newEntries[index] = entry;
+            }
+        }
+        // Publish the new table after it is filled for the concurrent readers
+        mask = newMask;
+        resizeThreshold = (int) (newCapacity * loadFactor);
+        entries = newEntries;
+    }
+
+    @Override
+    public void clear() {
+        Arrays.fill(entries, EMPTY);
+        size = 0;
+        overflowEntries.clear();
+        if (entries.length > initialCapacity) {
+            rehash(initialCapacity);
+        }
+    }
+
+    @Override
+    public void longForEach(LongLongConsumer consumer) {
+        final long[] entries = this.entries;
+        for (int i = 0; i < entries.length; i++) {
+            final long entry = entries[i];
+            if (entry != EMPTY) {
+                consumer.accept(unpackKey(entry), unpackValue(entry));
+            }
+        }
+        overflowEntries.longForEach(consumer);
+    }
+
+    @Override
+    public LongLongCursor cursor() {
+        return new LongLongCursorImpl();
+    }
+    
+    private final class LongLongCursorImpl implements LongLongCursor {
+        
+        private int i = -1;
+        private LongLongCursor overflowCursor;
+
+        @Override
+        public boolean advance() {
+            if (overflowCursor == null) {
+                do {
+                    i++;
+                } while (i < entries.length && entries[i] == EMPTY);
+                if (i < entries.length) {
+                    return true;
+                }
+                overflowCursor = overflowEntries.cursor();
+            }
+            return overflowCursor.advance();
+        }
+
+        @Override
+        public long key() {
+            return overflowCursor == null ? unpackKey(entries[i]) : overflowCursor.key();
+        }
+
+        @Override
+        public long value() {
+            return overflowCursor == null ? unpackValue(entries[i]) : overflowCursor.value();
+        }
+        
+    }
+
+    @Override
+    public long copyEntries(long fromIndex, long[] chunk) {
+        // Entries are read once, so concurrent readers never go out of the table while it is rehashed
+        final long[] entries = this.entries;
+        // Indexes after the packed entries are the indexes of the overflow entries
+        if (fromIndex >= entries.length) {
+            final long nextIndex = overflowEntries.copyEntries(fromIndex - entries.length, chunk);
+            return nextIndex >= 0 ? nextIndex + entries.length : -1;
+        }
+        int i = (int) fromIndex;
+        int length = 0;
+        for (; i < entries.length && length < chunk.length; i++) {
+            final long entry = entries[i];
+            if (entry != EMPTY) {
+                chunk[length++] = unpackKey(entry);
+                chunk[length++] = unpackValue(entry);
+            }
+        }
+        for (int j = length; j < chunk.length; j += 2) {
+            chunk[j] = missingValue;
+        }
+        return i;
+    }
+
+    @Override
+    public boolean shrink() {
+        boolean shrunk = overflowEntries.shrink();
+        if (entries.length > initialCapacity && size <= resizeThreshold / SHRINK_THRESHOLD_DIVISOR) {
+            int newCapacity = entries.length;
+            while (newCapacity > initialCapacity && size <= (int) ((newCapacity >> 1) * loadFactor) / 2) {
+                newCapacity >>= 1;
+            }
+            rehash(newCapacity);
+            shrunk = true;
+        }
+        return shrunk;
+    }
+
+    @Override
+    public void dispose() {
+        // Concurrent readers see an empty table instead of failing
+        entries = DISPOSED_ENTRIES;
+        mask = 0;
+        size = 0;
+        overflowEntries.dispose();
+    }
+
+}
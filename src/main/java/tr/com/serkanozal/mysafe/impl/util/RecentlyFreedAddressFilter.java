@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) 2017, Serkan OZAL, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tr.com.serkanozal.mysafe.impl.util;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Approximate filter of the recently freed addresses to classify frees of unknown addresses 
+ * as (probably) double frees cheaply. 
+ * 
+ * Addresses are kept in two generations of Bloom filters with a single word per address. 
+ * When the current generation is full, the older one is cleared and becomes the current one, 
+ * so an address is remembered for at least one generation (<code>capacity</code> frees). 
+ * Answers are approximate both ways (under concurrent rotations as well), 
+ * so they must only be used for classifying, not for deciding.
+ * 
+ * @author Serkan OZAL
+ */
+public final class RecentlyFreedAddressFilter {
+
+    private static final int HASH_COUNT = 3;
+    
+    private final AtomicLongArray[] generations = new AtomicLongArray[2];
+    private final int wordMask;
+    private final int capacity;
+    private final AtomicInteger count = new AtomicInteger();
+    private volatile int current;
+    
+    public RecentlyFreedAddressFilter(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive but it is " + capacity);
+        }
+        int wordCount = Integer.highestOneBit(capacity);
+        if (wordCount < capacity) {
+            wordCount <<= 1;
+        }
+        this.generations[0] = new AtomicLongArray(wordCount);
+        this.generations[1] = new AtomicLongArray(wordCount);
+        this.wordMask = wordCount - 1;
+        this.capacity = capacity;
+    }
+    
+    private static long mask(long hash) {
+        long mask = 0;
+        for (int i = 0; i < HASH_COUNT; i++) {
+            mask |= 1L << ((hash >>> (i * 6)) & 63);
+        }
+        return mask;
+    }
+    
+    public void add(long address) {
+        if (count.incrementAndGet() > capacity) {
+            rotate();
+        }
+        long hash = ConcurrentCountingBloomFilter.hash(address);
+        AtomicLongArray generation = generations[current];
+        int wordIndex = (int) (hash >>> 32) & wordMask;
+        long mask = mask(hash);
+        for (;;) {
+            long word = generation.get(wordIndex);
+            if ((word & mask) == mask || generation.compareAndSet(wordIndex, word, word | mask)) {
+                return;
+            }
+        }
+    }
+    
+    private synchronized void rotate() {
+        if (count.get() <= capacity) {
+            // Already rotated by another thread
+            return;
+        }
+        int next = current ^ 1;
+        AtomicLongArray generation = generations[next];
+        for (int i = 0; i <= wordMask; i++) {
+            generation.set(i, 0L);
+        }
+        current = next;
+        count.set(1);
+    }
+    
+    public boolean mightContain(long address) {
+        long hash = ConcurrentCountingBloomFilter.hash(address);
+        int wordIndex = (int) (hash >>> 32) & wordMask;
+        long mask = mask(hash);
+        return (generations[0].get(wordIndex) & mask) == mask 
+                || (generations[1].get(wordIndex) & mask) == mask;
+    }
+    
+}
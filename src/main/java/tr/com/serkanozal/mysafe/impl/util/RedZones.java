@@ -0,0 +1,99 @@
+/*
+ * Copyright (c) 2017, Serkan OZAL, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tr.com.serkanozal.mysafe.impl.util;
+
+import sun.misc.Unsafe;
+
+/**
+ * Utilities for the red zones (guard areas filled with a known canary pattern) 
+ * around the allocated memories, which are used to detect out of bounds writes 
+ * afterwards without checking the memory accesses.
+ * 
+ * Layout of a memory allocated with red zones:
+ * +-------------------------------------------------------------------+
+ * | <head_red_zone>     | <allocated_memory>  | <tail_red_zone>       |
+ * |=====================|=====================|=======================|
+ * | red_zone_size bytes | size bytes          | red_zone_size bytes   |
+ * +-------------------------------------------------------------------+
+ * ^                     ^
+ * raw address           address given to the caller
+ * 
+ * @author Serkan OZAL
+ */
+public final class RedZones {
+
+    public static final long NO_CORRUPTION = 0L;
+    
+    private static final long CANARY = 0xCAFEBABEDEADC0DEL;
+    
+    private RedZones() {
+        throw new UnsupportedOperationException("Not avaiable for instantiation!");
+    }
+    
+    private static byte canaryByte(long address) {
+        // Pattern depends on the address, so shifted copies of the red zones are not taken as intact
+        return (byte) (CANARY >>> ((address & 7) << 3));
+    }
+    
+    /**
+     * Fills the red zones of the given raw memory.
+     * 
+     * @param unsafe        the {@link Unsafe} instance
+     * @param rawAddress    raw address of the memory including the red zones
+     * @param size          size of the memory excluding the red zones
+     * @param redZoneSize   size of each red zone
+     * @return the address of the memory after the head red zone to be given to the caller
+     */
+    public static long fill(Unsafe unsafe, long rawAddress, long size, int redZoneSize) {
+        long address = rawAddress + redZoneSize;
+        fillRedZone(unsafe, rawAddress, redZoneSize);
+        fillRedZone(unsafe, address + size, redZoneSize);
+        return address;
+    }
+    
+    private static void fillRedZone(Unsafe unsafe, long redZoneAddress, int redZoneSize) {
+        for (long a = redZoneAddress, end = redZoneAddress + redZoneSize; a < end; a++) {
+            unsafe.putByte(a, canaryByte(a));
+        }
+    }
+    
+    /**
+     * Finds the first corrupted byte in the red zones of the given memory.
+     * 
+     * @param unsafe        the {@link Unsafe} instance
+     * @param address       address of the memory given to the caller
+     * @param size          size of the memory excluding the red zones
+     * @param redZoneSize   size of each red zone
+     * @return the address of the first corrupted byte if there is, otherwise {@link #NO_CORRUPTION}
+     */
+    public static long findCorruption(Unsafe unsafe, long address, long size, int redZoneSize) {
+        long corruptedAddress = findCorruptionInRedZone(unsafe, address - redZoneSize, redZoneSize);
+        if (corruptedAddress == NO_CORRUPTION) {
+            corruptedAddress = findCorruptionInRedZone(unsafe, address + size, redZoneSize);
+        }
+        return corruptedAddress;
+    }
+    
+    private static long findCorruptionInRedZone(Unsafe unsafe, long redZoneAddress, int redZoneSize) {
+        for (long a = redZoneAddress, end = redZoneAddress + redZoneSize; a < end; a++) {
+            if (unsafe.getByte(a) != canaryByte(a)) {
+                return a;
+            }
+        }
+        return NO_CORRUPTION;
+    }
+    
+}
@@ -0,0 +1,199 @@
+/*
+ * Copyright (c) 2017, Serkan OZAL, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tr.com.serkanozal.mysafe.impl.util;
+
+import sun.misc.Unsafe;
+
+/**
+ * Shadow memory of the whole address space which keeps a bit for each 8 bytes granule 
+ * to mark the granules of the allocated memories, so whether a memory range is allocated 
+ * is checked by a few memory loads and bit tests regardless of the number of allocated memories.
+ * 
+ * Only the granules fully covered by an allocated memory are marked, so a granule is never 
+ * shared by different allocated memories and marks of different allocated memories never conflict. 
+ * Therefore, a set bit means that the granule is definitely allocated but a clear bit only means 
+ * that it is not known (such as a partially allocated granule at the end of an allocated memory) 
+ * and it should be checked by other means.
+ * 
+ * Tables are populated lazily in native memory and they are never freed as they might be read concurrently, 
+ * so the footprint is bounded by <code>1/64</code> of the address ranges where memory has ever been allocated.
+ * 
+ * This shadow memory is thread-safe.
+ * 
+ * @author Serkan OZAL
+ */
+public final class ShadowMemory {
+
+    /*
+     * <granule> = <address> >>> 3;
+     * 
+     * Structure of <granule> (addresses are assumed to be in the 48 bits virtual address space):
+     * +----------------------------------------------------+
+     * | <root_index>  | <mid_index>   | <bit_index>         |
+     * |===============|===============|=====================|
+     * | 13 bits       | 14 bits       | 18 bits             |
+     * +----------------------------------------------------+
+     * 
+     * Root table is allocated eagerly, mid tables (pointers to leaves) and 
+     * leaves (bitmaps covering 2 MB of address space each) are allocated lazily and installed by CAS.
+     */
+    
+    private static final int GRANULE_SHIFT = 3;
+    private static final int ADDRESS_BITS = 48;
+    private static final int LEAF_BITS = 18;
+    private static final int MID_BITS = 14;
+    private static final int ROOT_BITS = ADDRESS_BITS - GRANULE_SHIFT - LEAF_BITS - MID_BITS;
+    private static final long LEAF_MASK = (1L << LEAF_BITS) - 1;
+    private static final long MID_MASK = (1L << MID_BITS) - 1;
+    private static final long ROOT_TABLE_SIZE = (1L << ROOT_BITS) << 3;
+    private static final long MID_TABLE_SIZE = (1L << MID_BITS) << 3;
+    private static final long LEAF_SIZE = (1L << LEAF_BITS) >>> 3;
+    
+    private final Unsafe unsafe;
+    private final long rootAddress;
+    
+    public ShadowMemory(Unsafe unsafe) {
+        this.unsafe = unsafe;
+        this.rootAddress = allocateTable(ROOT_TABLE_SIZE);
+    }
+    
+    private long allocateTable(long size) {
+        long address = InternalNativeMemoryAllocator.allocateMemory(unsafe, size);
+        unsafe.setMemory(address, size, (byte) 0x00);
+        return address;
+    }
+    
+    private long table(long slotAddress, long tableSize, boolean create) {
+        long table = unsafe.getLongVolatile(null, slotAddress);
+        if (table == 0 && create) {
+            long newTable = allocateTable(tableSize);
+            if (unsafe.compareAndSwapLong(null, slotAddress, 0L, newTable)) {
+                table = newTable;
+            } else {
+                InternalNativeMemoryAllocator.freeMemory(unsafe, newTable, tableSize);
+                table = unsafe.getLongVolatile(null, slotAddress);
+            }
+        }
+        return table;
+    }
+    
+    private long leaf(long granule, boolean create) {
+        long leafNo = granule >>> LEAF_BITS;
+        long mid = table(rootAddress + ((leafNo >>> MID_BITS) << 3), MID_TABLE_SIZE, create);
+        if (mid == 0) {
+            return 0;
+        }
+        return table(mid + ((leafNo & MID_MASK) << 3), LEAF_SIZE, create);
+    }
+    
+    private static boolean isInAddressSpace(long address, long size) {
+        return address >= 0 && size >= 0 && ((address + size) >>> ADDRESS_BITS) == 0;
+    }
+    
+    private static long mask(int fromBit, int toBit) {
+        return (-1L >>> (63 - toBit)) & (-1L << fromBit);
+    }
+    
+    /**
+     * Checks whether all the granules of the given memory range 
+     * as <code>[address, address + size)</code> are marked as allocated.
+     * 
+     * @param address   start address of the memory range
+     * @param size      size of the memory range
+     * @return <code>true</code> if the memory range is definitely allocated, 
+     *         <code>false</code> if it is not known 
+     */
+    public boolean isAllocated(long address, long size) {
+        if (size <= 0) {
+            size = 1;
+        }
+        if (!isInAddressSpace(address, size)) {
+            return false;
+        }
+        long granule = address >>> GRANULE_SHIFT;
+        long lastGranule = (address + size - 1) >>> GRANULE_SHIFT;
+        while (granule <= lastGranule) {
+            long leaf = leaf(granule, false);
+            if (leaf == 0) {
+                return false;
+            }
+            int bitIndex = (int) (granule & LEAF_MASK);
+            int fromBit = bitIndex & 63;
+            int toBit = (int) Math.min(63, fromBit + (lastGranule - granule));
+            long mask = mask(fromBit, toBit);
+            long word = unsafe.getLongVolatile(null, leaf + ((bitIndex >>> 6) << 3));
+            if ((word & mask) != mask) {
+                return false;
+            }
+            granule += toBit - fromBit + 1;
+        }
+        return true;
+    }
+    
+    /**
+     * Marks the granules fully covered by the given allocated memory as allocated.
+     * 
+     * @param address   address of the allocated memory
+     * @param size      size of the allocated memory
+     */
+    public void markAllocated(long address, long size) {
+        mark(address, size, true);
+    }
+    
+    /**
+     * Clears the marks of the granules fully covered by the given allocated memory.
+     * Must be called before the memory is actually freed.
+     * 
+     * @param address   address of the allocated memory
+     * @param size      size of the allocated memory
+     */
+    public void markFree(long address, long size) {
+        mark(address, size, false);
+    }
+    
+    private void mark(long address, long size, boolean allocated) {
+        if (!isInAddressSpace(address, size)) {
+            return;
+        }
+        long granule = (address + (1 << GRANULE_SHIFT) - 1) >>> GRANULE_SHIFT;
+        long lastGranule = ((address + size) >>> GRANULE_SHIFT) - 1;
+        while (granule <= lastGranule) {
+            long leaf = leaf(granule, allocated);
+            int bitIndex = (int) (granule & LEAF_MASK);
+            int fromBit = bitIndex & 63;
+            int toBit = (int) Math.min(63, fromBit + (lastGranule - granule));
+            if (leaf != 0) {
+                long wordAddress = leaf + ((bitIndex >>> 6) << 3);
+                long mask = mask(fromBit, toBit);
+                if (mask == -1L) {
+                    // Whole word belongs to this allocated memory
+                    unsafe.putLongVolatile(null, wordAddress, allocated ? -1L : 0L);
+                } else {
+                    // Other bits of the word might belong to other allocated memories
+                    for (;;) {
+                        long word = unsafe.getLongVolatile(null, wordAddress);
+                        long newWord = allocated ? (word | mask) : (word & ~mask);
+                        if (unsafe.compareAndSwapLong(null, wordAddress, word, newWord)) {
+                            break;
+                        }
+                    }
+                }
+            }
+            granule += toBit - fromBit + 1;
+        }
+    }
+    
+}
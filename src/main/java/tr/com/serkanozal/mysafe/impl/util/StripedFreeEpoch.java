@@ -0,0 +1,107 @@
+/*
+ * Copyright (c) 2017, Serkan OZAL, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tr.com.serkanozal.mysafe.impl.util;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Free epochs striped by address ranges of <code>2^stripeShift</code> bytes. 
+ * 
+ * Freeing (or reallocating) a memory region increases the epochs of the stripes its address range maps to, 
+ * so only the cached regions in those stripes are invalidated and 
+ * frees of unrelated regions don't contend on the same counter. 
+ * Each stripe is padded to its own cache line.
+ * 
+ * @author Serkan OZAL
+ */
+public final class StripedFreeEpoch {
+
+    // 8 longs (64 bytes) per stripe so different stripes are not on the same cache line
+    private static final int STRIPE_LENGTH = 8;
+    
+    private final AtomicLongArray epochs;
+    private final int stripeCount;
+    private final int stripeMask;
+    private final int stripeShift;
+    
+    public StripedFreeEpoch(int stripeCount, int stripeShift) {
+        if (stripeCount <= 0) {
+            throw new IllegalArgumentException("Stripe count must be positive but it is " + stripeCount);
+        }
+        if (stripeShift < 0 || stripeShift > 62) {
+            throw new IllegalArgumentException("Stripe shift must be in [0, 62] but it is " + stripeShift);
+        }
+        int actualStripeCount = Integer.highestOneBit(stripeCount);
+        if (actualStripeCount < stripeCount) {
+            actualStripeCount <<= 1;
+        }
+        this.epochs = new AtomicLongArray(actualStripeCount * STRIPE_LENGTH);
+        this.stripeCount = actualStripeCount;
+        this.stripeMask = actualStripeCount - 1;
+        this.stripeShift = stripeShift;
+    }
+    
+    /**
+     * Gets the free epoch of the stripe which the given address maps to.
+     * 
+     * @param address the address
+     * @return the free epoch of the stripe
+     */
+    public long get(long address) {
+        return epochs.get(((int) (address >>> stripeShift) & stripeMask) * STRIPE_LENGTH);
+    }
+    
+    /**
+     * Gets the start address of the address range (of the stripe) which contains the given address.
+     * 
+     * @param address the address
+     * @return the start address of the address range containing the given address
+     */
+    public long rangeStart(long address) {
+        return (address >>> stripeShift) << stripeShift;
+    }
+    
+    /**
+     * Gets the end address (exclusive) of the address range (of the stripe) which contains the given address.
+     * 
+     * @param address the address
+     * @return the end address (exclusive) of the address range containing the given address
+     */
+    public long rangeEnd(long address) {
+        return rangeStart(address) + (1L << stripeShift);
+    }
+    
+    /**
+     * Increases the free epochs of all the stripes 
+     * which the memory region as <code>[address, address + size)</code> maps to.
+     * 
+     * @param address   start address of the memory region
+     * @param size      size of the memory region
+     */
+    public void increase(long address, long size) {
+        long firstRange = address >>> stripeShift;
+        long lastRange = (address + Math.max(size, 1) - 1) >>> stripeShift;
+        long rangeCount = lastRange - firstRange + 1;
+        if (rangeCount <= 0 || rangeCount > stripeCount) {
+            // Region maps to all the stripes
+            rangeCount = stripeCount;
+        }
+        for (long i = 0; i < rangeCount; i++) {
+            epochs.incrementAndGet(((int) (firstRange + i) & stripeMask) * STRIPE_LENGTH);
+        }
+    }
+    
+}
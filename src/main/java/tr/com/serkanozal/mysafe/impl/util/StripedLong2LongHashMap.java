@@ -0,0 +1,197 @@
+/*
+ * Copyright (c) 2017, Serkan OZAL, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tr.com.serkanozal.mysafe.impl.util;
+
+import tr.com.serkanozal.mysafe.impl.util.Long2LongMap.LongLongConsumer;
+import tr.com.serkanozal.mysafe.impl.util.Long2LongMap.LongLongCursor;
+
+/**
+ * A thread-safe hashmap specialised for long key and value pairs.
+ * Keys are distributed over stripes by their hashes and
+ * each stripe is a {@link Long2LongMap} guarded by its own lock.
+ * So there is no boxing and accesses to different stripes don't contend.
+ * 
+ * @author Serkan OZAL
+ */
+public class StripedLong2LongHashMap {
+
+    public static final int DEFAULT_STRIPE_COUNT =
+            Integer.getInteger("mysafe.storageStripeCount",
+                               4 * Runtime.getRuntime().availableProcessors());
+
+    private final long missingValue;
+    private final Stripe[] stripes;
+    private final int stripeMask;
+
+    public StripedLong2LongHashMap(long missingValue) {
+        this(DEFAULT_STRIPE_COUNT, missingValue);
+    }
+
+    public StripedLong2LongHashMap(int stripeCount, long missingValue) {
+        this(stripeCount, missingValue, -1);
+    }
+
+    /**
+     * @param stripeCount               count of the stripes
+     * @param missingValue              value to be returned for the missing keys
+     * @param packedAlignmentShift      alignment shift of the {@link PackedLong2LongHashMap} stripes 
+     *                                  or negative to use unpacked stripes
+     */
+    public StripedLong2LongHashMap(int stripeCount, long missingValue, int packedAlignmentShift) {
+        if (stripeCount <= 0) {
+            throw new IllegalArgumentException("Stripe count must be positive but it is " + stripeCount);
+        }
+        int actualStripeCount = Integer.highestOneBit(stripeCount);
+        if (actualStripeCount < stripeCount) {
+            actualStripeCount <<= 1;
+        }
+        this.missingValue = missingValue;
+        this.stripes = new Stripe[actualStripeCount];
+        this.stripeMask = actualStripeCount - 1;
+        for (int i = 0; i < actualStripeCount; i++) {
+            stripes[i] = new Stripe(
+                    packedAlignmentShift >= 0
+                        ? new PackedLong2LongHashMap(packedAlignmentShift, missingValue)
+                        : new HeapMemoryBackedLong2LongHashMap(missingValue));
+        }
+    }
+
+    private Stripe stripe(long key) {
+        // Use different bits than the ones used by the stripe maps for their slots
+        long h = key * 0x9E3779B97F4A7C15L;
+        return stripes[(int) (h >>> 40) & stripeMask];
+    }
+
+    public int stripeCount() {
+        return stripes.length;
+    }
+
+    public long get(long key) {
+        Stripe stripe = stripe(key);
+        synchronized (stripe) {
+            return stripe.map.get(key);
+        }
+    }
+
+    public boolean containsKey(long key) {
+        return get(key) != missingValue;
+    }
+
+    public long put(long key, long value) {
+        Stripe stripe = stripe(key);
+        synchronized (stripe) {
+            return stripe.map.put(key, value);
+        }
+    }
+
+    public long remove(long key) {
+        Stripe stripe = stripe(key);
+        synchronized (stripe) {
+            return stripe.map.remove(key);
+        }
+    }
+
+    public long size() {
+        long size = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                size += stripe.map.size();
+            }
+        }
+        return size;
+    }
+
+    public boolean isEmpty() {
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                if (!stripe.map.isEmpty()) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Checks whether there is an entry in the given stripe
+     * which covers the given range as <code>[key, key + value]</code>.
+     * Entries are not ordered, so this is <code>O(n)</code> in the stripe size 
+     * as it scans the whole stripe while holding the stripe lock.
+     *
+     * @param stripeIndex   index of the stripe to be searched
+     * @param start         start of the range
+     * @param length        length of the range
+     * @return <code>true</code> if there is such an entry, otherwise <code>false</code>
+     */
+    public boolean containsRange(int stripeIndex, long start, long length) {
+        Stripe stripe = stripes[stripeIndex];
+        synchronized (stripe) {
+            LongLongCursor cursor = stripe.map.cursor();
+            while (cursor.advance()) {
+                long rangeStart = cursor.key();
+                long rangeEnd = rangeStart + cursor.value();
+                if (start >= rangeStart && (start + length) <= rangeEnd) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    public void longForEach(LongLongConsumer consumer) {
+        for (int i = 0; i < stripes.length; i++) {
+            longForEach(i, consumer);
+        }
+    }
+
+    /**
+     * Iterates on the entries of the given stripe.
+     * Entries are copied while holding the stripe lock
+     * and the consumer is called on the copy without holding it.
+     * So the consumer is free to access this map 
+     * and concurrent changes never cause an entry to be missed or repeated.
+     *
+     * @param stripeIndex   index of the stripe to be iterated
+     * @param consumer      the {@link LongLongConsumer} to be notified for each entry
+     */
+    public void longForEach(int stripeIndex, LongLongConsumer consumer) {
+        Stripe stripe = stripes[stripeIndex];
+        long[] entries;
+        int length = 0;
+        synchronized (stripe) {
+            entries = new long[(int) stripe.map.size() << 1];
+            LongLongCursor cursor = stripe.map.cursor();
+            while (length < entries.length && cursor.advance()) {
+                entries[length++] = cursor.key();
+                entries[length++] = cursor.value();
+            }
+        }
+        for (int i = 0; i < length; i += 2) {
+            consumer.accept(entries[i], entries[i + 1]);
+        }
+    }
+
+    private static final class Stripe {
+
+        private final Long2LongMap map;
+
+        private Stripe(Long2LongMap map) {
+            this.map = map;
+        }
+
+    }
+
+}
@@ -0,0 +1,200 @@
+/*
+ * Copyright (c) 2017, Serkan OZAL, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tr.com.serkanozal.mysafe.impl.util;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+import tr.com.serkanozal.mysafe.ThreadAllocatedMemoryInfo;
+
+/**
+ * Counter of the allocated memory size which is split into per-thread cells. 
+ * Every thread only updates its own cell by ordered write without any atomic read-modify-write, 
+ * so there is no contention (and no allocation) on updates. 
+ * Total is the sum of the cells and the cells of the dead threads are folded into a base value 
+ * when a new thread registers its cell, so memories allocated by dead threads are still counted 
+ * and the cells don't pile up while threads come and go. 
+ * Reading the total never blocks, it is only retried if the cells are folded meanwhile.
+ * 
+ * Memories are charged to the threads which have allocated them. When a memory is freed by another thread, 
+ * its size is moved from the cell of its owner to the cell of the freeing thread before the free is counted, 
+ * so the cell of a thread doesn't go negative by freeing memories of the other threads.
+ * 
+ * @author Serkan OZAL
+ */
+public final class ThreadLocalAllocatedMemoryCounter {
+
+    private static final Cell[] NO_CELLS = new Cell[0];
+    // Marks the moved sizes of a folded cell, so they are moved to the base from then on
+    private static final long FOLDED = Long.MIN_VALUE;
+    
+    // Replaced (copy-on-write) by the registrations under the lock of the counter
+    private volatile Cell[] cells = NO_CELLS;
+    private final ThreadLocal<Cell> cellHolder = new ThreadLocal<Cell>() {
+        @Override
+        protected Cell initialValue() {
+            return register(new Cell(Thread.currentThread()));
+        }
+    };
+    // Sum of the cells of the dead threads
+    private volatile long base;
+    // Odd while the dead cells are being folded, so the readers retry instead of counting a cell twice or never
+    private volatile long foldVersion;
+    
+    public void add(long delta) {
+        Cell cell = cellHolder.get();
+        // Only owner thread writes to its cell
+        Cell.VALUE_UPDATER.lazySet(cell, cell.value + delta);
+    }
+    
+    /**
+     * Moves the given size from the given owner thread to the current thread. 
+     * Called when the current thread frees a memory allocated by the given thread, 
+     * before the free is counted by the current thread.
+     * 
+     * @param owner the thread which has allocated the memory, 
+     *              <code>null</code> if it is dead and not known anymore
+     * @param size  the size to be moved
+     */
+    public void moveToCurrentThread(Thread owner, long size) {
+        Cell ownerCell = owner != null ? findCell(owner) : null;
+        if (ownerCell == null || !ownerCell.moveOut(size)) {
+            // Owner is dead, so its cell has been (or will be) folded into the base
+            addToBase(-size);
+        }
+        add(size);
+    }
+    
+    private Cell findCell(Thread owner) {
+        for (Cell cell : cells) {
+            if (cell.owner.get() == owner) {
+                return cell;
+            }
+        }
+        return null;
+    }
+    
+    private synchronized void addToBase(long delta) {
+        foldVersion++;
+        base += delta;
+        foldVersion++;
+    }
+    
+    public long sum() {
+        for (;;) {
+            long version = foldVersion;
+            if ((version & 1) != 0) {
+                Thread.yield();
+                continue;
+            }
+            long sum = base;
+            for (Cell cell : cells) {
+                sum += cell.get();
+            }
+            if (foldVersion == version) {
+                return sum;
+            }
+        }
+    }
+    
+    public ThreadAllocatedMemoryInfo[] getThreadAllocatedMemories() {
+        Cell[] currentCells = cells;
+        List<ThreadAllocatedMemoryInfo> threadAllocatedMemories = 
+                new ArrayList<ThreadAllocatedMemoryInfo>(currentCells.length);
+        for (Cell cell : currentCells) {
+            Thread owner = cell.owner.get();
+            if (owner != null && owner.isAlive()) {
+                threadAllocatedMemories.add(
+                        new ThreadAllocatedMemoryInfo(owner.getId(), owner.getName(), cell.get()));
+            }
+        }
+        return threadAllocatedMemories.toArray(new ThreadAllocatedMemoryInfo[threadAllocatedMemories.size()]);
+    }
+    
+    private synchronized Cell register(Cell newCell) {
+        Cell[] currentCells = cells;
+        List<Cell> liveCells = new ArrayList<Cell>(currentCells.length + 1);
+        long deadSum = 0;
+        for (Cell cell : currentCells) {
+            Thread owner = cell.owner.get();
+            // Termination of the owner thread is seen after its last write to its cell
+            if (owner == null || !owner.isAlive()) {
+                deadSum += cell.fold();
+            } else {
+                liveCells.add(cell);
+            }
+        }
+        liveCells.add(newCell);
+        Cell[] newCells = liveCells.toArray(new Cell[liveCells.size()]);
+        if (deadSum == 0 && newCells.length == currentCells.length + 1) {
+            cells = newCells;
+        } else {
+            foldVersion++;
+            base += deadSum;
+            cells = newCells;
+            foldVersion++;
+        }
+        return newCell;
+    }
+    
+    private static final class Cell {
+        
+        private static final AtomicLongFieldUpdater<Cell> VALUE_UPDATER = 
+                AtomicLongFieldUpdater.newUpdater(Cell.class, "value");
+        private static final AtomicLongFieldUpdater<Cell> MOVED_OUT_UPDATER = 
+                AtomicLongFieldUpdater.newUpdater(Cell.class, "movedOut");
+        
+        private final WeakReference<Thread> owner;
+        // Paddings against false sharing between the cells of different threads
+        @SuppressWarnings("unused")
+        private long p0, p1, p2, p3, p4, p5, p6;
+        private volatile long value;
+        // Sizes of the memories freed by the other threads, updated atomically by them
+        private volatile long movedOut;
+        @SuppressWarnings("unused")
+        private long q0, q1, q2, q3, q4, q5, q6;
+        
+        private Cell(Thread owner) {
+            this.owner = new WeakReference<Thread>(owner);
+        }
+        
+        private long get() {
+            long moved = movedOut;
+            return value - (moved != FOLDED ? moved : 0);
+        }
+        
+        private boolean moveOut(long size) {
+            for (;;) {
+                long moved = movedOut;
+                if (moved == FOLDED) {
+                    return false;
+                }
+                if (MOVED_OUT_UPDATER.compareAndSet(this, moved, moved + size)) {
+                    return true;
+                }
+            }
+        }
+        
+        // Called when the owner thread is dead, so its value is final
+        private long fold() {
+            return value - MOVED_OUT_UPDATER.getAndSet(this, FOLDED);
+        }
+        
+    }
+    
+}
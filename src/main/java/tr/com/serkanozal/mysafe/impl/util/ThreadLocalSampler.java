@@ -0,0 +1,61 @@
+/*
+ * Copyright (c) 2017, Serkan OZAL, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tr.com.serkanozal.mysafe.impl.util;
+
+/**
+ * Decides whether an operation is sampled by a per-thread countdown, 
+ * so every N-th operation of each thread is sampled without any random number generation.
+ * Countdowns of the threads start from different points, so threads are not sampled in lockstep.
+ * 
+ * @author Serkan OZAL
+ */
+public final class ThreadLocalSampler {
+
+    private final int samplingRate;
+    private final ThreadLocal<int[]> countdowns;
+    
+    public ThreadLocalSampler(final int samplingRate) {
+        if (samplingRate <= 0) {
+            throw new IllegalArgumentException("Sampling rate must be positive but it is " + samplingRate);
+        }
+        this.samplingRate = samplingRate;
+        this.countdowns = new ThreadLocal<int[]>() {
+            @Override
+            protected int[] initialValue() {
+                return new int[] { (int) (Thread.currentThread().getId() % samplingRate) + 1 };
+            }
+        };
+    }
+    
+    public int getSamplingRate() {
+        return samplingRate;
+    }
+    
+    /**
+     * Counts down the current thread's countdown and decides whether the current operation is sampled.
+     * 
+     * @return <code>true</code> if the current operation is sampled, otherwise <code>false</code>
+     */
+    public boolean sample() {
+        int[] countdown = countdowns.get();
+        if (--countdown[0] > 0) {
+            return false;
+        }
+        countdown[0] = samplingRate;
+        return true;
+    }
+    
+}
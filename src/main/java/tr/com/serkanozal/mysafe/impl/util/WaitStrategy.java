@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) 2017, Serkan OZAL, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tr.com.serkanozal.mysafe.impl.util;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Strategy for waiting in the busy loops of the spin locks. 
+ * {@link #idle(int)} is called on every failed attempt with the count of the failed attempts so far.
+ * 
+ * @author Serkan OZAL
+ */
+public abstract class WaitStrategy {
+
+    public static final String SPIN = "SPIN";
+    public static final String SPIN_THEN_YIELD = "SPIN_THEN_YIELD";
+    public static final String SPIN_THEN_PARK = "SPIN_THEN_PARK";
+    
+    // Park time starts from 1 microsecond and it is doubled on every attempt up to the max park time
+    private static final long MIN_PARK_NANOS = 1000;
+    
+    public abstract void idle(int idleCount);
+    
+    public static WaitStrategy create(String name, int spinLimit, long maxParkNanos) {
+        if (SPIN.equals(name)) {
+            return new SpinWaitStrategy();
+        } else if (SPIN_THEN_YIELD.equals(name)) {
+            return new SpinThenYieldWaitStrategy(spinLimit);
+        } else if (SPIN_THEN_PARK.equals(name)) {
+            return new SpinThenParkWaitStrategy(spinLimit, maxParkNanos);
+        } else {
+            throw new IllegalArgumentException("Unknown wait strategy: " + name + 
+                    ". Valid values are " + SPIN + ", " + SPIN_THEN_YIELD + " and " + SPIN_THEN_PARK);
+        }
+    }
+    
+    private static final class SpinWaitStrategy extends WaitStrategy {
+        
+        @Override
+        public void idle(int idleCount) {
+        }
+        
+    }
+    
+    private static final class SpinThenYieldWaitStrategy extends WaitStrategy {
+        
+        private final int spinLimit;
+        
+        private SpinThenYieldWaitStrategy(int spinLimit) {
+            this.spinLimit = spinLimit;
+        }
+        
+        @Override
+        public void idle(int idleCount) {
+            if (idleCount > spinLimit) {
+                Thread.yield();
+            }
+        }
+        
+    }
+    
+    private static final class SpinThenParkWaitStrategy extends WaitStrategy {
+        
+        private final int spinLimit;
+        private final long maxParkNanos;
+        private final int maxBackoffShift;
+        
+        private SpinThenParkWaitStrategy(int spinLimit, long maxParkNanos) {
+            if (maxParkNanos < MIN_PARK_NANOS) {
+                throw new IllegalArgumentException(
+                        "Max park time must be at least " + MIN_PARK_NANOS + " nanoseconds but it is " + maxParkNanos);
+            }
+            this.spinLimit = spinLimit;
+            this.maxParkNanos = maxParkNanos;
+            this.maxBackoffShift = 63 - Long.numberOfLeadingZeros(maxParkNanos / MIN_PARK_NANOS);
+        }
+        
+        @Override
+        public void idle(int idleCount) {
+            if (idleCount > spinLimit) {
+                // Lock holders don't unpark the waiters, so waiters park for a limited time and check again
+                int backoffShift = Math.min(idleCount - spinLimit - 1, maxBackoffShift);
+                LockSupport.parkNanos(Math.min(MIN_PARK_NANOS << backoffShift, maxParkNanos));
+            }
+        }
+        
+    }
+    
+}
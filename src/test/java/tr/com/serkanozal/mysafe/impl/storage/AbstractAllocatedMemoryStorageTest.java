@@ -0,0 +1,274 @@
+/*
+ * Copyright (c) 2017, Serkan OZAL, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tr.com.serkanozal.mysafe.impl.storage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import tr.com.serkanozal.mysafe.AllocatedMemoryIterator;
+import tr.com.serkanozal.mysafe.AllocatedMemorySplit;
+import tr.com.serkanozal.mysafe.AllocatedMemoryStorage;
+import tr.com.serkanozal.mysafe.SplittableAllocatedMemoryStorage;
+import tr.com.serkanozal.mysafe.impl.util.Compactable;
+
+/**
+ * Common tests of the global (thread-safe) {@link AllocatedMemoryStorage} implementations.
+ * Addresses are kept in the 48 bits virtual address space as the shadow memory expects.
+ * 
+ * @author Serkan OZAL
+ */
+public abstract class AbstractAllocatedMemoryStorageTest {
+
+    protected static final long INVALID = AllocatedMemoryStorage.INVALID;
+    protected static final int ADDRESS_COUNT = 10000;
+    protected static final long SIZE = 64;
+    
+    private static final long BASE_ADDRESS = 1L << 36;
+    private static final long ADDRESS_RANGE_PER_THREAD = 1L << 32;
+    private static final int THREAD_COUNT = 4;
+    private static final int CONCURRENT_ROUND_COUNT = 20;
+    
+    protected AllocatedMemoryStorage storage;
+    
+    abstract protected AllocatedMemoryStorage createStorage();
+    
+    @Before
+    public void setUp() {
+        storage = createStorage();
+    }
+    
+    protected static long address(int i) {
+        return address(0, i);
+    }
+    
+    private static long address(int thread, int i) {
+        return BASE_ADDRESS + thread * ADDRESS_RANGE_PER_THREAD + (i << 7);
+    }
+    
+    @Test
+    public void putGetAndRemove() {
+        assertTrue(storage.isEmpty());
+        assertEquals(INVALID, storage.get(address(1)));
+        storage.put(address(1), SIZE);
+        assertEquals(SIZE, storage.get(address(1)));
+        assertTrue(storage.contains(address(1)));
+        assertFalse(storage.isEmpty());
+        assertEquals(SIZE, storage.remove(address(1)));
+        assertEquals(INVALID, storage.get(address(1)));
+        assertFalse(storage.contains(address(1)));
+        assertTrue(storage.isEmpty());
+    }
+    
+    @Test
+    public void removeTwice() {
+        storage.put(address(1), SIZE);
+        assertEquals(SIZE, storage.remove(address(1)));
+        assertEquals(INVALID, storage.remove(address(1)));
+    }
+    
+    @Test
+    public void removeUnknown() {
+        storage.put(address(1), SIZE);
+        assertEquals(INVALID, storage.remove(address(2)));
+        // Interior address of an allocated memory is not an allocated memory
+        assertEquals(INVALID, storage.remove(address(1) + 8));
+        assertEquals(SIZE, storage.get(address(1)));
+    }
+    
+    @Test
+    public void containsRange() {
+        storage.put(address(1), SIZE);
+        assertTrue(storage.contains(address(1), SIZE));
+        assertTrue(storage.contains(address(1) + 8, SIZE - 8));
+        assertFalse(storage.contains(address(1) + 8, SIZE));
+        assertFalse(storage.contains(address(2), 8));
+        storage.remove(address(1));
+        assertFalse(storage.contains(address(1) + 8, 8));
+    }
+    
+    @Test
+    public void iterate() {
+        for (int i = 0; i < ADDRESS_COUNT; i++) {
+            storage.put(address(i), SIZE + i);
+        }
+        final Map<Long, Long> allocatedMemories = new HashMap<Long, Long>();
+        storage.iterate(new AllocatedMemoryIterator() {
+            @Override
+            public void onAllocatedMemory(long address, long size) {
+                assertNull(allocatedMemories.put(address, size));
+            }
+        });
+        verifyAllocatedMemories(allocatedMemories);
+    }
+    
+    @Test
+    public void iterateSplits() {
+        if (!(storage instanceof SplittableAllocatedMemoryStorage)) {
+            return;
+        }
+        for (int i = 0; i < ADDRESS_COUNT; i++) {
+            storage.put(address(i), SIZE + i);
+        }
+        final Map<Long, Long> allocatedMemories = new HashMap<Long, Long>();
+        AllocatedMemoryIterator iterator = new AllocatedMemoryIterator() {
+            @Override
+            public void onAllocatedMemory(long address, long size) {
+                assertNull(allocatedMemories.put(address, size));
+            }
+        };
+        iterateSplit(((SplittableAllocatedMemoryStorage) storage).split(), iterator);
+        verifyAllocatedMemories(allocatedMemories);
+    }
+    
+    private static void iterateSplit(AllocatedMemorySplit split, AllocatedMemoryIterator iterator) {
+        AllocatedMemorySplit otherSplit;
+        while ((otherSplit = split.trySplit()) != null) {
+            iterateSplit(otherSplit, iterator);
+        }
+        split.iterate(iterator);
+    }
+    
+    private static void verifyAllocatedMemories(Map<Long, Long> allocatedMemories) {
+        assertEquals(ADDRESS_COUNT, allocatedMemories.size());
+        for (int i = 0; i < ADDRESS_COUNT; i++) {
+            assertEquals(Long.valueOf(SIZE + i), allocatedMemories.get(address(i)));
+        }
+    }
+    
+    @Test
+    public void removeAllAndCompact() {
+        for (int i = 0; i < ADDRESS_COUNT; i++) {
+            storage.put(address(i), SIZE);
+        }
+        for (int i = 0; i < ADDRESS_COUNT; i++) {
+            assertEquals(SIZE, storage.remove(address(i)));
+        }
+        if (storage instanceof Compactable) {
+            ((Compactable) storage).compact();
+        }
+        assertTrue(storage.isEmpty());
+        storage.put(address(1), SIZE);
+        assertEquals(SIZE, storage.get(address(1)));
+    }
+    
+    @Test
+    public void removeFromAnotherThread() throws InterruptedException {
+        for (int i = 0; i < ADDRESS_COUNT; i++) {
+            storage.put(address(i), SIZE);
+        }
+        final AtomicLong freedSize = new AtomicLong();
+        Thread freer = new Thread() {
+            @Override
+            public void run() {
+                for (int i = 0; i < ADDRESS_COUNT; i++) {
+                    freedSize.addAndGet(storage.remove(address(i)));
+                }
+            }
+        };
+        freer.start();
+        freer.join();
+        assertEquals(ADDRESS_COUNT * SIZE, freedSize.get());
+        assertTrue(storage.isEmpty());
+    }
+    
+    /**
+     * Each thread frees the memories allocated by its neighbour 
+     * while the storage is being iterated and checked by another thread.
+     */
+    @Test
+    public void putAndRemoveConcurrently() throws InterruptedException {
+        final AtomicLong freedSize = new AtomicLong();
+        final AtomicLong invalidFreeCount = new AtomicLong();
+        final AtomicBoolean done = new AtomicBoolean();
+        Thread[] allocators = new Thread[THREAD_COUNT];
+        Thread[] freers = new Thread[THREAD_COUNT];
+        for (int t = 0; t < THREAD_COUNT; t++) {
+            final int thread = t;
+            allocators[t] = new Thread() {
+                @Override
+                public void run() {
+                    for (int round = 0; round < CONCURRENT_ROUND_COUNT; round++) {
+                        for (int i = 0; i < ADDRESS_COUNT; i++) {
+                            storage.put(address(thread, round * ADDRESS_COUNT + i), SIZE);
+                        }
+                    }
+                }
+            };
+            freers[t] = new Thread() {
+                @Override
+                public void run() {
+                    int allocatorThread = (thread + 1) % THREAD_COUNT;
+                    for (int round = 0; round < CONCURRENT_ROUND_COUNT; round++) {
+                        for (int i = 0; i < ADDRESS_COUNT; i++) {
+                            long address = address(allocatorThread, round * ADDRESS_COUNT + i);
+                            long size;
+                            // Wait until the memory is allocated by the neighbour
+                            while ((size = storage.remove(address)) == INVALID) {
+                                Thread.yield();
+                            }
+                            freedSize.addAndGet(size);
+                            if (storage.remove(address) != INVALID) {
+                                invalidFreeCount.incrementAndGet();
+                            }
+                        }
+                    }
+                }
+            };
+        }
+        Thread observer = new Thread() {
+            @Override
+            public void run() {
+                AllocatedMemoryIterator iterator = new AllocatedMemoryIterator() {
+                    @Override
+                    public void onAllocatedMemory(long address, long size) {
+                        if (size != SIZE) {
+                            invalidFreeCount.incrementAndGet();
+                        }
+                    }
+                };
+                while (!done.get()) {
+                    storage.iterate(iterator);
+                    storage.contains(address(0) + 8, 8);
+                }
+            }
+        };
+        observer.start();
+        for (int t = 0; t < THREAD_COUNT; t++) {
+            allocators[t].start();
+            freers[t].start();
+        }
+        for (int t = 0; t < THREAD_COUNT; t++) {
+            allocators[t].join();
+            freers[t].join();
+        }
+        done.set(true);
+        observer.join();
+        assertEquals(0, invalidFreeCount.get());
+        assertEquals(THREAD_COUNT * CONCURRENT_ROUND_COUNT * ADDRESS_COUNT * SIZE, freedSize.get());
+        assertTrue(storage.isEmpty());
+    }
+
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright (c) 2017, Serkan OZAL, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tr.com.serkanozal.mysafe.impl.storage;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import tr.com.serkanozal.mysafe.AllocatedMemoryStorage;
+
+/**
+ * <code>AllocatedMemoryStorageScalingBenchmark</code> application to compare
+ * how global {@link AllocatedMemoryStorage} implementations scale with thread count.
+ * 
+ * Every thread repeats <code>put</code>, <code>get</code> and <code>remove</code> operations
+ * (as <code>Unsafe.allocateMemory</code> and <code>Unsafe.freeMemory</code> calls do)
+ * over its own address range for the given duration and total throughput is reported
+ * for 1, 2, 4, ..., 64 threads.
+ * 
+ * <pre>
+ * Usage: AllocatedMemoryStorageScalingBenchmark [duration_in_seconds] [max_thread_count]
+ * </pre>
+ * 
+ * @author Serkan OZAL
+ */
+public class AllocatedMemoryStorageScalingBenchmark {
+
+    private static final int ADDRESS_COUNT_PER_THREAD = 1024;
+    private static final long ADDRESS_RANGE_PER_THREAD = 1L << 32;
+
+    public static void main(String[] args) throws Exception {
+        int durationInSeconds = args.length > 0 ? Integer.parseInt(args[0]) : 3;
+        int maxThreadCount = args.length > 1 ? Integer.parseInt(args[1]) : 64;
+
+        System.out.println(String.format("%-8s %20s %20s", "Threads", "DEFAULT (ops/sec)", "STRIPED (ops/sec)"));
+        for (int threadCount = 1; threadCount <= maxThreadCount; threadCount <<= 1) {
+            long defaultThroughput = 
+                    run(new DefaultAllocatedMemoryStorage(), threadCount, durationInSeconds);
+            long stripedThroughput = 
+                    run(new StripedAllocatedMemoryStorage(), threadCount, durationInSeconds);
+            System.out.println(String.format("%-8d %20d %20d", threadCount, defaultThroughput, stripedThroughput));
+        }
+    }
+
+    private static long run(final AllocatedMemoryStorage storage, 
+                            int threadCount, 
+                            int durationInSeconds) throws InterruptedException {
+        final CountDownLatch startLatch = new CountDownLatch(1);
+        final AtomicLong totalOps = new AtomicLong();
+        final long finishTime = 
+                System.nanoTime() + TimeUnit.SECONDS.toNanos(durationInSeconds) + TimeUnit.MILLISECONDS.toNanos(100);
+        Thread[] threads = new Thread[threadCount];
+        for (int i = 0; i < threadCount; i++) {
+            final long baseAddress = (i + 1) * ADDRESS_RANGE_PER_THREAD;
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        startLatch.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    long ops = 0;
+                    while (System.nanoTime() < finishTime) {
+                        for (int j = 0; j < ADDRESS_COUNT_PER_THREAD; j++) {
+                            long address = baseAddress + (j << 6);
+                            storage.put(address, 64);
+                        }
+                        for (int j = 0; j < ADDRESS_COUNT_PER_THREAD; j++) {
+                            long address = baseAddress + (j << 6);
+                            if (storage.get(address) != 64) {
+                                throw new IllegalStateException("Unexpected size for address " + address);
+                            }
+                        }
+                        for (int j = 0; j < ADDRESS_COUNT_PER_THREAD; j++) {
+                            long address = baseAddress + (j << 6);
+                            storage.remove(address);
+                        }
+                        ops += 3 * ADDRESS_COUNT_PER_THREAD;
+                    }
+                    totalOps.addAndGet(ops);
+                }
+            };
+            threads[i].start();
+        }
+        long startTime = System.nanoTime();
+        startLatch.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        long elapsedTime = System.nanoTime() - startTime;
+        return totalOps.get() * TimeUnit.SECONDS.toNanos(1) / elapsedTime;
+    }
+
+}
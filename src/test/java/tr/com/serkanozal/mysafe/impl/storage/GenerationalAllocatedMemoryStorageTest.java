@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2017, Serkan OZAL, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tr.com.serkanozal.mysafe.impl.storage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import tr.com.serkanozal.mysafe.AllocatedMemoryIterator;
+import tr.com.serkanozal.mysafe.AllocatedMemoryStorage;
+
+public class GenerationalAllocatedMemoryStorageTest extends AbstractAllocatedMemoryStorageTest {
+
+    private static final long EPOCH_LENGTH_IN_MILLIS = 1;
+    private static final int MAX_BUCKET_COUNT = 3;
+    
+    @Override
+    protected AllocatedMemoryStorage createStorage() {
+        // Short epochs and few buckets, so buckets are merged while the tests are running
+        return new GenerationalAllocatedMemoryStorage(
+                new StripedAllocatedMemoryStorage(8), EPOCH_LENGTH_IN_MILLIS, MAX_BUCKET_COUNT);
+    }
+    
+    @Test
+    public void iterateOlderThan() throws InterruptedException {
+        GenerationalAllocatedMemoryStorage generationalStorage = (GenerationalAllocatedMemoryStorage) storage;
+        for (int i = 0; i < ADDRESS_COUNT; i++) {
+            generationalStorage.put(address(i), SIZE);
+            if (i % 1000 == 0) {
+                Thread.sleep(2 * EPOCH_LENGTH_IN_MILLIS);
+            }
+        }
+        // Buckets are merged only by the compaction
+        assertTrue(generationalStorage.getBucketCount() <= 2 * MAX_BUCKET_COUNT);
+        generationalStorage.compact();
+        assertTrue(generationalStorage.getBucketCount() <= MAX_BUCKET_COUNT);
+        for (int i = 0; i < ADDRESS_COUNT; i += 2) {
+            generationalStorage.remove(address(i));
+        }
+        Thread.sleep(100 * EPOCH_LENGTH_IN_MILLIS);
+        // Put into a new epoch, so all the others are older
+        generationalStorage.put(address(ADDRESS_COUNT), SIZE);
+        final Set<Long> oldAddresses = new HashSet<Long>();
+        generationalStorage.iterateOlderThan(50 * EPOCH_LENGTH_IN_MILLIS, new AllocatedMemoryIterator() {
+            @Override
+            public void onAllocatedMemory(long address, long size) {
+                assertTrue(oldAddresses.add(address));
+            }
+        });
+        assertEquals(ADDRESS_COUNT / 2, oldAddresses.size());
+        for (int i = 1; i < ADDRESS_COUNT; i += 2) {
+            assertTrue(oldAddresses.contains(address(i)));
+        }
+    }
+    
+    @Test
+    public void compactConcurrently() throws InterruptedException {
+        final GenerationalAllocatedMemoryStorage generationalStorage = (GenerationalAllocatedMemoryStorage) storage;
+        final AtomicBoolean done = new AtomicBoolean();
+        Thread compactor = new Thread() {
+            @Override
+            public void run() {
+                while (!done.get()) {
+                    generationalStorage.compact();
+                }
+            }
+        };
+        compactor.start();
+        try {
+            for (int round = 0; round < 10; round++) {
+                for (int i = 0; i < ADDRESS_COUNT; i++) {
+                    generationalStorage.put(address(i), SIZE);
+                }
+                for (int i = 0; i < ADDRESS_COUNT; i++) {
+                    assertEquals(SIZE, generationalStorage.remove(address(i)));
+                }
+            }
+        } finally {
+            done.set(true);
+            compactor.join();
+        }
+        generationalStorage.compact();
+        assertTrue(generationalStorage.getBucketCount() <= MAX_BUCKET_COUNT);
+        final AtomicInteger oldCount = new AtomicInteger();
+        generationalStorage.iterateOlderThan(0, new AllocatedMemoryIterator() {
+            @Override
+            public void onAllocatedMemory(long address, long size) {
+                oldCount.incrementAndGet();
+            }
+        });
+        // Removed regions are not left in any bucket
+        assertEquals(0, oldCount.get());
+    }
+    
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectTooFewBuckets() {
+        new GenerationalAllocatedMemoryStorage(new StripedAllocatedMemoryStorage(), EPOCH_LENGTH_IN_MILLIS, 1);
+    }
+
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) 2017, Serkan OZAL, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tr.com.serkanozal.mysafe.impl.storage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import tr.com.serkanozal.mysafe.AllocatedMemoryIterator;
+import tr.com.serkanozal.mysafe.AllocatedMemoryStorage;
+
+public class PageTableAllocatedMemoryStorageTest extends AbstractAllocatedMemoryStorageTest {
+
+    private static final int PAGE_SHIFT = 6;
+    private static final long PAGE_SIZE = 1L << PAGE_SHIFT;
+    
+    @Override
+    protected AllocatedMemoryStorage createStorage() {
+        // Small pages, so allocated memories span multiple pages
+        return new PageTableAllocatedMemoryStorage(PAGE_SHIFT);
+    }
+    
+    private int count() {
+        final int[] count = { 0 };
+        storage.iterate(new AllocatedMemoryIterator() {
+            @Override
+            public void onAllocatedMemory(long address, long size) {
+                count[0]++;
+            }
+        });
+        return count[0];
+    }
+    
+    @Test
+    public void containsRangeOnLaterPage() {
+        storage.put(address(1), 4 * PAGE_SIZE);
+        assertTrue(storage.contains(address(1) + 3 * PAGE_SIZE, 8));
+        assertTrue(storage.contains(address(1) + 2 * PAGE_SIZE + 8, PAGE_SIZE));
+        assertFalse(storage.contains(address(1) + 3 * PAGE_SIZE, PAGE_SIZE + 8));
+    }
+    
+    @Test
+    public void replaceWithSmallerMemory() {
+        storage.put(address(1), 4 * PAGE_SIZE);
+        storage.put(address(1), PAGE_SIZE);
+        assertEquals(PAGE_SIZE, storage.get(address(1)));
+        assertTrue(storage.contains(address(1) + 8, 8));
+        assertFalse(storage.contains(address(1) + 2 * PAGE_SIZE, 8));
+        assertFalse(storage.contains(address(1) + 3 * PAGE_SIZE, 8));
+        assertEquals(PAGE_SIZE, storage.remove(address(1)));
+        assertTrue(storage.isEmpty());
+    }
+    
+    @Test
+    public void largeMemory() {
+        long size = 1024 * PAGE_SIZE;
+        storage.put(address(1), size);
+        assertEquals(size, storage.get(address(1)));
+        assertTrue(storage.contains(address(1) + 512 * PAGE_SIZE, PAGE_SIZE));
+        assertTrue(storage.contains(address(1) + size));
+        assertFalse(storage.contains(address(1) + size, 8));
+        assertEquals(1, count());
+        assertFalse(storage.isEmpty());
+        assertEquals(size, storage.remove(address(1)));
+        assertEquals(INVALID, storage.remove(address(1)));
+        assertFalse(storage.contains(address(1) + 512 * PAGE_SIZE));
+        assertTrue(storage.isEmpty());
+    }
+    
+    @Test
+    public void replaceWithLargerAndSmallerMemory() {
+        storage.put(address(1), PAGE_SIZE);
+        storage.put(address(1), 1024 * PAGE_SIZE);
+        assertEquals(1024 * PAGE_SIZE, storage.get(address(1)));
+        assertTrue(storage.contains(address(1) + 512 * PAGE_SIZE, 8));
+        assertEquals(1, count());
+        storage.put(address(1), PAGE_SIZE);
+        assertEquals(PAGE_SIZE, storage.get(address(1)));
+        assertFalse(storage.contains(address(1) + 512 * PAGE_SIZE, 8));
+        assertEquals(1, count());
+        assertEquals(PAGE_SIZE, storage.remove(address(1)));
+        assertTrue(storage.isEmpty());
+    }
+    
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectInvalidPageShift() {
+        new PageTableAllocatedMemoryStorage(2);
+    }
+
+}
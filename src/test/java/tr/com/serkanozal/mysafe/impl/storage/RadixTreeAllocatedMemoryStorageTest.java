@@ -0,0 +1,42 @@
+/*
+ * Copyright (c) 2017, Serkan OZAL, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tr.com.serkanozal.mysafe.impl.storage;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import tr.com.serkanozal.mysafe.AllocatedMemoryStorage;
+
+public class RadixTreeAllocatedMemoryStorageTest extends AbstractAllocatedMemoryStorageTest {
+
+    @Override
+    protected AllocatedMemoryStorage createStorage() {
+        return new RadixTreeAllocatedMemoryStorage();
+    }
+    
+    @Test
+    public void findAllocatedMemoryStart() {
+        RadixTreeAllocatedMemoryStorage radixTreeStorage = (RadixTreeAllocatedMemoryStorage) storage;
+        radixTreeStorage.put(address(1), SIZE);
+        radixTreeStorage.put(address(2), SIZE);
+        assertEquals(address(1), radixTreeStorage.findAllocatedMemoryStart(address(1) + 8, 8));
+        assertEquals(address(2), radixTreeStorage.findAllocatedMemoryStart(address(2), SIZE));
+        assertEquals(INVALID, radixTreeStorage.findAllocatedMemoryStart(address(1) + SIZE, 8));
+        assertEquals(INVALID, radixTreeStorage.findAllocatedMemoryStart(address(1) + 8, SIZE));
+    }
+
+}
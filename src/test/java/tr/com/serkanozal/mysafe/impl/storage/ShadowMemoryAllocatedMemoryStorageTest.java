@@ -0,0 +1,57 @@
+/*
+ * Copyright (c) 2017, Serkan OZAL, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tr.com.serkanozal.mysafe.impl.storage;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import tr.com.serkanozal.mysafe.AllocatedMemoryStorage;
+import tr.com.serkanozal.mysafe.MySafe;
+import tr.com.serkanozal.mysafe.impl.util.ShadowMemory;
+
+public class ShadowMemoryAllocatedMemoryStorageTest extends AbstractAllocatedMemoryStorageTest {
+
+    private ShadowMemory shadowMemory;
+    
+    @Override
+    protected AllocatedMemoryStorage createStorage() {
+        shadowMemory = new ShadowMemory(MySafe.getUnsafe());
+        return new ShadowMemoryAllocatedMemoryStorage(new StripedAllocatedMemoryStorage(8), shadowMemory);
+    }
+    
+    @Test
+    public void markShadowMemory() {
+        storage.put(address(1), SIZE + 4);
+        assertTrue(shadowMemory.isAllocated(address(1), SIZE));
+        // Partially covered granule at the end is not marked, so it is checked from the storage
+        assertFalse(shadowMemory.isAllocated(address(1), SIZE + 4));
+        assertTrue(storage.contains(address(1), SIZE + 4));
+        storage.remove(address(1));
+        assertFalse(shadowMemory.isAllocated(address(1), 8));
+        assertFalse(storage.contains(address(1), 8));
+    }
+    
+    @Test
+    public void ignoreAddressesOutOfAddressSpace() {
+        long address = 1L << 50;
+        storage.put(address, SIZE);
+        assertFalse(shadowMemory.isAllocated(address, 8));
+        assertTrue(storage.contains(address, 8));
+    }
+
+}
@@ -0,0 +1,271 @@
+/*
+ * Copyright (c) 2017, Serkan OZAL, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tr.com.serkanozal.mysafe.impl.storage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+import tr.com.serkanozal.mysafe.AllocatedMemoryIterator;
+import tr.com.serkanozal.mysafe.AllocatedMemoryStorage;
+import tr.com.serkanozal.mysafe.MySafe;
+
+/**
+ * Tests of the {@link ThreadLocalDefaultAllocatedMemoryStorage} 
+ * focusing on the memories freed by the threads other than their allocator threads.
+ * 
+ * @author Serkan OZAL
+ */
+public class ThreadLocalDefaultAllocatedMemoryStorageTest {
+
+    private static final long INVALID = AllocatedMemoryStorage.INVALID;
+    private static final long BASE_ADDRESS = 1L << 36;
+    private static final long ADDRESS_RANGE_PER_THREAD = 1L << 32;
+    private static final int ADDRESS_COUNT = 10000;
+    private static final long SIZE = 64;
+    private static final int THREAD_COUNT = 4;
+    private static final int CONCURRENT_ROUND_COUNT = 20;
+    
+    private final AllocatedMemoryStorage storage = new ThreadLocalDefaultAllocatedMemoryStorage(MySafe.getUnsafe());
+    
+    private static long address(int i) {
+        return address(0, i);
+    }
+    
+    private static long address(int thread, int i) {
+        return BASE_ADDRESS + thread * ADDRESS_RANGE_PER_THREAD + (i << 7);
+    }
+    
+    private static long countAllocatedMemories(AllocatedMemoryStorage storage) {
+        final AtomicLong count = new AtomicLong();
+        storage.iterate(new AllocatedMemoryIterator() {
+            @Override
+            public void onAllocatedMemory(long address, long size) {
+                count.incrementAndGet();
+            }
+        });
+        return count.get();
+    }
+    
+    @Test
+    public void putGetAndRemoveOnOwnerThread() {
+        storage.put(address(1), SIZE);
+        assertEquals(SIZE, storage.get(address(1)));
+        assertTrue(storage.contains(address(1)));
+        assertEquals(INVALID, storage.remove(address(2)));
+        assertEquals(SIZE, storage.remove(address(1)));
+        assertEquals(INVALID, storage.remove(address(1)));
+        assertEquals(INVALID, storage.get(address(1)));
+        assertTrue(storage.isEmpty());
+    }
+    
+    @Test
+    public void memoriesAreCheckedOnlyByOwnerThread() throws InterruptedException {
+        storage.put(address(1), SIZE);
+        final AtomicLong sizeFromOtherThread = new AtomicLong();
+        Thread otherThread = new Thread() {
+            @Override
+            public void run() {
+                sizeFromOtherThread.set(storage.get(address(1)));
+            }
+        };
+        otherThread.start();
+        otherThread.join();
+        assertEquals(INVALID, sizeFromOtherThread.get());
+        assertEquals(SIZE, storage.get(address(1)));
+        assertEquals(1, countAllocatedMemories(storage));
+    }
+    
+    @Test
+    public void remoteFreeIsNotifiedWithOwner() throws InterruptedException {
+        ThreadLocalDefaultAllocatedMemoryStorage storage = 
+                new ThreadLocalDefaultAllocatedMemoryStorage(MySafe.getUnsafe());
+        final AtomicReference<Thread> notifiedOwner = new AtomicReference<Thread>();
+        final AtomicLong notifiedSize = new AtomicLong();
+        storage.setRemoteFreeListener(new RemoteFreeListener() {
+            @Override
+            public void onRemoteFree(Thread owner, long size) {
+                notifiedOwner.set(owner);
+                notifiedSize.addAndGet(size);
+            }
+        });
+        storage.put(address(1), SIZE);
+        storage.put(address(2), SIZE);
+        // Own frees are not notified
+        assertEquals(SIZE, storage.remove(address(2)));
+        assertEquals(0, notifiedSize.get());
+        final AllocatedMemoryStorage ownerStorage = storage;
+        Thread freer = new Thread() {
+            @Override
+            public void run() {
+                ownerStorage.remove(address(1));
+                ownerStorage.remove(address(1));
+            }
+        };
+        freer.start();
+        freer.join();
+        assertSame(Thread.currentThread(), notifiedOwner.get());
+        assertEquals(SIZE, notifiedSize.get());
+    }
+    
+    @Test
+    public void removeFromAnotherThread() throws InterruptedException {
+        for (int i = 0; i < ADDRESS_COUNT; i++) {
+            storage.put(address(i), SIZE);
+        }
+        final AtomicLong freedSize = new AtomicLong();
+        final AtomicLong doubleFreedSize = new AtomicLong();
+        Thread freer = new Thread() {
+            @Override
+            public void run() {
+                for (int i = 0; i < ADDRESS_COUNT; i++) {
+                    freedSize.addAndGet(storage.remove(address(i)));
+                }
+                for (int i = 0; i < ADDRESS_COUNT; i++) {
+                    doubleFreedSize.addAndGet(storage.remove(address(i)));
+                }
+                // Unknown memory is not found in any storage
+                doubleFreedSize.addAndGet(storage.remove(address(ADDRESS_COUNT)));
+            }
+        };
+        freer.start();
+        freer.join();
+        assertEquals(ADDRESS_COUNT * SIZE, freedSize.get());
+        assertEquals((ADDRESS_COUNT + 1) * INVALID, doubleFreedSize.get());
+        // Pending remote frees are not iterated even before they are applied by the owner
+        assertEquals(0, countAllocatedMemories(storage));
+        assertTrue(storage.isEmpty());
+        // Remote frees are applied when the owner touches its storage
+        assertEquals(INVALID, storage.get(address(0)));
+        assertEquals(INVALID, storage.remove(address(0)));
+        storage.put(address(0), SIZE);
+        assertEquals(SIZE, storage.get(address(0)));
+        assertEquals(1, countAllocatedMemories(storage));
+    }
+    
+    @Test
+    public void removeAfterOwnerThreadIsDead() throws InterruptedException {
+        Thread owner = new Thread() {
+            @Override
+            public void run() {
+                for (int i = 0; i < ADDRESS_COUNT; i++) {
+                    storage.put(address(i), SIZE);
+                }
+            }
+        };
+        owner.start();
+        owner.join();
+        owner = null;
+        // Storage of the dead owner might be moved into the orphan storage on the next storage creation
+        System.gc();
+        assertEquals(ADDRESS_COUNT, countAllocatedMemories(storage));
+        storage.put(address(ADDRESS_COUNT), SIZE);
+        for (int i = 0; i <= ADDRESS_COUNT; i++) {
+            assertEquals(SIZE, storage.remove(address(i)));
+        }
+        for (int i = 0; i <= ADDRESS_COUNT; i++) {
+            assertEquals(INVALID, storage.remove(address(i)));
+        }
+        assertTrue(storage.isEmpty());
+    }
+    
+    /**
+     * Each thread frees the memories allocated by its neighbour 
+     * while the storage is being iterated by another thread.
+     */
+    @Test
+    public void putAndRemoveConcurrently() throws InterruptedException {
+        final AtomicLong freedSize = new AtomicLong();
+        final AtomicLong invalidFreeCount = new AtomicLong();
+        final AtomicBoolean done = new AtomicBoolean();
+        final CountDownLatch freedLatch = new CountDownLatch(THREAD_COUNT);
+        Thread[] threads = new Thread[THREAD_COUNT];
+        for (int t = 0; t < THREAD_COUNT; t++) {
+            final int thread = t;
+            threads[t] = new Thread() {
+                @Override
+                public void run() {
+                    int allocatorThread = (thread + 1) % THREAD_COUNT;
+                    for (int round = 0; round < CONCURRENT_ROUND_COUNT; round++) {
+                        for (int i = 0; i < ADDRESS_COUNT; i++) {
+                            storage.put(address(thread, round * ADDRESS_COUNT + i), SIZE);
+                        }
+                        for (int i = 0; i < ADDRESS_COUNT; i++) {
+                            long address = address(allocatorThread, round * ADDRESS_COUNT + i);
+                            long size;
+                            // Wait until the memory is allocated by the neighbour
+                            while ((size = storage.remove(address)) == INVALID) {
+                                Thread.yield();
+                            }
+                            freedSize.addAndGet(size);
+                            if (storage.remove(address) != INVALID) {
+                                invalidFreeCount.incrementAndGet();
+                            }
+                        }
+                    }
+                    freedLatch.countDown();
+                    try {
+                        // Keep the storage alive until all the memories are freed
+                        freedLatch.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    if (!storage.isEmpty()) {
+                        invalidFreeCount.incrementAndGet();
+                    }
+                }
+            };
+        }
+        Thread observer = new Thread() {
+            @Override
+            public void run() {
+                AllocatedMemoryIterator iterator = new AllocatedMemoryIterator() {
+                    @Override
+                    public void onAllocatedMemory(long address, long size) {
+                        if (size != SIZE) {
+                            invalidFreeCount.incrementAndGet();
+                        }
+                    }
+                };
+                while (!done.get()) {
+                    storage.iterate(iterator);
+                }
+            }
+        };
+        observer.start();
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        done.set(true);
+        observer.join();
+        assertEquals(0, invalidFreeCount.get());
+        assertEquals(THREAD_COUNT * CONCURRENT_ROUND_COUNT * ADDRESS_COUNT * SIZE, freedSize.get());
+        assertTrue(storage.isEmpty());
+        assertFalse(storage.contains(address(0)));
+    }
+
+}
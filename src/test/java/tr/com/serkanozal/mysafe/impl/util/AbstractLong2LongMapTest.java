@@ -0,0 +1,270 @@
+/*
+ * Copyright (c) 2017, Serkan OZAL, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tr.com.serkanozal.mysafe.impl.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import tr.com.serkanozal.mysafe.impl.util.Long2LongMap.LongLongConsumer;
+import tr.com.serkanozal.mysafe.impl.util.Long2LongMap.LongLongCursor;
+
+/**
+ * Common tests of the {@link Long2LongMap} implementations.
+ * Keys are generated as aligned addresses and values as sizes, as they are used by the storages.
+ * 
+ * @author Serkan OZAL
+ */
+public abstract class AbstractLong2LongMapTest {
+
+    protected static final long MISSING = -1;
+    protected static final int ENTRY_COUNT = 10000;
+    
+    private static final long BASE_ADDRESS = 1L << 32;
+    private static final int CONCURRENT_ROUND_COUNT = 50;
+    
+    protected Long2LongMap map;
+    
+    abstract protected Long2LongMap createMap();
+    
+    /**
+     * @return <code>true</code> if the map can be read by other threads while it is written by its owner, 
+     *         so reads must never fail and must return either the missing value or a value of the map
+     */
+    protected boolean isReadableConcurrently() {
+        return false;
+    }
+    
+    /**
+     * @return <code>true</code> if the map is thread-safe, 
+     *         so reads of the untouched entries must always return their values
+     */
+    protected boolean isThreadSafe() {
+        return false;
+    }
+    
+    @Before
+    public void setUp() {
+        map = createMap();
+    }
+    
+    @After
+    public void tearDown() {
+        map.dispose();
+    }
+    
+    protected static long key(int i) {
+        return BASE_ADDRESS + ((long) i << 4);
+    }
+    
+    protected static long value(int i) {
+        return (i + 1) << 3;
+    }
+    
+    private static boolean isValue(long value) {
+        return value > 0 && (value & 7) == 0;
+    }
+    
+    @Test
+    public void putAndGet() {
+        verifyPutAndGet(map);
+    }
+    
+    @Test
+    public void putReplacesValue() {
+        assertEquals(MISSING, map.put(key(1), value(1)));
+        assertEquals(value(1), map.put(key(1), value(2)));
+        assertEquals(value(2), map.get(key(1)));
+        assertEquals(1, map.size());
+    }
+    
+    @Test
+    public void removeReturnsValueOnlyOnce() {
+        map.put(key(1), value(1));
+        assertEquals(value(1), map.remove(key(1)));
+        assertEquals(MISSING, map.remove(key(1)));
+        assertEquals(MISSING, map.get(key(1)));
+        assertTrue(map.isEmpty());
+    }
+    
+    @Test
+    public void removeUnknownKey() {
+        map.put(key(1), value(1));
+        assertEquals(MISSING, map.remove(key(2)));
+        assertEquals(1, map.size());
+    }
+    
+    @Test
+    public void growAndShrink() {
+        verifyGrowAndShrink(map);
+    }
+    
+    @Test
+    public void iterate() {
+        for (int i = 0; i < ENTRY_COUNT; i++) {
+            map.put(key(i), value(i));
+        }
+        final Map<Long, Long> entries = new HashMap<Long, Long>();
+        map.longForEach(new LongLongConsumer() {
+            @Override
+            public void accept(long key, long value) {
+                assertNull(entries.put(key, value));
+            }
+        });
+        verifyEntries(entries, ENTRY_COUNT);
+        
+        entries.clear();
+        LongLongCursor cursor = map.cursor();
+        while (cursor.advance()) {
+            assertNull(entries.put(cursor.key(), cursor.value()));
+        }
+        verifyEntries(entries, ENTRY_COUNT);
+        
+        entries.clear();
+        long[] chunk = new long[64];
+        long cursorIndex = 0;
+        while (cursorIndex >= 0) {
+            cursorIndex = map.copyEntries(cursorIndex, chunk);
+            for (int i = 0; i < chunk.length; i += 2) {
+                if (chunk[i] != MISSING) {
+                    assertNull(entries.put(chunk[i], chunk[i + 1]));
+                }
+            }
+        }
+        verifyEntries(entries, ENTRY_COUNT);
+    }
+    
+    @Test
+    public void clear() {
+        for (int i = 0; i < ENTRY_COUNT; i++) {
+            map.put(key(i), value(i));
+        }
+        map.clear();
+        assertTrue(map.isEmpty());
+        assertEquals(MISSING, map.get(key(0)));
+        map.put(key(0), value(0));
+        assertEquals(value(0), map.get(key(0)));
+    }
+    
+    @Test
+    public void readWhileRehashingAndShrinking() throws InterruptedException {
+        if (isReadableConcurrently() || isThreadSafe()) {
+            verifyReadsWhileRehashingAndShrinking(map, isThreadSafe());
+        }
+    }
+    
+    private static void verifyEntries(Map<Long, Long> entries, int count) {
+        assertEquals(count, entries.size());
+        for (int i = 0; i < count; i++) {
+            assertEquals(Long.valueOf(value(i)), entries.get(key(i)));
+        }
+    }
+    
+    protected static void verifyPutAndGet(Long2LongMap map) {
+        assertEquals(MISSING, map.get(key(1)));
+        assertEquals(MISSING, map.put(key(1), value(1)));
+        assertEquals(value(1), map.get(key(1)));
+        assertTrue(map.containsKey(key(1)));
+        assertFalse(map.containsKey(key(2)));
+        assertTrue(map.containsValue(value(1)));
+        assertEquals(1, map.size());
+        assertFalse(map.isEmpty());
+    }
+    
+    protected static void verifyGrowAndShrink(Long2LongMap map) {
+        for (int i = 0; i < ENTRY_COUNT; i++) {
+            assertEquals(MISSING, map.put(key(i), value(i)));
+        }
+        assertEquals(ENTRY_COUNT, map.size());
+        for (int i = 0; i < ENTRY_COUNT; i++) {
+            assertEquals(value(i), map.get(key(i)));
+        }
+        int retainedCount = ENTRY_COUNT / 100;
+        for (int i = retainedCount; i < ENTRY_COUNT; i++) {
+            assertEquals(value(i), map.remove(key(i)));
+        }
+        map.shrink();
+        assertEquals(retainedCount, map.size());
+        for (int i = 0; i < ENTRY_COUNT; i++) {
+            assertEquals(i < retainedCount ? value(i) : MISSING, map.get(key(i)));
+        }
+        for (int i = 0; i < retainedCount; i++) {
+            assertEquals(value(i), map.remove(key(i)));
+        }
+        assertTrue(map.isEmpty());
+    }
+    
+    /**
+     * Reads the stable entries from another thread 
+     * while the owner thread grows and shrinks the map by putting and removing the other entries.
+     */
+    protected static void verifyReadsWhileRehashingAndShrinking(final Long2LongMap map, final boolean threadSafe) 
+            throws InterruptedException {
+        final int stableCount = 256;
+        for (int i = 0; i < stableCount; i++) {
+            map.put(key(i), value(i));
+        }
+        final AtomicBoolean done = new AtomicBoolean();
+        final AtomicReference<String> failure = new AtomicReference<String>();
+        Thread reader = new Thread() {
+            @Override
+            public void run() {
+                Random random = new Random();
+                while (!done.get()) {
+                    int i = random.nextInt(stableCount);
+                    long value = map.get(key(i));
+                    boolean valid = threadSafe ? value == value(i) : (value == MISSING || isValue(value));
+                    if (!valid) {
+                        failure.compareAndSet(null, "Read " + value + " for key " + key(i));
+                        return;
+                    }
+                }
+            }
+        };
+        reader.start();
+        try {
+            for (int round = 0; round < CONCURRENT_ROUND_COUNT && failure.get() == null; round++) {
+                for (int i = stableCount; i < ENTRY_COUNT; i++) {
+                    map.put(key(i), value(i));
+                }
+                for (int i = stableCount; i < ENTRY_COUNT; i++) {
+                    map.remove(key(i));
+                }
+                map.shrink();
+            }
+        } finally {
+            done.set(true);
+            reader.join();
+        }
+        assertNull(failure.get());
+        assertEquals(stableCount, map.size());
+        for (int i = 0; i < stableCount; i++) {
+            assertEquals(value(i), map.get(key(i)));
+        }
+    }
+
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) 2017, Serkan OZAL, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tr.com.serkanozal.mysafe.impl.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class ConcurrentCountingBloomFilterTest {
+
+    private static final long BASE_ADDRESS = 1L << 32;
+    private static final int ADDRESS_COUNT = 1000;
+    private static final int THREAD_COUNT = 4;
+    
+    private final ConcurrentCountingBloomFilter filter = new ConcurrentCountingBloomFilter(1 << 16);
+    
+    private static long address(int i) {
+        return BASE_ADDRESS + ((long) i << 6);
+    }
+    
+    @Test
+    public void noFalseNegatives() {
+        for (int i = 0; i < ADDRESS_COUNT; i++) {
+            filter.add(address(i));
+        }
+        for (int i = 0; i < ADDRESS_COUNT; i++) {
+            assertTrue(filter.mightContain(address(i)));
+        }
+    }
+    
+    @Test
+    public void forgetRemovedAddresses() {
+        for (int i = 0; i < ADDRESS_COUNT; i++) {
+            filter.add(address(i));
+        }
+        // Same address might be added multiple times, so it is counted
+        filter.add(address(0));
+        for (int i = 0; i < ADDRESS_COUNT; i++) {
+            filter.remove(address(i));
+        }
+        assertTrue(filter.mightContain(address(0)));
+        filter.remove(address(0));
+        for (int i = 0; i < ADDRESS_COUNT; i++) {
+            assertFalse(filter.mightContain(address(i)));
+        }
+    }
+    
+    @Test
+    public void addAndRemoveConcurrently() throws InterruptedException {
+        final AtomicInteger falseNegativeCount = new AtomicInteger();
+        Thread[] threads = new Thread[THREAD_COUNT];
+        for (int t = 0; t < THREAD_COUNT; t++) {
+            final int from = t * ADDRESS_COUNT;
+            threads[t] = new Thread() {
+                @Override
+                public void run() {
+                    for (int round = 0; round < 100; round++) {
+                        for (int i = from; i < from + ADDRESS_COUNT; i++) {
+                            filter.add(address(i));
+                        }
+                        for (int i = from; i < from + ADDRESS_COUNT; i++) {
+                            if (!filter.mightContain(address(i))) {
+                                falseNegativeCount.incrementAndGet();
+                            }
+                            filter.remove(address(i));
+                        }
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(0, falseNegativeCount.get());
+        for (int i = 0; i < THREAD_COUNT * ADDRESS_COUNT; i++) {
+            assertFalse(filter.mightContain(address(i)));
+        }
+    }
+    
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectTooFewCounters() {
+        new ConcurrentCountingBloomFilter(16);
+    }
+
+}
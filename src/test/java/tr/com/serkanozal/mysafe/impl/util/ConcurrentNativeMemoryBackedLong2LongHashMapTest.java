@@ -0,0 +1,72 @@
+/*
+ * Copyright (c) 2017, Serkan OZAL, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tr.com.serkanozal.mysafe.impl.util;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import tr.com.serkanozal.mysafe.MySafe;
+
+public class ConcurrentNativeMemoryBackedLong2LongHashMapTest extends AbstractLong2LongMapTest {
+
+    private static final int THREAD_COUNT = 4;
+    
+    @Override
+    protected Long2LongMap createMap() {
+        return new ConcurrentNativeMemoryBackedLong2LongHashMap(MySafe.getUnsafe(), THREAD_COUNT, MISSING);
+    }
+    
+    @Override
+    protected boolean isThreadSafe() {
+        return true;
+    }
+    
+    @Test
+    public void putAndRemoveConcurrently() throws InterruptedException {
+        final AtomicInteger failureCount = new AtomicInteger();
+        Thread[] threads = new Thread[THREAD_COUNT];
+        for (int t = 0; t < THREAD_COUNT; t++) {
+            final int from = t * ENTRY_COUNT;
+            threads[t] = new Thread() {
+                @Override
+                public void run() {
+                    for (int i = from; i < from + ENTRY_COUNT; i++) {
+                        map.put(key(i), value(i));
+                    }
+                    // Every other entry is removed, so half of them are left behind
+                    for (int i = from; i < from + ENTRY_COUNT; i += 2) {
+                        if (map.remove(key(i)) != value(i)) {
+                            failureCount.incrementAndGet();
+                        }
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(0, failureCount.get());
+        assertEquals(THREAD_COUNT * ENTRY_COUNT / 2, map.size());
+        for (int i = 0; i < THREAD_COUNT * ENTRY_COUNT; i++) {
+            assertEquals(i % 2 == 0 ? MISSING : value(i), map.get(key(i)));
+        }
+    }
+
+}
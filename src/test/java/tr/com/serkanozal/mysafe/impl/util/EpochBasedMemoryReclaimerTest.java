@@ -0,0 +1,146 @@
+/*
+ * Copyright (c) 2017, Serkan OZAL, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tr.com.serkanozal.mysafe.impl.util;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+
+import sun.misc.Unsafe;
+import tr.com.serkanozal.mysafe.MySafe;
+
+public class EpochBasedMemoryReclaimerTest {
+
+    private static final Unsafe UNSAFE = MySafe.getUnsafe();
+    
+    @Test
+    public void reclaimWhenThereIsNoAccessor() {
+        EpochBasedMemoryReclaimer reclaimer = new EpochBasedMemoryReclaimer(UNSAFE, 100);
+        reclaimer.enterCriticalSection();
+        reclaimer.exitCriticalSection();
+        reclaimer.retire(UNSAFE.allocateMemory(8));
+        reclaimer.retire(UNSAFE.allocateMemory(8));
+        assertEquals(2, reclaimer.getRetiredMemoryCount());
+        reclaimer.tryReclaim();
+        assertEquals(0, reclaimer.getRetiredMemoryCount());
+    }
+    
+    @Test
+    public void reclaimOnBatch() {
+        EpochBasedMemoryReclaimer reclaimer = new EpochBasedMemoryReclaimer(UNSAFE, 4);
+        for (int i = 0; i < 3; i++) {
+            reclaimer.retire(UNSAFE.allocateMemory(8));
+        }
+        assertEquals(3, reclaimer.getRetiredMemoryCount());
+        reclaimer.retire(UNSAFE.allocateMemory(8));
+        assertEquals(0, reclaimer.getRetiredMemoryCount());
+    }
+    
+    @Test
+    public void deferReclamationUntilAccessorExits() throws InterruptedException {
+        final EpochBasedMemoryReclaimer reclaimer = new EpochBasedMemoryReclaimer(UNSAFE, 100);
+        final CountDownLatch enteredLatch = new CountDownLatch(1);
+        final CountDownLatch retiredLatch = new CountDownLatch(1);
+        Thread accessor = new Thread() {
+            @Override
+            public void run() {
+                reclaimer.enterCriticalSection();
+                try {
+                    enteredLatch.countDown();
+                    retiredLatch.await();
+                } catch (InterruptedException e) {
+                    return;
+                } finally {
+                    reclaimer.exitCriticalSection();
+                }
+            }
+        };
+        accessor.start();
+        enteredLatch.await();
+        reclaimer.retire(UNSAFE.allocateMemory(8));
+        reclaimer.tryReclaim();
+        // Accessor might have seen the memory allocated, so it is not freed yet
+        assertEquals(1, reclaimer.getRetiredMemoryCount());
+        
+        // Accessors entering after the retirement cannot see the memory, so they don't block its reclamation
+        reclaimer.enterCriticalSection();
+        retiredLatch.countDown();
+        accessor.join();
+        reclaimer.tryReclaim();
+        reclaimer.exitCriticalSection();
+        assertEquals(0, reclaimer.getRetiredMemoryCount());
+    }
+    
+    @Test
+    public void reclaimPartialBatchOfAnotherThread() throws InterruptedException {
+        final EpochBasedMemoryReclaimer reclaimer = new EpochBasedMemoryReclaimer(UNSAFE, 100);
+        Thread retirer = new Thread() {
+            @Override
+            public void run() {
+                for (int i = 0; i < 10; i++) {
+                    reclaimer.retire(UNSAFE.allocateMemory(8));
+                }
+            }
+        };
+        retirer.start();
+        retirer.join();
+        assertEquals(10, reclaimer.getRetiredMemoryCount());
+        // Batch of the retirer thread is not full, but its memories are freed by the reclaimer anyway
+        reclaimer.tryReclaim();
+        assertEquals(0, reclaimer.getRetiredMemoryCount());
+    }
+    
+    @Test
+    public void reclaimBatchesHandedOffConcurrently() throws InterruptedException {
+        final EpochBasedMemoryReclaimer reclaimer = new EpochBasedMemoryReclaimer(UNSAFE, 8);
+        final int threadCount = 4;
+        final int retireCount = 10000;
+        final CountDownLatch startLatch = new CountDownLatch(1);
+        Thread[] threads = new Thread[threadCount];
+        for (int i = 0; i < threadCount; i++) {
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        startLatch.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int j = 0; j < retireCount; j++) {
+                        reclaimer.enterCriticalSection();
+                        reclaimer.exitCriticalSection();
+                        reclaimer.retire(UNSAFE.allocateMemory(8));
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        startLatch.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        reclaimer.tryReclaim();
+        assertEquals(0, reclaimer.getRetiredMemoryCount());
+    }
+    
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectNonPositiveBatchSize() {
+        new EpochBasedMemoryReclaimer(UNSAFE, 0);
+    }
+
+}
@@ -0,0 +1,30 @@
+/*
+ * Copyright (c) 2017, Serkan OZAL, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tr.com.serkanozal.mysafe.impl.util;
+
+public class HeapMemoryBackedRobinHoodLong2LongHashMapTest extends AbstractLong2LongMapTest {
+
+    @Override
+    protected Long2LongMap createMap() {
+        return new HeapMemoryBackedRobinHoodLong2LongHashMap(MISSING);
+    }
+    
+    @Override
+    protected boolean isReadableConcurrently() {
+        return true;
+    }
+
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright (c) 2017, Serkan OZAL, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tr.com.serkanozal.mysafe.impl.util;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import tr.com.serkanozal.mysafe.LockMetricsInfo;
+
+public class LockMetricsTest {
+
+    @Test
+    public void recordIntoLog2Buckets() {
+        Log2Histogram histogram = new Log2Histogram();
+        histogram.record(-1);
+        histogram.record(0);
+        histogram.record(1);
+        histogram.record(5);
+        histogram.record(7);
+        histogram.record(Long.MAX_VALUE);
+        long[] buckets = histogram.getBuckets();
+        assertEquals(Log2Histogram.BUCKET_COUNT, buckets.length);
+        assertEquals(2, buckets[0]);
+        assertEquals(1, buckets[1]);
+        assertEquals(2, buckets[3]);
+        assertEquals(1, buckets[Log2Histogram.BUCKET_COUNT - 1]);
+    }
+    
+    @Test
+    public void recordAcquisitionsAndReleases() {
+        LockMetrics lockMetrics = new LockMetrics("test");
+        lockMetrics.onAcquire(0, System.nanoTime());
+        lockMetrics.onRelease();
+        lockMetrics.onAcquire(5, System.nanoTime());
+        lockMetrics.onRelease();
+        LockMetricsInfo info = lockMetrics.getInfo();
+        assertEquals("test", info.getName());
+        assertEquals(2, info.getAcquireCount());
+        assertEquals(1, info.getSpinCountHistogram()[0]);
+        assertEquals(1, info.getSpinCountHistogram()[3]);
+        assertEquals(2, sum(info.getWaitTimeHistogram()));
+        assertEquals(2, sum(info.getHoldTimeHistogram()));
+    }
+    
+    @Test
+    public void mergeHistogramsOfAllThreads() throws InterruptedException {
+        final LockMetrics lockMetrics = new LockMetrics("test");
+        final int threadCount = 4;
+        final int acquireCount = 10000;
+        Thread[] threads = new Thread[threadCount];
+        for (int i = 0; i < threadCount; i++) {
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < acquireCount; j++) {
+                        lockMetrics.onAcquire(1, System.nanoTime());
+                        lockMetrics.onRelease();
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        lockMetrics.onAcquire(0, System.nanoTime());
+        lockMetrics.onRelease();
+        
+        LockMetricsInfo info = lockMetrics.getInfo();
+        assertEquals(threadCount * acquireCount + 1, info.getAcquireCount());
+        assertEquals(threadCount * acquireCount, info.getSpinCountHistogram()[1]);
+        assertEquals(1, info.getSpinCountHistogram()[0]);
+        assertEquals(threadCount * acquireCount + 1, sum(info.getHoldTimeHistogram()));
+        
+        threads = null;
+        // Histograms of the threads which are gone are kept after they are merged
+        System.gc();
+        assertEquals(threadCount * acquireCount + 1, lockMetrics.getInfo().getAcquireCount());
+        assertEquals(threadCount * acquireCount + 1, lockMetrics.getInfo().getAcquireCount());
+    }
+    
+    private static long sum(long[] histogram) {
+        long sum = 0;
+        for (long count : histogram) {
+            sum += count;
+        }
+        return sum;
+    }
+
+}
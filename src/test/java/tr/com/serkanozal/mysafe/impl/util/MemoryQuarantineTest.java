@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) 2017, Serkan OZAL, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tr.com.serkanozal.mysafe.impl.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.List;
+
+import org.junit.Test;
+
+import tr.com.serkanozal.mysafe.impl.util.MemoryQuarantine.QuarantinedMemory;
+
+public class MemoryQuarantineTest {
+
+    private static final long SIZE = 100;
+    
+    private static QuarantinedMemory quarantinedMemory(long address, long size) {
+        return new QuarantinedMemory(address, size, System.currentTimeMillis(), 
+                Thread.currentThread().getName(), new StackTraceElement[0]);
+    }
+    
+    @Test
+    public void findIntersectingMemory() {
+        MemoryQuarantine quarantine = new MemoryQuarantine(Long.MAX_VALUE, 100, 10);
+        QuarantinedMemory quarantinedMemory = quarantinedMemory(1000, SIZE);
+        assertNull(quarantine.put(quarantinedMemory));
+        assertSame(quarantinedMemory, quarantine.find(1000, 8));
+        assertSame(quarantinedMemory, quarantine.find(1000 + SIZE - 1, 8));
+        assertSame(quarantinedMemory, quarantine.find(990, 20));
+        assertNull(quarantine.find(1000 + SIZE, 8));
+        assertNull(quarantine.find(990, 10));
+        assertEquals(SIZE, quarantine.size());
+        assertEquals(1, quarantine.count());
+    }
+    
+    @Test
+    public void evictOldestMemoriesInBatchOnCountLimit() {
+        MemoryQuarantine quarantine = new MemoryQuarantine(Long.MAX_VALUE, 10, 4);
+        for (int i = 0; i < 10; i++) {
+            assertNull(quarantine.put(quarantinedMemory(i * SIZE, SIZE)));
+        }
+        List<QuarantinedMemory> evictedMemories = quarantine.put(quarantinedMemory(10 * SIZE, SIZE));
+        assertNotNull(evictedMemories);
+        assertEquals(4, evictedMemories.size());
+        for (int i = 0; i < 4; i++) {
+            assertEquals(i * SIZE, evictedMemories.get(i).address);
+            assertNull(quarantine.find(i * SIZE, 8));
+        }
+        assertEquals(7, quarantine.count());
+        assertEquals(7 * SIZE, quarantine.size());
+        assertNotNull(quarantine.find(4 * SIZE, 8));
+    }
+    
+    @Test
+    public void evictOldestMemoriesOnSizeLimit() {
+        MemoryQuarantine quarantine = new MemoryQuarantine(5 * SIZE, 100, 1);
+        for (int i = 0; i < 5; i++) {
+            assertNull(quarantine.put(quarantinedMemory(i * SIZE, SIZE)));
+        }
+        // Big memory evicts as many memories as needed to fit into the size limit
+        List<QuarantinedMemory> evictedMemories = quarantine.put(quarantinedMemory(5 * SIZE, 3 * SIZE));
+        assertEquals(3, evictedMemories.size());
+        assertEquals(5 * SIZE, quarantine.size());
+        assertEquals(3, quarantine.count());
+    }
+    
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectNonPositiveMaxSize() {
+        new MemoryQuarantine(0, 10, 1);
+    }
+
+}
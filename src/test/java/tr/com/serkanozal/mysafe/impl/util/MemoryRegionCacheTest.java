@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 2017, Serkan OZAL, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tr.com.serkanozal.mysafe.impl.util;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class MemoryRegionCacheTest {
+
+    // 4 stripes of 4096 bytes
+    private final StripedFreeEpoch freeEpoch = new StripedFreeEpoch(4, 12);
+    private final MemoryRegionCache cache = new MemoryRegionCache(2, freeEpoch);
+    
+    private void add(long start, long end) {
+        cache.add(start, end, start, cache.freeEpochOf(start));
+    }
+    
+    @Test
+    public void containsCachedRegions() {
+        add(1000, 1100);
+        assertTrue(cache.contains(1000, 100));
+        assertTrue(cache.contains(1050, 8));
+        assertFalse(cache.contains(1050, 100));
+        assertFalse(cache.contains(900, 8));
+    }
+    
+    @Test
+    public void dropRegionOnFreeInItsStripe() {
+        add(1000, 1100);
+        freeEpoch.increase(1000, 100);
+        assertFalse(cache.contains(1000, 8));
+        // Region has been dropped, so it is not found even if the epoch is the same
+        assertFalse(cache.contains(1000, 8));
+    }
+    
+    @Test
+    public void keepRegionsOnFreeInOtherStripes() {
+        add(1000, 1100);
+        add(5000, 5100);
+        freeEpoch.increase(5000, 100);
+        assertTrue(cache.contains(1000, 8));
+        assertFalse(cache.contains(5000, 8));
+    }
+    
+    @Test
+    public void dropRegionCachedWithStaleEpoch() {
+        long epoch = cache.freeEpochOf(1000);
+        // Region is freed between the epoch read and the lookup
+        freeEpoch.increase(1000, 100);
+        cache.add(1000, 1100, 1000, epoch);
+        assertFalse(cache.contains(1000, 8));
+    }
+    
+    @Test
+    public void clipRegionToStripeOfAccessedAddress() {
+        cache.add(0, 3 * 4096, 4096 + 8, cache.freeEpochOf(4096 + 8));
+        assertTrue(cache.contains(4096, 4096));
+        assertFalse(cache.contains(0, 8));
+        assertFalse(cache.contains(2 * 4096, 8));
+        // Freeing the region invalidates all of its stripes
+        freeEpoch.increase(0, 3 * 4096);
+        assertFalse(cache.contains(4096, 8));
+    }
+    
+    @Test
+    public void increaseAllStripesForRegionLargerThanAllStripes() {
+        long[] epochs = new long[4];
+        for (int i = 0; i < epochs.length; i++) {
+            epochs[i] = freeEpoch.get(i * 4096);
+        }
+        freeEpoch.increase(4096, 16 * 4096);
+        for (int i = 0; i < epochs.length; i++) {
+            assertTrue(freeEpoch.get(i * 4096) == epochs[i] + 1);
+        }
+    }
+    
+    @Test
+    public void evictLeastRecentlyUsedRegion() {
+        add(1000, 1100);
+        add(2000, 2100);
+        // First region becomes the most recently used one
+        assertTrue(cache.contains(1000, 8));
+        add(3000, 3100);
+        assertTrue(cache.contains(1000, 8));
+        assertTrue(cache.contains(3000, 8));
+        assertFalse(cache.contains(2000, 8));
+    }
+    
+    @Test
+    public void clear() {
+        add(1000, 1100);
+        cache.clear();
+        assertFalse(cache.contains(1000, 8));
+    }
+    
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectNonPositiveCapacity() {
+        new MemoryRegionCache(0, freeEpoch);
+    }
+
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright (c) 2017, Serkan OZAL, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tr.com.serkanozal.mysafe.impl.util;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class PackedLong2LongHashMapTest extends AbstractLong2LongMapTest {
+
+    @Override
+    protected Long2LongMap createMap() {
+        return new PackedLong2LongHashMap(MISSING);
+    }
+    
+    @Test
+    public void putEntriesWhichCannotBePacked() {
+        long unalignedKey = key(1) + 1;
+        long hugeValue = 1L << 56;
+        map.put(key(0), value(0));
+        map.put(unalignedKey, value(1));
+        map.put(key(2), hugeValue);
+        assertEquals(3, map.size());
+        assertEquals(value(0), map.get(key(0)));
+        assertEquals(value(1), map.get(unalignedKey));
+        assertEquals(hugeValue, map.get(key(2)));
+        assertEquals(value(1), map.remove(unalignedKey));
+        assertEquals(hugeValue, map.remove(key(2)));
+        assertEquals(MISSING, map.remove(unalignedKey));
+        assertEquals(1, map.size());
+    }
+
+}
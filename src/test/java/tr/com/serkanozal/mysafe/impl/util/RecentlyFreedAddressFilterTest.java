@@ -0,0 +1,63 @@
+/*
+ * Copyright (c) 2017, Serkan OZAL, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tr.com.serkanozal.mysafe.impl.util;
+
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class RecentlyFreedAddressFilterTest {
+
+    private static final long BASE_ADDRESS = 1L << 32;
+    private static final int CAPACITY = 1024;
+    
+    private final RecentlyFreedAddressFilter filter = new RecentlyFreedAddressFilter(CAPACITY);
+    
+    private static long address(int i) {
+        return BASE_ADDRESS + ((long) i << 6);
+    }
+    
+    @Test
+    public void rememberAddressesForOneGeneration() {
+        for (int i = 0; i < 2 * CAPACITY; i++) {
+            filter.add(address(i));
+            // Last "capacity" addresses are always remembered
+            for (int j = Math.max(0, i - CAPACITY + 1); j <= i; j += 64) {
+                assertTrue(filter.mightContain(address(j)));
+            }
+            assertTrue(filter.mightContain(address(i)));
+        }
+    }
+    
+    @Test
+    public void forgetAddressesAfterTwoGenerations() {
+        for (int i = 0; i < CAPACITY; i++) {
+            filter.add(address(i));
+        }
+        for (int i = CAPACITY; i < 3 * CAPACITY; i++) {
+            filter.add(address(i));
+        }
+        int rememberedCount = 0;
+        for (int i = 0; i < CAPACITY; i++) {
+            if (filter.mightContain(address(i))) {
+                rememberedCount++;
+            }
+        }
+        // Only false positives are left
+        assertTrue("Remembered " + rememberedCount + " addresses", rememberedCount < CAPACITY / 10);
+    }
+
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright (c) 2017, Serkan OZAL, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tr.com.serkanozal.mysafe.impl.util;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import sun.misc.Unsafe;
+import tr.com.serkanozal.mysafe.MySafe;
+
+public class RedZonesTest {
+
+    private static final Unsafe UNSAFE = MySafe.getUnsafe();
+    private static final int RED_ZONE_SIZE = 16;
+    private static final long SIZE = 100;
+    
+    private long rawAddress;
+    private long address;
+    
+    @Before
+    public void setUp() {
+        rawAddress = UNSAFE.allocateMemory(SIZE + 2 * RED_ZONE_SIZE);
+        address = RedZones.fill(UNSAFE, rawAddress, SIZE, RED_ZONE_SIZE);
+    }
+    
+    @After
+    public void tearDown() {
+        UNSAFE.freeMemory(rawAddress);
+    }
+    
+    private long findCorruption() {
+        return RedZones.findCorruption(UNSAFE, address, SIZE, RED_ZONE_SIZE);
+    }
+    
+    @Test
+    public void noCorruptionOnWritesInBounds() {
+        assertEquals(rawAddress + RED_ZONE_SIZE, address);
+        UNSAFE.setMemory(address, SIZE, (byte) 0xFF);
+        assertEquals(RedZones.NO_CORRUPTION, findCorruption());
+    }
+    
+    @Test
+    public void findOverflow() {
+        UNSAFE.putByte(address + SIZE + 3, (byte) (UNSAFE.getByte(address + SIZE + 3) + 1));
+        assertEquals(address + SIZE + 3, findCorruption());
+    }
+    
+    @Test
+    public void findUnderflow() {
+        UNSAFE.putByte(address - 1, (byte) (UNSAFE.getByte(address - 1) + 1));
+        assertEquals(address - 1, findCorruption());
+    }
+    
+    @Test
+    public void findFirstCorruptedByte() {
+        UNSAFE.putLong(address + SIZE + 8, 0L);
+        UNSAFE.putByte(address - RED_ZONE_SIZE, (byte) (UNSAFE.getByte(address - RED_ZONE_SIZE) + 1));
+        assertEquals(address - RED_ZONE_SIZE, findCorruption());
+    }
+
+}
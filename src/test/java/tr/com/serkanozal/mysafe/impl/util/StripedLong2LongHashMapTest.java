@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 2017, Serkan OZAL, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tr.com.serkanozal.mysafe.impl.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import tr.com.serkanozal.mysafe.impl.util.Long2LongMap.LongLongConsumer;
+
+public class StripedLong2LongHashMapTest {
+
+    private static final long MISSING = -1;
+    private static final long BASE_ADDRESS = 1L << 32;
+    private static final int ENTRY_COUNT = 10000;
+    private static final int THREAD_COUNT = 4;
+    
+    private final StripedLong2LongHashMap map = new StripedLong2LongHashMap(8, MISSING);
+    
+    private static long key(int i) {
+        return BASE_ADDRESS + ((long) i << 6);
+    }
+    
+    @Test
+    public void putGetAndRemove() {
+        assertEquals(MISSING, map.put(key(1), 16));
+        assertEquals(16, map.put(key(1), 32));
+        assertEquals(32, map.get(key(1)));
+        assertTrue(map.containsKey(key(1)));
+        assertEquals(1, map.size());
+        assertEquals(MISSING, map.remove(key(2)));
+        assertEquals(32, map.remove(key(1)));
+        assertEquals(MISSING, map.remove(key(1)));
+        assertTrue(map.isEmpty());
+    }
+    
+    @Test
+    public void containsRange() {
+        map.put(key(1), 64);
+        int stripeCount = map.stripeCount();
+        boolean contained = false;
+        boolean overflowContained = false;
+        for (int i = 0; i < stripeCount; i++) {
+            contained |= map.containsRange(i, key(1) + 16, 48);
+            overflowContained |= map.containsRange(i, key(1) + 16, 49);
+        }
+        assertTrue(contained);
+        assertFalse(overflowContained);
+    }
+    
+    @Test
+    public void removeWhileIterating() {
+        for (int i = 0; i < ENTRY_COUNT; i++) {
+            map.put(key(i), 64);
+        }
+        final AtomicInteger count = new AtomicInteger();
+        // Stripes are iterated on their copies, so the map can be changed by the consumer
+        map.longForEach(new LongLongConsumer() {
+            @Override
+            public void accept(long key, long value) {
+                assertEquals(64, map.remove(key));
+                count.incrementAndGet();
+            }
+        });
+        assertEquals(ENTRY_COUNT, count.get());
+        assertTrue(map.isEmpty());
+    }
+    
+    @Test
+    public void putAndRemoveConcurrently() throws InterruptedException {
+        final AtomicInteger failureCount = new AtomicInteger();
+        Thread[] threads = new Thread[THREAD_COUNT];
+        for (int t = 0; t < THREAD_COUNT; t++) {
+            final int from = t * ENTRY_COUNT;
+            threads[t] = new Thread() {
+                @Override
+                public void run() {
+                    for (int round = 0; round < 10; round++) {
+                        for (int i = from; i < from + ENTRY_COUNT; i++) {
+                            map.put(key(i), 64);
+                        }
+                        for (int i = from; i < from + ENTRY_COUNT; i++) {
+                            if (map.remove(key(i)) != 64) {
+                                failureCount.incrementAndGet();
+                            }
+                        }
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(0, failureCount.get());
+        assertTrue(map.isEmpty());
+    }
+
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright (c) 2017, Serkan OZAL, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tr.com.serkanozal.mysafe.impl.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.After;
+import org.junit.Test;
+
+import tr.com.serkanozal.mysafe.ThreadAllocatedMemoryInfo;
+
+public class ThreadLocalAllocatedMemoryCounterTest {
+
+    private final ThreadLocalAllocatedMemoryCounter counter = new ThreadLocalAllocatedMemoryCounter();
+    private final CountDownLatch finish = new CountDownLatch(1);
+    
+    @After
+    public void tearDown() {
+        finish.countDown();
+    }
+    
+    // Starts a thread which adds the given size and stays alive until the test is finished
+    private Thread startOwner(final long size) throws InterruptedException {
+        final CountDownLatch added = new CountDownLatch(1);
+        Thread owner = new Thread() {
+            @Override
+            public void run() {
+                counter.add(size);
+                added.countDown();
+                try {
+                    finish.await();
+                } catch (InterruptedException e) {
+                }
+            }
+        };
+        owner.start();
+        added.await();
+        return owner;
+    }
+    
+    private Thread runOwner(final long size) throws InterruptedException {
+        Thread owner = new Thread() {
+            @Override
+            public void run() {
+                counter.add(size);
+            }
+        };
+        owner.start();
+        owner.join();
+        return owner;
+    }
+    
+    private ThreadAllocatedMemoryInfo find(Thread thread) {
+        for (ThreadAllocatedMemoryInfo info : counter.getThreadAllocatedMemories()) {
+            if (info.getThreadId() == thread.getId()) {
+                return info;
+            }
+        }
+        return null;
+    }
+    
+    @Test
+    public void sumOfAllThreads() throws InterruptedException {
+        counter.add(100);
+        counter.add(-30);
+        startOwner(50);
+        runOwner(20);
+        assertEquals(140, counter.sum());
+    }
+    
+    @Test
+    public void allocatedMemoriesOfLiveThreads() throws InterruptedException {
+        counter.add(100);
+        Thread owner = startOwner(50);
+        Thread deadOwner = runOwner(20);
+        assertEquals(100, find(Thread.currentThread()).getAllocatedMemorySize());
+        assertEquals(50, find(owner).getAllocatedMemorySize());
+        assertNull(find(deadOwner));
+    }
+    
+    @Test
+    public void freeByAnotherThreadIsChargedToOwner() throws InterruptedException {
+        Thread owner = startOwner(100);
+        counter.moveToCurrentThread(owner, 40);
+        counter.add(-40);
+        assertEquals(60, find(owner).getAllocatedMemorySize());
+        assertEquals(0, find(Thread.currentThread()).getAllocatedMemorySize());
+        assertEquals(60, counter.sum());
+    }
+    
+    @Test
+    public void freeOfDeadThreadMemoryIsChargedToDeadThreads() throws InterruptedException {
+        Thread deadOwner = runOwner(100);
+        counter.moveToCurrentThread(deadOwner, 40);
+        counter.add(-40);
+        counter.moveToCurrentThread(null, 10);
+        counter.add(-10);
+        assertEquals(0, find(Thread.currentThread()).getAllocatedMemorySize());
+        assertEquals(50, counter.sum());
+    }
+    
+    @Test
+    public void deadThreadsAreFolded() throws InterruptedException {
+        Thread deadOwner = runOwner(100);
+        counter.moveToCurrentThread(deadOwner, 40);
+        counter.add(-40);
+        // Registration of a new thread folds the dead ones
+        Thread owner = startOwner(10);
+        assertEquals(70, counter.sum());
+        assertNotNull(find(owner));
+        // Memories of the folded thread are still freeable
+        counter.moveToCurrentThread(deadOwner, 60);
+        counter.add(-60);
+        assertEquals(10, counter.sum());
+        assertEquals(0, find(Thread.currentThread()).getAllocatedMemorySize());
+    }
+    
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright (c) 2017, Serkan OZAL, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tr.com.serkanozal.mysafe.impl.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import sun.misc.Unsafe;
+import tr.com.serkanozal.mysafe.MySafe;
+import tr.com.serkanozal.mysafe.impl.MySafeDelegator;
+
+public class ThreadLocalSamplerTest {
+
+    private static final int SAMPLING_RATE = 4;
+    private static final int ACCESS_COUNT = 400;
+    
+    @Test
+    public void sampleOneOfEverySamplingRateOperations() {
+        ThreadLocalSampler sampler = new ThreadLocalSampler(SAMPLING_RATE);
+        assertEquals(SAMPLING_RATE, sampler.getSamplingRate());
+        int firstSampled = -1;
+        int sampledCount = 0;
+        for (int i = 0; i < ACCESS_COUNT; i++) {
+            if (sampler.sample()) {
+                if (firstSampled < 0) {
+                    firstSampled = i;
+                } else {
+                    // Sampled ones are exactly sampling rate apart
+                    assertEquals(0, (i - firstSampled) % SAMPLING_RATE);
+                }
+                sampledCount++;
+            }
+        }
+        assertTrue(firstSampled >= 0 && firstSampled < SAMPLING_RATE);
+        assertEquals(ACCESS_COUNT / SAMPLING_RATE, sampledCount);
+    }
+    
+    @Test
+    public void sampleEveryOperationForSamplingRateOne() {
+        ThreadLocalSampler sampler = new ThreadLocalSampler(1);
+        for (int i = 0; i < 100; i++) {
+            assertTrue(sampler.sample());
+        }
+    }
+    
+    @Test
+    public void sampleIndependentlyPerThread() throws InterruptedException {
+        final ThreadLocalSampler sampler = new ThreadLocalSampler(SAMPLING_RATE);
+        final int[] sampledCounts = new int[4];
+        Thread[] threads = new Thread[sampledCounts.length];
+        for (int i = 0; i < threads.length; i++) {
+            final int threadIndex = i;
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < ACCESS_COUNT; j++) {
+                        if (sampler.sample()) {
+                            sampledCounts[threadIndex]++;
+                        }
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        for (int sampledCount : sampledCounts) {
+            assertEquals(ACCESS_COUNT / SAMPLING_RATE, sampledCount);
+        }
+    }
+    
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectNonPositiveSamplingRate() {
+        new ThreadLocalSampler(0);
+    }
+    
+    /*
+     * Memory access check configuration is read once by MySafeDelegator, 
+     * so sampled memory access checks are run in a separate JVM.
+     */
+    
+    @Test
+    public void checkOnlySampledMemoryAccessesAndReleaseAccessLockOnReturn() throws Exception {
+        assertEquals(0, runSampledMemoryAccessChecker("-Dmysafe.enableConcurrentMemoryAccessCheck=true"));
+    }
+    
+    @Test
+    public void checkOnlySampledMemoryAccessesWithEpochBasedReclamation() throws Exception {
+        assertEquals(0, runSampledMemoryAccessChecker("-Dmysafe.enableConcurrentMemoryAccessCheck=true", 
+                                                      "-Dmysafe.useEpochBasedReclamation=true"));
+    }
+    
+    private static int runSampledMemoryAccessChecker(String... properties) throws Exception {
+        String[] command = new String[properties.length + 7];
+        command[0] = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        command[1] = "-cp";
+        command[2] = System.getProperty("java.class.path");
+        command[3] = "-Dmysafe.enableSafeMemoryAccessMode=true";
+        command[4] = "-Dmysafe.memoryAccessCheckSamplingRate=" + SAMPLING_RATE;
+        command[5] = "-Dmysafe.memoryRegionCacheSize=0";
+        System.arraycopy(properties, 0, command, 6, properties.length);
+        command[command.length - 1] = SampledMemoryAccessChecker.class.getName();
+        Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(60);
+        while (System.nanoTime() < deadline) {
+            // Output is consumed, so the child process is not blocked on a full pipe
+            while (process.getInputStream().available() > 0) {
+                System.out.write(process.getInputStream().read());
+            }
+            try {
+                return process.exitValue();
+            } catch (IllegalThreadStateException e) {
+                Thread.sleep(10);
+            }
+        }
+        process.destroy();
+        throw new AssertionError("Sampled memory access checks have not finished in time. " 
+                + "Most probably a lock or critical section was not released on return.");
+    }
+    
+    public static class SampledMemoryAccessChecker {
+        
+        public static void main(String[] args) {
+            Unsafe unsafe = MySafe.getUnsafe();
+            long address = MySafeDelegator.allocateMemory(unsafe, 8);
+            // Not known by MySafe, so accessing it is illegal when it is checked
+            long unknownAddress = unsafe.allocateMemory(8);
+            for (int i = 0; i < ACCESS_COUNT; i++) {
+                MySafeDelegator.getByte(unsafe, address);
+            }
+            int illegalAccessCount = 0;
+            for (int i = 0; i < ACCESS_COUNT; i++) {
+                try {
+                    MySafeDelegator.getByte(unsafe, unknownAddress);
+                } catch (IllegalArgumentException e) {
+                    illegalAccessCount++;
+                }
+            }
+            // Blocks forever if any unsampled or illegal access has not released what it has acquired
+            MySafeDelegator.freeMemory(unsafe, address);
+            MySafeDelegator.freeMemory(unsafe, unknownAddress);
+            if (illegalAccessCount != ACCESS_COUNT / SAMPLING_RATE) {
+                System.out.println("Expected " + (ACCESS_COUNT / SAMPLING_RATE) + 
+                                   " illegal memory accesses to be detected but there are " + illegalAccessCount);
+                System.exit(1);
+            }
+            System.exit(0);
+        }
+        
+    }
+
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright (c) 2017, Serkan OZAL, All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tr.com.serkanozal.mysafe.impl.util;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class WaitStrategyTest {
+
+    @Test
+    public void createKnownStrategies() {
+        assertNotNull(WaitStrategy.create(WaitStrategy.SPIN, 10, 1000000));
+        assertNotNull(WaitStrategy.create(WaitStrategy.SPIN_THEN_YIELD, 10, 1000000));
+        assertNotNull(WaitStrategy.create(WaitStrategy.SPIN_THEN_PARK, 10, 1000000));
+    }
+    
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectUnknownStrategy() {
+        WaitStrategy.create("SLEEP", 10, 1000000);
+    }
+    
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectTooShortMaxParkTime() {
+        WaitStrategy.create(WaitStrategy.SPIN_THEN_PARK, 10, 999);
+    }
+    
+    @Test
+    public void spinWithoutBlocking() {
+        WaitStrategy waitStrategy = WaitStrategy.create(WaitStrategy.SPIN, 10, 1000000);
+        long start = System.nanoTime();
+        for (int i = 1; i <= 100000; i++) {
+            waitStrategy.idle(i);
+        }
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+    }
+    
+    @Test
+    public void parkOnlyAfterSpinLimit() {
+        long maxParkNanos = TimeUnit.MILLISECONDS.toNanos(50);
+        WaitStrategy waitStrategy = WaitStrategy.create(WaitStrategy.SPIN_THEN_PARK, 1000, maxParkNanos);
+        long start = System.nanoTime();
+        for (int i = 1; i <= 1000; i++) {
+            waitStrategy.idle(i);
+        }
+        // Within the spin limit, so none of them has parked
+        assertTrue(System.nanoTime() - start < maxParkNanos);
+        
+        // Back-off has reached the max park time, so the thread parks but not longer than a few max park times
+        start = System.nanoTime();
+        waitStrategy.idle(1000 + 64);
+        long parkNanos = System.nanoTime() - start;
+        assertTrue(parkNanos < TimeUnit.SECONDS.toNanos(5));
+    }
+    
+    @Test
+    public void yieldAfterSpinLimit() {
+        WaitStrategy waitStrategy = WaitStrategy.create(WaitStrategy.SPIN_THEN_YIELD, 10, 1000000);
+        long start = System.nanoTime();
+        for (int i = 1; i <= 10000; i++) {
+            waitStrategy.idle(i);
+        }
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+    }
+
+}